@@ -9,10 +9,21 @@
  */
 package es.uam.eps.ir.knnbandit;
 
-import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
-import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
-import es.uam.eps.ir.knnbandit.data.preference.index.fast.SimpleFastUpdateableItemIndex;
-import es.uam.eps.ir.knnbandit.data.preference.index.fast.SimpleFastUpdateableUserIndex;
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.LongFastUpdateableItemIndex;
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.LongFastUpdateableUserIndex;
+import es.uam.eps.ir.knnbandit.grid.GridExecutor;
+import es.uam.eps.ir.knnbandit.grid.GridProgress;
+import es.uam.eps.ir.knnbandit.io.AsyncRunLogWriter;
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import es.uam.eps.ir.knnbandit.io.DatasetSnapshot;
+import es.uam.eps.ir.knnbandit.io.RatingFile;
+import es.uam.eps.ir.knnbandit.io.ReportingCadence;
+import es.uam.eps.ir.knnbandit.io.RunLogAggregator;
+import es.uam.eps.ir.knnbandit.io.RunLogEntry;
+import es.uam.eps.ir.knnbandit.io.RunLogReader;
+import es.uam.eps.ir.knnbandit.io.RunLogWriter;
+import es.uam.eps.ir.knnbandit.io.RunLogs;
+import es.uam.eps.ir.knnbandit.selector.AlgorithmCosts;
 import es.uam.eps.ir.knnbandit.selector.AlgorithmSelector;
 import es.uam.eps.ir.knnbandit.selector.UnconfiguredException;
 import es.uam.eps.ir.knnbandit.metrics.CumulativeGini;
@@ -20,12 +31,14 @@ import es.uam.eps.ir.knnbandit.metrics.CumulativeRecall;
 import es.uam.eps.ir.knnbandit.metrics.CumulativeMetric;
 import es.uam.eps.ir.knnbandit.recommendation.RecommendationLoop;
 import es.uam.eps.ir.knnbandit.recommendation.InteractiveRecommender;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
+import es.uam.eps.ir.knnbandit.recommendation.LoopProfiler;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -35,8 +48,6 @@ import java.util.function.DoubleUnaryOperator;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.jooq.lambda.tuple.Tuple2;
-import org.jooq.lambda.tuple.Tuple3;
 import org.ranksys.formats.parsing.Parsers;
 
 /**
@@ -57,6 +68,16 @@ public class InteractiveRecommendation
      *     <li>Threshold: relevance threshold</li>
      *     <li>Resume: true if we want to retrieve data from previous executions, false to overwrite</li>
      *     <li>Use ratings: true if we want to use ratings, false for binary values</li>
+     *     <li>(Optional) Checkpoint interval: number of iterations between checkpoints of the loop state. 0 to disable them (default)</li>
+     *     <li>(Optional) Log format: text for tab-separated logs (default), binary for compact binary logs</li>
+     *     <li>(Optional) Log buffer: number of iterations buffered for writing the log from a separate thread. 0 to write it from the loop thread (default: 4096)</li>
+     *     <li>(Optional) Backpressure: block (default) to park the loop thread when the log buffer is full, yield to spin</li>
+     *     <li>(Optional) Profiling interval: number of iterations between summaries of the time spent in each phase of the loop. 0 to disable profiling (default)</li>
+     *     <li>(Optional) Reporting cadence: number of iterations between the iterations written in the log (default: 1), or geometric:ratio for geometrically spaced iterations</li>
+     *     <li>(Optional) Threads: maximum number of algorithms run at the same time (default: number of available processors)</li>
+     *     <li>(Optional) Replicates: number of replications of each algorithm, with different random seeds (default: 1)</li>
+     *     <li>(Optional) Window: maximum number of ratings kept in the training data of the algorithms, as size or size:age, where age is the maximum number of iterations a rating is kept. 0 to keep every rating (default)</li>
+     *     <li>(Optional) Similarity storage: where the similarities of the user-based kNN algorithms are kept: heap (default), direct (native memory, out of the heap) or file (a memory-mapped file in the output folder for each algorithm)</li>
      * </ol>
      * @throws IOException if something fails while reading / writing.
      * @throws UnconfiguredException if something fails while retrieving the algorithms.
@@ -74,6 +95,16 @@ public class InteractiveRecommendation
             System.err.println("\tThreshold: relevance threshold");
             System.err.println("\tresume: true if we want to resume previous executions, false if we want to overwrite");
             System.err.println("\tUse ratings: true if we want to take the true value of the ratings, false if we want to use binary values");
+            System.err.println("\t(Optional) Checkpoint interval: number of iterations between checkpoints. 0 to disable them (default)");
+            System.err.println("\t(Optional) Log format: text (default) or binary");
+            System.err.println("\t(Optional) Log buffer: iterations buffered for writing the log from a separate thread. 0 to write from the loop thread (default: 4096)");
+            System.err.println("\t(Optional) Backpressure: block (default) or yield, when the log buffer is full");
+            System.err.println("\t(Optional) Profiling interval: iterations between summaries of the time spent in each phase of the loop. 0 to disable profiling (default)");
+            System.err.println("\t(Optional) Reporting cadence: iterations between the iterations written in the log (default: 1), or geometric:ratio for geometrically spaced iterations");
+            System.err.println("\t(Optional) Threads: maximum number of algorithms run at the same time (default: number of available processors)");
+            System.err.println("\t(Optional) Replicates: number of replications of each algorithm, with different random seeds (default: 1)");
+            System.err.println("\t(Optional) Window: maximum number of ratings kept in the training data, as size or size:age (maximum iterations a rating is kept). 0 to keep every rating (default)");
+            System.err.println("\t(Optional) Similarity storage: heap (default), direct (native memory) or file (memory-mapped file in the output folder, rewritten on every run)");
             return;
         }
 
@@ -85,6 +116,28 @@ public class InteractiveRecommendation
         double threshold = Parsers.dp.parse(args[4]);
         boolean resume = args[5].equalsIgnoreCase("true");
         boolean useRatings = args[6].equalsIgnoreCase("true");
+        int checkpointInterval = args.length > 7 ? Parsers.ip.parse(args[7]) : 0;
+        String logFormat = args.length > 8 ? args[8].toLowerCase() : RunLogs.TEXT;
+        if(!RunLogs.isValid(logFormat))
+        {
+            System.err.println("ERROR: Unknown log format " + args[8]);
+            return;
+        }
+        int logBuffer = args.length > 9 ? Parsers.ip.parse(args[9]) : AsyncRunLogWriter.DEFAULT_CAPACITY;
+        AsyncRunLogWriter.Backpressure backpressure = (args.length > 10 && args[10].equalsIgnoreCase("yield")) ? AsyncRunLogWriter.Backpressure.YIELD : AsyncRunLogWriter.Backpressure.BLOCK;
+        int profileInterval = args.length > 11 ? Parsers.ip.parse(args[11]) : 0;
+        ReportingCadence cadence = args.length > 12 ? ReportingCadence.parse(args[12]) : ReportingCadence.always();
+        int numThreads = args.length > 13 ? Parsers.ip.parse(args[13]) : Runtime.getRuntime().availableProcessors();
+        int numReplicates = args.length > 14 ? Math.max(1, Parsers.ip.parse(args[14])) : 1;
+        String[] window = args.length > 15 ? args[15].split(":") : new String[]{"0"};
+        int windowSize = Parsers.ip.parse(window[0]);
+        long windowAge = window.length > 1 ? Parsers.lp.parse(window[1]) : 0L;
+        String storage = args.length > 16 ? args[16].toLowerCase() : AlgorithmSelector.HEAP;
+        if(!storage.equals(AlgorithmSelector.HEAP) && !storage.equals(AlgorithmSelector.DIRECT) && !storage.equals(AlgorithmSelector.FILE))
+        {
+            System.err.println("ERROR: Unknown similarity storage " + args[16]);
+            return;
+        }
 
         DoubleUnaryOperator weightFunction = useRatings ? (double x) -> x :
                                                            (double x) -> (x >= threshold ? 1.0 : 0.0);
@@ -120,36 +173,55 @@ public class InteractiveRecommendation
             bw.write("" + UntieRandomNumber.RNG);
         }
         
-        // Then, we read the ratings.
-        Set<Long> users = new HashSet<>();
-        Set<Long> items = new HashSet<>();
-        List<Tuple3<Long,Long,Double>> triplets = new ArrayList<>();
+        // Then, we read the ratings. The first time, a binary snapshot of the processed ratings
+        // is stored next to the input (or in the output directory, if the input directory is not
+        // writable), so the next executions just map it. The preferences are then read from the
+        // mapped snapshot, so they do not need to fit in the heap.
+        String snapshotKey = (useRatings ? "ratings-" : "binary-") + threshold;
+        String snapshotFile = DatasetSnapshot.path(input, snapshotKey);
+        String fallbackFile = output + new File(snapshotFile).getName();
+        DatasetSnapshot snapshot = DatasetSnapshot.open(snapshotFile, input, snapshotKey);
+        if(snapshot == null)
+        {
+            snapshot = DatasetSnapshot.open(fallbackFile, input, snapshotKey);
+        }
+
+        LongFastUpdateableUserIndex uIndex;
+        LongFastUpdateableItemIndex iIndex;
+        FastPreferenceData<Long, Long> prefData;
         int numrel = 0;
-        
-        try(BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(input))))
+        if(snapshot != null)
         {
-            String line;
-            while((line = br.readLine()) != null)
+            uIndex = snapshot.buildUserIndex();
+            iIndex = snapshot.buildItemIndex();
+            prefData = snapshot.buildPreferenceData(uIndex, iIndex);
+            numrel = snapshot.numRelevant();
+        }
+        else
+        {
+            RatingFile ratings = RatingFile.load(input);
+            for(int n = 0; n < ratings.numRatings(); ++n)
             {
-                String split[] = line.split("\t");
-                Long user = Parsers.lp.parse(split[0]);
-                Long item = Parsers.lp.parse(split[1]);
-                double val = Parsers.dp.parse(split[2]);
-                
-                users.add(user);
-                items.add(item);
-                
-                double rating = weightFunction.applyAsDouble(val);
-                if(relevance.test(rating)) numrel++;
-                
-                triplets.add(new Tuple3<>(user, item, rating));            
+                if(relevance.test(weightFunction.applyAsDouble(ratings.getValue(n)))) numrel++;
             }
+
+            uIndex = ratings.buildUserIndex();
+            iIndex = ratings.buildItemIndex();
+            FastPreferenceData<Long, Long> parsed = ratings.buildPreferenceData(uIndex, iIndex, weightFunction);
+            for(String file : new String[]{snapshotFile, fallbackFile})
+            {
+                try
+                {
+                    snapshot = DatasetSnapshot.write(file, input, snapshotKey, parsed, numrel);
+                    break;
+                }
+                catch (IOException ex)
+                {
+                    System.err.println("The snapshot of the dataset could not be stored: " + ex.getMessage());
+                }
+            }
+            prefData = snapshot != null ? snapshot.buildPreferenceData(uIndex, iIndex) : parsed;
         }
-        
-        FastUpdateableUserIndex<Long> uIndex = SimpleFastUpdateableUserIndex.load(users.stream());
-        FastUpdateableItemIndex<Long> iIndex = SimpleFastUpdateableItemIndex.load(items.stream());
-        
-        SimpleFastPreferenceData<Long, Long> prefData = SimpleFastPreferenceData.load(triplets.stream(), uIndex, iIndex);
 
         System.out.println("USers: " + uIndex.numUsers());
         System.out.println("Items: " + iIndex.numItems());
@@ -158,117 +230,262 @@ public class InteractiveRecommendation
         // Initialize the metrics to compute.
         Map<String, Supplier<CumulativeMetric<Long,Long>>> metrics = new HashMap<>();
         metrics.put("recall", () -> new CumulativeRecall(prefData, numRel, 0.5));
-        metrics.put("gini", () -> new CumulativeGini(items.size()));
+        metrics.put("gini", () -> new CumulativeGini(iIndex.numItems()));
         List<String> metricNames = new ArrayList<>(metrics.keySet());
 
         // Select the algorithms.
-        long a = System.currentTimeMillis();
+        // The algorithms are built right before running them, so only the running ones are kept in memory.
         AlgorithmSelector<Long, Long> algorithmSelector = new AlgorithmSelector<>();
         algorithmSelector.configure(uIndex, iIndex, prefData, useRatings ? threshold : 0.5);
-        algorithmSelector.addFile(algorithms);
-        Map<String, InteractiveRecommender<Long,Long>> recs = algorithmSelector.getRecs();
-        long b = System.currentTimeMillis();
-        
-        System.out.println("Recommenders ready (" + (b-a) + " ms.)");
-        recs.entrySet().parallelStream().forEach(re -> 
+        algorithmSelector.setSimilarityStorage(storage);
+        Set<String> algorithmNames = new LinkedHashSet<>();
+        try(BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(algorithms))))
         {
-            InteractiveRecommender<Long,Long> rec = re.getValue();
-            Map<String, CumulativeMetric<Long,Long>> localMetrics = new HashMap<>();
-            metricNames.forEach(name -> localMetrics.put(name, metrics.get(name).get()));
-            RecommendationLoop<Long, Long> loop = new RecommendationLoop<>(uIndex, iIndex, rec, localMetrics, numIter,0);
+            String line;
+            while((line = br.readLine()) != null)
+            {
+                algorithmNames.add(line);
+            }
+        }
 
-            List<Tuple3<Long,Long,Long>> list = new ArrayList<>();
-            String fileName = output + re.getKey() + ".txt";
+        // Each replicate uses its own seeds for the loop and the tie-breaking, derived from
+        // the stored one. A single replicate keeps the seeds and files of a regular execution.
+        Random seeds = new Random(UntieRandomNumber.RNG);
+        List<String> replicateOutputs = new ArrayList<>();
 
-            if(resume)
+        // Run the algorithms, from the most expensive to the cheapest one.
+        GridExecutor executor = new GridExecutor(numThreads);
+        for(int r = 0; r < numReplicates; ++r)
+        {
+            int untieSeed = numReplicates > 1 ? seeds.nextInt() : UntieRandomNumber.RNG;
+            int loopSeed = numReplicates > 1 ? seeds.nextInt() : 0;
+            String replicateOutput = numReplicates > 1 ? output + "replicate-" + r + File.separator : output;
+            String suffix = numReplicates > 1 ? " (replicate " + r + ")" : "";
+            replicateOutputs.add(replicateOutput);
+            if(numReplicates > 1)
             {
-                File f = new File(fileName);
-                if(f.exists()) // if the file exists, then resume:
+                new File(replicateOutput).mkdirs();
+                try(BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(replicateOutput + "rngseed"))))
                 {
-                    try(BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(fileName))))
+                    bw.write(untieSeed + "\n" + loopSeed);
+                }
+            }
+
+            for(String algorithm : algorithmNames)
+            {
+                double cost = AlgorithmCosts.estimate(algorithm, uIndex.numUsers(), iIndex.numItems(), numIter > 0 ? numIter : ((long) uIndex.numUsers()) * iIndex.numItems());
+                executor.submit(algorithm + suffix, cost, (GridProgress progress) ->
+                {
+                    // The tie-breaking seed is read by the recommenders when they are built.
+                    InteractiveRecommender<Long,Long> rec;
+                    synchronized(algorithmSelector)
                     {
-                        String line = br.readLine();
-                        int len;
-                        if(line != null)
+                        UntieRandomNumber.RNG = untieSeed;
+                        algorithmSelector.setSimilarityFile(replicateOutput + algorithm + ".sim");
+                        try
+                        {
+                            rec = algorithmSelector.getAlgorithm(algorithm);
+                        }
+                        catch (UnconfiguredException ex)
+                        {
+                            ex.printStackTrace();
+                            return;
+                        }
+                    }
+                    if(rec == null)
+                    {
+                        System.err.println("ERROR: Unknown algorithm " + algorithm);
+                        return;
+                    }
+                    // Closing the recommender releases the files in which it might store its state.
+                    try
+                    {
+                        if(windowSize > 0 || windowAge > 0)
+                        {
+                            if(!rec.canForget())
+                            {
+                                System.err.println("ERROR: Algorithm " + algorithm + " cannot limit its training data to a window");
+                                return;
+                            }
+                            rec.setWindow(windowSize, windowAge);
+                        }
+
+                        Map<String, CumulativeMetric<Long,Long>> localMetrics = new LinkedHashMap<>();
+                        metricNames.forEach(name -> localMetrics.put(name, metrics.get(name).get()));
+                        RecommendationLoop<Long, Long> loop = new RecommendationLoop<>(uIndex, iIndex, rec, localMetrics, numIter, loopSeed);
+
+                        List<RunLogEntry> list = new ArrayList<>();
+                        String fileName = replicateOutput + algorithm + RunLogs.extension(logFormat);
+                        String checkpointName = replicateOutput + algorithm + ".ckpt";
+                        String profileName = replicateOutput + algorithm + ".prof";
+
+                        if(resume)
                         {
-                            String[] split = line.split("\t");
-                            len = split.length;
+                            File f = new File(fileName);
+                            if(f.exists()) // if the file exists, then resume:
+                            {
+                                try(RunLogReader reader = RunLogs.reader(logFormat, fileName, metricNames))
+                                {
+                                    if(reader.getMetricNames().equals(metricNames))
+                                    {
+                                        list = reader.readAll();
+                                    }
+                                    else
+                                    {
+                                        Logger.getLogger(InteractiveRecommendation.class.getName()).log(Level.WARNING, "The metrics in {0} do not match, starting from scratch", fileName);
+                                    }
+                                }
+                                catch (IOException ex)
+                                {
+                                    Logger.getLogger(InteractiveRecommendation.class.getName()).log(Level.SEVERE, null, ex);
+                                }
+                            }
+                        }
+
+                        // If there is a checkpoint covering part of the previous execution, restore it,
+                        // so only the iterations after it have to be replayed.
+                        int restored = 0;
+                        if(resume && new File(checkpointName).exists())
+                        {
+                            int checkpointIter = Checkpoints.peekIteration(checkpointName);
+                            // The log might not contain every iteration: find the line of the checkpoint.
+                            int checkpointLine = -1;
+                            for(int j = 0; j < list.size() && checkpointLine < 0; ++j)
+                            {
+                                if(list.get(j).getIteration() == checkpointIter) checkpointLine = j;
+                            }
+                            if(checkpointIter > 0 && checkpointLine >= 0)
+                            {
+                                try
+                                {
+                                    Checkpoints.load(loop, checkpointName);
+                                    restored = checkpointLine + 1;
+                                }
+                                catch (IOException ex)
+                                {
+                                    Logger.getLogger(InteractiveRecommendation.class.getName()).log(Level.SEVERE, "Invalid checkpoint for " + algorithm, ex);
+                                    return;
+                                }
+                            }
+                        }
+                        else if(!resume)
+                        {
+                            new File(checkpointName).delete();
+                        }
+
+                        // Only the iterations run in this execution are profiled.
+                        LoopProfiler profiler = profileInterval > 0 ? new LoopProfiler() : null;
+                        loop.setProfiler(profiler);
 
-                            while((line = br.readLine()) != null)
+                        try(RunLogWriter writer = RunLogs.writer(logFormat, fileName, metricNames, logBuffer, backpressure);
+                            BufferedWriter profWriter = profiler != null ? new BufferedWriter(new OutputStreamWriter(new FileOutputStream(profileName, resume))) : null)
+                        {
+                            double[] metricVals = new double[metricNames.size()];
+                            for(int j = 0; j < restored; ++j)
                             {
-                                split = line.split("\t");
-                                if(split.length < len) break;
+                                writer.write(list.get(j));
+                            }
 
-                                long u = Parsers.lp.parse(split[1]);
-                                long i = Parsers.lp.parse(split[2]);
-                                long time = Parsers.lp.parse(split[len-1]);
-                                list.add(new Tuple3<>(u, i, time));
+                            for(RunLogEntry entry : list.subList(restored, list.size()))
+                            {
+                                // Iterations missing from the log cannot be replayed: they are run again.
+                                if(entry.getIteration() != loop.getCurrentIteration() + 1) break;
+                                loop.update(uIndex.user2uidx(entry.getUser()), iIndex.item2iidx(entry.getItem()));
+                                loop.getMetricValues(metricVals);
+                                writer.write(loop.getCurrentIteration(), entry.getUser(), entry.getItem(), metricVals, entry.getTime());
                             }
+
+                            // The time of each line is the time since the previous written iteration.
+                            long elapsed = 0L;
+                            long unreported = RecommendationLoop.END;
+                            progress.start(loop.getExpectedIterations(), loop.getCurrentIteration());
+                            while(!loop.hasEnded())
+                            {
+                                long aa = System.currentTimeMillis();
+                                long pair = loop.nextIterationIdx();
+                                long bb = System.currentTimeMillis();
+                                if(pair == RecommendationLoop.END) break; // The loop has finished
+                                int iter = loop.getCurrentIteration();
+                                elapsed += bb-aa;
+                                progress.update(iter);
+
+                                // Checkpoints are always written in the log, so they can be found when resuming.
+                                boolean checkpoint = checkpointInterval > 0 && iter % checkpointInterval == 0;
+                                if(checkpoint || cadence.isReported(iter))
+                                {
+                                    loop.getMetricValues(metricVals);
+                                    writer.write(iter, uIndex.uidx2userId(RecommendationLoop.getUidx(pair)), iIndex.iidx2itemId(RecommendationLoop.getIidx(pair)), metricVals, elapsed);
+                                    elapsed = 0L;
+                                    unreported = RecommendationLoop.END;
+                                }
+                                else
+                                {
+                                    unreported = pair;
+                                }
+
+                                if(checkpoint)
+                                {
+                                    writer.flush();
+                                    Checkpoints.save(loop, checkpointName);
+                                }
+
+                                if(profiler != null && iter % profileInterval == 0)
+                                {
+                                    profiler.report(profWriter, iter);
+                                    profWriter.flush();
+                                    profiler.reset();
+                                }
+                            }
+
+                            // The last iteration is always written.
+                            if(unreported != RecommendationLoop.END)
+                            {
+                                loop.getMetricValues(metricVals);
+                                writer.write(loop.getCurrentIteration(), uIndex.uidx2userId(RecommendationLoop.getUidx(unreported)), iIndex.iidx2itemId(RecommendationLoop.getIidx(unreported)), metricVals, elapsed);
+                            }
+
+                            if(profiler != null && profiler.numIterations() > 0)
+                            {
+                                profiler.report(profWriter, loop.getCurrentIteration());
+                            }
+                        }
+                        catch (IOException e)
+                        {
+                            e.printStackTrace();
                         }
                     }
-                    catch (IOException ex)
+                    finally
                     {
-                        Logger.getLogger(InteractiveRecommendation.class.getName()).log(Level.SEVERE, null, ex);
+                        rec.close();
                     }
-                }
+                });
             }
+        }
 
-            try(BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output + re.getKey() + ".txt"))))
-            {
-                if(resume && !list.isEmpty())
-                {
-                    for(Tuple3<Long,Long,Long> triplet : list)
-                    {
-                        StringBuilder builder = new StringBuilder();
-                        loop.update(new Tuple2<>(triplet.v1, triplet.v2));
-                        int iter = loop.getCurrentIteration();
-                        builder.append(iter);
-                        builder.append("\t");
-                        builder.append(triplet.v1);
-                        builder.append("\t");
-                        builder.append(triplet.v2);
-                        Map<String, Double> metricVals = loop.getMetrics();
-                        for(String name : metricNames)
-                        {
-                            builder.append("\t");
-                            builder.append(metricVals.get(name));
-                        }
-                        builder.append("\t");
-                        builder.append(triplet.v3);
-                        builder.append("\n");
-                        bw.write(builder.toString());
-                    }
-                }
+        try
+        {
+            executor.run();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            Logger.getLogger(InteractiveRecommendation.class.getName()).log(Level.SEVERE, "Interrupted while running the algorithms", ex);
+            return;
+        }
 
-                while(!loop.hasEnded())
+        // Aggregate the replicates of each algorithm.
+        if(numReplicates > 1)
+        {
+            for(String algorithm : algorithmNames)
+            {
+                List<String> files = new ArrayList<>();
+                for(String replicateOutput : replicateOutputs)
                 {
-                    StringBuilder builder = new StringBuilder();
-                    long aa = System.currentTimeMillis();
-                    Tuple2<Long,Long> tuple = loop.nextIteration();
-                    long bb = System.currentTimeMillis();
-                    if(tuple == null) break; // The loop has finished
-                    int iter = loop.getCurrentIteration();
-                    builder.append(iter);
-                    builder.append("\t");
-                    builder.append(tuple.v1);
-                    builder.append("\t");
-                    builder.append(tuple.v2);
-                    Map<String, Double> metricVals = loop.getMetrics();
-                    for(String name : metricNames)
-                    {
-                        builder.append("\t");
-                        builder.append(metricVals.get(name));
-                    }
-                    builder.append("\t");
-                    builder.append((bb-aa));
-                    builder.append("\n");
-                    bw.write(builder.toString());
+                    String fileName = replicateOutput + algorithm + RunLogs.extension(logFormat);
+                    if(new File(fileName).exists()) files.add(fileName);
                 }
+                RunLogAggregator.aggregate(logFormat, files, metricNames, output + algorithm + ".agg");
             }
-            catch (IOException e)
-            {
-                e.printStackTrace();
-            }
-        });
+        }
     }
 }
@@ -27,6 +27,10 @@ public class Main
      * Name for contact recommendation.
      */
     private final static String CONTACT = "contactrec";
+    /**
+     * Name for converting binary run logs to text.
+     */
+    private final static String LOGTOTEXT = "logtotext";
 
     /**
      * Main method. Executes the main method in the class specified by the first
@@ -49,6 +53,9 @@ public class Main
                 case CONTACT:
                     className = "es.uam.eps.ir.knnbandit.InteractiveContactRecommendation";
                     break;
+                case LOGTOTEXT:
+                    className = "es.uam.eps.ir.knnbandit.io.RunLogs";
+                    break;
                 default:
                     System.err.println("ERROR: Invalid configuration.");
                     return;
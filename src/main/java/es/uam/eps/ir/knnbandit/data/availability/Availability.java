@@ -0,0 +1,122 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.availability;
+
+import es.uam.eps.ir.knnbandit.io.Checkpointable;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.Random;
+
+/**
+ * Stores which items can still be recommended to each user. Items are always
+ * visited in increasing order of their identifiers.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public interface Availability extends Checkpointable
+{
+    /**
+     * Obtains the number of users.
+     * @return the number of users.
+     */
+    public int numUsers();
+
+    /**
+     * Obtains the number of items.
+     * @return the number of items.
+     */
+    public int numItems();
+
+    /**
+     * Checks whether an item can still be recommended to a user.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @return true if the item is available for the user, false otherwise.
+     */
+    public boolean isAvailable(int uidx, int iidx);
+
+    /**
+     * Marks an item as no longer available for a user.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @return true if the item was available before the call, false otherwise.
+     */
+    public boolean remove(int uidx, int iidx);
+
+    /**
+     * Obtains the number of items which are still available for a user.
+     * @param uidx Identifier of the user.
+     * @return the number of available items.
+     */
+    public int numAvailable(int uidx);
+
+    /**
+     * Adds the users and items which have arrived since the availability was created. Every new
+     * item is available for every user, and every item is available for the new users, as
+     * stated by the initial conditions of the availability.
+     * @param numUsers The new number of users. If it is not greater than the current one, no user is added.
+     * @param numItems The new number of items. If it is not greater than the current one, no item is added.
+     */
+    public void grow(int numUsers, int numItems);
+
+    /**
+     * Checks whether a user has run out of available items.
+     * @param uidx Identifier of the user.
+     * @return true if no item can be recommended to the user, false otherwise.
+     */
+    public default boolean isEmpty(int uidx)
+    {
+        return this.numAvailable(uidx) == 0;
+    }
+
+    /**
+     * Obtains the available item in a given position.
+     * @param uidx Identifier of the user.
+     * @param pos Position of the item, between 0 (inclusive) and the number of available items (exclusive).
+     * @return the identifier of the item in that position.
+     */
+    public int get(int uidx, int pos);
+
+    /**
+     * Draws an available item uniformly at random.
+     * @param uidx Identifier of the user.
+     * @param rng Random number generator.
+     * @return the identifier of the selected item, -1 if the user has no available items.
+     */
+    public default int sample(int uidx, Random rng)
+    {
+        int size = this.numAvailable(uidx);
+        if(size == 0) return -1;
+        return this.get(uidx, rng.nextInt(size));
+    }
+
+    /**
+     * Obtains an iterator over the available items of a user.
+     * @param uidx Identifier of the user.
+     * @return an iterator over the available items.
+     */
+    public IntIterator iterator(int uidx);
+
+    /**
+     * Copies the available items of a user into an array.
+     * @param uidx Identifier of the user.
+     * @return an array containing the available items.
+     */
+    public default int[] toIntArray(int uidx)
+    {
+        int[] array = new int[this.numAvailable(uidx)];
+        IntIterator it = this.iterator(uidx);
+        int i = 0;
+        while(it.hasNext())
+        {
+            array[i++] = it.nextInt();
+        }
+        return array;
+    }
+}
@@ -0,0 +1,81 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.availability;
+
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+/**
+ * Immutable description of the items which are initially available for each user.
+ * Since it cannot be modified, a single template can be shared by every recommender
+ * in an experiment.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public interface AvailabilityTemplate
+{
+    /**
+     * Obtains the number of users.
+     * @return the number of users.
+     */
+    public int numUsers();
+
+    /**
+     * Obtains the number of items.
+     * @return the number of items.
+     */
+    public int numItems();
+
+    /**
+     * Checks whether an item is initially available for a user.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @return true if the item is available, false otherwise.
+     */
+    public boolean isAvailable(int uidx, int iidx);
+
+    /**
+     * Obtains the number of initially available items for a user.
+     * @param uidx Identifier of the user.
+     * @return the number of available items.
+     */
+    public int numAvailable(int uidx);
+
+    /**
+     * Obtains the available item in a given position.
+     * @param uidx Identifier of the user.
+     * @param pos Position of the item, between 0 (inclusive) and the number of available items (exclusive).
+     * @return the identifier of the item in that position.
+     */
+    public int get(int uidx, int pos);
+
+    /**
+     * Obtains the position of an available item, i.e. the number of available items with a lower identifier.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @return the position of the item.
+     */
+    public int rank(int uidx, int iidx);
+
+    /**
+     * Obtains an iterator over the initially available items of a user, in increasing order.
+     * @param uidx Identifier of the user.
+     * @return the iterator.
+     */
+    public IntIterator iterator(int uidx);
+
+    /**
+     * Obtains the template for a larger collection: the current users keep the same available
+     * items, plus the new ones.
+     * @param numUsers The number of users of the larger collection.
+     * @param numItems The number of items of the larger collection.
+     * @return the template.
+     */
+    public AvailabilityTemplate resize(int numUsers, int numItems);
+}
@@ -0,0 +1,323 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.availability;
+
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Availability backed by one bit per (user, item) pair. Checking and removing
+ * items take constant time, whereas iterating over the available items of a user,
+ * or finding the item in a given position, take time proportional to the
+ * number of items divided by 64.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class BitSetAvailability implements Availability
+{
+    /**
+     * Bit rows for each user. The bit iidx of row uidx is set if the item is still available.
+     */
+    protected long[][] rows;
+    /**
+     * Number of available items for each user.
+     */
+    protected int[] counts;
+    /**
+     * The number of users.
+     */
+    protected int numUsers;
+    /**
+     * The number of items.
+     */
+    protected int numItems;
+    /**
+     * True if the item with the same identifier as the user is not available.
+     */
+    protected final boolean excludeSelf;
+
+    /**
+     * Constructor. Initially, every item is available for every user.
+     * @param numUsers The number of users.
+     * @param numItems The number of items.
+     */
+    public BitSetAvailability(int numUsers, int numItems)
+    {
+        this(numUsers, numItems, false);
+    }
+
+    /**
+     * Constructor. Initially, every item is available for every user.
+     * @param numUsers The number of users.
+     * @param numItems The number of items.
+     * @param excludeSelf True if the item with the same identifier as the user must not be available
+     * (people-to-people recommendation), false otherwise.
+     */
+    public BitSetAvailability(int numUsers, int numItems, boolean excludeSelf)
+    {
+        this.numUsers = numUsers;
+        this.numItems = numItems;
+        this.excludeSelf = excludeSelf;
+        this.rows = new long[numUsers][];
+        this.counts = new int[numUsers];
+        for(int uidx = 0; uidx < numUsers; ++uidx)
+        {
+            this.initRow(uidx);
+        }
+    }
+
+    /**
+     * Fills the row of a user, where every item is available.
+     * @param uidx Identifier of the user.
+     */
+    private void initRow(int uidx)
+    {
+        long[] row = fullRow(numItems);
+        int count = numItems;
+        if(excludeSelf && uidx < numItems)
+        {
+            row[uidx >>> 6] &= ~(1L << uidx);
+            count--;
+        }
+        this.rows[uidx] = row;
+        this.counts[uidx] = count;
+    }
+
+    @Override
+    public int numUsers()
+    {
+        return this.numUsers;
+    }
+
+    @Override
+    public int numItems()
+    {
+        return this.numItems;
+    }
+
+    @Override
+    public boolean isAvailable(int uidx, int iidx)
+    {
+        if(iidx < 0 || iidx >= numItems) return false;
+        return (this.rows[uidx][iidx >>> 6] & (1L << iidx)) != 0L;
+    }
+
+    @Override
+    public boolean remove(int uidx, int iidx)
+    {
+        if(iidx < 0 || iidx >= numItems) return false;
+        long[] row = this.rows[uidx];
+        int word = iidx >>> 6;
+        long mask = 1L << iidx;
+        if((row[word] & mask) == 0L) return false;
+        row[word] &= ~mask;
+        this.counts[uidx]--;
+        return true;
+    }
+
+    @Override
+    public int numAvailable(int uidx)
+    {
+        return this.counts[uidx];
+    }
+
+    @Override
+    public void grow(int numUsers, int numItems)
+    {
+        // Rows grow with capacity doubling, so adding items one by one has an amortized constant cost.
+        if(numItems > this.numItems)
+        {
+            int words = (numItems + 63) >>> 6;
+            for(int uidx = 0; uidx < this.numUsers; ++uidx)
+            {
+                long[] row = this.rows[uidx];
+                if(row.length < words)
+                {
+                    row = Arrays.copyOf(row, Math.max(words, 2 * row.length));
+                    this.rows[uidx] = row;
+                }
+                for(int iidx = this.numItems; iidx < numItems; ++iidx)
+                {
+                    if(excludeSelf && iidx == uidx) continue;
+                    row[iidx >>> 6] |= 1L << iidx;
+                    this.counts[uidx]++;
+                }
+            }
+            this.numItems = numItems;
+        }
+
+        if(numUsers > this.numUsers)
+        {
+            if(numUsers > this.rows.length)
+            {
+                int capacity = Math.max(numUsers, 2 * this.rows.length);
+                this.rows = Arrays.copyOf(this.rows, capacity);
+                this.counts = Arrays.copyOf(this.counts, capacity);
+            }
+            for(int uidx = this.numUsers; uidx < numUsers; ++uidx)
+            {
+                this.initRow(uidx);
+            }
+            this.numUsers = numUsers;
+        }
+    }
+
+    @Override
+    public int get(int uidx, int pos)
+    {
+        if(pos < 0 || pos >= this.counts[uidx]) throw new IndexOutOfBoundsException("Position " + pos + " is not available for user " + uidx);
+        return select(this.rows[uidx], pos);
+    }
+
+    @Override
+    public IntIterator iterator(int uidx)
+    {
+        return new RowIterator(this.rows[uidx]);
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeInt(this.numUsers);
+        out.writeInt(this.numItems);
+        out.writeObject(Arrays.copyOf(this.rows, this.numUsers));
+        out.writeObject(Arrays.copyOf(this.counts, this.numUsers));
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        Checkpoints.check(this.numUsers, in.readInt(), "number of users");
+        Checkpoints.check(this.numItems, in.readInt(), "number of items");
+        long[][] storedRows = (long[][]) in.readObject();
+        int[] storedCounts = (int[]) in.readObject();
+        System.arraycopy(storedRows, 0, this.rows, 0, this.numUsers);
+        System.arraycopy(storedCounts, 0, this.counts, 0, this.numUsers);
+    }
+
+    /**
+     * Builds a row where the first bits are set.
+     * @param numItems The number of bits to set.
+     * @return the row.
+     */
+    protected static long[] fullRow(int numItems)
+    {
+        long[] row = new long[(numItems + 63) >>> 6];
+        int full = numItems >>> 6;
+        for(int i = 0; i < full; ++i)
+        {
+            row[i] = -1L;
+        }
+        if((numItems & 63) != 0)
+        {
+            row[full] = (1L << numItems) - 1L;
+        }
+        return row;
+    }
+
+    /**
+     * Finds the position of the pos-th set bit of a row.
+     * @param row The row.
+     * @param pos The position (starting at 0) among the set bits.
+     * @return the index of the bit, -1 if the row does not have enough set bits.
+     */
+    protected static int select(long[] row, int pos)
+    {
+        int remaining = pos;
+        for(int i = 0; i < row.length; ++i)
+        {
+            long word = row[i];
+            int bits = Long.bitCount(word);
+            if(remaining < bits)
+            {
+                for(int j = 0; j < remaining; ++j)
+                {
+                    word &= word - 1L;
+                }
+                return (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+            remaining -= bits;
+        }
+        return -1;
+    }
+
+    /**
+     * Iterator over the set bits of a row, in increasing order.
+     */
+    protected static class RowIterator implements IntIterator
+    {
+        /**
+         * The row.
+         */
+        private final long[] row;
+        /**
+         * The index of the current word.
+         */
+        private int wordIdx;
+        /**
+         * The bits of the current word which have not been visited yet.
+         */
+        private long word;
+
+        /**
+         * Constructor.
+         * @param row The row to iterate.
+         */
+        public RowIterator(long[] row)
+        {
+            this.row = row;
+            this.wordIdx = 0;
+            this.word = row.length > 0 ? row[0] : 0L;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while(word == 0L)
+            {
+                if(++wordIdx >= row.length) return false;
+                word = row[wordIdx];
+            }
+            return true;
+        }
+
+        @Override
+        public int nextInt()
+        {
+            if(!this.hasNext()) throw new NoSuchElementException();
+            int iidx = (wordIdx << 6) + Long.numberOfTrailingZeros(word);
+            word &= word - 1L;
+            return iidx;
+        }
+
+        @Override
+        public Integer next()
+        {
+            return this.nextInt();
+        }
+
+        @Override
+        public int skip(int n)
+        {
+            int i = 0;
+            while(i < n && this.hasNext())
+            {
+                this.nextInt();
+                ++i;
+            }
+            return i;
+        }
+    }
+}
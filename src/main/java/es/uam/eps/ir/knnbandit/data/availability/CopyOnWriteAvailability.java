@@ -0,0 +1,360 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.availability;
+
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Availability that reads from a shared, immutable template and only stores, for
+ * each user, the items that have been consumed since. While a user has consumed few
+ * items, they are kept in a sorted array. Once that array would take more space than a
+ * bit row for the user, the row is copied from the template and updated in place.
+ * Memory therefore grows with the number of interactions, and never exceeds that of
+ * a {@link BitSetAvailability}.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class CopyOnWriteAvailability implements Availability
+{
+    /**
+     * Initial capacity of the consumed item arrays.
+     */
+    private final static int INITIAL_CAPACITY = 4;
+    /**
+     * The shared template.
+     */
+    private AvailabilityTemplate template;
+    /**
+     * Sorted arrays containing the consumed items of each user (null if the user has not consumed anything, or their row has been copied).
+     */
+    private int[][] consumed;
+    /**
+     * Number of consumed items for each user.
+     */
+    private int[] numConsumed;
+    /**
+     * Private bit rows for the users whose consumed items do not fit in a sorted array (null for the rest).
+     */
+    private long[][] rows;
+    /**
+     * Maximum number of consumed items stored in a sorted array.
+     */
+    private int maxSparse;
+
+    /**
+     * Constructor.
+     * @param template The template containing the initially available items.
+     */
+    public CopyOnWriteAvailability(AvailabilityTemplate template)
+    {
+        this.template = template;
+        int numUsers = template.numUsers();
+        this.consumed = new int[numUsers][];
+        this.numConsumed = new int[numUsers];
+        this.rows = new long[numUsers][];
+        // An int takes half of the space of a word in the bit row.
+        this.maxSparse = 2 * ((template.numItems() + 63) >>> 6);
+    }
+
+    @Override
+    public int numUsers()
+    {
+        return this.template.numUsers();
+    }
+
+    @Override
+    public int numItems()
+    {
+        return this.template.numItems();
+    }
+
+    @Override
+    public boolean isAvailable(int uidx, int iidx)
+    {
+        long[] row = this.rows[uidx];
+        if(row != null)
+        {
+            if(iidx < 0 || iidx >= this.template.numItems()) return false;
+            return (row[iidx >>> 6] & (1L << iidx)) != 0L;
+        }
+        if(!this.template.isAvailable(uidx, iidx)) return false;
+        int[] array = this.consumed[uidx];
+        return array == null || Arrays.binarySearch(array, 0, this.numConsumed[uidx], iidx) < 0;
+    }
+
+    @Override
+    public boolean remove(int uidx, int iidx)
+    {
+        long[] row = this.rows[uidx];
+        if(row != null)
+        {
+            if(iidx < 0 || iidx >= this.template.numItems()) return false;
+            int word = iidx >>> 6;
+            long mask = 1L << iidx;
+            if((row[word] & mask) == 0L) return false;
+            row[word] &= ~mask;
+            this.numConsumed[uidx]++;
+            return true;
+        }
+
+        if(!this.template.isAvailable(uidx, iidx)) return false;
+
+        int[] array = this.consumed[uidx];
+        int size = this.numConsumed[uidx];
+        if(array == null)
+        {
+            array = new int[INITIAL_CAPACITY];
+            this.consumed[uidx] = array;
+        }
+
+        int pos = Arrays.binarySearch(array, 0, size, iidx);
+        if(pos >= 0) return false;
+        pos = -(pos + 1);
+
+        if(size + 1 > maxSparse)
+        {
+            this.copyRow(uidx, array, size);
+            long[] newRow = this.rows[uidx];
+            newRow[iidx >>> 6] &= ~(1L << iidx);
+        }
+        else
+        {
+            if(size == array.length)
+            {
+                array = Arrays.copyOf(array, Math.min(2 * array.length, maxSparse));
+                this.consumed[uidx] = array;
+            }
+            System.arraycopy(array, pos, array, pos + 1, size - pos);
+            array[pos] = iidx;
+        }
+        this.numConsumed[uidx]++;
+        return true;
+    }
+
+    @Override
+    public int numAvailable(int uidx)
+    {
+        return this.template.numAvailable(uidx) - this.numConsumed[uidx];
+    }
+
+    @Override
+    public void grow(int numUsers, int numItems)
+    {
+        int oldUsers = this.template.numUsers();
+        int oldItems = this.template.numItems();
+        if(numUsers <= oldUsers && numItems <= oldItems) return;
+        AvailabilityTemplate newTemplate = this.template.resize(Math.max(numUsers, oldUsers), Math.max(numItems, oldItems));
+
+        // The arrays of users grow with capacity doubling, so adding users one by one has an amortized constant cost.
+        if(newTemplate.numUsers() > this.consumed.length)
+        {
+            int capacity = Math.max(newTemplate.numUsers(), 2 * this.consumed.length);
+            this.consumed = Arrays.copyOf(this.consumed, capacity);
+            this.numConsumed = Arrays.copyOf(this.numConsumed, capacity);
+            this.rows = Arrays.copyOf(this.rows, capacity);
+        }
+
+        // The private rows do not read the template: the new items are added to them.
+        if(newTemplate.numItems() > oldItems)
+        {
+            int words = (newTemplate.numItems() + 63) >>> 6;
+            for(int uidx = 0; uidx < oldUsers; ++uidx)
+            {
+                long[] row = this.rows[uidx];
+                if(row == null) continue;
+                if(row.length < words)
+                {
+                    row = Arrays.copyOf(row, Math.max(words, 2 * row.length));
+                    this.rows[uidx] = row;
+                }
+                for(int iidx = oldItems; iidx < newTemplate.numItems(); ++iidx)
+                {
+                    if(newTemplate.isAvailable(uidx, iidx)) row[iidx >>> 6] |= 1L << iidx;
+                }
+            }
+        }
+
+        this.template = newTemplate;
+        this.maxSparse = 2 * ((newTemplate.numItems() + 63) >>> 6);
+    }
+
+    @Override
+    public int get(int uidx, int pos)
+    {
+        if(pos < 0 || pos >= this.numAvailable(uidx)) throw new IndexOutOfBoundsException("Position " + pos + " is not available for user " + uidx);
+        long[] row = this.rows[uidx];
+        if(row != null)
+        {
+            return BitSetAvailability.select(row, pos);
+        }
+
+        // Skip the consumed items which appear before the position in the template.
+        int[] array = this.consumed[uidx];
+        int size = this.numConsumed[uidx];
+        int templatePos = pos;
+        for(int i = 0; i < size; ++i)
+        {
+            if(this.template.rank(uidx, array[i]) <= templatePos) templatePos++;
+            else break;
+        }
+        return this.template.get(uidx, templatePos);
+    }
+
+    @Override
+    public IntIterator iterator(int uidx)
+    {
+        long[] row = this.rows[uidx];
+        if(row != null)
+        {
+            return new BitSetAvailability.RowIterator(row);
+        }
+        else if(this.numConsumed[uidx] == 0)
+        {
+            return this.template.iterator(uidx);
+        }
+        return new DeltaIterator(this.template.iterator(uidx), this.consumed[uidx], this.numConsumed[uidx]);
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeInt(this.template.numUsers());
+        out.writeInt(this.template.numItems());
+        int numUsers = this.template.numUsers();
+        out.writeObject(Arrays.copyOf(this.consumed, numUsers));
+        out.writeObject(Arrays.copyOf(this.numConsumed, numUsers));
+        out.writeObject(Arrays.copyOf(this.rows, numUsers));
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        Checkpoints.check(this.template.numUsers(), in.readInt(), "number of users");
+        Checkpoints.check(this.template.numItems(), in.readInt(), "number of items");
+        int[][] storedConsumed = (int[][]) in.readObject();
+        int[] storedNumConsumed = (int[]) in.readObject();
+        long[][] storedRows = (long[][]) in.readObject();
+        int numUsers = this.template.numUsers();
+        System.arraycopy(storedConsumed, 0, this.consumed, 0, numUsers);
+        System.arraycopy(storedNumConsumed, 0, this.numConsumed, 0, numUsers);
+        System.arraycopy(storedRows, 0, this.rows, 0, numUsers);
+    }
+
+    /**
+     * Copies the template row of a user, and removes the consumed items from it.
+     * @param uidx Identifier of the user.
+     * @param array Sorted array of consumed items.
+     * @param size Number of consumed items.
+     */
+    private void copyRow(int uidx, int[] array, int size)
+    {
+        long[] row = new long[(this.template.numItems() + 63) >>> 6];
+        IntIterator it = this.template.iterator(uidx);
+        while(it.hasNext())
+        {
+            int iidx = it.nextInt();
+            row[iidx >>> 6] |= 1L << iidx;
+        }
+        for(int i = 0; i < size; ++i)
+        {
+            row[array[i] >>> 6] &= ~(1L << array[i]);
+        }
+        this.rows[uidx] = row;
+        this.consumed[uidx] = null;
+    }
+
+    /**
+     * Iterator over the items of the template which have not been consumed.
+     */
+    private static class DeltaIterator implements IntIterator
+    {
+        /**
+         * Iterator over the template.
+         */
+        private final IntIterator base;
+        /**
+         * Sorted consumed items.
+         */
+        private final int[] array;
+        /**
+         * Number of consumed items.
+         */
+        private final int size;
+        /**
+         * Current position in the consumed items.
+         */
+        private int pos;
+        /**
+         * Next item to return (-1 if it has not been found yet).
+         */
+        private int next;
+
+        /**
+         * Constructor.
+         * @param base Iterator over the template.
+         * @param array Sorted consumed items.
+         * @param size Number of consumed items.
+         */
+        public DeltaIterator(IntIterator base, int[] array, int size)
+        {
+            this.base = base;
+            this.array = array;
+            this.size = size;
+            this.pos = 0;
+            this.next = -1;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while(next < 0 && base.hasNext())
+            {
+                int iidx = base.nextInt();
+                while(pos < size && array[pos] < iidx) pos++;
+                if(pos < size && array[pos] == iidx) pos++;
+                else next = iidx;
+            }
+            return next >= 0;
+        }
+
+        @Override
+        public int nextInt()
+        {
+            if(!this.hasNext()) throw new NoSuchElementException();
+            int iidx = next;
+            next = -1;
+            return iidx;
+        }
+
+        @Override
+        public Integer next()
+        {
+            return this.nextInt();
+        }
+
+        @Override
+        public int skip(int n)
+        {
+            int i = 0;
+            while(i < n && this.hasNext())
+            {
+                this.nextInt();
+                ++i;
+            }
+            return i;
+        }
+    }
+}
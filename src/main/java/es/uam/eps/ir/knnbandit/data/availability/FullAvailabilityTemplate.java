@@ -0,0 +1,145 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.availability;
+
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Template where every item is available for every user (optionally, excepting the
+ * item with the same identifier as the user). It does not store anything per user.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class FullAvailabilityTemplate implements AvailabilityTemplate
+{
+    /**
+     * The number of users.
+     */
+    private final int numUsers;
+    /**
+     * The number of items.
+     */
+    private final int numItems;
+    /**
+     * True if the item with the same identifier as the user is not available.
+     */
+    private final boolean excludeSelf;
+
+    /**
+     * Constructor.
+     * @param numUsers The number of users.
+     * @param numItems The number of items.
+     * @param excludeSelf True if the item with the same identifier as the user must not be available
+     * (people-to-people recommendation), false otherwise.
+     */
+    public FullAvailabilityTemplate(int numUsers, int numItems, boolean excludeSelf)
+    {
+        this.numUsers = numUsers;
+        this.numItems = numItems;
+        this.excludeSelf = excludeSelf;
+    }
+
+    @Override
+    public int numUsers()
+    {
+        return this.numUsers;
+    }
+
+    @Override
+    public int numItems()
+    {
+        return this.numItems;
+    }
+
+    @Override
+    public boolean isAvailable(int uidx, int iidx)
+    {
+        return iidx >= 0 && iidx < numItems && !(excludeSelf && iidx == uidx);
+    }
+
+    @Override
+    public int numAvailable(int uidx)
+    {
+        return this.hasSelf(uidx) ? numItems - 1 : numItems;
+    }
+
+    @Override
+    public int get(int uidx, int pos)
+    {
+        return (this.hasSelf(uidx) && pos >= uidx) ? pos + 1 : pos;
+    }
+
+    @Override
+    public int rank(int uidx, int iidx)
+    {
+        return (this.hasSelf(uidx) && iidx > uidx) ? iidx - 1 : iidx;
+    }
+
+    @Override
+    public IntIterator iterator(int uidx)
+    {
+        int self = this.hasSelf(uidx) ? uidx : -1;
+        return new IntIterator()
+        {
+            private int next = (self == 0) ? 1 : 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < numItems;
+            }
+
+            @Override
+            public int nextInt()
+            {
+                if(next >= numItems) throw new NoSuchElementException();
+                int iidx = next++;
+                if(next == self) next++;
+                return iidx;
+            }
+
+            @Override
+            public Integer next()
+            {
+                return this.nextInt();
+            }
+
+            @Override
+            public int skip(int n)
+            {
+                int i = 0;
+                while(i < n && this.hasNext())
+                {
+                    this.nextInt();
+                    ++i;
+                }
+                return i;
+            }
+        };
+    }
+
+    @Override
+    public AvailabilityTemplate resize(int numUsers, int numItems)
+    {
+        // The template is too small to be worth sharing: each collection size gets its own.
+        return new FullAvailabilityTemplate(numUsers, numItems, excludeSelf);
+    }
+
+    /**
+     * Checks whether the item with the same identifier as the user is excluded.
+     * @param uidx Identifier of the user.
+     * @return true if the item is excluded, false otherwise.
+     */
+    private boolean hasSelf(int uidx)
+    {
+        return excludeSelf && uidx >= 0 && uidx < numItems;
+    }
+}
@@ -0,0 +1,406 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.preference.fast;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
+import es.uam.eps.ir.knnbandit.io.Checkpointable;
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import es.uam.eps.ir.knnbandit.utils.IntDoubleConsumer;
+import es.uam.eps.ir.ranksys.core.preference.IdPref;
+import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.doubles.DoubleIterators;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntIterators;
+import org.jooq.lambda.tuple.Tuple3;
+
+/**
+ * Implementation of FastUpdateablePreferenceData backed by primitive arrays. The preferences
+ * of each user (and each item) are stored in a pair of growable arrays, one with the sorted
+ * identifiers and another one with the values, so no object is allocated per rating.
+ *
+ * It offers the same access methods as {@link SimpleFastUpdateablePreferenceData}, and it stores its
+ * state in checkpoints with the same format, using a fraction of its memory.
+ *
+ * @param <U> User type.
+ * @param <I> Item type.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class ColumnarFastUpdateablePreferenceData<U, I> extends IteratorsAbstractFastUpdateablePreferenceData<U, I> implements FastUpdateablePointWisePreferenceData<U, I>, Checkpointable, Serializable
+{
+    /**
+     * Serial version identifier.
+     */
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Current number of preferences.
+     */
+    private int numPreferences;
+    /**
+     * User preferences (null for users without preferences).
+     */
+    private final List<PreferenceRow> uidxList;
+    /**
+     * Item preferences (null for items without preferences).
+     */
+    private final List<PreferenceRow> iidxList;
+
+    /**
+     * Constructor with default IdxPref to IdPref converter.
+     *
+     * @param uIndex User index.
+     * @param iIndex Item index.
+     */
+    protected ColumnarFastUpdateablePreferenceData(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex)
+    {
+        this(uIndex, iIndex,
+                (Function<IdxPref, IdPref<I>> & Serializable) p -> new IdPref<>(iIndex.iidx2item(p)),
+                (Function<IdxPref, IdPref<U>> & Serializable) p -> new IdPref<>(uIndex.uidx2user(p)));
+    }
+
+    /**
+     * Constructor with custom IdxPref to IdPref converter.
+     *
+     * @param uIndex User index.
+     * @param iIndex Item index.
+     * @param uPrefFun User IdxPref to IdPref converter.
+     * @param iPrefFun Item IdxPref to IdPref converter.
+     */
+    protected ColumnarFastUpdateablePreferenceData(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex,
+            Function<IdxPref, IdPref<I>> uPrefFun, Function<IdxPref, IdPref<U>> iPrefFun)
+    {
+        super(uIndex, iIndex, uPrefFun, iPrefFun);
+        this.numPreferences = 0;
+        this.uidxList = new ArrayList<>(uIndex.numUsers());
+        for(int uidx = 0; uidx < uIndex.numUsers(); ++uidx)
+        {
+            this.uidxList.add(null);
+        }
+        this.iidxList = new ArrayList<>(iIndex.numItems());
+        for(int iidx = 0; iidx < iIndex.numItems(); ++iidx)
+        {
+            this.iidxList.add(null);
+        }
+    }
+
+    @Override
+    public int numUsers(int iidx)
+    {
+        PreferenceRow row = iidxList.get(iidx);
+        return row == null ? 0 : row.size;
+    }
+
+    @Override
+    public int numItems(int uidx)
+    {
+        PreferenceRow row = uidxList.get(uidx);
+        return row == null ? 0 : row.size;
+    }
+
+    @Override
+    public Stream<IdxPref> getUidxPreferences(int uidx)
+    {
+        return getPreferences(uidxList.get(uidx));
+    }
+
+    @Override
+    public Stream<IdxPref> getIidxPreferences(int iidx)
+    {
+        return getPreferences(iidxList.get(iidx));
+    }
+
+    /**
+     * Obtains the preferences stored in a row.
+     * @param row The row.
+     * @return a stream containing the preferences.
+     */
+    private static Stream<IdxPref> getPreferences(PreferenceRow row)
+    {
+        if(row == null)
+        {
+            return Stream.empty();
+        }
+        int[] idxs = row.idxs;
+        double[] vs = row.vs;
+        return IntStream.range(0, row.size).mapToObj(i -> new IdxPref(idxs[i], vs[i]));
+    }
+
+    @Override
+    public IntIterator getUidxIidxs(int uidx)
+    {
+        PreferenceRow row = uidxList.get(uidx);
+        return row == null ? IntIterators.EMPTY_ITERATOR : IntIterators.wrap(row.idxs, 0, row.size);
+    }
+
+    @Override
+    public DoubleIterator getUidxVs(int uidx)
+    {
+        PreferenceRow row = uidxList.get(uidx);
+        return row == null ? DoubleIterators.EMPTY_ITERATOR : DoubleIterators.wrap(row.vs, 0, row.size);
+    }
+
+    @Override
+    public IntIterator getIidxUidxs(int iidx)
+    {
+        PreferenceRow row = iidxList.get(iidx);
+        return row == null ? IntIterators.EMPTY_ITERATOR : IntIterators.wrap(row.idxs, 0, row.size);
+    }
+
+    @Override
+    public DoubleIterator getIidxVs(int iidx)
+    {
+        PreferenceRow row = iidxList.get(iidx);
+        return row == null ? DoubleIterators.EMPTY_ITERATOR : DoubleIterators.wrap(row.vs, 0, row.size);
+    }
+
+    @Override
+    public void forEachUidxPref(int uidx, IntDoubleConsumer consumer)
+    {
+        PreferenceRow row = uidxList.get(uidx);
+        if(row != null) row.forEach(consumer);
+    }
+
+    @Override
+    public void forEachIidxPref(int iidx, IntDoubleConsumer consumer)
+    {
+        PreferenceRow row = iidxList.get(iidx);
+        if(row != null) row.forEach(consumer);
+    }
+
+    @Override
+    public int numPreferences()
+    {
+        return numPreferences;
+    }
+
+    @Override
+    public IntStream getUidxWithPreferences()
+    {
+        return IntStream.range(0, numUsers())
+                        .filter(uidx -> uidxList.get(uidx) != null);
+    }
+
+    @Override
+    public IntStream getIidxWithPreferences()
+    {
+        return IntStream.range(0, this.numItems())
+                        .filter(iidx -> iidxList.get(iidx) != null);
+    }
+
+    @Override
+    public int numUsersWithPreferences()
+    {
+        return (int) uidxList.stream()
+                             .filter(row -> row != null)
+                             .count();
+    }
+
+    @Override
+    public int numItemsWithPreferences()
+    {
+        return (int) iidxList.stream()
+                             .filter(row -> row != null)
+                             .count();
+    }
+
+    @Override
+    public Optional<IdxPref> getPreference(int uidx, int iidx)
+    {
+        PreferenceRow row = uidxList.get(uidx);
+        if(row == null) return Optional.empty();
+        int position = row.find(iidx);
+        if(position >= 0)
+        {
+            return Optional.of(new IdxPref(iidx, row.vs[position]));
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<? extends IdPref<I>> getPreference(U u, I i)
+    {
+        if(this.containsUser(u) && this.containsItem(i))
+        {
+            Optional<? extends IdxPref> pref = getPreference(user2uidx(u), item2iidx(i));
+
+            if (!pref.isPresent())
+            {
+                return Optional.empty();
+            }
+            else
+            {
+                return Optional.of(uPrefFun.apply(pref.get()));
+            }
+        }
+        else
+        {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public int addUser(U u)
+    {
+        int uidx = ((FastUpdateableUserIndex<U>)this.ui).addUser(u);
+        if(this.uidxList.size() == uidx) // If the user is really new
+        {
+            this.uidxList.add(null);
+        }
+        return uidx;
+    }
+
+    @Override
+    public int addItem(I i)
+    {
+        int iidx = ((FastUpdateableItemIndex<I>)this.ii).addItem(i);
+        if(this.iidxList.size() == iidx) // If the item is really new
+        {
+            this.iidxList.add(null);
+        }
+        return iidx;
+    }
+
+    /**
+     * Makes room for the users and items which have been added to the indexes by other
+     * objects sharing them, such as other preference data or the recommendation loop.
+     */
+    public void grow()
+    {
+        while(this.uidxList.size() < this.ui.numUsers())
+        {
+            this.uidxList.add(null);
+        }
+        while(this.iidxList.size() < this.ii.numItems())
+        {
+            this.iidxList.add(null);
+        }
+    }
+
+    @Override
+    public void updateRating(int uidx, int iidx, double rating)
+    {
+        // If the user or the item are not in the preference data, do nothing.
+        if(uidx < 0 || this.uidxList.size() <= uidx || iidx < 0 || this.iidxList.size() <= iidx)
+        {
+            return;
+        }
+
+        PreferenceRow uRow = this.uidxList.get(uidx);
+        if(uRow == null) // If the user does not have preferences.
+        {
+            uRow = new PreferenceRow(PreferenceRow.INITIAL_CAPACITY);
+            this.uidxList.set(uidx, uRow);
+        }
+        if(uRow.put(iidx, rating))
+        {
+            this.numPreferences++;
+        }
+
+        PreferenceRow iRow = this.iidxList.get(iidx);
+        if(iRow == null) // If the item has not been rated.
+        {
+            iRow = new PreferenceRow(PreferenceRow.INITIAL_CAPACITY);
+            this.iidxList.set(iidx, iRow);
+        }
+        iRow.put(uidx, rating);
+    }
+
+    @Override
+    protected void updateDelete(int uidx, int iidx)
+    {
+        // If the user or the item are not in the preference data, do nothing.
+        if(uidx < 0 || this.uidxList.size() <= uidx || iidx < 0 || this.iidxList.size() <= iidx)
+        {
+            return;
+        }
+
+        // First, delete from the user row. Then, from the item row.
+        PreferenceRow uRow = this.uidxList.get(uidx);
+        if(uRow != null && uRow.remove(iidx))
+        {
+            this.iidxList.get(iidx).remove(uidx);
+            this.numPreferences--;
+        }
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeInt(this.uidxList.size());
+        out.writeInt(this.iidxList.size());
+        out.writeInt(this.numPreferences);
+        for(PreferenceRow row : this.uidxList)
+        {
+            int size = (row == null) ? -1 : row.size;
+            out.writeInt(size);
+            for(int i = 0; i < size; ++i)
+            {
+                out.writeInt(row.idxs[i]);
+                out.writeDouble(row.vs[i]);
+            }
+        }
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException
+    {
+        Checkpoints.check(this.uidxList.size(), in.readInt(), "number of users");
+        Checkpoints.check(this.iidxList.size(), in.readInt(), "number of items");
+        int storedPreferences = in.readInt();
+
+        for(int uidx = 0; uidx < this.uidxList.size(); ++uidx) this.uidxList.set(uidx, null);
+        for(int iidx = 0; iidx < this.iidxList.size(); ++iidx) this.iidxList.set(iidx, null);
+        this.numPreferences = 0;
+
+        // Users are visited in order, so every insertion in the item rows happens at the end.
+        for(int uidx = 0; uidx < this.uidxList.size(); ++uidx)
+        {
+            int size = in.readInt();
+            for(int i = 0; i < size; ++i)
+            {
+                int iidx = in.readInt();
+                double value = in.readDouble();
+                this.updateRating(uidx, iidx, value);
+            }
+        }
+        Checkpoints.check(storedPreferences, this.numPreferences, "number of preferences");
+    }
+
+    /**
+     * Loads a ColumnarFastUpdateablePreferenceData from a stream of user-item-value triples.
+     *
+     * @param <U> User type.
+     * @param <I> Item type.
+     * @param tuples Stream of user-item-value triples.
+     * @param uIndex User index.
+     * @param iIndex Item index.
+     * @return an instance of ColumnarFastUpdateablePreferenceData containing the data from the input stream.
+     */
+    public static <U, I> ColumnarFastUpdateablePreferenceData<U, I> load(Stream<Tuple3<U, I, Double>> tuples, FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex)
+    {
+        ColumnarFastUpdateablePreferenceData<U, I> data = new ColumnarFastUpdateablePreferenceData<>(uIndex, iIndex);
+        tuples.forEach(t -> data.updateRating(uIndex.user2uidx(t.v1), iIndex.item2iidx(t.v2), t.v3));
+        return data;
+    }
+}
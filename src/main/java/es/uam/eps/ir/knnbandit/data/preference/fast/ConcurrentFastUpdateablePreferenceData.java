@@ -0,0 +1,626 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.preference.fast;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
+import es.uam.eps.ir.knnbandit.io.Checkpointable;
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import es.uam.eps.ir.knnbandit.utils.IntDoubleConsumer;
+import es.uam.eps.ir.ranksys.core.preference.IdPref;
+import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.doubles.DoubleIterators;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntIterators;
+import org.jooq.lambda.tuple.Tuple3;
+
+/**
+ * Thread-safe implementation of FastUpdateablePreferenceData, so several threads can update
+ * and read the preferences at the same time. The preferences are stored as in
+ * {@link ColumnarFastUpdateablePreferenceData}, and every user and item row is guarded by
+ * one of a fixed set of read-write locks (lock striping): threads working on different users
+ * and items rarely wait for each other.
+ *
+ * Readers obtain a consistent snapshot of a single row: the preferences of a user (or an item)
+ * are copied under the lock, and then visited without holding it, so the visitor might even
+ * update the data. Ratings are stored by holding the locks of the user and the item (always in
+ * that order), so the rows of the user and the item never disagree.
+ *
+ * Adding users and items is also thread-safe, but looking up users and items by their original
+ * identifier while they are added is not, as it depends on the underlying indexes. Concurrent
+ * code should work with the fast identifiers.
+ *
+ * @param <U> User type.
+ * @param <I> Item type.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class ConcurrentFastUpdateablePreferenceData<U, I> extends IteratorsAbstractFastUpdateablePreferenceData<U, I> implements FastUpdateablePointWisePreferenceData<U, I>, Checkpointable
+{
+    /**
+     * Serial version identifier.
+     */
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Number of locks for the users (and for the items). It must be a power of 2.
+     */
+    private final static int NUM_STRIPES = 64;
+
+    /**
+     * Current number of preferences.
+     */
+    private final LongAdder numPreferences;
+    /**
+     * User preferences.
+     */
+    private final StripedRows users;
+    /**
+     * Item preferences.
+     */
+    private final StripedRows items;
+
+    /**
+     * Constructor.
+     *
+     * @param uIndex User index.
+     * @param iIndex Item index.
+     */
+    protected ConcurrentFastUpdateablePreferenceData(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex)
+    {
+        super(uIndex, iIndex);
+        this.numPreferences = new LongAdder();
+        this.users = new StripedRows(uIndex.numUsers());
+        this.items = new StripedRows(iIndex.numItems());
+    }
+
+    @Override
+    public int numUsers(int iidx)
+    {
+        return items.size(iidx);
+    }
+
+    @Override
+    public int numItems(int uidx)
+    {
+        return users.size(uidx);
+    }
+
+    @Override
+    public Stream<IdxPref> getUidxPreferences(int uidx)
+    {
+        return getPreferences(users.copy(uidx));
+    }
+
+    @Override
+    public Stream<IdxPref> getIidxPreferences(int iidx)
+    {
+        return getPreferences(items.copy(iidx));
+    }
+
+    /**
+     * Obtains the preferences stored in a copy of a row.
+     * @param row The copy of the row.
+     * @return a stream containing the preferences.
+     */
+    private static Stream<IdxPref> getPreferences(PreferenceRow row)
+    {
+        if(row == null)
+        {
+            return Stream.empty();
+        }
+        return IntStream.range(0, row.size).mapToObj(i -> new IdxPref(row.idxs[i], row.vs[i]));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The identifiers and the values are read from different snapshots: if the user might be
+     * updated meanwhile, use {@link #getUidxPreferences(int)} or {@link #forEachUidxPref(int, IntDoubleConsumer)} instead.
+     */
+    @Override
+    public IntIterator getUidxIidxs(int uidx)
+    {
+        PreferenceRow row = users.copy(uidx);
+        return row == null ? IntIterators.EMPTY_ITERATOR : IntIterators.wrap(row.idxs);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The identifiers and the values are read from different snapshots: if the user might be
+     * updated meanwhile, use {@link #getUidxPreferences(int)} or {@link #forEachUidxPref(int, IntDoubleConsumer)} instead.
+     */
+    @Override
+    public DoubleIterator getUidxVs(int uidx)
+    {
+        PreferenceRow row = users.copy(uidx);
+        return row == null ? DoubleIterators.EMPTY_ITERATOR : DoubleIterators.wrap(row.vs);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The identifiers and the values are read from different snapshots: if the item might be
+     * updated meanwhile, use {@link #getIidxPreferences(int)} or {@link #forEachIidxPref(int, IntDoubleConsumer)} instead.
+     */
+    @Override
+    public IntIterator getIidxUidxs(int iidx)
+    {
+        PreferenceRow row = items.copy(iidx);
+        return row == null ? IntIterators.EMPTY_ITERATOR : IntIterators.wrap(row.idxs);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The identifiers and the values are read from different snapshots: if the item might be
+     * updated meanwhile, use {@link #getIidxPreferences(int)} or {@link #forEachIidxPref(int, IntDoubleConsumer)} instead.
+     */
+    @Override
+    public DoubleIterator getIidxVs(int iidx)
+    {
+        PreferenceRow row = items.copy(iidx);
+        return row == null ? DoubleIterators.EMPTY_ITERATOR : DoubleIterators.wrap(row.vs);
+    }
+
+    @Override
+    public void forEachUidxPref(int uidx, IntDoubleConsumer consumer)
+    {
+        PreferenceRow row = users.copy(uidx);
+        if(row != null) row.forEach(consumer);
+    }
+
+    @Override
+    public void forEachIidxPref(int iidx, IntDoubleConsumer consumer)
+    {
+        PreferenceRow row = items.copy(iidx);
+        if(row != null) row.forEach(consumer);
+    }
+
+    @Override
+    public int numPreferences()
+    {
+        return numPreferences.intValue();
+    }
+
+    @Override
+    public IntStream getUidxWithPreferences()
+    {
+        return IntStream.range(0, users.numRows())
+                        .filter(uidx -> users.size(uidx) > 0);
+    }
+
+    @Override
+    public IntStream getIidxWithPreferences()
+    {
+        return IntStream.range(0, items.numRows())
+                        .filter(iidx -> items.size(iidx) > 0);
+    }
+
+    @Override
+    public int numUsersWithPreferences()
+    {
+        return (int) this.getUidxWithPreferences().count();
+    }
+
+    @Override
+    public int numItemsWithPreferences()
+    {
+        return (int) this.getIidxWithPreferences().count();
+    }
+
+    @Override
+    public Optional<IdxPref> getPreference(int uidx, int iidx)
+    {
+        if(uidx < 0 || users.numRows() <= uidx)
+        {
+            return Optional.empty();
+        }
+
+        Lock lock = users.readLock(uidx);
+        lock.lock();
+        try
+        {
+            PreferenceRow row = users.row(uidx);
+            int position = row.find(iidx);
+            if(position >= 0)
+            {
+                return Optional.of(new IdxPref(iidx, row.vs[position]));
+            }
+            return Optional.empty();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<? extends IdPref<I>> getPreference(U u, I i)
+    {
+        if(this.containsUser(u) && this.containsItem(i))
+        {
+            Optional<? extends IdxPref> pref = getPreference(user2uidx(u), item2iidx(i));
+
+            if (!pref.isPresent())
+            {
+                return Optional.empty();
+            }
+            else
+            {
+                return Optional.of(uPrefFun.apply(pref.get()));
+            }
+        }
+        else
+        {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public int addUser(U u)
+    {
+        synchronized(users)
+        {
+            int uidx = ((FastUpdateableUserIndex<U>)this.ui).addUser(u);
+            if(users.numRows() == uidx) // If the user is really new
+            {
+                users.add();
+            }
+            return uidx;
+        }
+    }
+
+    @Override
+    public int addItem(I i)
+    {
+        synchronized(items)
+        {
+            int iidx = ((FastUpdateableItemIndex<I>)this.ii).addItem(i);
+            if(items.numRows() == iidx) // If the item is really new
+            {
+                items.add();
+            }
+            return iidx;
+        }
+    }
+
+    @Override
+    public void updateRating(int uidx, int iidx, double rating)
+    {
+        // If the user or the item are not in the preference data, do nothing.
+        if(uidx < 0 || users.numRows() <= uidx || iidx < 0 || items.numRows() <= iidx)
+        {
+            return;
+        }
+
+        Lock uLock = users.writeLock(uidx);
+        Lock iLock = items.writeLock(iidx);
+        uLock.lock();
+        try
+        {
+            iLock.lock();
+            try
+            {
+                if(users.row(uidx).put(iidx, rating))
+                {
+                    this.numPreferences.increment();
+                }
+                items.row(iidx).put(uidx, rating);
+            }
+            finally
+            {
+                iLock.unlock();
+            }
+        }
+        finally
+        {
+            uLock.unlock();
+        }
+    }
+
+    @Override
+    protected void updateDelete(int uidx, int iidx)
+    {
+        // If the user or the item are not in the preference data, do nothing.
+        if(uidx < 0 || users.numRows() <= uidx || iidx < 0 || items.numRows() <= iidx)
+        {
+            return;
+        }
+
+        Lock uLock = users.writeLock(uidx);
+        Lock iLock = items.writeLock(iidx);
+        uLock.lock();
+        try
+        {
+            iLock.lock();
+            try
+            {
+                if(users.row(uidx).remove(iidx))
+                {
+                    items.row(iidx).remove(uidx);
+                    this.numPreferences.decrement();
+                }
+            }
+            finally
+            {
+                iLock.unlock();
+            }
+        }
+        finally
+        {
+            uLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The stored state is consistent: ratings are not stored until the state has been written.
+     */
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        // Ratings cannot be stored without the lock of their user.
+        users.lockAll();
+        try
+        {
+            int numUsers = users.numRows();
+            out.writeInt(numUsers);
+            out.writeInt(items.numRows());
+            out.writeInt(this.numPreferences());
+            for(int uidx = 0; uidx < numUsers; ++uidx)
+            {
+                PreferenceRow row = users.row(uidx);
+                out.writeInt(row.size == 0 ? -1 : row.size);
+                for(int i = 0; i < row.size; ++i)
+                {
+                    out.writeInt(row.idxs[i]);
+                    out.writeDouble(row.vs[i]);
+                }
+            }
+        }
+        finally
+        {
+            users.unlockAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * It must not run at the same time as any other operation.
+     */
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException
+    {
+        Checkpoints.check(users.numRows(), in.readInt(), "number of users");
+        Checkpoints.check(items.numRows(), in.readInt(), "number of items");
+        int storedPreferences = in.readInt();
+
+        users.clear();
+        items.clear();
+        this.numPreferences.reset();
+
+        // Users are visited in order, so every insertion in the item rows happens at the end.
+        for(int uidx = 0; uidx < users.numRows(); ++uidx)
+        {
+            int size = in.readInt();
+            for(int i = 0; i < size; ++i)
+            {
+                int iidx = in.readInt();
+                double value = in.readDouble();
+                this.updateRating(uidx, iidx, value);
+            }
+        }
+        Checkpoints.check(storedPreferences, this.numPreferences(), "number of preferences");
+    }
+
+    /**
+     * Loads a ConcurrentFastUpdateablePreferenceData from a stream of user-item-value triples.
+     * The stream might be parallel.
+     *
+     * @param <U> User type.
+     * @param <I> Item type.
+     * @param tuples Stream of user-item-value triples.
+     * @param uIndex User index.
+     * @param iIndex Item index.
+     * @return an instance of ConcurrentFastUpdateablePreferenceData containing the data from the input stream.
+     */
+    public static <U, I> ConcurrentFastUpdateablePreferenceData<U, I> load(Stream<Tuple3<U, I, Double>> tuples, FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex)
+    {
+        ConcurrentFastUpdateablePreferenceData<U, I> data = new ConcurrentFastUpdateablePreferenceData<>(uIndex, iIndex);
+        tuples.forEach(t -> data.updateRating(uIndex.user2uidx(t.v1), iIndex.item2iidx(t.v2), t.v3));
+        return data;
+    }
+
+    /**
+     * Rows of the users (or the items), guarded by striped read-write locks. Rows are only
+     * appended, and the array storing them grows as needed: an array is only published once
+     * its rows have been set, so readers never need a lock to find a row.
+     */
+    private static class StripedRows
+    {
+        /**
+         * The locks. Row idx is guarded by the lock idx % NUM_STRIPES.
+         */
+        private final ReentrantReadWriteLock[] locks;
+        /**
+         * The rows (there might be unused positions at the end).
+         */
+        private volatile PreferenceRow[] rows;
+        /**
+         * The number of rows.
+         */
+        private volatile int numRows;
+
+        /**
+         * Constructor.
+         * @param numRows The initial number of (empty) rows.
+         */
+        StripedRows(int numRows)
+        {
+            this.locks = new ReentrantReadWriteLock[NUM_STRIPES];
+            for(int i = 0; i < NUM_STRIPES; ++i)
+            {
+                this.locks[i] = new ReentrantReadWriteLock();
+            }
+            PreferenceRow[] initial = new PreferenceRow[Math.max(numRows, PreferenceRow.INITIAL_CAPACITY)];
+            for(int idx = 0; idx < numRows; ++idx)
+            {
+                initial[idx] = new PreferenceRow(0);
+            }
+            this.rows = initial;
+            this.numRows = numRows;
+        }
+
+        /**
+         * Obtains the number of rows.
+         * @return the number of rows.
+         */
+        int numRows()
+        {
+            return numRows;
+        }
+
+        /**
+         * Adds an empty row at the end. Additions must be externally synchronized.
+         */
+        void add()
+        {
+            PreferenceRow[] current = rows;
+            int n = numRows;
+            if(n == current.length)
+            {
+                current = Arrays.copyOf(current, n + (n >> 1) + 1);
+            }
+            current[n] = new PreferenceRow(0);
+            rows = current;
+            numRows = n + 1;
+        }
+
+        /**
+         * Obtains a row. Reading or modifying it requires its lock.
+         * @param idx The identifier of the row.
+         * @return the row.
+         */
+        PreferenceRow row(int idx)
+        {
+            return rows[idx];
+        }
+
+        /**
+         * Obtains the read lock of a row.
+         * @param idx The identifier of the row.
+         * @return the lock.
+         */
+        Lock readLock(int idx)
+        {
+            return locks[idx & (NUM_STRIPES - 1)].readLock();
+        }
+
+        /**
+         * Obtains the write lock of a row.
+         * @param idx The identifier of the row.
+         * @return the lock.
+         */
+        Lock writeLock(int idx)
+        {
+            return locks[idx & (NUM_STRIPES - 1)].writeLock();
+        }
+
+        /**
+         * Obtains the number of elements of a row.
+         * @param idx The identifier of the row.
+         * @return the number of elements (0 if the row does not exist).
+         */
+        int size(int idx)
+        {
+            if(idx < 0 || numRows <= idx)
+            {
+                return 0;
+            }
+            Lock lock = readLock(idx);
+            lock.lock();
+            try
+            {
+                return rows[idx].size;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Obtains a copy of a row.
+         * @param idx The identifier of the row.
+         * @return the copy, null if the row does not exist or it is empty.
+         */
+        PreferenceRow copy(int idx)
+        {
+            if(idx < 0 || numRows <= idx)
+            {
+                return null;
+            }
+            Lock lock = readLock(idx);
+            lock.lock();
+            try
+            {
+                PreferenceRow row = rows[idx];
+                return row.size == 0 ? null : row.copy();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Acquires the read locks of all the rows, so no row can be modified.
+         */
+        void lockAll()
+        {
+            for(ReentrantReadWriteLock lock : locks)
+            {
+                lock.readLock().lock();
+            }
+        }
+
+        /**
+         * Releases the read locks acquired by {@link #lockAll()}.
+         */
+        void unlockAll()
+        {
+            for(int i = locks.length - 1; i >= 0; --i)
+            {
+                locks[i].readLock().unlock();
+            }
+        }
+
+        /**
+         * Empties all the rows. It must not run at the same time as any other operation.
+         */
+        void clear()
+        {
+            for(int idx = 0; idx < numRows; ++idx)
+            {
+                rows[idx] = new PreferenceRow(0);
+            }
+        }
+    }
+}
@@ -12,7 +12,10 @@ package es.uam.eps.ir.knnbandit.data.preference.fast;
 import es.uam.eps.ir.knnbandit.data.preference.UpdateablePreferenceData;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
+import es.uam.eps.ir.knnbandit.utils.IntDoubleConsumer;
 import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 
 /**
  * Interface for updateable preference data.
@@ -23,5 +26,35 @@ import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
  */
 public interface FastUpdateablePreferenceData<U,I> extends UpdateablePreferenceData<U,I>, FastPreferenceData<U,I>, FastUpdateableUserIndex<U>, FastUpdateableItemIndex<I>
 {
-    
+    /**
+     * Visits the preferences of a user, in increasing order of item identifier,
+     * without building any IdxPref object.
+     * @param uidx Identifier of the user.
+     * @param consumer Operation receiving the identifier of each item and its rating.
+     */
+    public default void forEachUidxPref(int uidx, IntDoubleConsumer consumer)
+    {
+        IntIterator iidxs = this.getUidxIidxs(uidx);
+        DoubleIterator vs = this.getUidxVs(uidx);
+        while(iidxs.hasNext())
+        {
+            consumer.accept(iidxs.nextInt(), vs.nextDouble());
+        }
+    }
+
+    /**
+     * Visits the preferences for an item, in increasing order of user identifier,
+     * without building any IdxPref object.
+     * @param iidx Identifier of the item.
+     * @param consumer Operation receiving the identifier of each user and its rating.
+     */
+    public default void forEachIidxPref(int iidx, IntDoubleConsumer consumer)
+    {
+        IntIterator uidxs = this.getIidxUidxs(iidx);
+        DoubleIterator vs = this.getIidxVs(iidx);
+        while(uidxs.hasNext())
+        {
+            consumer.accept(uidxs.nextInt(), vs.nextDouble());
+        }
+    }
 }
@@ -0,0 +1,191 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.preference.fast;
+
+import es.uam.eps.ir.knnbandit.utils.IntDoubleConsumer;
+import es.uam.eps.ir.ranksys.core.preference.IdPref;
+import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
+import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
+import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import org.ranksys.fast.preference.FastPointWisePreferenceData;
+import org.ranksys.fast.preference.IteratorsAbstractFastPreferenceData;
+
+/**
+ * Read-only preference data backed by memory-mapped files, which contain the preferences in
+ * compressed sparse row format, both by user and by item. Only the user and item indexes are
+ * kept on the heap, so datasets larger than the heap can be used, relying on the page cache
+ * of the operating system.
+ *
+ * @param <U> User type.
+ * @param <I> Item type.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class MappedFastPreferenceData<U, I> extends IteratorsAbstractFastPreferenceData<U, I> implements FastPointWisePreferenceData<U, I>
+{
+    /**
+     * Serial version identifier.
+     */
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Preferences of each user (rows are users, columns are items).
+     */
+    private final MappedRows byUser;
+    /**
+     * Preferences for each item (rows are items, columns are users).
+     */
+    private final MappedRows byItem;
+
+    /**
+     * Constructor.
+     * @param uIndex User index.
+     * @param iIndex Item index.
+     * @param byUser Preferences of each user.
+     * @param byItem Preferences for each item.
+     */
+    public MappedFastPreferenceData(FastUserIndex<U> uIndex, FastItemIndex<I> iIndex, MappedRows byUser, MappedRows byItem)
+    {
+        super(uIndex, iIndex);
+        if(byUser.numRows() != uIndex.numUsers() || byItem.numRows() != iIndex.numItems() || byUser.numElements() != byItem.numElements())
+        {
+            throw new IllegalArgumentException("The preferences do not match the indexes");
+        }
+        this.byUser = byUser;
+        this.byItem = byItem;
+    }
+
+    @Override
+    public int numUsers(int iidx)
+    {
+        return byItem.size(iidx);
+    }
+
+    @Override
+    public int numItems(int uidx)
+    {
+        return byUser.size(uidx);
+    }
+
+    @Override
+    public IntIterator getUidxIidxs(int uidx)
+    {
+        return byUser.idxs(uidx);
+    }
+
+    @Override
+    public DoubleIterator getUidxVs(int uidx)
+    {
+        return byUser.values(uidx);
+    }
+
+    @Override
+    public IntIterator getIidxUidxs(int iidx)
+    {
+        return byItem.idxs(iidx);
+    }
+
+    @Override
+    public DoubleIterator getIidxVs(int iidx)
+    {
+        return byItem.values(iidx);
+    }
+
+    /**
+     * Visits the preferences of a user, in increasing order of item identifier.
+     * @param uidx Identifier of the user.
+     * @param consumer Operation receiving the identifier of each item and its rating.
+     */
+    public void forEachUidxPref(int uidx, IntDoubleConsumer consumer)
+    {
+        byUser.forEach(uidx, consumer);
+    }
+
+    /**
+     * Visits the preferences for an item, in increasing order of user identifier.
+     * @param iidx Identifier of the item.
+     * @param consumer Operation receiving the identifier of each user and its rating.
+     */
+    public void forEachIidxPref(int iidx, IntDoubleConsumer consumer)
+    {
+        byItem.forEach(iidx, consumer);
+    }
+
+    @Override
+    public int numPreferences()
+    {
+        return byUser.numElements();
+    }
+
+    @Override
+    public IntStream getUidxWithPreferences()
+    {
+        return IntStream.range(0, this.numUsers()).filter(uidx -> byUser.size(uidx) > 0);
+    }
+
+    @Override
+    public IntStream getIidxWithPreferences()
+    {
+        return IntStream.range(0, this.numItems()).filter(iidx -> byItem.size(iidx) > 0);
+    }
+
+    @Override
+    public int numUsersWithPreferences()
+    {
+        return (int) this.getUidxWithPreferences().count();
+    }
+
+    @Override
+    public int numItemsWithPreferences()
+    {
+        return (int) this.getIidxWithPreferences().count();
+    }
+
+    /**
+     * Obtains the rating of a user for an item, without allocating any memory.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @return the rating, NaN if the user has not rated the item.
+     */
+    public double rating(int uidx, int iidx)
+    {
+        int pos = byUser.find(uidx, iidx);
+        return pos >= 0 ? byUser.value(pos) : Double.NaN;
+    }
+
+    @Override
+    public Optional<IdxPref> getPreference(int uidx, int iidx)
+    {
+        int pos = byUser.find(uidx, iidx);
+        if(pos >= 0)
+        {
+            return Optional.of(new IdxPref(iidx, byUser.value(pos)));
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<? extends IdPref<I>> getPreference(U u, I i)
+    {
+        if(this.containsUser(u) && this.containsItem(i))
+        {
+            Optional<IdxPref> pref = getPreference(user2uidx(u), item2iidx(i));
+            if(pref.isPresent())
+            {
+                return Optional.of(uPrefFun.apply(pref.get()));
+            }
+        }
+        return Optional.empty();
+    }
+}
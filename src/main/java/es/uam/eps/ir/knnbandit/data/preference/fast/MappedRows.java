@@ -0,0 +1,270 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.preference.fast;
+
+import es.uam.eps.ir.knnbandit.utils.IntDoubleConsumer;
+import it.unimi.dsi.fastutil.doubles.AbstractDoubleIterator;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.AbstractIntIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Rows of a sparse matrix in compressed sparse row (CSR) format, stored in a memory-mapped
+ * file: an array with the position of the first element of each row, and two arrays with the
+ * column indexes (sorted within each row) and the values of the elements. As a mapped buffer
+ * cannot exceed 2GB, the element arrays are mapped in several segments.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class MappedRows
+{
+    /**
+     * Logarithm of the number of elements in each segment.
+     */
+    private final static int SEGMENT_BITS = 27;
+    /**
+     * Mask for finding the position of an element in its segment.
+     */
+    private final static int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+    /**
+     * Number of rows.
+     */
+    private final int numRows;
+    /**
+     * Number of elements.
+     */
+    private final int numElements;
+    /**
+     * Position of the first element of each row (plus the number of elements).
+     */
+    private final IntBuffer offsets;
+    /**
+     * Column indexes of the elements, by segments.
+     */
+    private final IntBuffer[] idxs;
+    /**
+     * Values of the elements, by segments.
+     */
+    private final DoubleBuffer[] values;
+
+    /**
+     * Constructor.
+     * @param numRows Number of rows.
+     * @param numElements Number of elements.
+     * @param offsets Position of the first element of each row (plus the number of elements).
+     * @param idxs Column indexes of the elements, by segments.
+     * @param values Values of the elements, by segments.
+     */
+    private MappedRows(int numRows, int numElements, IntBuffer offsets, IntBuffer[] idxs, DoubleBuffer[] values)
+    {
+        this.numRows = numRows;
+        this.numElements = numElements;
+        this.offsets = offsets;
+        this.idxs = idxs;
+        this.values = values;
+    }
+
+    /**
+     * Maps the rows of a sparse matrix. The file might be closed afterwards.
+     * @param channel The file.
+     * @param numRows Number of rows.
+     * @param numElements Number of elements.
+     * @param offsetsPos Position in the file of the offsets of the rows (numRows + 1 ints).
+     * @param idxsPos Position in the file of the column indexes (numElements ints).
+     * @param valuesPos Position in the file of the values (numElements doubles).
+     * @return the mapped rows.
+     * @throws IOException if something fails while mapping the file.
+     */
+    public static MappedRows map(FileChannel channel, int numRows, int numElements, long offsetsPos, long idxsPos, long valuesPos) throws IOException
+    {
+        IntBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, offsetsPos, 4L * (numRows + 1)).asIntBuffer();
+
+        int numSegments = (int) ((numElements + (long) SEGMENT_MASK) >>> SEGMENT_BITS);
+        IntBuffer[] idxs = new IntBuffer[numSegments];
+        DoubleBuffer[] values = new DoubleBuffer[numSegments];
+        for(int s = 0; s < numSegments; ++s)
+        {
+            long first = ((long) s) << SEGMENT_BITS;
+            long size = Math.min(1L << SEGMENT_BITS, numElements - first);
+            idxs[s] = channel.map(FileChannel.MapMode.READ_ONLY, idxsPos + 4L * first, 4L * size).asIntBuffer();
+            values[s] = channel.map(FileChannel.MapMode.READ_ONLY, valuesPos + 8L * first, 8L * size).asDoubleBuffer();
+        }
+        return new MappedRows(numRows, numElements, offsets, idxs, values);
+    }
+
+    /**
+     * Obtains the number of rows.
+     * @return the number of rows.
+     */
+    public int numRows()
+    {
+        return numRows;
+    }
+
+    /**
+     * Obtains the number of elements.
+     * @return the number of elements.
+     */
+    public int numElements()
+    {
+        return numElements;
+    }
+
+    /**
+     * Obtains the position of the first element of a row. The rows after the last one
+     * (for instance, those of users which arrive after the file is written) are empty.
+     * @param row The row.
+     * @return the position.
+     */
+    public int start(int row)
+    {
+        return row < numRows ? offsets.get(row) : numElements;
+    }
+
+    /**
+     * Obtains the position after the last element of a row.
+     * @param row The row.
+     * @return the position.
+     */
+    public int end(int row)
+    {
+        return row < numRows ? offsets.get(row + 1) : numElements;
+    }
+
+    /**
+     * Obtains the number of elements in a row.
+     * @param row The row.
+     * @return the number of elements.
+     */
+    public int size(int row)
+    {
+        return this.end(row) - this.start(row);
+    }
+
+    /**
+     * Obtains the column index of an element.
+     * @param pos The position of the element.
+     * @return the column index.
+     */
+    public int idx(int pos)
+    {
+        return idxs[pos >>> SEGMENT_BITS].get(pos & SEGMENT_MASK);
+    }
+
+    /**
+     * Obtains the value of an element.
+     * @param pos The position of the element.
+     * @return the value.
+     */
+    public double value(int pos)
+    {
+        return values[pos >>> SEGMENT_BITS].get(pos & SEGMENT_MASK);
+    }
+
+    /**
+     * Finds an element of a row, using binary search.
+     * @param row The row.
+     * @param idx The column index of the element.
+     * @return the position of the element, -1 if it does not exist.
+     */
+    public int find(int row, int idx)
+    {
+        int low = this.start(row);
+        int high = this.end(row) - 1;
+        while(low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int midIdx = this.idx(mid);
+            if(midIdx < idx) low = mid + 1;
+            else if(midIdx > idx) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Visits the elements of a row, in increasing order of column index.
+     * @param row The row.
+     * @param consumer Operation receiving the column index and the value of each element.
+     */
+    public void forEach(int row, IntDoubleConsumer consumer)
+    {
+        for(int pos = this.start(row), end = this.end(row); pos < end; ++pos)
+        {
+            consumer.accept(this.idx(pos), this.value(pos));
+        }
+    }
+
+    /**
+     * Obtains an iterator over the column indexes of a row.
+     * @param row The row.
+     * @return the iterator.
+     */
+    public IntIterator idxs(int row)
+    {
+        int start = this.start(row);
+        int end = this.end(row);
+        return new AbstractIntIterator()
+        {
+            /**
+             * Position of the next element.
+             */
+            private int pos = start;
+
+            @Override
+            public boolean hasNext()
+            {
+                return pos < end;
+            }
+
+            @Override
+            public int nextInt()
+            {
+                return idx(pos++);
+            }
+        };
+    }
+
+    /**
+     * Obtains an iterator over the values of a row.
+     * @param row The row.
+     * @return the iterator.
+     */
+    public DoubleIterator values(int row)
+    {
+        int start = this.start(row);
+        int end = this.end(row);
+        return new AbstractDoubleIterator()
+        {
+            /**
+             * Position of the next element.
+             */
+            private int pos = start;
+
+            @Override
+            public boolean hasNext()
+            {
+                return pos < end;
+            }
+
+            @Override
+            public double nextDouble()
+            {
+                return value(pos++);
+            }
+        };
+    }
+}
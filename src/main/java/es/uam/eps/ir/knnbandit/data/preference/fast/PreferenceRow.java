@@ -0,0 +1,149 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.preference.fast;
+
+import es.uam.eps.ir.knnbandit.utils.IntDoubleConsumer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Preferences of a single user or item: the identifiers of the other side, in increasing
+ * order, and their values, stored in parallel arrays which grow as needed.
+ *
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+class PreferenceRow implements Serializable
+{
+    /**
+     * Serial version identifier.
+     */
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Initial capacity of the rows.
+     */
+    final static int INITIAL_CAPACITY = 4;
+
+    /**
+     * The sorted identifiers.
+     */
+    int[] idxs;
+    /**
+     * The values.
+     */
+    double[] vs;
+    /**
+     * Number of stored preferences.
+     */
+    int size;
+
+    /**
+     * Constructor.
+     * @param capacity The initial capacity of the row.
+     */
+    PreferenceRow(int capacity)
+    {
+        this.idxs = new int[capacity];
+        this.vs = new double[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Finds the position of an identifier.
+     * @param idx The identifier.
+     * @return the position if it exists, (-(insertion point) - 1) otherwise.
+     */
+    int find(int idx)
+    {
+        // Preferences usually arrive in increasing order: check the last one first.
+        if(size == 0 || idxs[size - 1] < idx)
+        {
+            return -size - 1;
+        }
+        return Arrays.binarySearch(idxs, 0, size, idx);
+    }
+
+    /**
+     * Visits the preferences in the row, in increasing order of identifier.
+     * @param consumer Operation receiving the identifier and the value of each preference.
+     */
+    void forEach(IntDoubleConsumer consumer)
+    {
+        int[] currentIdxs = idxs;
+        double[] currentVs = vs;
+        for(int i = 0, n = size; i < n; ++i)
+        {
+            consumer.accept(currentIdxs[i], currentVs[i]);
+        }
+    }
+
+    /**
+     * Obtains a copy of the row, with no spare capacity.
+     * @return the copy.
+     */
+    PreferenceRow copy()
+    {
+        PreferenceRow row = new PreferenceRow(0);
+        row.idxs = Arrays.copyOf(idxs, size);
+        row.vs = Arrays.copyOf(vs, size);
+        row.size = size;
+        return row;
+    }
+
+    /**
+     * Stores a preference, replacing its value if it already exists.
+     * @param idx The identifier.
+     * @param value The value.
+     * @return true if the preference was added, false if it was just updated.
+     */
+    boolean put(int idx, double value)
+    {
+        int position = this.find(idx);
+        if(position >= 0) // The rating did already exist.
+        {
+            vs[position] = value;
+            return false;
+        }
+
+        position = -position - 1;
+        if(size == idxs.length)
+        {
+            int capacity = Math.max(INITIAL_CAPACITY, size + (size >> 1));
+            idxs = Arrays.copyOf(idxs, capacity);
+            vs = Arrays.copyOf(vs, capacity);
+        }
+        if(position < size)
+        {
+            System.arraycopy(idxs, position, idxs, position + 1, size - position);
+            System.arraycopy(vs, position, vs, position + 1, size - position);
+        }
+        idxs[position] = idx;
+        vs[position] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a preference.
+     * @param idx The identifier.
+     * @return true if the preference was removed, false if it did not exist.
+     */
+    boolean remove(int idx)
+    {
+        int position = this.find(idx);
+        if(position < 0) return false;
+        System.arraycopy(idxs, position + 1, idxs, position, size - position - 1);
+        System.arraycopy(vs, position + 1, vs, position, size - position - 1);
+        size--;
+        return true;
+    }
+}
@@ -0,0 +1,279 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.preference.fast;
+
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Read-only ground truth for the recommendation loop: finds the rating of a (user, item)
+ * pair without allocating any memory. Ratings are stored in an open-addressing hash table,
+ * indexed by the user and item identifiers packed in a single long value. Memory-mapped
+ * preference data already allows searching for a rating, so the oracle uses it directly
+ * instead of copying its ratings to the heap.
+ *
+ * The oracle only stores the ratings of the users and items which exist when it is built,
+ * and it is never modified afterwards, so the same instance is returned for every recommender
+ * and metric built over the same preference data. If users or items are later added to
+ * updateable preference data, their ratings are searched in the preference data itself, through
+ * {@link #rating(FastPreferenceData, int, int)}.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class RatingOracle
+{
+    /**
+     * Key of the empty positions of the table (identifiers are never negative).
+     */
+    private final static long EMPTY = -1L;
+    /**
+     * Maximum capacity of the table.
+     */
+    private final static int MAX_CAPACITY = 1 << 30;
+    /**
+     * Already created oracles. Preference data is weakly referenced, so the oracles are
+     * discarded with it.
+     */
+    private final static Map<FastPreferenceData<?,?>, RatingOracle> ORACLES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Memory-mapped preference data to search the ratings in (null if they are stored in the table).
+     */
+    private final MappedFastPreferenceData<?,?> mapped;
+    /**
+     * The keys of the table (user and item identifiers).
+     */
+    private final long[] keys;
+    /**
+     * The ratings.
+     */
+    private final double[] values;
+    /**
+     * Mask for obtaining positions in the table.
+     */
+    private final int mask;
+    /**
+     * The number of ratings.
+     */
+    private int size;
+    /**
+     * The number of users when the oracle was built.
+     */
+    private final int numUsers;
+    /**
+     * The number of items when the oracle was built.
+     */
+    private final int numItems;
+
+    /**
+     * Constructor.
+     * @param numRatings The expected number of ratings.
+     * @param numUsers The number of users.
+     * @param numItems The number of items.
+     */
+    private RatingOracle(int numRatings, int numUsers, int numItems)
+    {
+        this.mapped = null;
+        this.numUsers = numUsers;
+        this.numItems = numItems;
+        // Keep the load factor at most at 0.5, so probe sequences are short.
+        int capacity = Math.min(MAX_CAPACITY, Integer.highestOneBit(Math.max(2, 2 * numRatings - 1)) << 1);
+        this.keys = new long[capacity];
+        this.values = new double[capacity];
+        this.mask = capacity - 1;
+        this.size = 0;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Constructor, for memory-mapped preference data.
+     * @param mapped The preference data.
+     */
+    private RatingOracle(MappedFastPreferenceData<?,?> mapped)
+    {
+        this.mapped = mapped;
+        this.keys = null;
+        this.values = null;
+        this.mask = 0;
+        this.size = mapped.numPreferences();
+        this.numUsers = mapped.numUsers();
+        this.numItems = mapped.numItems();
+    }
+
+    /**
+     * Obtains the oracle for some preference data, building it if it does not exist yet.
+     * @param prefData The preference data.
+     * @return the shared oracle.
+     */
+    public static RatingOracle of(FastPreferenceData<?,?> prefData)
+    {
+        return ORACLES.computeIfAbsent(prefData, RatingOracle::load);
+    }
+
+    /**
+     * Builds a new oracle.
+     * @param prefData The preference data.
+     * @return the oracle.
+     */
+    public static RatingOracle load(FastPreferenceData<?,?> prefData)
+    {
+        if(prefData instanceof MappedFastPreferenceData)
+        {
+            return new RatingOracle((MappedFastPreferenceData<?,?>) prefData);
+        }
+
+        RatingOracle oracle = new RatingOracle(prefData.numPreferences(), prefData.numUsers(), prefData.numItems());
+        prefData.getUidxWithPreferences().forEach(uidx ->
+            prefData.getUidxPreferences(uidx).forEach(pref -> oracle.put(uidx, pref.v1, pref.v2)));
+        return oracle;
+    }
+
+    /**
+     * Checks whether a user has rated an item.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @return true if the user has rated the item, false otherwise.
+     */
+    public boolean hasRating(int uidx, int iidx)
+    {
+        return !Double.isNaN(this.rating(uidx, iidx));
+    }
+
+    /**
+     * Obtains the rating of a user for an item.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @return the rating, NaN if the user has not rated the item, or the user or the item
+     *         did not exist when the oracle was built.
+     */
+    public double rating(int uidx, int iidx)
+    {
+        if(uidx >= numUsers || iidx >= numItems)
+        {
+            return Double.NaN;
+        }
+        if(mapped != null)
+        {
+            return mapped.rating(uidx, iidx);
+        }
+        int pos = this.find(key(uidx, iidx));
+        return pos >= 0 ? values[pos] : Double.NaN;
+    }
+
+    /**
+     * Obtains the rating of a user for an item, also for the users and items added to the
+     * preference data after the oracle was built. Their ratings are found by scanning the
+     * profile of the user, without allocating any memory.
+     * @param prefData The preference data the oracle was built from.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @return the rating, NaN if the user has not rated the item.
+     */
+    public double rating(FastPreferenceData<?,?> prefData, int uidx, int iidx)
+    {
+        if(uidx < numUsers && iidx < numItems)
+        {
+            return this.rating(uidx, iidx);
+        }
+
+        IntIterator iidxs = prefData.getUidxIidxs(uidx);
+        DoubleIterator vs = prefData.getUidxVs(uidx);
+        while(iidxs.hasNext())
+        {
+            double value = vs.nextDouble();
+            if(iidxs.nextInt() == iidx) return value;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Obtains the number of ratings.
+     * @return the number of ratings.
+     */
+    public int numRatings()
+    {
+        return this.size;
+    }
+
+    /**
+     * Stores a rating. If the pair was already rated, the rating is replaced.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @param value The rating.
+     */
+    private void put(int uidx, int iidx, double value)
+    {
+        long key = key(uidx, iidx);
+        int pos = hash(key) & mask;
+        while(keys[pos] != EMPTY && keys[pos] != key)
+        {
+            pos = (pos + 1) & mask;
+        }
+        if(keys[pos] == EMPTY)
+        {
+            if(size >= mask)
+            {
+                throw new IllegalStateException("Too many ratings for the oracle");
+            }
+            keys[pos] = key;
+            size++;
+        }
+        values[pos] = value;
+    }
+
+    /**
+     * Finds the position of a key in the table.
+     * @param key The key.
+     * @return the position, -1 if the key is not in the table.
+     */
+    private int find(long key)
+    {
+        int pos = hash(key) & mask;
+        while(true)
+        {
+            long k = keys[pos];
+            if(k == key) return pos;
+            if(k == EMPTY) return -1;
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    /**
+     * Packs a (user, item) pair in a key.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @return the key.
+     */
+    private static long key(int uidx, int iidx)
+    {
+        return (((long) uidx) << 32) | (iidx & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Scrambles the bits of a key, so consecutive identifiers are spread over the table.
+     * @param key The key.
+     * @return the hash of the key.
+     */
+    private static int hash(long key)
+    {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
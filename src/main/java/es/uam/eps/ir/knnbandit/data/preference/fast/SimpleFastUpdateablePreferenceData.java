@@ -9,6 +9,9 @@
  */
 package es.uam.eps.ir.knnbandit.data.preference.fast;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -25,6 +28,9 @@ import java.util.stream.Stream;
 
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
+import es.uam.eps.ir.knnbandit.io.Checkpointable;
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import es.uam.eps.ir.knnbandit.utils.IntDoubleConsumer;
 import es.uam.eps.ir.ranksys.core.preference.IdPref;
 import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
 import org.jooq.lambda.function.Function4;
@@ -40,7 +46,7 @@ import org.jooq.lambda.tuple.Tuple4;
  * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
  * @author Pablo Castells (pablo.castells@uam.es)
  */
-public class SimpleFastUpdateablePreferenceData<U, I> extends StreamsAbstractFastUpdateablePreferenceData<U, I> implements FastUpdateablePointWisePreferenceData<U, I>, Serializable 
+public class SimpleFastUpdateablePreferenceData<U, I> extends StreamsAbstractFastUpdateablePreferenceData<U, I> implements FastUpdateablePointWisePreferenceData<U, I>, Checkpointable, Serializable 
 {
     /**
      * Current number of preferences.
@@ -145,6 +151,33 @@ public class SimpleFastUpdateablePreferenceData<U, I> extends StreamsAbstractFas
         }
     }
 
+    @Override
+    public void forEachUidxPref(int uidx, IntDoubleConsumer consumer)
+    {
+        forEachPref(uidxList.get(uidx), consumer);
+    }
+
+    @Override
+    public void forEachIidxPref(int iidx, IntDoubleConsumer consumer)
+    {
+        forEachPref(iidxList.get(iidx), consumer);
+    }
+
+    /**
+     * Visits the preferences in a list.
+     * @param list The list of preferences (null if empty).
+     * @param consumer Operation receiving the identifier and the value of each preference.
+     */
+    private static void forEachPref(List<IdxPref> list, IntDoubleConsumer consumer)
+    {
+        if(list == null) return;
+        for(int i = 0, size = list.size(); i < size; ++i)
+        {
+            IdxPref pref = list.get(i);
+            consumer.accept(pref.v1, pref.v2);
+        }
+    }
+
     @Override
     public int numPreferences() 
     {
@@ -354,6 +387,50 @@ public class SimpleFastUpdateablePreferenceData<U, I> extends StreamsAbstractFas
         return false;
     }
     
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeInt(this.uidxList.size());
+        out.writeInt(this.iidxList.size());
+        out.writeInt(this.numPreferences);
+        for(List<IdxPref> list : this.uidxList)
+        {
+            int size = (list == null) ? -1 : list.size();
+            out.writeInt(size);
+            for(int i = 0; i < size; ++i)
+            {
+                IdxPref pref = list.get(i);
+                out.writeInt(pref.v1);
+                out.writeDouble(pref.v2);
+            }
+        }
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException
+    {
+        Checkpoints.check(this.uidxList.size(), in.readInt(), "number of users");
+        Checkpoints.check(this.iidxList.size(), in.readInt(), "number of items");
+        int storedPreferences = in.readInt();
+
+        for(int uidx = 0; uidx < this.uidxList.size(); ++uidx) this.uidxList.set(uidx, null);
+        for(int iidx = 0; iidx < this.iidxList.size(); ++iidx) this.iidxList.set(iidx, null);
+        this.numPreferences = 0;
+
+        // Users are visited in order, so every insertion in the item lists happens at the end.
+        for(int uidx = 0; uidx < this.uidxList.size(); ++uidx)
+        {
+            int size = in.readInt();
+            for(int i = 0; i < size; ++i)
+            {
+                int iidx = in.readInt();
+                double value = in.readDouble();
+                this.updateRating(uidx, iidx, value);
+            }
+        }
+        Checkpoints.check(storedPreferences, this.numPreferences, "number of preferences");
+    }
+
     /**
      * Loads a SimpleFastPreferenceData from a stream of user-item-value triples.
      *
@@ -9,6 +9,7 @@
  */
 package es.uam.eps.ir.knnbandit.data.preference.fast;
 
+import es.uam.eps.ir.knnbandit.utils.IntDoubleConsumer;
 import es.uam.eps.ir.ranksys.core.preference.IdPref;
 import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
 import it.unimi.dsi.fastutil.doubles.DoubleIterator;
@@ -244,6 +245,18 @@ public class TransposedUpdateablePreferenceData<I, U> implements FastUpdateableP
         return d.getUidxVs(iidx);
     }
 
+    @Override
+    public void forEachUidxPref(int uidx, IntDoubleConsumer consumer)
+    {
+        d.forEachIidxPref(uidx, consumer);
+    }
+
+    @Override
+    public void forEachIidxPref(int iidx, IntDoubleConsumer consumer)
+    {
+        d.forEachUidxPref(iidx, consumer);
+    }
+
     @Override
     public Optional<IdxPref> getPreference(int uidx, int iidx) 
     {
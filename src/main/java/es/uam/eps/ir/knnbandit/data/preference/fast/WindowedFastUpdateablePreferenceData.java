@@ -0,0 +1,383 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.preference.fast;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.stream.Stream;
+
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import org.jooq.lambda.tuple.Tuple3;
+
+/**
+ * Updateable preference data which only keeps the most recent ratings: a sliding window which
+ * contains, at most, a given number of ratings, and only those received during a given period
+ * of time. Older ratings are forgotten, so the memory and the cost of the models built over
+ * this data remain bounded in long executions.
+ *
+ * Time is measured in ticks, advanced by {@link #tick()} (for instance, once per iteration of
+ * the recommendation loop). Every forgotten rating is notified to a listener, so the models
+ * built over the data can revert its effect. The listener is called once the rating has been
+ * removed from the data.
+ *
+ * If a rating is updated, the window contains both versions: the listener is notified of both
+ * of them, but the rating is only removed from the data when its last version expires.
+ *
+ * @param <U> User type.
+ * @param <I> Item type.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class WindowedFastUpdateablePreferenceData<U, I> extends ColumnarFastUpdateablePreferenceData<U, I>
+{
+    /**
+     * Serial version identifier.
+     */
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Value indicating that the window is not limited by a number of ratings or a period of time.
+     */
+    public final static long UNBOUNDED = 0L;
+
+    /**
+     * Maximum number of ratings in the window (UNBOUNDED for no limit).
+     */
+    private final int maxRatings;
+    /**
+     * Maximum number of ticks a rating stays in the window (UNBOUNDED for no limit).
+     */
+    private final long maxAge;
+    /**
+     * Receives the forgotten ratings.
+     */
+    private final ExpirationListener listener;
+
+    /**
+     * Users of the ratings in the window, in arrival order (circular buffer).
+     */
+    private int[] uidxs;
+    /**
+     * Items of the ratings in the window, in arrival order (circular buffer).
+     */
+    private int[] iidxs;
+    /**
+     * Values of the ratings in the window, in arrival order (circular buffer).
+     */
+    private double[] values;
+    /**
+     * Ticks when the ratings in the window arrived (circular buffer).
+     */
+    private long[] times;
+    /**
+     * Position of the oldest rating in the buffers.
+     */
+    private int head;
+    /**
+     * Number of ratings in the window.
+     */
+    private int size;
+    /**
+     * Number of ratings which have left the window.
+     */
+    private long numExpired;
+    /**
+     * Current time.
+     */
+    private long now;
+    /**
+     * Arrival number of the last version of each rating in the window, indexed by user and item.
+     */
+    private final Long2LongOpenHashMap lastArrival;
+    /**
+     * True while a checkpoint is being restored, so the window is not modified.
+     */
+    private boolean restoring;
+
+    /**
+     * Constructor.
+     *
+     * @param uIndex User index.
+     * @param iIndex Item index.
+     * @param maxRatings Maximum number of ratings in the window (UNBOUNDED for no limit).
+     * @param maxAge Maximum number of ticks a rating stays in the window (UNBOUNDED for no limit).
+     * @param listener Receives the forgotten ratings.
+     */
+    protected WindowedFastUpdateablePreferenceData(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, int maxRatings, long maxAge, ExpirationListener listener)
+    {
+        super(uIndex, iIndex);
+        if(maxRatings < 0 || maxAge < 0)
+        {
+            throw new IllegalArgumentException("The limits of the window cannot be negative");
+        }
+        this.maxRatings = maxRatings;
+        this.maxAge = maxAge;
+        this.listener = listener;
+
+        int capacity = maxRatings == UNBOUNDED ? PreferenceRow.INITIAL_CAPACITY : maxRatings;
+        this.uidxs = new int[capacity];
+        this.iidxs = new int[capacity];
+        this.values = new double[capacity];
+        this.times = new long[capacity];
+        this.head = 0;
+        this.size = 0;
+        this.numExpired = 0L;
+        this.now = 0L;
+        this.lastArrival = new Long2LongOpenHashMap();
+        this.lastArrival.defaultReturnValue(-1L);
+        this.restoring = false;
+    }
+
+    @Override
+    public void updateRating(int uidx, int iidx, double rating)
+    {
+        // If the user or the item are not in the preference data, do nothing.
+        if(uidx < 0 || this.numUsers() <= uidx || iidx < 0 || this.numItems() <= iidx)
+        {
+            return;
+        }
+
+        super.updateRating(uidx, iidx, rating);
+        if(restoring)
+        {
+            return;
+        }
+
+        if(maxRatings != UNBOUNDED && size == maxRatings)
+        {
+            this.expire();
+        }
+        this.push(uidx, iidx, rating, now);
+    }
+
+    @Override
+    protected void updateDelete(int uidx, int iidx)
+    {
+        // The rating might still be in the window: it is skipped when it expires.
+        lastArrival.remove(key(uidx, iidx));
+        super.updateDelete(uidx, iidx);
+    }
+
+    /**
+     * Advances the time by one tick, forgetting the ratings which become too old.
+     */
+    public void tick()
+    {
+        now++;
+        if(maxAge != UNBOUNDED)
+        {
+            while(size > 0 && now - times[head] >= maxAge)
+            {
+                this.expire();
+            }
+        }
+    }
+
+    /**
+     * Obtains the current time.
+     * @return the number of ticks since the creation of the data.
+     */
+    public long getTime()
+    {
+        return now;
+    }
+
+    /**
+     * Obtains the number of ratings in the window, including old versions of updated ratings.
+     * @return the number of ratings in the window.
+     */
+    public int windowSize()
+    {
+        return size;
+    }
+
+    /**
+     * Adds a rating at the end of the window.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @param rating The rating.
+     * @param time The time when the rating arrived.
+     */
+    private void push(int uidx, int iidx, double rating, long time)
+    {
+        if(size == uidxs.length)
+        {
+            this.growBuffers();
+        }
+        int pos = (head + size) % uidxs.length;
+        uidxs[pos] = uidx;
+        iidxs[pos] = iidx;
+        values[pos] = rating;
+        times[pos] = time;
+        lastArrival.put(key(uidx, iidx), numExpired + size);
+        size++;
+    }
+
+    /**
+     * Doubles the capacity of the buffers, keeping the ratings in arrival order.
+     */
+    private void growBuffers()
+    {
+        int capacity = 2 * uidxs.length;
+        uidxs = unroll(uidxs, new int[capacity]);
+        iidxs = unroll(iidxs, new int[capacity]);
+        double[] newValues = new double[capacity];
+        long[] newTimes = new long[capacity];
+        for(int i = 0; i < size; ++i)
+        {
+            int pos = (head + i) % values.length;
+            newValues[i] = values[pos];
+            newTimes[i] = times[pos];
+        }
+        values = newValues;
+        times = newTimes;
+        head = 0;
+    }
+
+    /**
+     * Copies a circular buffer into a larger array, starting at the first position.
+     * @param buffer The circular buffer.
+     * @param target The target array.
+     * @return the target array.
+     */
+    private int[] unroll(int[] buffer, int[] target)
+    {
+        for(int i = 0; i < size; ++i)
+        {
+            target[i] = buffer[(head + i) % buffer.length];
+        }
+        return target;
+    }
+
+    /**
+     * Forgets the oldest rating in the window, and notifies the listener.
+     */
+    private void expire()
+    {
+        int uidx = uidxs[head];
+        int iidx = iidxs[head];
+        double value = values[head];
+        long arrival = numExpired;
+        head = (head + 1) % uidxs.length;
+        size--;
+        numExpired++;
+
+        // Only the last version of the rating removes it from the data.
+        long key = key(uidx, iidx);
+        if(lastArrival.get(key) == arrival)
+        {
+            lastArrival.remove(key);
+            super.updateDelete(uidx, iidx);
+        }
+        listener.expired(uidx, iidx, value);
+    }
+
+    /**
+     * Packs a (user, item) pair in a key.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     * @return the key.
+     */
+    private static long key(int uidx, int iidx)
+    {
+        return (((long) uidx) << 32) | (iidx & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        super.saveState(out);
+        out.writeLong(this.now);
+        out.writeLong(this.numExpired);
+        out.writeInt(this.size);
+        for(int i = 0; i < size; ++i)
+        {
+            int pos = (head + i) % uidxs.length;
+            out.writeInt(uidxs[pos]);
+            out.writeInt(iidxs[pos]);
+            out.writeDouble(values[pos]);
+            out.writeLong(times[pos]);
+        }
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException
+    {
+        this.restoring = true;
+        try
+        {
+            super.loadState(in);
+        }
+        finally
+        {
+            this.restoring = false;
+        }
+
+        this.now = in.readLong();
+        this.numExpired = in.readLong();
+        int storedSize = in.readInt();
+        if(maxRatings != UNBOUNDED && storedSize > maxRatings)
+        {
+            throw new IOException("The checkpoint does not match: the window contains " + storedSize + " ratings, more than " + maxRatings);
+        }
+
+        // The ratings are pushed back in order, so the arrival numbers are restored.
+        this.head = 0;
+        this.size = 0;
+        this.lastArrival.clear();
+        for(int i = 0; i < storedSize; ++i)
+        {
+            int uidx = in.readInt();
+            int iidx = in.readInt();
+            double value = in.readDouble();
+            long time = in.readLong();
+            this.push(uidx, iidx, value, time);
+        }
+    }
+
+    /**
+     * Loads a WindowedFastUpdateablePreferenceData from a stream of user-item-value triples.
+     * The ratings enter the window in the order of the stream, at time 0.
+     *
+     * @param <U> User type.
+     * @param <I> Item type.
+     * @param tuples Stream of user-item-value triples.
+     * @param uIndex User index.
+     * @param iIndex Item index.
+     * @param maxRatings Maximum number of ratings in the window (UNBOUNDED for no limit).
+     * @param maxAge Maximum number of ticks a rating stays in the window (UNBOUNDED for no limit).
+     * @param listener Receives the forgotten ratings.
+     * @return an instance of WindowedFastUpdateablePreferenceData containing the data from the input stream.
+     */
+    public static <U, I> WindowedFastUpdateablePreferenceData<U, I> load(Stream<Tuple3<U, I, Double>> tuples, FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, int maxRatings, long maxAge, ExpirationListener listener)
+    {
+        WindowedFastUpdateablePreferenceData<U, I> data = new WindowedFastUpdateablePreferenceData<>(uIndex, iIndex, maxRatings, maxAge, listener);
+        tuples.forEach(t -> data.updateRating(uIndex.user2uidx(t.v1), iIndex.item2iidx(t.v2), t.v3));
+        return data;
+    }
+
+    /**
+     * Receives the ratings which leave the window.
+     */
+    @FunctionalInterface
+    public interface ExpirationListener
+    {
+        /**
+         * Notifies that a rating has left the window.
+         * @param uidx Identifier of the user.
+         * @param iidx Identifier of the item.
+         * @param value The value of the rating.
+         */
+        public void expired(int uidx, int iidx, double value);
+    }
+}
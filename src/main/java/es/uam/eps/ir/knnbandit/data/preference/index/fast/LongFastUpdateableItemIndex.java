@@ -0,0 +1,118 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.preference.index.fast;
+
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of FastUpdateableItemIndex for items identified by long values, backed by a
+ * LongIdxIndex. Besides the methods of the interface, which box the identifiers, it provides
+ * primitive versions of them, so the identifiers can be translated without allocating memory.
+ *
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class LongFastUpdateableItemIndex implements FastUpdateableItemIndex<Long>
+{
+    /**
+     * Bi-map between items and their indices.
+     */
+    private final LongIdxIndex iMap = new LongIdxIndex();
+
+    @Override
+    public int addItem(Long i)
+    {
+        return iMap.add(i);
+    }
+
+    /**
+     * Adds an item to the index.
+     * @param i The item.
+     * @return the identifier of the item.
+     */
+    public int addItem(long i)
+    {
+        return iMap.add(i);
+    }
+
+    @Override
+    public boolean containsItem(Long i)
+    {
+        return iMap.containsId(i);
+    }
+
+    /**
+     * Checks whether an item is in the index.
+     * @param i The item.
+     * @return true if the item is in the index, false otherwise.
+     */
+    public boolean containsItem(long i)
+    {
+        return iMap.containsId(i);
+    }
+
+    @Override
+    public int numItems()
+    {
+        return iMap.size();
+    }
+
+    @Override
+    public Stream<Long> getAllItems()
+    {
+        return iMap.getIds().boxed();
+    }
+
+    @Override
+    public int item2iidx(Long i)
+    {
+        return iMap.get((long) i);
+    }
+
+    /**
+     * Obtains the identifier of an item.
+     * @param i The item.
+     * @return the identifier of the item, -1 if it is not in the index.
+     */
+    public int item2iidx(long i)
+    {
+        return iMap.get(i);
+    }
+
+    @Override
+    public Long iidx2item(int iidx)
+    {
+        return iMap.get(iidx);
+    }
+
+    /**
+     * Obtains the item with a given identifier, without boxing it.
+     * @param iidx The identifier of the item.
+     * @return the item.
+     */
+    public long iidx2itemId(int iidx)
+    {
+        return iMap.get(iidx);
+    }
+
+    /**
+     * Creates an item index from a stream of items.
+     *
+     * @param items Stream of items.
+     * @return a fast item index.
+     */
+    public static LongFastUpdateableItemIndex load(LongStream items)
+    {
+        LongFastUpdateableItemIndex itemIndex = new LongFastUpdateableItemIndex();
+        items.forEach(itemIndex::addItem);
+        return itemIndex;
+    }
+}
@@ -0,0 +1,118 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.preference.index.fast;
+
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of FastUpdateableUserIndex for users identified by long values, backed by a
+ * LongIdxIndex. Besides the methods of the interface, which box the identifiers, it provides
+ * primitive versions of them, so the identifiers can be translated without allocating memory.
+ *
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class LongFastUpdateableUserIndex implements FastUpdateableUserIndex<Long>
+{
+    /**
+     * Bi-map between users and their indices.
+     */
+    private final LongIdxIndex uMap = new LongIdxIndex();
+
+    @Override
+    public int addUser(Long u)
+    {
+        return uMap.add(u);
+    }
+
+    /**
+     * Adds a user to the index.
+     * @param u The user.
+     * @return the identifier of the user.
+     */
+    public int addUser(long u)
+    {
+        return uMap.add(u);
+    }
+
+    @Override
+    public boolean containsUser(Long u)
+    {
+        return uMap.containsId(u);
+    }
+
+    /**
+     * Checks whether a user is in the index.
+     * @param u The user.
+     * @return true if the user is in the index, false otherwise.
+     */
+    public boolean containsUser(long u)
+    {
+        return uMap.containsId(u);
+    }
+
+    @Override
+    public int numUsers()
+    {
+        return uMap.size();
+    }
+
+    @Override
+    public Stream<Long> getAllUsers()
+    {
+        return uMap.getIds().boxed();
+    }
+
+    @Override
+    public int user2uidx(Long u)
+    {
+        return uMap.get((long) u);
+    }
+
+    /**
+     * Obtains the identifier of a user.
+     * @param u The user.
+     * @return the identifier of the user, -1 if it is not in the index.
+     */
+    public int user2uidx(long u)
+    {
+        return uMap.get(u);
+    }
+
+    @Override
+    public Long uidx2user(int uidx)
+    {
+        return uMap.get(uidx);
+    }
+
+    /**
+     * Obtains the user with a given identifier, without boxing it.
+     * @param uidx The identifier of the user.
+     * @return the user.
+     */
+    public long uidx2userId(int uidx)
+    {
+        return uMap.get(uidx);
+    }
+
+    /**
+     * Creates a user index from a stream of users.
+     *
+     * @param users Stream of users.
+     * @return a fast user index.
+     */
+    public static LongFastUpdateableUserIndex load(LongStream users)
+    {
+        LongFastUpdateableUserIndex userIndex = new LongFastUpdateableUserIndex();
+        users.forEach(userIndex::addUser);
+        return userIndex;
+    }
+}
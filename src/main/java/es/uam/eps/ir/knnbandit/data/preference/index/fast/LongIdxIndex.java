@@ -0,0 +1,137 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.data.preference.index.fast;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+/**
+ * Bi-map between long identifiers and indices from 0 (inclusive) to the number of identifiers
+ * (exclusive). Unlike IdxIndex, the identifiers are stored as primitives, so no object is
+ * allocated when translating them.
+ *
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class LongIdxIndex implements Serializable
+{
+    /**
+     * Serial version identifier.
+     */
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Initial capacity of the array of identifiers.
+     */
+    private final static int INITIAL_CAPACITY = 16;
+
+    /**
+     * Map from identifiers to indices.
+     */
+    private final Long2IntOpenHashMap id2idx;
+    /**
+     * Identifiers, indexed by their indices.
+     */
+    private long[] idx2id;
+    /**
+     * Number of identifiers.
+     */
+    private int size;
+
+    /**
+     * Constructor.
+     */
+    public LongIdxIndex()
+    {
+        this.id2idx = new Long2IntOpenHashMap();
+        this.id2idx.defaultReturnValue(-1);
+        this.idx2id = new long[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Adds an identifier to the index. If it already exists, nothing is added.
+     * @param id The identifier.
+     * @return the index of the identifier.
+     */
+    public int add(long id)
+    {
+        int idx = id2idx.get(id);
+        if(idx >= 0)
+        {
+            return idx;
+        }
+
+        idx = size;
+        if(size == idx2id.length)
+        {
+            idx2id = Arrays.copyOf(idx2id, size + (size >> 1));
+        }
+        idx2id[idx] = id;
+        id2idx.put(id, idx);
+        size++;
+        return idx;
+    }
+
+    /**
+     * Checks whether an identifier is in the index.
+     * @param id The identifier.
+     * @return true if it is in the index, false otherwise.
+     */
+    public boolean containsId(long id)
+    {
+        return id2idx.containsKey(id);
+    }
+
+    /**
+     * Obtains the index of an identifier.
+     * @param id The identifier.
+     * @return the index, -1 if the identifier is not in the index.
+     */
+    public int get(long id)
+    {
+        return id2idx.get(id);
+    }
+
+    /**
+     * Obtains the identifier with a given index.
+     * @param idx The index.
+     * @return the identifier.
+     */
+    public long get(int idx)
+    {
+        if(idx < 0 || idx >= size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + idx + ", size: " + size);
+        }
+        return idx2id[idx];
+    }
+
+    /**
+     * Obtains the number of identifiers.
+     * @return the number of identifiers.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Obtains the identifiers, in increasing order of index.
+     * @return a stream containing the identifiers.
+     */
+    public LongStream getIds()
+    {
+        return Arrays.stream(idx2id, 0, size);
+    }
+}
@@ -0,0 +1,217 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.grid;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the configurations of a grid of algorithms with a fixed number of threads.
+ * Configurations are started from the most expensive to the cheapest, according to
+ * their estimated costs, and each thread takes the next pending configuration as soon
+ * as it finishes the previous one. This way, expensive configurations do not end up
+ * running alone at the end, and the number of configurations held in memory at the
+ * same time is bounded by the number of threads.
+ *
+ * While running, the progress of the configurations is periodically printed.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class GridExecutor
+{
+    /**
+     * Default time between progress reports (in milliseconds).
+     */
+    public final static long DEFAULT_REPORT_INTERVAL = 60000L;
+
+    /**
+     * Maximum number of configurations running at the same time.
+     */
+    private final int numThreads;
+    /**
+     * Time between progress reports (in milliseconds). Non-positive to disable them.
+     */
+    private final long reportInterval;
+    /**
+     * The submitted configurations.
+     */
+    private final List<Job> jobs;
+
+    /**
+     * Constructor. Reports the progress with the default interval.
+     * @param numThreads Maximum number of configurations running at the same time.
+     */
+    public GridExecutor(int numThreads)
+    {
+        this(numThreads, DEFAULT_REPORT_INTERVAL);
+    }
+
+    /**
+     * Constructor.
+     * @param numThreads Maximum number of configurations running at the same time.
+     * @param reportInterval Time between progress reports (in milliseconds). Non-positive to disable them.
+     */
+    public GridExecutor(int numThreads, long reportInterval)
+    {
+        this.numThreads = Math.max(1, numThreads);
+        this.reportInterval = reportInterval;
+        this.jobs = new ArrayList<>();
+    }
+
+    /**
+     * Adds a configuration to the grid.
+     * @param name The name of the configuration.
+     * @param cost The estimated cost of the configuration (only used for comparing configurations).
+     * @param task The configuration.
+     */
+    public void submit(String name, double cost, GridTask task)
+    {
+        this.jobs.add(new Job(name, cost, task));
+    }
+
+    /**
+     * Runs all the submitted configurations, and waits until they finish. An error
+     * in a configuration does not stop the rest.
+     * @return the progress of each configuration, in the order they were started.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public List<GridProgress> run() throws InterruptedException
+    {
+        // Most expensive first. The sort is stable, so ties keep the submission order.
+        List<Job> sorted = new ArrayList<>(this.jobs);
+        sorted.sort(Comparator.comparingDouble((Job job) -> job.cost).reversed());
+        this.jobs.clear();
+
+        List<GridProgress> progresses = new ArrayList<>();
+        if(sorted.isEmpty()) return progresses;
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, sorted.size()), threadFactory("grid-worker"));
+        for(Job job : sorted)
+        {
+            GridProgress progress = new GridProgress(job.name);
+            progresses.add(progress);
+            pool.execute(() ->
+            {
+                try
+                {
+                    job.task.run(progress);
+                }
+                catch (RuntimeException ex)
+                {
+                    ex.printStackTrace();
+                }
+                finally
+                {
+                    progress.finish();
+                    System.out.println(progress);
+                }
+            });
+        }
+        pool.shutdown();
+
+        ScheduledExecutorService reporter = null;
+        if(reportInterval > 0L)
+        {
+            reporter = Executors.newSingleThreadScheduledExecutor(threadFactory("grid-reporter"));
+            reporter.scheduleAtFixedRate(() -> report(progresses), reportInterval, reportInterval, TimeUnit.MILLISECONDS);
+        }
+
+        try
+        {
+            while(!pool.awaitTermination(1, TimeUnit.MINUTES))
+            {
+                // Keep waiting until every configuration finishes.
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            pool.shutdownNow();
+            throw ex;
+        }
+        finally
+        {
+            if(reporter != null) reporter.shutdownNow();
+        }
+        return progresses;
+    }
+
+    /**
+     * Prints the progress of the running configurations.
+     * @param progresses The progress of every configuration.
+     */
+    private static void report(List<GridProgress> progresses)
+    {
+        int pending = 0;
+        int finished = 0;
+        StringBuilder builder = new StringBuilder();
+        for(GridProgress progress : progresses)
+        {
+            if(progress.isFinished()) finished++;
+            else if(!progress.isStarted()) pending++;
+            else builder.append("\t").append(progress).append("\n");
+        }
+        System.out.print("Grid: " + finished + " finished, " + pending + " pending\n" + builder);
+    }
+
+    /**
+     * Creates a factory of named daemon threads.
+     * @param prefix The prefix of the names of the threads.
+     * @return the factory.
+     */
+    private static ThreadFactory threadFactory(String prefix)
+    {
+        AtomicInteger counter = new AtomicInteger(0);
+        return (Runnable r) ->
+        {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A submitted configuration.
+     */
+    private static class Job
+    {
+        /**
+         * The name of the configuration.
+         */
+        private final String name;
+        /**
+         * The estimated cost of the configuration.
+         */
+        private final double cost;
+        /**
+         * The configuration.
+         */
+        private final GridTask task;
+
+        /**
+         * Constructor.
+         * @param name The name of the configuration.
+         * @param cost The estimated cost of the configuration.
+         * @param task The configuration.
+         */
+        Job(String name, double cost, GridTask task)
+        {
+            this.name = name;
+            this.cost = cost;
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.grid;
+
+import java.util.Locale;
+
+/**
+ * Progress of a configuration of the grid. The thread running the configuration
+ * notifies the iterations it completes, and any other thread can read the speed
+ * and the expected remaining time. Notifying an iteration is a single ordered write,
+ * so it can be done in every iteration.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class GridProgress
+{
+    /**
+     * The name of the configuration.
+     */
+    private final String name;
+    /**
+     * The expected number of iterations (0 if unknown).
+     */
+    private volatile long total;
+    /**
+     * The number of completed iterations.
+     */
+    private volatile long done;
+    /**
+     * The number of iterations completed before starting to measure (i.e. recovered from a previous execution).
+     */
+    private volatile long initial;
+    /**
+     * Moment (in nanoseconds) at which the measure started (0 if the configuration has not started).
+     */
+    private volatile long startTime;
+    /**
+     * Moment (in nanoseconds) at which the configuration finished (0 if it has not finished).
+     */
+    private volatile long endTime;
+
+    /**
+     * Constructor.
+     * @param name The name of the configuration.
+     */
+    public GridProgress(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Starts measuring the progress.
+     * @param total The expected number of iterations (0 if unknown).
+     * @param initial The number of iterations already completed.
+     */
+    public void start(long total, long initial)
+    {
+        this.total = total;
+        this.initial = initial;
+        this.done = initial;
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Notifies the number of completed iterations.
+     * @param done The number of completed iterations.
+     */
+    public void update(long done)
+    {
+        this.done = done;
+    }
+
+    /**
+     * Marks the configuration as finished.
+     */
+    public void finish()
+    {
+        this.endTime = System.nanoTime();
+    }
+
+    /**
+     * Obtains the name of the configuration.
+     * @return the name.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Checks whether the configuration has started.
+     * @return true if it has started, false otherwise.
+     */
+    public boolean isStarted()
+    {
+        return startTime != 0L;
+    }
+
+    /**
+     * Checks whether the configuration has finished.
+     * @return true if it has finished, false otherwise.
+     */
+    public boolean isFinished()
+    {
+        return endTime != 0L;
+    }
+
+    /**
+     * Obtains the number of completed iterations.
+     * @return the number of completed iterations.
+     */
+    public long getDone()
+    {
+        return done;
+    }
+
+    /**
+     * Obtains the elapsed time since the configuration started.
+     * @return the elapsed time (in seconds).
+     */
+    public double getElapsed()
+    {
+        if(startTime == 0L) return 0.0;
+        long end = endTime != 0L ? endTime : System.nanoTime();
+        return (end - startTime) / 1.0E9;
+    }
+
+    /**
+     * Obtains the number of iterations completed per second.
+     * @return the number of iterations per second (0 if nothing has been measured).
+     */
+    public double getSpeed()
+    {
+        double elapsed = this.getElapsed();
+        return elapsed > 0.0 ? (done - initial) / elapsed : 0.0;
+    }
+
+    /**
+     * Estimates the remaining time.
+     * @return the remaining time (in seconds), NaN if it cannot be estimated.
+     */
+    public double getEta()
+    {
+        double speed = this.getSpeed();
+        if(total <= 0L || speed <= 0.0) return Double.NaN;
+        return Math.max(0L, total - done) / speed;
+    }
+
+    @Override
+    public String toString()
+    {
+        if(this.isFinished())
+        {
+            return String.format(Locale.ROOT, "%s: finished (%d iterations, %.1f s.)", name, done, this.getElapsed());
+        }
+        double eta = this.getEta();
+        return String.format(Locale.ROOT, "%s: %d/%s iterations (%.1f it/s, ETA %s)", name, done,
+                total > 0L ? Long.toString(total) : "?", this.getSpeed(),
+                Double.isNaN(eta) ? "unknown" : String.format(Locale.ROOT, "%.0f s.", eta));
+    }
+}
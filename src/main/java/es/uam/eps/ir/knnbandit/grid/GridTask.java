@@ -0,0 +1,25 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.grid;
+
+/**
+ * A configuration of the grid, to be run by a {@link GridExecutor}.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+@FunctionalInterface
+public interface GridTask
+{
+    /**
+     * Runs the configuration.
+     * @param progress Where to notify the progress of the configuration.
+     */
+    void run(GridProgress progress);
+}
@@ -0,0 +1,312 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Run log writer which moves the formatting and writing of the iterations to a dedicated
+ * thread. The thread running the loop only copies the primitive values of each iteration
+ * into a bounded ring buffer, and a writer thread sends them, in batches, to another
+ * writer. It supports a single thread writing iterations.
+ *
+ * When the buffer is full, the thread running the loop waits until the writer thread
+ * frees some space. The waiting strategy is configurable.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class AsyncRunLogWriter implements RunLogWriter
+{
+    /**
+     * Default capacity of the buffer.
+     */
+    public final static int DEFAULT_CAPACITY = 4096;
+    /**
+     * Time (in nanoseconds) the thread running the loop parks when the buffer is full.
+     */
+    private final static long PARK_NANOS = 100000L;
+    /**
+     * Time (in nanoseconds) the writer thread parks when the buffer is empty. The thread
+     * running the loop wakes it up earlier if it needs space.
+     */
+    private final static long IDLE_NANOS = 1000000L;
+
+    /**
+     * Strategies for waiting when the buffer is full.
+     */
+    public enum Backpressure
+    {
+        /**
+         * Parks the writing thread until there is space in the buffer. Frees the processor.
+         */
+        BLOCK,
+        /**
+         * Yields the processor while the buffer is full. Reacts faster, at the cost of CPU time.
+         */
+        YIELD
+    }
+
+    /**
+     * The writer which actually stores the iterations.
+     */
+    private final RunLogWriter base;
+    /**
+     * Strategy for waiting when the buffer is full.
+     */
+    private final Backpressure backpressure;
+    /**
+     * The capacity of the buffer (a power of two).
+     */
+    private final int capacity;
+    /**
+     * Mask for obtaining positions in the buffer.
+     */
+    private final int mask;
+    /**
+     * The number of metrics.
+     */
+    private final int numMetrics;
+    /**
+     * Iteration numbers in the buffer.
+     */
+    private final int[] iterations;
+    /**
+     * Users in the buffer.
+     */
+    private final long[] users;
+    /**
+     * Items in the buffer.
+     */
+    private final long[] items;
+    /**
+     * Values of the metrics in the buffer (numMetrics consecutive values per iteration).
+     */
+    private final double[] metrics;
+    /**
+     * Times in the buffer.
+     */
+    private final long[] times;
+    /**
+     * Number of iterations published by the thread running the loop.
+     */
+    private final AtomicLong head;
+    /**
+     * Number of iterations sent to the base writer.
+     */
+    private final AtomicLong tail;
+    /**
+     * The writer thread.
+     */
+    private final Thread writerThread;
+    /**
+     * The thread publishing iterations (only set while it waits).
+     */
+    private volatile Thread waitingProducer;
+    /**
+     * True when no more iterations will be published.
+     */
+    private volatile boolean closed;
+    /**
+     * Error found by the writer thread, if any. Any kind of error is kept, since the writer
+     * thread stops after it, and the thread running the loop would otherwise wait forever.
+     */
+    private volatile Throwable error;
+
+    /**
+     * Constructor. Uses the default capacity, and blocks when the buffer is full.
+     * @param base The writer which actually stores the iterations.
+     * @param numMetrics The number of metrics.
+     */
+    public AsyncRunLogWriter(RunLogWriter base, int numMetrics)
+    {
+        this(base, numMetrics, DEFAULT_CAPACITY, Backpressure.BLOCK);
+    }
+
+    /**
+     * Constructor.
+     * @param base The writer which actually stores the iterations.
+     * @param numMetrics The number of metrics.
+     * @param capacity Number of iterations the buffer can hold. It is rounded up to a power of two.
+     * @param backpressure Strategy for waiting when the buffer is full.
+     */
+    public AsyncRunLogWriter(RunLogWriter base, int numMetrics, int capacity, Backpressure backpressure)
+    {
+        this.base = base;
+        this.backpressure = backpressure;
+        this.numMetrics = numMetrics;
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+
+        this.iterations = new int[this.capacity];
+        this.users = new long[this.capacity];
+        this.items = new long[this.capacity];
+        this.metrics = new double[this.capacity * numMetrics];
+        this.times = new long[this.capacity];
+
+        this.head = new AtomicLong(0L);
+        this.tail = new AtomicLong(0L);
+        this.closed = false;
+        this.error = null;
+
+        this.writerThread = new Thread(this::drain, "run-log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    @Override
+    public void write(int iteration, long user, long item, double[] metricValues, long time) throws IOException
+    {
+        this.checkError();
+        long h = head.get();
+        while(h - tail.get() >= capacity)
+        {
+            this.await();
+            this.checkError();
+        }
+
+        int slot = (int) (h & mask);
+        iterations[slot] = iteration;
+        users[slot] = user;
+        items[slot] = item;
+        System.arraycopy(metricValues, 0, metrics, slot * numMetrics, numMetrics);
+        times[slot] = time;
+        head.lazySet(h + 1);
+    }
+
+    /**
+     * Waits until all the published iterations have been sent to the base writer, and flushes it.
+     * @throws IOException if something fails while writing.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        long h = head.get();
+        LockSupport.unpark(writerThread);
+        while(tail.get() < h)
+        {
+            this.checkError();
+            this.await();
+        }
+        this.checkError();
+        synchronized(base)
+        {
+            base.flush();
+        }
+    }
+
+    /**
+     * Writes all the pending iterations, stops the writer thread and closes the base writer.
+     * @throws IOException if something fails while writing.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        this.closed = true;
+        LockSupport.unpark(writerThread);
+        try
+        {
+            writerThread.join();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the run log");
+        }
+        finally
+        {
+            synchronized(base)
+            {
+                base.close();
+            }
+        }
+        this.checkError();
+    }
+
+    /**
+     * Waits for the writer thread to free space in the buffer.
+     * @throws InterruptedIOException if the thread is interrupted while waiting.
+     */
+    private void await() throws InterruptedIOException
+    {
+        if(backpressure == Backpressure.YIELD)
+        {
+            Thread.yield();
+        }
+        else
+        {
+            this.waitingProducer = Thread.currentThread();
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(this, PARK_NANOS);
+            this.waitingProducer = null;
+        }
+
+        if(Thread.currentThread().isInterrupted())
+        {
+            throw new InterruptedIOException("Interrupted while waiting for the run log");
+        }
+    }
+
+    /**
+     * Throws the error found by the writer thread, if any.
+     * @throws IOException the error found by the writer thread.
+     */
+    private void checkError() throws IOException
+    {
+        if(error != null)
+        {
+            throw new IOException("The run log writer failed", error);
+        }
+    }
+
+    /**
+     * Body of the writer thread: sends the published iterations to the base writer, in batches.
+     */
+    private void drain()
+    {
+        double[] values = new double[numMetrics];
+        try
+        {
+            while(true)
+            {
+                long t = tail.get();
+                long h = head.get();
+                if(t == h)
+                {
+                    if(closed && head.get() == t) break;
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                    continue;
+                }
+
+                synchronized(base)
+                {
+                    for(long i = t; i < h; ++i)
+                    {
+                        int slot = (int) (i & mask);
+                        System.arraycopy(metrics, slot * numMetrics, values, 0, numMetrics);
+                        base.write(iterations[slot], users[slot], items[slot], values, times[slot]);
+                    }
+                }
+                tail.lazySet(h);
+
+                Thread producer = waitingProducer;
+                if(producer != null) LockSupport.unpark(producer);
+            }
+        }
+        catch (Throwable ex)
+        {
+            this.error = ex;
+            Thread producer = waitingProducer;
+            if(producer != null) LockSupport.unpark(producer);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a run log written by a {@link BinaryRunLogWriter}. The records are memory-mapped,
+ * so any record can be accessed in constant time, and any iteration found by a binary search
+ * over the records, without scanning the log. Since a single mapping cannot exceed 2GB, large
+ * logs are mapped in several segments. The mappings are only released when the reader is
+ * garbage collected: the log must not be truncated or rewritten while a reader on it (closed
+ * or not) is still reachable.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class BinaryRunLogReader implements RunLogReader
+{
+    /**
+     * The names of the metrics.
+     */
+    private final List<String> metricNames;
+    /**
+     * The size of each record.
+     */
+    private final int recordSize;
+    /**
+     * The number of complete records in the log.
+     */
+    private final long numEntries;
+    /**
+     * The number of records in each mapped segment.
+     */
+    private final int segmentEntries;
+    /**
+     * The mapped segments (null once the reader is closed).
+     */
+    private MappedByteBuffer[] segments;
+    /**
+     * The position of the next record to read.
+     */
+    private long current;
+
+    /**
+     * Constructor.
+     * @param file The file containing the log.
+     * @throws IOException if the file cannot be read, or it is not a binary run log.
+     */
+    public BinaryRunLogReader(String file) throws IOException
+    {
+        // Read the header.
+        long headerSize;
+        List<String> names = new ArrayList<>();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if(in.readInt() != BinaryRunLogWriter.MAGIC || in.readInt() != BinaryRunLogWriter.VERSION)
+            {
+                throw new IOException("The file " + file + " is not a valid binary run log");
+            }
+            int numMetrics = in.readInt();
+            headerSize = 3 * Integer.BYTES;
+            for(int i = 0; i < numMetrics; ++i)
+            {
+                String name = in.readUTF();
+                names.add(name);
+                // Modified UTF-8 strings are preceded by their length, as an unsigned short.
+                headerSize += Short.BYTES + utfLength(name);
+            }
+        }
+        this.metricNames = Collections.unmodifiableList(names);
+        this.recordSize = BinaryRunLogWriter.recordSize(names.size());
+
+        // Then, map the records.
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+        {
+            this.numEntries = (channel.size() - headerSize) / recordSize;
+            this.segmentEntries = Integer.MAX_VALUE / recordSize;
+            int numSegments = (int) ((numEntries + segmentEntries - 1) / segmentEntries);
+            this.segments = new MappedByteBuffer[numSegments];
+            for(int i = 0; i < numSegments; ++i)
+            {
+                long first = ((long) i) * segmentEntries;
+                long size = Math.min(segmentEntries, numEntries - first) * recordSize;
+                this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, headerSize + first * recordSize, size);
+            }
+        }
+        this.current = 0;
+    }
+
+    @Override
+    public List<String> getMetricNames()
+    {
+        return this.metricNames;
+    }
+
+    /**
+     * Obtains the number of iterations stored in the log.
+     * @return the number of iterations.
+     */
+    public long numEntries()
+    {
+        return this.numEntries;
+    }
+
+    /**
+     * Reads the record in a given position, without moving the reader. As the log might not
+     * contain every iteration, the position of a record might differ from its iteration.
+     * @param n The position of the record (starting at 0).
+     * @param entry The entry to fill.
+     */
+    public void read(long n, RunLogEntry entry)
+    {
+        if(n < 0 || n >= numEntries)
+        {
+            throw new IndexOutOfBoundsException("Position " + n + " is out of the log (" + numEntries + " records)");
+        }
+        MappedByteBuffer segment = this.segment(n);
+        int offset = (int) (n % segmentEntries) * recordSize;
+
+        int iteration = segment.getInt(offset);
+        offset += Integer.BYTES;
+        long user = segment.getLong(offset);
+        offset += Long.BYTES;
+        long item = segment.getLong(offset);
+        offset += Long.BYTES;
+        double[] metrics = entry.getMetrics();
+        for(int i = 0; i < metrics.length; ++i)
+        {
+            metrics[i] = segment.getDouble(offset);
+            offset += Double.BYTES;
+        }
+        long time = segment.getLong(offset);
+        entry.set(iteration, user, item, time);
+    }
+
+    @Override
+    public boolean next(RunLogEntry entry)
+    {
+        if(current >= numEntries) return false;
+        this.read(current, entry);
+        ++current;
+        return true;
+    }
+
+    /**
+     * Obtains the mapped segment containing a record.
+     * @param n The position of the record.
+     * @return the segment.
+     */
+    private MappedByteBuffer segment(long n)
+    {
+        if(this.segments == null)
+        {
+            throw new IllegalStateException("The reader is closed");
+        }
+        return this.segments[(int) (n / segmentEntries)];
+    }
+
+    /**
+     * Obtains the iteration of the record in a given position.
+     * @param n The position of the record.
+     * @return the iteration.
+     */
+    private int iteration(long n)
+    {
+        return this.segment(n).getInt((int) (n % segmentEntries) * recordSize);
+    }
+
+    @Override
+    public void seek(long iteration)
+    {
+        // The iterations are written in increasing order, so the first record not lower
+        // than the given iteration is found by a binary search.
+        long low = 0;
+        long high = numEntries;
+        while(low < high)
+        {
+            long mid = (low + high) >>> 1;
+            if(this.iteration(mid) < iteration)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        this.current = low;
+    }
+
+    @Override
+    public void close()
+    {
+        // Java offers no way to unmap a buffer: dropping the references lets the mappings
+        // be released as soon as the reader is garbage collected.
+        this.segments = null;
+        this.current = numEntries;
+    }
+
+    /**
+     * Finds the number of bytes a string takes in modified UTF-8.
+     * @param str The string.
+     * @return the number of bytes.
+     */
+    private static int utfLength(String str)
+    {
+        int length = 0;
+        for(int i = 0; i < str.length(); ++i)
+        {
+            char c = str.charAt(i);
+            if(c >= 0x0001 && c <= 0x007F) length += 1;
+            else if(c > 0x07FF) length += 3;
+            else length += 2;
+        }
+        return length;
+    }
+}
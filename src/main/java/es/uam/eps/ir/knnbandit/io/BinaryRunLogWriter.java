@@ -0,0 +1,112 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes a run log in a compact binary format. The file starts with a header
+ * containing the names of the metrics. Then, every iteration is stored as a
+ * fixed-width record, so readers can directly access any iteration:
+ * <ul>
+ *     <li>Iteration number (int)</li>
+ *     <li>User (long)</li>
+ *     <li>Item (long)</li>
+ *     <li>Values of the metrics (double each)</li>
+ *     <li>Time taken by the iteration (long)</li>
+ * </ul>
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class BinaryRunLogWriter implements RunLogWriter
+{
+    /**
+     * Identifier of the binary run logs.
+     */
+    protected final static int MAGIC = 0x4b4e4e4c;
+    /**
+     * Version of the binary run log format.
+     */
+    protected final static int VERSION = 1;
+    /**
+     * Size of the buffer.
+     */
+    private final static int BUFFER_SIZE = 1 << 16;
+    /**
+     * The output stream.
+     */
+    private final DataOutputStream out;
+    /**
+     * The number of metrics.
+     */
+    private final int numMetrics;
+
+    /**
+     * Constructor.
+     * @param file The file in which to store the log. It is overwritten.
+     * @param metricNames The names of the metrics.
+     * @throws IOException if the file cannot be opened.
+     */
+    public BinaryRunLogWriter(String file, List<String> metricNames) throws IOException
+    {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        this.numMetrics = metricNames.size();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(numMetrics);
+        for(String name : metricNames)
+        {
+            out.writeUTF(name);
+        }
+    }
+
+    /**
+     * Obtains the size of a record in the log.
+     * @param numMetrics The number of metrics.
+     * @return the size of each record (in bytes).
+     */
+    protected static int recordSize(int numMetrics)
+    {
+        return Integer.BYTES + 3 * Long.BYTES + numMetrics * Double.BYTES;
+    }
+
+    @Override
+    public void write(int iteration, long user, long item, double[] metrics, long time) throws IOException
+    {
+        if(metrics.length != numMetrics)
+        {
+            throw new IllegalArgumentException("Expected " + numMetrics + " metric values, found " + metrics.length);
+        }
+        out.writeInt(iteration);
+        out.writeLong(user);
+        out.writeLong(item);
+        for(double metric : metrics)
+        {
+            out.writeDouble(metric);
+        }
+        out.writeLong(time);
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
@@ -0,0 +1,40 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Element whose internal state can be stored in a binary checkpoint and restored
+ * later. Only the state which changes during the recommendation loop has to be
+ * written: the element is assumed to be built with the same configuration before
+ * the state is restored.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public interface Checkpointable
+{
+    /**
+     * Writes the current state.
+     * @param out The output stream.
+     * @throws IOException if something fails while writing.
+     */
+    public void saveState(ObjectOutputStream out) throws IOException;
+
+    /**
+     * Restores a previously written state.
+     * @param in The input stream.
+     * @throws IOException if something fails while reading, or the stored state does not match the element.
+     * @throws ClassNotFoundException if a stored object cannot be deserialized.
+     */
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,117 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Methods for writing and reading binary checkpoints.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class Checkpoints
+{
+    /**
+     * Identifier of the checkpoint files.
+     */
+    private final static int MAGIC = 0x4b4e4e43;
+    /**
+     * Version of the checkpoint format.
+     */
+    private final static int VERSION = 2;
+    /**
+     * Size of the buffers.
+     */
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Writes a checkpoint. The checkpoint is first written to a temporary file, which then
+     * replaces the previous one, so an interrupted write never corrupts the last checkpoint.
+     * @param element The element to store.
+     * @param file The checkpoint file.
+     * @throws IOException if something fails while writing.
+     */
+    public static void save(Checkpointable element, String file) throws IOException
+    {
+        File f = new File(file);
+        File tmp = new File(file + ".tmp");
+        try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            element.saveState(out);
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores a checkpoint.
+     * @param element The element to restore.
+     * @param file The checkpoint file.
+     * @throws IOException if something fails while reading, or the file is not a valid checkpoint.
+     */
+    public static void load(Checkpointable element, String file) throws IOException
+    {
+        try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)))
+        {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                throw new IOException("The file " + file + " is not a valid checkpoint");
+            }
+            element.loadState(in);
+        }
+        catch(ClassNotFoundException ex)
+        {
+            throw new IOException("The checkpoint " + file + " contains unknown classes", ex);
+        }
+    }
+
+    /**
+     * Reads the iteration number stored at the beginning of a loop checkpoint, without restoring it.
+     * @param file The checkpoint file.
+     * @return the iteration number, -1 if the file is not a valid checkpoint.
+     */
+    public static int peekIteration(String file)
+    {
+        try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) return -1;
+            return in.readInt();
+        }
+        catch(IOException ex)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Checks that a stored value matches the expected one.
+     * @param expected The expected value.
+     * @param stored The stored value.
+     * @param what Description of the value.
+     * @throws IOException if the values are different.
+     */
+    public static void check(int expected, int stored, String what) throws IOException
+    {
+        if(expected != stored)
+        {
+            throw new IOException("Checkpoint mismatch in " + what + ": expected " + expected + ", found " + stored);
+        }
+    }
+}
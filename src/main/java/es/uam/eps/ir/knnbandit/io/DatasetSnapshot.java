@@ -0,0 +1,548 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import es.uam.eps.ir.knnbandit.data.preference.fast.MappedFastPreferenceData;
+import es.uam.eps.ir.knnbandit.data.preference.fast.MappedRows;
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.LongFastUpdateableItemIndex;
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.LongFastUpdateableUserIndex;
+import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
+import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Binary snapshot of a dataset, so it does not have to be parsed and indexed in every execution.
+ * It contains the identifiers of the users and items (in index order), the preferences in
+ * compressed sparse row (CSR) format, both by user and by item, and the number of relevant
+ * preferences.
+ *
+ * A snapshot is derived from a source file and a key, which identifies how the source was
+ * interpreted (for instance, the relevance threshold). It is only valid while the source file
+ * keeps its size and modification time, and for the same key. Snapshots are read through
+ * memory mapping, so opening them does not depend on the size of the dataset, and the
+ * preference data built from them stays in the mapped file instead of the heap.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class DatasetSnapshot
+{
+    /**
+     * Identifier of the snapshot files.
+     */
+    private final static int MAGIC = 0x4b4e4e53;
+    /**
+     * Version of the snapshot format.
+     */
+    private final static int VERSION = 2;
+    /**
+     * Size of the buffers.
+     */
+    private final static int BUFFER_SIZE = 1 << 16;
+    /**
+     * Extension of the snapshot files.
+     */
+    private final static String EXTENSION = ".snapshot";
+
+    /**
+     * Number of users.
+     */
+    private final int numUsers;
+    /**
+     * Number of items.
+     */
+    private final int numItems;
+    /**
+     * Number of preferences.
+     */
+    private final int numPreferences;
+    /**
+     * Number of relevant preferences.
+     */
+    private final int numRelevant;
+    /**
+     * Identifiers of the users, in index order.
+     */
+    private final LongBuffer userIds;
+    /**
+     * Identifiers of the items, in index order.
+     */
+    private final LongBuffer itemIds;
+    /**
+     * Preferences of each user, sorted by item.
+     */
+    private final MappedRows byUser;
+    /**
+     * Preferences for each item, sorted by user.
+     */
+    private final MappedRows byItem;
+
+    /**
+     * Constructor. Maps the sections of an already validated snapshot.
+     * @param channel The snapshot file.
+     * @param dataStart The position where the sections start.
+     * @param numUsers Number of users.
+     * @param numItems Number of items.
+     * @param numPreferences Number of preferences.
+     * @param numRelevant Number of relevant preferences.
+     * @throws IOException if something fails while mapping the file.
+     */
+    private DatasetSnapshot(FileChannel channel, long dataStart, int numUsers, int numItems, int numPreferences, int numRelevant) throws IOException
+    {
+        this.numUsers = numUsers;
+        this.numItems = numItems;
+        this.numPreferences = numPreferences;
+        this.numRelevant = numRelevant;
+
+        long pos = dataStart;
+        this.userIds = map(channel, pos, 8L * numUsers).asLongBuffer();
+        pos = align(pos + 8L * numUsers);
+        this.itemIds = map(channel, pos, 8L * numItems).asLongBuffer();
+        pos = align(pos + 8L * numItems);
+        this.byUser = mapRows(channel, pos, numUsers, numPreferences);
+        pos += rowsSize(numUsers, numPreferences);
+        this.byItem = mapRows(channel, pos, numItems, numPreferences);
+    }
+
+    /**
+     * Obtains the name of the snapshot of a source file.
+     * @param source The source file.
+     * @param key Identifies how the source file is interpreted. It must be a valid part of a file name.
+     * @return the name of the snapshot file.
+     */
+    public static String path(String source, String key)
+    {
+        return source + "." + key + EXTENSION;
+    }
+
+    /**
+     * Opens a snapshot, if it exists and it is up to date.
+     * @param file The snapshot file.
+     * @param source The source file of the snapshot.
+     * @param key Identifies how the source file was interpreted.
+     * @return the snapshot, or null if it does not exist, it belongs to a different source / key, or the source has changed.
+     * @throws IOException if something fails while reading the snapshot.
+     */
+    public static DatasetSnapshot open(String file, String source, String key) throws IOException
+    {
+        File f = new File(file);
+        File s = new File(source);
+        if(!f.exists() || !s.exists())
+        {
+            return null;
+        }
+
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+        {
+            byte[] keyBytes = key.getBytes(StandardCharsets.US_ASCII);
+            long dataStart = align(headerSize(keyBytes.length));
+            if(channel.size() < dataStart)
+            {
+                return null;
+            }
+
+            ByteBuffer header = map(channel, 0L, dataStart);
+            if(header.getInt() != MAGIC || header.getInt() != VERSION
+               || header.getLong() != s.length() || header.getLong() != s.lastModified())
+            {
+                return null;
+            }
+            int numUsers = header.getInt();
+            int numItems = header.getInt();
+            int numPreferences = header.getInt();
+            int numRelevant = header.getInt();
+            int keyLength = header.getInt();
+            if(keyLength != keyBytes.length)
+            {
+                return null;
+            }
+            byte[] storedKey = new byte[keyLength];
+            header.get(storedKey);
+            if(!key.equals(new String(storedKey, StandardCharsets.US_ASCII)))
+            {
+                return null;
+            }
+            if(channel.size() != dataStart + dataSize(numUsers, numItems, numPreferences))
+            {
+                return null;
+            }
+
+            return new DatasetSnapshot(channel, dataStart, numUsers, numItems, numPreferences, numRelevant);
+        }
+    }
+
+    /**
+     * Writes the snapshot of a dataset. It is first written to a temporary file, which then
+     * replaces the previous snapshot, so executions reading it never see a partial snapshot.
+     * The preferences of each user and for each item are stored sorted, and, if a user rated
+     * the same item several times, only the last rating is kept.
+     * @param file The snapshot file.
+     * @param source The source file of the dataset.
+     * @param key Identifies how the source file was interpreted. It must only contain ASCII characters.
+     * @param prefData The preference data, which also acts as the user and item indexes.
+     * @param numRelevant The number of relevant preferences.
+     * @return the written snapshot.
+     * @throws IOException if something fails while writing.
+     */
+    public static DatasetSnapshot write(String file, String source, String key, FastPreferenceData<Long, Long> prefData, int numRelevant) throws IOException
+    {
+        File s = new File(source);
+        File f = new File(file);
+        byte[] keyBytes = key.getBytes(StandardCharsets.US_ASCII);
+        int numUsers = prefData.numUsers();
+        int numItems = prefData.numItems();
+
+        // Preferences by user: sort every row by item, keeping the last rating of repeated items.
+        int[] uOffsets = new int[numUsers + 1];
+        int[] uIdxs = new int[prefData.numPreferences()];
+        double[] uValues = new double[prefData.numPreferences()];
+        int numPreferences = 0;
+        for(int uidx = 0; uidx < numUsers; ++uidx)
+        {
+            int start = numPreferences;
+            IntIterator iidxs = prefData.getUidxIidxs(uidx);
+            DoubleIterator vs = prefData.getUidxVs(uidx);
+            while(iidxs.hasNext())
+            {
+                uIdxs[numPreferences] = iidxs.nextInt();
+                uValues[numPreferences] = vs.nextDouble();
+                numPreferences++;
+            }
+            numPreferences = sortRow(uIdxs, uValues, start, numPreferences);
+            uOffsets[uidx + 1] = numPreferences;
+        }
+
+        // Preferences by item: transposing the rows of the users keeps them sorted by user.
+        int[] iOffsets = new int[numItems + 1];
+        for(int n = 0; n < numPreferences; ++n)
+        {
+            iOffsets[uIdxs[n] + 1]++;
+        }
+        for(int iidx = 0; iidx < numItems; ++iidx)
+        {
+            iOffsets[iidx + 1] += iOffsets[iidx];
+        }
+        int[] next = iOffsets.clone();
+        int[] iIdxs = new int[numPreferences];
+        double[] iValues = new double[numPreferences];
+        for(int uidx = 0; uidx < numUsers; ++uidx)
+        {
+            for(int n = uOffsets[uidx]; n < uOffsets[uidx + 1]; ++n)
+            {
+                int pos = next[uIdxs[n]]++;
+                iIdxs[pos] = uidx;
+                iValues[pos] = uValues[n];
+            }
+        }
+
+        // Several executions might create the same snapshot at the same time.
+        Path tmp = new File(file + "." + UUID.randomUUID() + ".tmp").toPath();
+        try
+        {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp.toFile()), BUFFER_SIZE)))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(s.length());
+                out.writeLong(s.lastModified());
+                out.writeInt(numUsers);
+                out.writeInt(numItems);
+                out.writeInt(numPreferences);
+                out.writeInt(numRelevant);
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+                long pos = pad(out, headerSize(keyBytes.length));
+
+                for(int uidx = 0; uidx < numUsers; ++uidx)
+                {
+                    out.writeLong(prefData.uidx2user(uidx));
+                }
+                pos = pad(out, pos + 8L * numUsers);
+                for(int iidx = 0; iidx < numItems; ++iidx)
+                {
+                    out.writeLong(prefData.iidx2item(iidx));
+                }
+                pos = pad(out, pos + 8L * numItems);
+
+                pos = writeRows(out, pos, uOffsets, uIdxs, uValues, numPreferences);
+                writeRows(out, pos, iOffsets, iIdxs, iValues, numPreferences);
+            }
+            Files.move(tmp, f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tmp);
+        }
+
+        DatasetSnapshot snapshot = open(file, source, key);
+        if(snapshot == null)
+        {
+            throw new IOException("The snapshot " + file + " could not be read back");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Sorts a row of a sparse matrix by column index. The sort is stable, so, when an index
+     * appears several times, only its last value is kept.
+     * @param idxs The column indexes.
+     * @param values The values.
+     * @param start The first position of the row.
+     * @param end The position after the last element of the row.
+     * @return the position after the last element of the row, once repeated indexes are removed.
+     */
+    private static int sortRow(int[] idxs, double[] values, int start, int end)
+    {
+        Arrays.mergeSort(start, end, new AbstractIntComparator()
+        {
+            @Override
+            public int compare(int a, int b)
+            {
+                return Integer.compare(idxs[a], idxs[b]);
+            }
+        }, (a, b) ->
+        {
+            int idx = idxs[a];
+            idxs[a] = idxs[b];
+            idxs[b] = idx;
+            double value = values[a];
+            values[a] = values[b];
+            values[b] = value;
+        });
+
+        int last = start - 1;
+        for(int n = start; n < end; ++n)
+        {
+            if(last >= start && idxs[last] == idxs[n])
+            {
+                values[last] = values[n];
+            }
+            else
+            {
+                ++last;
+                idxs[last] = idxs[n];
+                values[last] = values[n];
+            }
+        }
+        return last + 1;
+    }
+
+    /**
+     * Writes the rows of a CSR matrix: the offsets of the rows, the column indexes and the values.
+     * @param out The output stream.
+     * @param pos The current position in the file.
+     * @param offsets The offsets of the rows (plus the number of elements).
+     * @param idxs The column indexes.
+     * @param values The values.
+     * @param numElements The number of elements.
+     * @return the position after the rows (aligned).
+     * @throws IOException if something fails while writing.
+     */
+    private static long writeRows(DataOutputStream out, long pos, int[] offsets, int[] idxs, double[] values, int numElements) throws IOException
+    {
+        for(int offset : offsets)
+        {
+            out.writeInt(offset);
+        }
+        pos = pad(out, pos + 4L * offsets.length);
+        for(int n = 0; n < numElements; ++n)
+        {
+            out.writeInt(idxs[n]);
+        }
+        pos = pad(out, pos + 4L * numElements);
+        for(int n = 0; n < numElements; ++n)
+        {
+            out.writeDouble(values[n]);
+        }
+        return pad(out, pos + 8L * numElements);
+    }
+
+    /**
+     * Writes zeros until the next aligned position.
+     * @param out The output stream.
+     * @param pos The current position in the file.
+     * @return the aligned position.
+     * @throws IOException if something fails while writing.
+     */
+    private static long pad(DataOutputStream out, long pos) throws IOException
+    {
+        long aligned = align(pos);
+        for(long i = pos; i < aligned; ++i)
+        {
+            out.writeByte(0);
+        }
+        return aligned;
+    }
+
+    /**
+     * Rounds a position up to a multiple of 8 bytes, so every section can be read as an array of longs / doubles.
+     * @param pos The position.
+     * @return the aligned position.
+     */
+    private static long align(long pos)
+    {
+        return (pos + 7L) & ~7L;
+    }
+
+    /**
+     * Obtains the size of the header.
+     * @param keyLength The length of the key.
+     * @return the size of the header (before alignment).
+     */
+    private static long headerSize(int keyLength)
+    {
+        return 4L + 4L + 8L + 8L + 4L * 5 + keyLength;
+    }
+
+    /**
+     * Obtains the size of the sections of a snapshot.
+     * @param numUsers Number of users.
+     * @param numItems Number of items.
+     * @param numPreferences Number of preferences.
+     * @return the size of the sections (including the alignment).
+     */
+    private static long dataSize(int numUsers, int numItems, int numPreferences)
+    {
+        return align(8L * numUsers) + align(8L * numItems) + rowsSize(numUsers, numPreferences) + rowsSize(numItems, numPreferences);
+    }
+
+    /**
+     * Obtains the size of the rows of a CSR matrix.
+     * @param numRows Number of rows.
+     * @param numElements Number of elements.
+     * @return the size of the rows (including the alignment).
+     */
+    private static long rowsSize(int numRows, int numElements)
+    {
+        return align(4L * (numRows + 1)) + align(4L * numElements) + align(8L * numElements);
+    }
+
+    /**
+     * Maps the rows of a CSR matrix.
+     * @param channel The file.
+     * @param pos The start of the rows.
+     * @param numRows Number of rows.
+     * @param numElements Number of elements.
+     * @return the mapped rows.
+     * @throws IOException if something fails while mapping.
+     */
+    private static MappedRows mapRows(FileChannel channel, long pos, int numRows, int numElements) throws IOException
+    {
+        long idxsPos = pos + align(4L * (numRows + 1));
+        long valuesPos = idxsPos + align(4L * numElements);
+        return MappedRows.map(channel, numRows, numElements, pos, idxsPos, valuesPos);
+    }
+
+    /**
+     * Maps a region of the file.
+     * @param channel The file.
+     * @param pos The start of the region.
+     * @param size The size of the region.
+     * @return the mapped region.
+     * @throws IOException if something fails while mapping, or the region is too large.
+     */
+    private static ByteBuffer map(FileChannel channel, long pos, long size) throws IOException
+    {
+        if(size > Integer.MAX_VALUE)
+        {
+            throw new IOException("Snapshot section too large to be mapped");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+    }
+
+    /**
+     * Obtains the number of users.
+     * @return the number of users.
+     */
+    public int numUsers()
+    {
+        return numUsers;
+    }
+
+    /**
+     * Obtains the number of items.
+     * @return the number of items.
+     */
+    public int numItems()
+    {
+        return numItems;
+    }
+
+    /**
+     * Obtains the number of preferences.
+     * @return the number of preferences.
+     */
+    public int numPreferences()
+    {
+        return numPreferences;
+    }
+
+    /**
+     * Obtains the number of relevant preferences.
+     * @return the number of relevant preferences.
+     */
+    public int numRelevant()
+    {
+        return numRelevant;
+    }
+
+    /**
+     * Builds the user index, with the users in the stored order.
+     * @return the user index.
+     */
+    public LongFastUpdateableUserIndex buildUserIndex()
+    {
+        return LongFastUpdateableUserIndex.load(IntStream.range(0, numUsers).mapToLong(uidx -> userIds.get(uidx)));
+    }
+
+    /**
+     * Builds the item index, with the items in the stored order.
+     * @return the item index.
+     */
+    public LongFastUpdateableItemIndex buildItemIndex()
+    {
+        return LongFastUpdateableItemIndex.load(IntStream.range(0, numItems).mapToLong(iidx -> itemIds.get(iidx)));
+    }
+
+    /**
+     * Builds the preference data, which reads the preferences directly from the snapshot.
+     * The indexes must have been built by this object.
+     * @param uIndex The user index.
+     * @param iIndex The item index.
+     * @return the preference data.
+     */
+    public MappedFastPreferenceData<Long, Long> buildPreferenceData(FastUserIndex<Long> uIndex, FastItemIndex<Long> iIndex)
+    {
+        if(uIndex.numUsers() != numUsers || iIndex.numItems() != numItems)
+        {
+            throw new IllegalArgumentException("The indexes do not match the snapshot");
+        }
+        return new MappedFastPreferenceData<>(uIndex, iIndex, byUser, byItem);
+    }
+}
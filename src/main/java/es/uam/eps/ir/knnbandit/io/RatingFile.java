@@ -0,0 +1,707 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.LongFastUpdateableItemIndex;
+import es.uam.eps.ir.knnbandit.data.preference.index.fast.LongFastUpdateableUserIndex;
+import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
+import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
+import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
+import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Ratings read from a tab-separated file, where each line contains a user, an item, and
+ * (optionally) a rating value. Users and items are identified by long values. Any
+ * additional column is ignored, and lines without a rating are assigned a value of 1.0.
+ *
+ * The file is split in byte ranges, which are parsed in parallel directly from the bytes,
+ * without building any intermediate String. The identifiers are dictionary-encoded: users
+ * and items are indexed in increasing order of identifier, and ratings are kept in primitive
+ * arrays (in the order they appear in the file) until the indexes and the preference data
+ * are built from them.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class RatingFile
+{
+    /**
+     * Number of byte ranges to parse per thread (so threads finishing early can take more work).
+     */
+    private final static int CHUNKS_PER_THREAD = 4;
+    /**
+     * Maximum size of a byte range (it must fit in a memory mapped buffer).
+     */
+    private final static long MAX_CHUNK_SIZE = 1L << 30;
+    /**
+     * Maximum number of decimal digits of a value that can be parsed without losing precision.
+     */
+    private final static int MAX_FAST_DIGITS = 15;
+    /**
+     * Maximum number of decimal places of a value that can be parsed without losing precision.
+     */
+    private final static int MAX_FAST_DECIMALS = 22;
+    /**
+     * Powers of ten which can be exactly represented as doubles.
+     */
+    private final static double[] POWERS_OF_TEN = new double[MAX_FAST_DECIMALS + 1];
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1.0;
+        for(int i = 1; i <= MAX_FAST_DECIMALS; ++i)
+        {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    /**
+     * The identifiers of the users, in increasing order (the position is the user index).
+     */
+    private final long[] userIds;
+    /**
+     * The identifiers of the items, in increasing order (the position is the item index).
+     */
+    private final long[] itemIds;
+    /**
+     * The user index of each rating.
+     */
+    private final int[] uidxs;
+    /**
+     * The item index of each rating.
+     */
+    private final int[] iidxs;
+    /**
+     * The value of each rating.
+     */
+    private final double[] values;
+
+    /**
+     * Constructor.
+     * @param userIds The identifiers of the users, in increasing order.
+     * @param itemIds The identifiers of the items, in increasing order.
+     * @param uidxs The user index of each rating.
+     * @param iidxs The item index of each rating.
+     * @param values The value of each rating.
+     */
+    private RatingFile(long[] userIds, long[] itemIds, int[] uidxs, int[] iidxs, double[] values)
+    {
+        this.userIds = userIds;
+        this.itemIds = itemIds;
+        this.uidxs = uidxs;
+        this.iidxs = iidxs;
+        this.values = values;
+    }
+
+    /**
+     * Reads a rating file, using as many threads as available processors.
+     * @param file The file.
+     * @return the ratings in the file.
+     * @throws IOException if something fails while reading the file, or it is malformed.
+     */
+    public static RatingFile load(String file) throws IOException
+    {
+        return load(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads a rating file.
+     * @param file The file.
+     * @param numThreads The number of threads for parsing the file.
+     * @return the ratings in the file.
+     * @throws IOException if something fails while reading the file, or it is malformed.
+     */
+    public static RatingFile load(String file, int numThreads) throws IOException
+    {
+        int threads = Math.max(1, numThreads);
+        try(FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ))
+        {
+            long[] bounds = split(channel, threads);
+            int numChunks = bounds.length - 1;
+            Chunk[] chunks = new Chunk[numChunks];
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try
+            {
+                // First, parse the byte ranges.
+                pool.submit(() -> IntStream.range(0, numChunks).parallel().forEach(c ->
+                {
+                    try
+                    {
+                        chunks[c] = parse(channel, bounds[c], bounds[c + 1]);
+                    }
+                    catch (IOException ex)
+                    {
+                        throw new UncheckedIOException(ex);
+                    }
+                })).get();
+
+                // Then, find the users and items (sorted, without duplicates).
+                long[] userIds = merge(pool.submit(() -> Arrays.stream(chunks).parallel().map(chunk -> unique(chunk.users, chunk.size)).toArray(long[][]::new)).get());
+                long[] itemIds = merge(pool.submit(() -> Arrays.stream(chunks).parallel().map(chunk -> unique(chunk.items, chunk.size)).toArray(long[][]::new)).get());
+
+                // And finally, encode the ratings.
+                int[] offsets = new int[numChunks + 1];
+                for(int c = 0; c < numChunks; ++c)
+                {
+                    long next = (long) offsets[c] + chunks[c].size;
+                    if(next > Integer.MAX_VALUE - 8)
+                    {
+                        throw new IOException("Too many ratings in file " + file);
+                    }
+                    offsets[c + 1] = (int) next;
+                }
+                int numRatings = offsets[numChunks];
+                int[] uidxs = new int[numRatings];
+                int[] iidxs = new int[numRatings];
+                double[] values = new double[numRatings];
+                pool.submit(() -> IntStream.range(0, numChunks).parallel().forEach(c ->
+                {
+                    Chunk chunk = chunks[c];
+                    int offset = offsets[c];
+                    for(int j = 0; j < chunk.size; ++j)
+                    {
+                        uidxs[offset + j] = Arrays.binarySearch(userIds, chunk.users[j]);
+                        iidxs[offset + j] = Arrays.binarySearch(itemIds, chunk.items[j]);
+                    }
+                    System.arraycopy(chunk.values, 0, values, offset, chunk.size);
+                    chunks[c] = null;
+                })).get();
+
+                return new RatingFile(userIds, itemIds, uidxs, iidxs, values);
+            }
+            catch (ExecutionException ex)
+            {
+                Throwable cause = ex.getCause();
+                if(cause instanceof UncheckedIOException)
+                {
+                    throw ((UncheckedIOException) cause).getCause();
+                }
+                throw new IOException("Error while reading file " + file, cause);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading file " + file, ex);
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Splits a file in byte ranges, each of them containing complete lines.
+     * @param channel The file.
+     * @param threads The number of threads which will parse the ranges.
+     * @return the limits of the ranges (range c goes from position c to position c+1).
+     * @throws IOException if something fails while reading the file.
+     */
+    private static long[] split(FileChannel channel, int threads) throws IOException
+    {
+        long size = channel.size();
+        if(size == 0L)
+        {
+            return new long[]{0L};
+        }
+
+        long numChunks = Math.max((long) threads * CHUNKS_PER_THREAD, (size + MAX_CHUNK_SIZE / 2 - 1) / (MAX_CHUNK_SIZE / 2));
+        numChunks = Math.min(numChunks, size);
+        long[] bounds = new long[(int) numChunks + 1];
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        int n = 1;
+        for(long c = 1; c < numChunks; ++c)
+        {
+            // Move the limit to the start of the next line.
+            long pos = Math.max(bounds[n - 1], c * size / numChunks);
+            long limit = nextLine(channel, buffer, pos, size);
+            if(limit > bounds[n - 1] && limit < size)
+            {
+                bounds[n++] = limit;
+            }
+        }
+        bounds[n++] = size;
+        return Arrays.copyOf(bounds, n);
+    }
+
+    /**
+     * Finds the position where the next line starts.
+     * @param channel The file.
+     * @param buffer A buffer for reading the file.
+     * @param pos The position from which to look for the end of the current line.
+     * @param size The size of the file.
+     * @return the position of the first byte after the next line break (the size of the file if there is none).
+     * @throws IOException if something fails while reading the file.
+     */
+    private static long nextLine(FileChannel channel, ByteBuffer buffer, long pos, long size) throws IOException
+    {
+        long current = pos;
+        while(current < size)
+        {
+            buffer.clear();
+            int read = channel.read(buffer, current);
+            if(read <= 0) break;
+            for(int i = 0; i < read; ++i)
+            {
+                if(buffer.get(i) == '\n')
+                {
+                    return current + i + 1;
+                }
+            }
+            current += read;
+        }
+        return size;
+    }
+
+    /**
+     * Parses a byte range of the file.
+     * @param channel The file.
+     * @param start The start of the range.
+     * @param end The end of the range.
+     * @return the ratings in the range.
+     * @throws IOException if something fails while reading the file, or it is malformed.
+     */
+    private static Chunk parse(FileChannel channel, long start, long end) throws IOException
+    {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        int limit = buffer.limit();
+        Chunk chunk = new Chunk(Math.max(16, limit / 16));
+        int pos = 0;
+        while(pos < limit)
+        {
+            // Find the end of the line, and ignore the carriage return (if any).
+            int lineStart = pos;
+            int lineEnd = pos;
+            while(lineEnd < limit && buffer.get(lineEnd) != '\n') lineEnd++;
+            pos = lineEnd + 1;
+            if(lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') lineEnd--;
+            if(lineEnd == lineStart) continue; // Empty line.
+
+            int userEnd = nextField(buffer, lineStart, lineEnd);
+            if(userEnd == lineEnd)
+            {
+                throw new IOException("Malformed line at byte " + (start + lineStart) + ": missing item");
+            }
+            int itemEnd = nextField(buffer, userEnd + 1, lineEnd);
+            int valueEnd = itemEnd < lineEnd ? nextField(buffer, itemEnd + 1, lineEnd) : lineEnd;
+
+            long user = parseLong(buffer, lineStart, userEnd, start);
+            long item = parseLong(buffer, userEnd + 1, itemEnd, start);
+            double value = itemEnd < lineEnd ? parseDouble(buffer, itemEnd + 1, valueEnd, start) : 1.0;
+            chunk.add(user, item, value);
+        }
+        return chunk;
+    }
+
+    /**
+     * Finds the end of a field.
+     * @param buffer The bytes of the file.
+     * @param from The start of the field.
+     * @param lineEnd The end of the line.
+     * @return the position of the tab after the field (the end of the line if it is the last one).
+     */
+    private static int nextField(ByteBuffer buffer, int from, int lineEnd)
+    {
+        int pos = from;
+        while(pos < lineEnd && buffer.get(pos) != '\t') pos++;
+        return pos;
+    }
+
+    /**
+     * Parses a long value.
+     * @param buffer The bytes of the file.
+     * @param from The first byte of the value.
+     * @param to The first byte after the value.
+     * @param offset The position of the buffer in the file (for error messages).
+     * @return the value.
+     * @throws IOException if the bytes do not contain a long value.
+     */
+    private static long parseLong(ByteBuffer buffer, int from, int to, long offset) throws IOException
+    {
+        int pos = from;
+        boolean negative = false;
+        if(pos < to && (buffer.get(pos) == '-' || buffer.get(pos) == '+'))
+        {
+            negative = buffer.get(pos) == '-';
+            pos++;
+        }
+        if(pos == to)
+        {
+            throw new IOException("Malformed identifier at byte " + (offset + from));
+        }
+
+        // Accumulate as a negative number, so Long.MIN_VALUE can be read.
+        long value = 0L;
+        for(; pos < to; ++pos)
+        {
+            int digit = buffer.get(pos) - '0';
+            if(digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10)
+            {
+                throw new IOException("Malformed identifier at byte " + (offset + from));
+            }
+            value = value * 10 - digit;
+        }
+        if(!negative && value == Long.MIN_VALUE)
+        {
+            throw new IOException("Malformed identifier at byte " + (offset + from));
+        }
+        return negative ? value : -value;
+    }
+
+    /**
+     * Parses a double value. Plain decimal numbers with few digits are directly
+     * computed (with the same result as Double.parseDouble); the rest are delegated to
+     * Double.parseDouble.
+     * @param buffer The bytes of the file.
+     * @param from The first byte of the value.
+     * @param to The first byte after the value.
+     * @param offset The position of the buffer in the file (for error messages).
+     * @return the value.
+     * @throws IOException if the bytes do not contain a double value.
+     */
+    private static double parseDouble(ByteBuffer buffer, int from, int to, long offset) throws IOException
+    {
+        int pos = from;
+        boolean negative = false;
+        if(pos < to && (buffer.get(pos) == '-' || buffer.get(pos) == '+'))
+        {
+            negative = buffer.get(pos) == '-';
+            pos++;
+        }
+
+        long mantissa = 0L;
+        int numbers = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean point = false;
+        boolean fast = true;
+        for(; pos < to && fast; ++pos)
+        {
+            byte b = buffer.get(pos);
+            if(b >= '0' && b <= '9')
+            {
+                mantissa = mantissa * 10 + (b - '0');
+                numbers++;
+                if(mantissa > 0L) digits++;
+                if(point) decimals++;
+                fast = digits <= MAX_FAST_DIGITS && decimals <= MAX_FAST_DECIMALS;
+            }
+            else if(b == '.' && !point)
+            {
+                point = true;
+            }
+            else
+            {
+                fast = false;
+            }
+        }
+
+        // Both the mantissa and the power of ten are exact, so the division is correctly rounded.
+        if(fast && numbers > 0)
+        {
+            double value = mantissa / POWERS_OF_TEN[decimals];
+            return negative ? -value : value;
+        }
+
+        byte[] bytes = new byte[to - from];
+        for(int i = 0; i < bytes.length; ++i)
+        {
+            bytes[i] = buffer.get(from + i);
+        }
+        try
+        {
+            return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new IOException("Malformed rating at byte " + (offset + from), ex);
+        }
+    }
+
+    /**
+     * Finds the different values in an array.
+     * @param array The array.
+     * @param size The number of elements of the array to consider.
+     * @return the different values, in increasing order.
+     */
+    private static long[] unique(long[] array, int size)
+    {
+        long[] copy = Arrays.copyOf(array, size);
+        Arrays.sort(copy);
+        int n = 0;
+        for(int i = 0; i < size; ++i)
+        {
+            if(n == 0 || copy[n - 1] != copy[i])
+            {
+                copy[n++] = copy[i];
+            }
+        }
+        return Arrays.copyOf(copy, n);
+    }
+
+    /**
+     * Merges several sorted arrays of different values.
+     * @param arrays The arrays.
+     * @return the different values in the arrays, in increasing order.
+     */
+    private static long[] merge(long[][] arrays)
+    {
+        int total = 0;
+        for(long[] array : arrays)
+        {
+            total += array.length;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for(long[] array : arrays)
+        {
+            System.arraycopy(array, 0, all, pos, array.length);
+            pos += array.length;
+        }
+        Arrays.parallelSort(all);
+        return unique(all, total);
+    }
+
+    /**
+     * Obtains the number of ratings.
+     * @return the number of ratings.
+     */
+    public int numRatings()
+    {
+        return values.length;
+    }
+
+    /**
+     * Obtains the number of users.
+     * @return the number of users.
+     */
+    public int numUsers()
+    {
+        return userIds.length;
+    }
+
+    /**
+     * Obtains the number of items.
+     * @return the number of items.
+     */
+    public int numItems()
+    {
+        return itemIds.length;
+    }
+
+    /**
+     * Obtains the identifiers of the users, in increasing order.
+     * @return the identifiers of the users.
+     */
+    public LongStream getUserIds()
+    {
+        return Arrays.stream(userIds);
+    }
+
+    /**
+     * Obtains the identifiers of the items, in increasing order.
+     * @return the identifiers of the items.
+     */
+    public LongStream getItemIds()
+    {
+        return Arrays.stream(itemIds);
+    }
+
+    /**
+     * Obtains the identifier of the user of a rating.
+     * @param n The position of the rating in the file.
+     * @return the identifier of the user.
+     */
+    public long getUser(int n)
+    {
+        return userIds[uidxs[n]];
+    }
+
+    /**
+     * Obtains the identifier of the item of a rating.
+     * @param n The position of the rating in the file.
+     * @return the identifier of the item.
+     */
+    public long getItem(int n)
+    {
+        return itemIds[iidxs[n]];
+    }
+
+    /**
+     * Obtains the value of a rating.
+     * @param n The position of the rating in the file.
+     * @return the value of the rating.
+     */
+    public double getValue(int n)
+    {
+        return values[n];
+    }
+
+    /**
+     * Builds a user index, containing the users in increasing order of identifier.
+     * @return the user index.
+     */
+    public LongFastUpdateableUserIndex buildUserIndex()
+    {
+        return LongFastUpdateableUserIndex.load(this.getUserIds());
+    }
+
+    /**
+     * Builds an item index, containing the items in increasing order of identifier.
+     * @return the item index.
+     */
+    public LongFastUpdateableItemIndex buildItemIndex()
+    {
+        return LongFastUpdateableItemIndex.load(this.getItemIds());
+    }
+
+    /**
+     * Builds the preference data. The indexes must have been built by this object.
+     * @param uIndex The user index.
+     * @param iIndex The item index.
+     * @param weight Function for transforming the rating values.
+     * @return the preference data.
+     */
+    public SimpleFastPreferenceData<Long, Long> buildPreferenceData(FastUserIndex<Long> uIndex, FastItemIndex<Long> iIndex, DoubleUnaryOperator weight)
+    {
+        if(uIndex.numUsers() != this.numUsers() || iIndex.numItems() != this.numItems())
+        {
+            throw new IllegalArgumentException("The indexes do not match the ratings");
+        }
+
+        // Count the preferences of each user and item, so the lists are created with their exact size.
+        int[] uCounts = new int[this.numUsers()];
+        int[] iCounts = new int[this.numItems()];
+        for(int n = 0; n < values.length; ++n)
+        {
+            uCounts[uidxs[n]]++;
+            iCounts[iidxs[n]]++;
+        }
+
+        List<List<IdxPref>> uidxList = new ArrayList<>(this.numUsers());
+        for(int count : uCounts)
+        {
+            uidxList.add(count == 0 ? null : new ArrayList<>(count));
+        }
+        List<List<IdxPref>> iidxList = new ArrayList<>(this.numItems());
+        for(int count : iCounts)
+        {
+            iidxList.add(count == 0 ? null : new ArrayList<>(count));
+        }
+
+        for(int n = 0; n < values.length; ++n)
+        {
+            double value = weight.applyAsDouble(values[n]);
+            uidxList.get(uidxs[n]).add(new IdxPref(iidxs[n], value));
+            iidxList.get(iidxs[n]).add(new IdxPref(uidxs[n], value));
+        }
+
+        return new LoadedPreferenceData<>(values.length, uidxList, iidxList, uIndex, iIndex);
+    }
+
+    /**
+     * Ratings read from a byte range of the file, in the order they appear.
+     */
+    private static class Chunk
+    {
+        /**
+         * The identifiers of the users.
+         */
+        private long[] users;
+        /**
+         * The identifiers of the items.
+         */
+        private long[] items;
+        /**
+         * The rating values.
+         */
+        private double[] values;
+        /**
+         * The number of ratings.
+         */
+        private int size;
+
+        /**
+         * Constructor.
+         * @param capacity The initial capacity.
+         */
+        Chunk(int capacity)
+        {
+            this.users = new long[capacity];
+            this.items = new long[capacity];
+            this.values = new double[capacity];
+            this.size = 0;
+        }
+
+        /**
+         * Adds a rating.
+         * @param user The identifier of the user.
+         * @param item The identifier of the item.
+         * @param value The rating value.
+         */
+        void add(long user, long item, double value)
+        {
+            if(size == users.length)
+            {
+                int capacity = size + (size >> 1) + 1;
+                users = Arrays.copyOf(users, capacity);
+                items = Arrays.copyOf(items, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            users[size] = user;
+            items[size] = item;
+            values[size] = value;
+            size++;
+        }
+    }
+
+    /**
+     * Preference data built from already indexed lists of preferences.
+     * @param <U> User type.
+     * @param <I> Item type.
+     */
+    private static class LoadedPreferenceData<U, I> extends SimpleFastPreferenceData<U, I>
+    {
+        /**
+         * Serial version identifier.
+         */
+        private final static long serialVersionUID = 1L;
+
+        /**
+         * Constructor.
+         * @param numPreferences The number of preferences.
+         * @param uidxList The preferences of each user (null for users without preferences).
+         * @param iidxList The preferences for each item (null for items without preferences).
+         * @param uIndex The user index.
+         * @param iIndex The item index.
+         */
+        LoadedPreferenceData(int numPreferences, List<List<IdxPref>> uidxList, List<List<IdxPref>> iidxList, FastUserIndex<U> uIndex, FastItemIndex<I> iIndex)
+        {
+            super(numPreferences, uidxList, iidxList, uIndex, iIndex);
+        }
+    }
+}
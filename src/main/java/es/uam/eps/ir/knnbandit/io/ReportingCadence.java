@@ -0,0 +1,88 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+/**
+ * Determines which iterations of a recommendation loop are written in the run log.
+ * Metrics are updated in every iteration: the cadence only selects the points of
+ * the curves which are reported. Cadences only depend on the iteration number, so
+ * resumed executions report the same iterations as uninterrupted ones.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+@FunctionalInterface
+public interface ReportingCadence
+{
+    /**
+     * Prefix of the geometric cadences, when parsed from text.
+     */
+    String GEOMETRIC = "geometric:";
+
+    /**
+     * Checks whether an iteration has to be reported.
+     * @param iteration The iteration number (starting at 1).
+     * @return true if the iteration is reported, false otherwise.
+     */
+    boolean isReported(int iteration);
+
+    /**
+     * Reports every iteration.
+     * @return the cadence.
+     */
+    static ReportingCadence always()
+    {
+        return (int iteration) -> true;
+    }
+
+    /**
+     * Reports one of every n iterations.
+     * @param n The number of iterations between reports.
+     * @return the cadence.
+     */
+    static ReportingCadence every(int n)
+    {
+        if(n <= 1) return always();
+        return (int iteration) -> iteration % n == 0;
+    }
+
+    /**
+     * Reports iterations which are geometrically spaced: the distance between consecutive
+     * reports grows by a constant ratio, so early iterations are reported in detail, and
+     * the number of reports grows logarithmically with the number of iterations.
+     * @param ratio The ratio between consecutive reported iterations (greater than 1).
+     * @return the cadence.
+     */
+    static ReportingCadence geometric(double ratio)
+    {
+        if(ratio <= 1.0)
+        {
+            throw new IllegalArgumentException("The ratio of a geometric cadence must be greater than 1");
+        }
+        double scale = 1.0 / Math.log(ratio);
+        // An iteration is reported when it reaches a new power of the ratio.
+        return (int iteration) -> iteration <= 1 || Math.floor(Math.log(iteration) * scale) > Math.floor(Math.log(iteration - 1) * scale);
+    }
+
+    /**
+     * Reads a cadence: either the number of iterations between reports, or
+     * "geometric:" followed by the ratio between consecutive reports.
+     * @param cadence The description of the cadence.
+     * @return the cadence.
+     * @throws NumberFormatException if the description is not valid.
+     */
+    static ReportingCadence parse(String cadence)
+    {
+        if(cadence.toLowerCase().startsWith(GEOMETRIC))
+        {
+            return geometric(Double.parseDouble(cadence.substring(GEOMETRIC.length())));
+        }
+        return every(Integer.parseInt(cadence));
+    }
+}
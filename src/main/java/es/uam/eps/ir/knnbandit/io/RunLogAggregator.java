@@ -0,0 +1,143 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aggregates the run logs of several replicates of the same algorithm. The logs are
+ * read in parallel, one iteration at a time, so they are never loaded in memory.
+ * For each iteration appearing in any of the logs, it writes a tab-separated line with
+ * the iteration number, the number of replicates reaching that iteration, and the mean
+ * and the sample standard deviation of each metric over those replicates.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class RunLogAggregator
+{
+    /**
+     * Aggregates several run logs.
+     * @param format The identifier of the format of the logs.
+     * @param files The logs of the replicates.
+     * @param metricNames The names of the metrics.
+     * @param output The file in which to store the aggregate.
+     * @throws IOException if something fails while reading / writing, or the logs contain different metrics.
+     */
+    public static void aggregate(String format, List<String> files, List<String> metricNames, String output) throws IOException
+    {
+        List<RunLogReader> readers = new ArrayList<>();
+        try
+        {
+            for(String file : files)
+            {
+                readers.add(RunLogs.reader(format, file, metricNames));
+            }
+            try(BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output))))
+            {
+                aggregate(readers, bw);
+            }
+        }
+        finally
+        {
+            for(RunLogReader reader : readers)
+            {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Aggregates several run logs.
+     * @param readers The readers of the logs of the replicates.
+     * @param out Where to write the aggregate.
+     * @throws IOException if something fails while reading / writing, or the logs contain different metrics.
+     */
+    public static void aggregate(List<RunLogReader> readers, Appendable out) throws IOException
+    {
+        if(readers.isEmpty()) return;
+        List<String> metricNames = readers.get(0).getMetricNames();
+        int numMetrics = metricNames.size();
+        for(RunLogReader reader : readers)
+        {
+            if(!reader.getMetricNames().equals(metricNames))
+            {
+                throw new IOException("The replicates do not contain the same metrics");
+            }
+        }
+
+        // The current iteration of each log (null when it has been completely read).
+        RunLogEntry[] heads = new RunLogEntry[readers.size()];
+        for(int i = 0; i < heads.length; ++i)
+        {
+            heads[i] = new RunLogEntry(numMetrics);
+            if(!readers.get(i).next(heads[i])) heads[i] = null;
+        }
+
+        double[] values = new double[heads.length];
+        StringBuilder builder = new StringBuilder();
+        while(true)
+        {
+            // Find the next iteration, as logs might not contain the same iterations.
+            int iteration = Integer.MAX_VALUE;
+            for(RunLogEntry head : heads)
+            {
+                if(head != null) iteration = Math.min(iteration, head.getIteration());
+            }
+            if(iteration == Integer.MAX_VALUE) break;
+
+            builder.setLength(0);
+            int n = 0;
+            for(RunLogEntry head : heads)
+            {
+                if(head != null && head.getIteration() == iteration) n++;
+            }
+            builder.append(iteration).append("\t").append(n);
+
+            for(int m = 0; m < numMetrics; ++m)
+            {
+                int k = 0;
+                double sum = 0.0;
+                for(RunLogEntry head : heads)
+                {
+                    if(head != null && head.getIteration() == iteration)
+                    {
+                        values[k] = head.getMetrics()[m];
+                        sum += values[k];
+                        k++;
+                    }
+                }
+                double mean = sum / n;
+                double dev = 0.0;
+                for(int j = 0; j < k; ++j)
+                {
+                    dev += (values[j] - mean) * (values[j] - mean);
+                }
+                double std = n > 1 ? Math.sqrt(dev / (n - 1)) : 0.0;
+                builder.append("\t").append(mean).append("\t").append(std);
+            }
+            builder.append("\n");
+            out.append(builder);
+
+            // Advance the logs containing the iteration.
+            for(int i = 0; i < heads.length; ++i)
+            {
+                if(heads[i] != null && heads[i].getIteration() == iteration && !readers.get(i).next(heads[i]))
+                {
+                    heads[i] = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.util.Arrays;
+
+/**
+ * A single iteration of a run log. Readers fill an existing entry, so
+ * the same object can be reused when scanning a log.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class RunLogEntry
+{
+    /**
+     * The iteration number.
+     */
+    private int iteration;
+    /**
+     * The user who received the recommendation.
+     */
+    private long user;
+    /**
+     * The recommended item.
+     */
+    private long item;
+    /**
+     * The values of the metrics after the iteration.
+     */
+    private final double[] metrics;
+    /**
+     * The time taken by the iteration (in milliseconds).
+     */
+    private long time;
+
+    /**
+     * Constructor.
+     * @param numMetrics The number of metrics in the log.
+     */
+    public RunLogEntry(int numMetrics)
+    {
+        this.metrics = new double[numMetrics];
+    }
+
+    /**
+     * Changes the values of the entry.
+     * @param iteration The iteration number.
+     * @param user The user.
+     * @param item The item.
+     * @param time The time taken by the iteration.
+     */
+    public void set(int iteration, long user, long item, long time)
+    {
+        this.iteration = iteration;
+        this.user = user;
+        this.item = item;
+        this.time = time;
+    }
+
+    /**
+     * Obtains the iteration number.
+     * @return the iteration number.
+     */
+    public int getIteration()
+    {
+        return iteration;
+    }
+
+    /**
+     * Obtains the user.
+     * @return the user.
+     */
+    public long getUser()
+    {
+        return user;
+    }
+
+    /**
+     * Obtains the item.
+     * @return the item.
+     */
+    public long getItem()
+    {
+        return item;
+    }
+
+    /**
+     * Obtains the values of the metrics. The array is the one stored in the entry, so
+     * it can be filled directly.
+     * @return the values of the metrics.
+     */
+    public double[] getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Obtains the time taken by the iteration.
+     * @return the time (in milliseconds).
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    /**
+     * Obtains a copy of the entry.
+     * @return the copy.
+     */
+    public RunLogEntry copy()
+    {
+        RunLogEntry entry = new RunLogEntry(this.metrics.length);
+        entry.set(iteration, user, item, time);
+        System.arraycopy(this.metrics, 0, entry.metrics, 0, this.metrics.length);
+        return entry;
+    }
+
+    @Override
+    public String toString()
+    {
+        return iteration + "\t" + user + "\t" + item + "\t" + Arrays.toString(metrics) + "\t" + time;
+    }
+}
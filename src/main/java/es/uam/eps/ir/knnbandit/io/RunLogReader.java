@@ -0,0 +1,64 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the iterations of a recommendation loop from a log, in order. An incomplete
+ * last iteration (for instance, if the execution was interrupted while writing it)
+ * is ignored.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public interface RunLogReader extends Closeable
+{
+    /**
+     * Obtains the names of the metrics stored in the log.
+     * @return the names of the metrics.
+     */
+    public List<String> getMetricNames();
+
+    /**
+     * Reads the next iteration.
+     * @param entry The entry to fill.
+     * @return true if an iteration was read, false if the end of the log has been reached.
+     * @throws IOException if something fails while reading.
+     */
+    public boolean next(RunLogEntry entry) throws IOException;
+
+    /**
+     * Moves the reader, so the next entry to read is the first one whose iteration is not
+     * lower than the given one. As the log might not contain every iteration, this entry might
+     * belong to a later iteration. If there is no such entry, the end of the log is reached.
+     * @param iteration The iteration.
+     * @throws IOException if something fails while reading.
+     */
+    public void seek(long iteration) throws IOException;
+
+    /**
+     * Reads all the remaining iterations.
+     * @return the list of iterations.
+     * @throws IOException if something fails while reading.
+     */
+    public default List<RunLogEntry> readAll() throws IOException
+    {
+        List<RunLogEntry> entries = new ArrayList<>();
+        RunLogEntry entry = new RunLogEntry(this.getMetricNames().size());
+        while(this.next(entry))
+        {
+            entries.add(entry.copy());
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,48 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes the iterations of a recommendation loop to a log.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public interface RunLogWriter extends Closeable
+{
+    /**
+     * Writes an iteration.
+     * @param iteration The iteration number.
+     * @param user The user who received the recommendation.
+     * @param item The recommended item.
+     * @param metrics The values of the metrics, in the order of the metric names of the log.
+     * @param time The time taken by the iteration (in milliseconds).
+     * @throws IOException if something fails while writing.
+     */
+    public void write(int iteration, long user, long item, double[] metrics, long time) throws IOException;
+
+    /**
+     * Writes an iteration.
+     * @param entry The iteration.
+     * @throws IOException if something fails while writing.
+     */
+    public default void write(RunLogEntry entry) throws IOException
+    {
+        this.write(entry.getIteration(), entry.getUser(), entry.getItem(), entry.getMetrics(), entry.getTime());
+    }
+
+    /**
+     * Flushes the written iterations to the underlying file.
+     * @throws IOException if something fails while writing.
+     */
+    public void flush() throws IOException;
+}
@@ -0,0 +1,136 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Methods for creating run log readers and writers, and converting between formats.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class RunLogs
+{
+    /**
+     * Identifier of the tab-separated text format.
+     */
+    public final static String TEXT = "text";
+    /**
+     * Identifier of the binary format.
+     */
+    public final static String BINARY = "binary";
+
+    /**
+     * Checks whether a format is valid.
+     * @param format The identifier of the format.
+     * @return true if the format is known, false otherwise.
+     */
+    public static boolean isValid(String format)
+    {
+        return TEXT.equals(format) || BINARY.equals(format);
+    }
+
+    /**
+     * Obtains the extension of the files in a format.
+     * @param format The identifier of the format.
+     * @return the extension, including the dot.
+     */
+    public static String extension(String format)
+    {
+        return BINARY.equals(format) ? ".bin" : ".txt";
+    }
+
+    /**
+     * Creates a writer.
+     * @param format The identifier of the format.
+     * @param file The file in which to store the log.
+     * @param metricNames The names of the metrics.
+     * @return the writer.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static RunLogWriter writer(String format, String file, List<String> metricNames) throws IOException
+    {
+        if(BINARY.equals(format)) return new BinaryRunLogWriter(file, metricNames);
+        return new TextRunLogWriter(file);
+    }
+
+    /**
+     * Creates a writer which stores the iterations from a separate thread.
+     * @param format The identifier of the format.
+     * @param file The file in which to store the log.
+     * @param metricNames The names of the metrics.
+     * @param capacity Number of iterations which can be waiting to be written. If it is
+     * not positive, the iterations are written from the calling thread.
+     * @param backpressure Strategy for waiting when capacity iterations are waiting to be written.
+     * @return the writer.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static RunLogWriter writer(String format, String file, List<String> metricNames, int capacity, AsyncRunLogWriter.Backpressure backpressure) throws IOException
+    {
+        RunLogWriter writer = writer(format, file, metricNames);
+        if(capacity <= 0) return writer;
+        return new AsyncRunLogWriter(writer, metricNames.size(), capacity, backpressure);
+    }
+
+    /**
+     * Creates a reader.
+     * @param format The identifier of the format.
+     * @param file The file containing the log.
+     * @param metricNames The names of the metrics (only used by formats which do not store them).
+     * @return the reader.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static RunLogReader reader(String format, String file, List<String> metricNames) throws IOException
+    {
+        if(BINARY.equals(format)) return new BinaryRunLogReader(file);
+        return new TextRunLogReader(file, metricNames);
+    }
+
+    /**
+     * Converts a binary run log to tab-separated text.
+     * @param binaryFile The binary log.
+     * @param textFile The file in which to store the text log.
+     * @throws IOException if something fails while reading / writing.
+     */
+    public static void toText(String binaryFile, String textFile) throws IOException
+    {
+        try(RunLogReader reader = new BinaryRunLogReader(binaryFile); RunLogWriter writer = new TextRunLogWriter(textFile))
+        {
+            RunLogEntry entry = new RunLogEntry(reader.getMetricNames().size());
+            while(reader.next(entry))
+            {
+                writer.write(entry);
+            }
+        }
+    }
+
+    /**
+     * Converts a binary run log to tab-separated text.
+     * @param args Execution arguments:
+     * <ol>
+     *     <li>Input: the binary run log</li>
+     *     <li>Output: the file in which to store the text log</li>
+     * </ol>
+     * @throws IOException if something fails while reading / writing.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 2)
+        {
+            System.err.println("ERROR: Invalid arguments");
+            System.err.println("Usage:");
+            System.err.println("\tInput: binary run log");
+            System.err.println("\tOutput: file in which to store the text log");
+            return;
+        }
+        toText(args[0], args[1]);
+    }
+}
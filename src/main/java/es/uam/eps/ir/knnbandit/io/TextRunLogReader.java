@@ -0,0 +1,125 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.ranksys.formats.parsing.Parsers;
+
+/**
+ * Reads a run log stored as tab-separated text. Since text files do not store the
+ * names of the metrics, they have to be provided. Seeking requires scanning the
+ * file from the beginning.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class TextRunLogReader implements RunLogReader
+{
+    /**
+     * The file containing the log.
+     */
+    private final String file;
+    /**
+     * The names of the metrics.
+     */
+    private final List<String> metricNames;
+    /**
+     * The reader.
+     */
+    private BufferedReader br;
+    /**
+     * True if an incomplete line has been found.
+     */
+    private boolean finished;
+    /**
+     * A line already read, which is the next one to parse (null if there is none).
+     */
+    private String pending;
+
+    /**
+     * Constructor.
+     * @param file The file containing the log.
+     * @param metricNames The names of the metrics, in the order they appear in the file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public TextRunLogReader(String file, List<String> metricNames) throws IOException
+    {
+        this.file = file;
+        this.metricNames = new ArrayList<>(metricNames);
+        this.br = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+        this.finished = false;
+        this.pending = null;
+    }
+
+    @Override
+    public List<String> getMetricNames()
+    {
+        return this.metricNames;
+    }
+
+    @Override
+    public boolean next(RunLogEntry entry) throws IOException
+    {
+        if(finished) return false;
+        String line = (pending != null) ? pending : br.readLine();
+        this.pending = null;
+        int numMetrics = metricNames.size();
+        String[] split = (line == null) ? null : line.split("\t");
+        if(split == null || split.length < numMetrics + 4)
+        {
+            this.finished = true;
+            return false;
+        }
+
+        int iteration = Parsers.ip.parse(split[0]);
+        long user = Parsers.lp.parse(split[1]);
+        long item = Parsers.lp.parse(split[2]);
+        double[] metrics = entry.getMetrics();
+        for(int i = 0; i < numMetrics; ++i)
+        {
+            metrics[i] = Parsers.dp.parse(split[3 + i]);
+        }
+        long time = Parsers.lp.parse(split[3 + numMetrics]);
+        entry.set(iteration, user, item, time);
+        return true;
+    }
+
+    @Override
+    public void seek(long iteration) throws IOException
+    {
+        this.br.close();
+        this.br = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+        this.finished = false;
+        this.pending = null;
+        // The lines before the first one not lower than the iteration are skipped, and that
+        // one is kept for the next read.
+        String line;
+        while((line = br.readLine()) != null)
+        {
+            int tab = line.indexOf('\t');
+            if(tab < 0 || Parsers.lp.parse(line.substring(0, tab)) >= iteration)
+            {
+                this.pending = line;
+                return;
+            }
+        }
+        this.finished = true;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        br.close();
+    }
+}
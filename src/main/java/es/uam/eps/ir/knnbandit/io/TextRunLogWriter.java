@@ -0,0 +1,76 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.io;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * Writes a run log as tab-separated text. Each line contains the iteration number, the
+ * user, the item, the values of the metrics and the time taken by the iteration.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class TextRunLogWriter implements RunLogWriter
+{
+    /**
+     * The writer.
+     */
+    private final BufferedWriter bw;
+    /**
+     * Builder for the lines.
+     */
+    private final StringBuilder builder;
+
+    /**
+     * Constructor.
+     * @param file The file in which to store the log. It is overwritten.
+     * @throws IOException if the file cannot be opened.
+     */
+    public TextRunLogWriter(String file) throws IOException
+    {
+        this.bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)));
+        this.builder = new StringBuilder();
+    }
+
+    @Override
+    public void write(int iteration, long user, long item, double[] metrics, long time) throws IOException
+    {
+        builder.setLength(0);
+        builder.append(iteration);
+        builder.append("\t");
+        builder.append(user);
+        builder.append("\t");
+        builder.append(item);
+        for(double metric : metrics)
+        {
+            builder.append("\t");
+            builder.append(metric);
+        }
+        builder.append("\t");
+        builder.append(time);
+        builder.append("\n");
+        bw.write(builder.toString());
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        bw.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        bw.close();
+    }
+}
@@ -9,10 +9,14 @@
  */
 package es.uam.eps.ir.knnbandit.metrics;
 
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
 import it.unimi.dsi.fastutil.ints.Int2LongMap;
 import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2IntMap;
 import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.stream.IntStream;
 
 /**
@@ -43,7 +47,7 @@ public class CumulativeGini<U,I> implements CumulativeMetric<U,I>
     /**
      * The total number of items.
      */
-    private final int numItems;
+    private int numItems;
     /**
      * The main term of the Gini index.
      */
@@ -121,6 +125,36 @@ public class CumulativeGini<U,I> implements CumulativeMetric<U,I>
         }
     }
 
+    @Override
+    public void grow(int numUsers, int numItems)
+    {
+        if(numItems <= this.numItems) return;
+        int added = numItems - this.numItems;
+
+        // The new items have not been recommended, so they take the lowest positions
+        // in the ranking, and every other item moves up by the number of new items.
+        this.numSum += added*this.freqSum;
+        for(long freq : this.mins.keySet())
+        {
+            if(freq != 0L)
+            {
+                this.mins.put(freq, this.mins.get(freq) + added);
+                this.maxs.put(freq, this.maxs.get(freq) + added);
+            }
+        }
+        if(this.maxs.containsKey(0L))
+        {
+            this.maxs.put(0L, this.maxs.get(0L) + added);
+        }
+        else
+        {
+            this.mins.put(0L, 1);
+            this.maxs.put(0L, added);
+        }
+        IntStream.range(this.numItems, numItems).forEach(iidx -> frequencies.put(iidx, 0L));
+        this.numItems = numItems;
+    }
+
     @Override
     public void reset()
     {
@@ -134,4 +168,50 @@ public class CumulativeGini<U,I> implements CumulativeMetric<U,I>
         this.freqSum = 0.0;
         this.numSum = 0.0;
     }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeInt(this.numItems);
+        out.writeDouble(this.freqSum);
+        out.writeDouble(this.numSum);
+        for(int iidx = 0; iidx < numItems; ++iidx)
+        {
+            out.writeLong(this.frequencies.get(iidx));
+        }
+
+        // The minimum and maximum indexes share their keys.
+        out.writeInt(this.mins.size());
+        for(Long2IntMap.Entry entry : this.mins.long2IntEntrySet())
+        {
+            long freq = entry.getLongKey();
+            out.writeLong(freq);
+            out.writeInt(entry.getIntValue());
+            out.writeInt(this.maxs.get(freq));
+        }
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException
+    {
+        Checkpoints.check(this.numItems, in.readInt(), "number of items");
+        this.mins.clear();
+        this.maxs.clear();
+        this.frequencies.clear();
+
+        this.freqSum = in.readDouble();
+        this.numSum = in.readDouble();
+        for(int iidx = 0; iidx < numItems; ++iidx)
+        {
+            this.frequencies.put(iidx, in.readLong());
+        }
+
+        int size = in.readInt();
+        for(int i = 0; i < size; ++i)
+        {
+            long freq = in.readLong();
+            this.mins.put(freq, in.readInt());
+            this.maxs.put(freq, in.readInt());
+        }
+    }
 }
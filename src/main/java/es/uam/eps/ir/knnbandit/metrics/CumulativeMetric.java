@@ -9,6 +9,8 @@
  */
 package es.uam.eps.ir.knnbandit.metrics;
 
+import es.uam.eps.ir.knnbandit.io.Checkpointable;
+
 /**
  * Interface for computing cumulative metrics.
  * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
@@ -16,7 +18,7 @@ package es.uam.eps.ir.knnbandit.metrics;
  * @param <U> User type.
  * @param <I> Item type.
  */
-public interface CumulativeMetric<U,I>
+public interface CumulativeMetric<U,I> extends Checkpointable
 {
     /**
      * Obtains the current value of the metric.
@@ -35,4 +37,15 @@ public interface CumulativeMetric<U,I>
      * Resets the metric.
      */
     public void reset();
+
+    /**
+     * Makes room for the users and items which have arrived since the metric was created.
+     * By default, the metric does not depend on the number of users and items.
+     * @param numUsers The new number of users.
+     * @param numItems The new number of items.
+     */
+    public default void grow(int numUsers, int numItems)
+    {
+
+    }
 }
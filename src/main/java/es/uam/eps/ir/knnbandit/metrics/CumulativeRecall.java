@@ -9,9 +9,13 @@
  */
 package es.uam.eps.ir.knnbandit.metrics;
 
-import java.util.Optional;
-import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
+import es.uam.eps.ir.knnbandit.data.preference.fast.RatingOracle;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 
 /**
  * Cumulative implementation of global recall.
@@ -24,7 +28,7 @@ public class CumulativeRecall<U,I> implements CumulativeMetric<U,I>
     /**
      * Number of relevant (user,item) pairs.
      */
-    private final int numRel;
+    private int numRel;
     /**
      * Number of currently discovered (user, item) pairs.
      */
@@ -34,9 +38,21 @@ public class CumulativeRecall<U,I> implements CumulativeMetric<U,I>
      */
     private final double threshold;
     /**
-     * Preference data.
+     * Total preference data.
      */
-    private final SimpleFastPreferenceData<U,I> prefData;
+    private final FastPreferenceData<U,I> prefData;
+    /**
+     * Finds the ratings in the preference data.
+     */
+    private final RatingOracle oracle;
+    /**
+     * Number of users.
+     */
+    private int numUsers;
+    /**
+     * Number of items.
+     */
+    private int numItems;
     
     /**
      * Constructor.
@@ -44,9 +60,12 @@ public class CumulativeRecall<U,I> implements CumulativeMetric<U,I>
      * @param numRel Number of relevant (user, item) pairs. 
      * @param threshold Relevance threshold.
      */
-    public CumulativeRecall(SimpleFastPreferenceData<U,I> prefData, int numRel, double threshold)
+    public CumulativeRecall(FastPreferenceData<U,I> prefData, int numRel, double threshold)
     {
         this.prefData = prefData;
+        this.oracle = RatingOracle.of(prefData);
+        this.numUsers = prefData.numUsers();
+        this.numItems = prefData.numItems();
         this.numRel = numRel;
         this.current = 0.0;
         this.threshold = threshold;
@@ -62,17 +81,60 @@ public class CumulativeRecall<U,I> implements CumulativeMetric<U,I>
     @Override
     public void update(int uidx, int iidx)
     {
-        Optional<IdxPref> value = this.prefData.getPreference(uidx, iidx);
-        if(value.isPresent() && value.get().v2 >= threshold)
+        // Unknown ratings are NaN, so they are never relevant.
+        if(this.oracle.rating(this.prefData, uidx, iidx) >= threshold)
         {
             this.current++;
         }
     }
 
+    /**
+     * Adds the relevant ratings of the new users, and those of the previous users for the new
+     * items, to the number of relevant pairs. They are read from the preference data, which
+     * must already contain them.
+     * @param numUsers The new number of users.
+     * @param numItems The new number of items.
+     */
+    @Override
+    public void grow(int numUsers, int numItems)
+    {
+        for(int uidx = this.numUsers; uidx < numUsers; ++uidx)
+        {
+            DoubleIterator vs = this.prefData.getUidxVs(uidx);
+            while(vs.hasNext())
+            {
+                if(vs.nextDouble() >= threshold) this.numRel++;
+            }
+        }
+        for(int iidx = this.numItems; iidx < numItems; ++iidx)
+        {
+            IntIterator uidxs = this.prefData.getIidxUidxs(iidx);
+            DoubleIterator vs = this.prefData.getIidxVs(iidx);
+            while(uidxs.hasNext())
+            {
+                int uidx = uidxs.nextInt();
+                if(vs.nextDouble() >= threshold && uidx < this.numUsers) this.numRel++;
+            }
+        }
+        this.numUsers = Math.max(this.numUsers, numUsers);
+        this.numItems = Math.max(this.numItems, numItems);
+    }
+
     @Override
     public void reset()
     {
         this.current = 0.0;
     }
 
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeDouble(this.current);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException
+    {
+        this.current = in.readDouble();
+    }
 }
@@ -0,0 +1,184 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.recommendation;
+
+import es.uam.eps.ir.knnbandit.io.Checkpointable;
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Set of users which can still receive recommendations. It allows drawing a user
+ * uniformly at random and retiring a user in constant time, by swapping the retired
+ * user with the last active one.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class ActiveUserSet implements Checkpointable
+{
+    /**
+     * Active users, followed by the retired ones. Only the first numUsers positions are valid.
+     */
+    private int[] users;
+    /**
+     * Position of each user in the users array. A user is active if their position is lower than size.
+     */
+    private int[] positions;
+    /**
+     * Number of users, active or retired.
+     */
+    private int numUsers;
+    /**
+     * Number of active users.
+     */
+    private int size;
+
+    /**
+     * Constructor. Initially, all users are active.
+     * @param numUsers The number of users.
+     */
+    public ActiveUserSet(int numUsers)
+    {
+        this.users = new int[numUsers];
+        this.positions = new int[numUsers];
+        for(int uidx = 0; uidx < numUsers; ++uidx)
+        {
+            this.users[uidx] = uidx;
+            this.positions[uidx] = uidx;
+        }
+        this.size = numUsers;
+        this.numUsers = numUsers;
+    }
+
+    /**
+     * Adds the users which have arrived since the set was created. The new users are active.
+     * @param numUsers The new number of users. If it is not greater than the current one, nothing is done.
+     */
+    public void grow(int numUsers)
+    {
+        if(numUsers <= this.numUsers) return;
+        if(numUsers > this.users.length)
+        {
+            int capacity = Math.max(numUsers, 2 * this.users.length);
+            this.users = Arrays.copyOf(this.users, capacity);
+            this.positions = Arrays.copyOf(this.positions, capacity);
+        }
+        for(int uidx = this.numUsers; uidx < numUsers; ++uidx)
+        {
+            this.users[uidx] = uidx;
+            this.positions[uidx] = uidx;
+            this.numUsers = uidx + 1;
+            this.add(uidx);
+        }
+    }
+
+    /**
+     * Makes a retired user active again.
+     * @param uidx Identifier of the user.
+     * @return true if the user was retired, false otherwise.
+     */
+    public boolean add(int uidx)
+    {
+        if(uidx < 0 || uidx >= this.numUsers || this.contains(uidx)) return false;
+        // The user is swapped with the first retired one.
+        this.swap(this.positions[uidx], this.size);
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Obtains the number of active users.
+     * @return the number of active users.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Checks whether there are no active users left.
+     * @return true if there are no active users, false otherwise.
+     */
+    public boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    /**
+     * Checks whether a user is active.
+     * @param uidx Identifier of the user.
+     * @return true if the user is active, false otherwise.
+     */
+    public boolean contains(int uidx)
+    {
+        return uidx >= 0 && uidx < numUsers && positions[uidx] < size;
+    }
+
+    /**
+     * Draws an active user uniformly at random.
+     * @param rng Random number generator.
+     * @return the identifier of the user, -1 if there are no active users.
+     */
+    public int sample(Random rng)
+    {
+        if(this.size == 0) return -1;
+        return this.users[rng.nextInt(this.size)];
+    }
+
+    /**
+     * Retires a user.
+     * @param uidx Identifier of the user.
+     * @return true if the user was active, false otherwise.
+     */
+    public boolean remove(int uidx)
+    {
+        if(!this.contains(uidx)) return false;
+        this.swap(this.positions[uidx], this.size - 1);
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Swaps the users in two positions of the users array.
+     * @param pos The first position.
+     * @param other The second position.
+     */
+    private void swap(int pos, int other)
+    {
+        int uidx = this.users[pos];
+        int vidx = this.users[other];
+        this.users[pos] = vidx;
+        this.positions[vidx] = pos;
+        this.users[other] = uidx;
+        this.positions[uidx] = other;
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeObject(Arrays.copyOf(this.users, this.numUsers));
+        out.writeObject(Arrays.copyOf(this.positions, this.numUsers));
+        out.writeInt(this.size);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        int[] storedUsers = (int[]) in.readObject();
+        int[] storedPositions = (int[]) in.readObject();
+        Checkpoints.check(this.numUsers, storedUsers.length, "number of users");
+        System.arraycopy(storedUsers, 0, this.users, 0, this.numUsers);
+        System.arraycopy(storedPositions, 0, this.positions, 0, this.numUsers);
+        this.size = in.readInt();
+    }
+}
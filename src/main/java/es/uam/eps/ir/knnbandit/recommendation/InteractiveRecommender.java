@@ -10,18 +10,23 @@
 package es.uam.eps.ir.knnbandit.recommendation;
 
 import es.uam.eps.ir.knnbandit.UntieRandomNumber;
-import es.uam.eps.ir.knnbandit.data.preference.fast.SimpleFastUpdateablePreferenceData;
+import es.uam.eps.ir.knnbandit.data.availability.Availability;
+import es.uam.eps.ir.knnbandit.data.availability.FullAvailabilityTemplate;
+import es.uam.eps.ir.knnbandit.data.availability.CopyOnWriteAvailability;
+import es.uam.eps.ir.knnbandit.data.preference.fast.RatingOracle;
+import es.uam.eps.ir.knnbandit.data.preference.fast.WindowedFastUpdateablePreferenceData;
+import es.uam.eps.ir.knnbandit.data.preference.fast.ColumnarFastUpdateablePreferenceData;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
-import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntList;
+import es.uam.eps.ir.knnbandit.io.Checkpointable;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 import java.util.Random;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.jooq.lambda.tuple.Tuple2;
@@ -33,20 +38,29 @@ import org.jooq.lambda.tuple.Tuple3;
  * @param <U> User type.
  * @param <I> Item type.
  */
-public abstract class InteractiveRecommender<U,I>
+public abstract class InteractiveRecommender<U,I> implements Checkpointable, Closeable
 {
     /**
      * Preference data.
      */
-    protected final SimpleFastPreferenceData<U,I> prefData;
+    protected final FastPreferenceData<U,I> prefData;
+    /**
+     * Finds the ratings in the preference data without allocating memory (shared by all the recommenders).
+     */
+    protected final RatingOracle oracle;
     /**
      * Training data.
      */
-    protected final SimpleFastUpdateablePreferenceData<U,I> trainData;
+    protected ColumnarFastUpdateablePreferenceData<U,I> trainData;
+    /**
+     * The training data, when it only keeps the most recent ratings (null if it keeps all of them).
+     */
+    private WindowedFastUpdateablePreferenceData<U,I> window;
     /**
-     * A map including which items are recommendable for each user.
+     * Stores which items are recommendable for each user. It only keeps the items consumed
+     * by each user on top of a template shared by all the recommenders.
      */
-    protected final List<IntList> availability;
+    protected final Availability availability;
     /**
      * True if we ignore missing ratings, false if we take them as failures.
      */
@@ -58,7 +72,11 @@ public abstract class InteractiveRecommender<U,I>
     /**
      * Random number generator.
      */
-    protected final Random rng;
+    protected Random rng;
+    /**
+     * Measures the time spent in the updates (null if they are not measured).
+     */
+    protected LoopProfiler profiler;
         
     /**
      * Constructor.
@@ -67,12 +85,12 @@ public abstract class InteractiveRecommender<U,I>
      * @param prefData preference data.
      * @param ignoreUnknown False to treat missing ratings as failures, true otherwise.
      */
-    public InteractiveRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U,I> prefData, boolean ignoreUnknown)
+    public InteractiveRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U,I> prefData, boolean ignoreUnknown)
     {
         this.prefData = prefData;
-        this.trainData = SimpleFastUpdateablePreferenceData.load(Stream.empty(), uIndex, iIndex);
-        this.availability = new ArrayList<>();
-        IntStream.range(0,prefData.numUsers()).forEach(uidx -> availability.add(this.getIidx().boxed().collect(Collectors.toCollection(IntArrayList::new))));
+        this.oracle = RatingOracle.of(prefData);
+        this.trainData = ColumnarFastUpdateablePreferenceData.load(Stream.empty(), uIndex, iIndex);
+        this.availability = new CopyOnWriteAvailability(new FullAvailabilityTemplate(prefData.numUsers(), prefData.numItems(), false));
         this.ignoreUnknown = ignoreUnknown;
         this.notReciprocal = false;
         this.rng = new Random(UntieRandomNumber.RNG);
@@ -86,15 +104,12 @@ public abstract class InteractiveRecommender<U,I>
      * @param ignoreUnknown False to treat missing ratings as failures, true otherwise.
      * @param notReciprocal False to treat missing ratings as failures, true otherwise.
      */
-    public InteractiveRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U,I> prefData, boolean ignoreUnknown, boolean notReciprocal)
+    public InteractiveRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U,I> prefData, boolean ignoreUnknown, boolean notReciprocal)
     {
         this.prefData = prefData;
-        this.trainData = SimpleFastUpdateablePreferenceData.load(Stream.empty(), uIndex, iIndex);
-        this.availability = new ArrayList<>();
-        IntStream.range(0,prefData.numUsers()).forEach(uidx -> 
-        {          
-            availability.add(this.getIidx().filter(iidx -> uidx != iidx).boxed().collect(Collectors.toCollection(IntArrayList::new)));
-        });
+        this.oracle = RatingOracle.of(prefData);
+        this.trainData = ColumnarFastUpdateablePreferenceData.load(Stream.empty(), uIndex, iIndex);
+        this.availability = new CopyOnWriteAvailability(new FullAvailabilityTemplate(prefData.numUsers(), prefData.numItems(), true));
         this.ignoreUnknown = ignoreUnknown;
         this.notReciprocal = notReciprocal;
         this.rng = new Random(UntieRandomNumber.RNG);
@@ -154,6 +169,16 @@ public abstract class InteractiveRecommender<U,I>
         return prefData.numItems();
     }
 
+    /**
+     * Obtains the number of items which can still be recommended to a user.
+     * @param uidx User identifier.
+     * @return the number of available items.
+     */
+    public int numAvailable(int uidx)
+    {
+        return this.availability.numAvailable(uidx);
+    }
+
     /**
      * Given a user, returns the next value.
      * @param uidx User identifier
@@ -168,29 +193,42 @@ public abstract class InteractiveRecommender<U,I>
      */
     public void update(int uidx, int iidx)
     {
-        Optional<IdxPref> realvalue = this.prefData.getPreference(uidx, iidx);
-        double value = realvalue.isPresent() ? realvalue.get().v2 : 0.0;
-        if(!this.ignoreUnknown || realvalue.isPresent())
+        long start = this.tick();
+        if(this.window != null)
+        {
+            this.window.tick();
+        }
+        double value = this.oracle.rating(this.prefData, uidx, iidx);
+        boolean known = !Double.isNaN(value);
+        if(!known) value = 0.0;
+        if(!this.ignoreUnknown || known)
         {
+            start = this.record(LoopProfiler.UPDATE_DATA, start);
             this.updateMethod(uidx, iidx, value);
+            start = this.record(LoopProfiler.UPDATE_MODEL, start);
             this.trainData.updateRating(uidx, iidx, value);
         }
-        this.availability.get(uidx).removeInt(this.availability.get(uidx).indexOf(iidx));
+        this.availability.remove(uidx, iidx);
+        start = this.record(LoopProfiler.UPDATE_DATA, start);
         
         if(this.notReciprocal && value > 1.0) // If the link exists...
         {
 
             if(this.prefData.numItems(iidx) > 0)
             {
-                realvalue = this.prefData.getPreference(iidx, uidx);
-                value = realvalue.isPresent() ? realvalue.get().v2 : 0.0;
-                if(!this.ignoreUnknown || realvalue.isPresent())
+                value = this.oracle.rating(this.prefData, iidx, uidx);
+                known = !Double.isNaN(value);
+                if(!known) value = 0.0;
+                if(!this.ignoreUnknown || known)
                 {
+                    start = this.record(LoopProfiler.UPDATE_DATA, start);
                     this.updateMethod(iidx, uidx, value);
+                    start = this.record(LoopProfiler.UPDATE_MODEL, start);
                     this.trainData.updateRating(iidx, uidx, value);
                 }
             }
-            this.availability.get(iidx).removeInt(this.availability.get(iidx).indexOf(uidx));
+            this.availability.remove(iidx, uidx);
+            this.record(LoopProfiler.UPDATE_DATA, start);
 
         }
     }
@@ -203,6 +241,75 @@ public abstract class InteractiveRecommender<U,I>
      */
     public abstract void updateMethod(int uidx, int iidx, double value);
     
+    /**
+     * Reverts the effect of a rating which has been forgotten, as it has left the window of
+     * training data. When it is called, the rating has already been removed from the training data.
+     * @param uidx User identifier.
+     * @param iidx Item identifier.
+     * @param value The rating uidx provided to iidx.
+     * @throws UnsupportedOperationException if the recommender cannot forget ratings.
+     */
+    protected void forgetMethod(int uidx, int iidx, double value)
+    {
+        throw new UnsupportedOperationException("The recommender cannot forget ratings");
+    }
+
+    /**
+     * Limits the training data to the most recent ratings: a sliding window of a maximum number
+     * of ratings, received during a maximum number of updates. Older ratings are forgotten
+     * through {@link #forgetMethod(int, int, double)}, so the memory and the cost of the updates
+     * remain bounded. It must be called before the recommender receives any rating.
+     * @param maxRatings Maximum number of ratings in the window (0 for no limit).
+     * @param maxAge Maximum number of updates of the recommender a rating stays in the window (0 for no limit).
+     * @throws UnsupportedOperationException if the recommender cannot forget ratings.
+     */
+    public void setWindow(int maxRatings, long maxAge)
+    {
+        if(!this.canForget())
+        {
+            throw new UnsupportedOperationException("The recommender cannot forget ratings");
+        }
+        if(this.trainData.numPreferences() > 0)
+        {
+            throw new IllegalStateException("The window must be set before receiving any rating");
+        }
+        this.window = WindowedFastUpdateablePreferenceData.load(Stream.empty(), this.trainData, this.trainData, maxRatings, maxAge, this::forgetMethod);
+        this.trainData = this.window;
+    }
+
+    /**
+     * Makes room for the users and items which have been added to the indexes since the
+     * recommender was created, such as those arriving during a streaming simulation. The new
+     * items become available for every user, and every item becomes available for the new users.
+     * The state of the recommender grows with capacity doubling, so adding users and items
+     * one by one has an amortized constant cost per stored value.
+     * @throws UnsupportedOperationException if the recommender cannot add users or items.
+     */
+    public void grow()
+    {
+        if(!this.canGrow())
+        {
+            throw new UnsupportedOperationException("The recommender cannot add users or items");
+        }
+        int numUsers = this.numUsers();
+        int numItems = this.numItems();
+        this.trainData.grow();
+        this.availability.grow(numUsers, numItems);
+        this.growMethod(numUsers, numItems);
+    }
+
+    /**
+     * Makes room in the model for the users and items which have been added to the indexes.
+     * When it is called, the training data and the availability have already grown.
+     * @param numUsers The new number of users.
+     * @param numItems The new number of items.
+     * @throws UnsupportedOperationException if the recommender cannot add users or items.
+     */
+    protected void growMethod(int numUsers, int numItems)
+    {
+        throw new UnsupportedOperationException("The recommender cannot add users or items");
+    }
+
     /**
      * Updates the method with training data.
      * @param train The training data.
@@ -213,32 +320,32 @@ public abstract class InteractiveRecommender<U,I>
         for(Tuple2<Integer, Integer> tuple : train)
         {
             int uidx = tuple.v1; int iidx = tuple.v2;
-            Optional<IdxPref> realvalue = this.prefData.getPreference(uidx, iidx);
-            double value = realvalue.isPresent() ? realvalue.get().v2 : 0.0;
-            if(!this.ignoreUnknown || realvalue.isPresent())
+            double value = this.oracle.rating(this.prefData, uidx, iidx);
+            boolean known = !Double.isNaN(value);
+            if(!known) value = 0.0;
+            if(!this.ignoreUnknown || known)
             {
                 tuples.add(new Tuple3<>(uidx,iidx,value));
                 this.trainData.updateRating(uidx, iidx, value);
             }
             
-            if(this.availability.get(uidx).contains(iidx))
-                this.availability.get(uidx).removeInt(this.availability.get(uidx).indexOf(iidx));
+            this.availability.remove(uidx, iidx);
             
             if(this.notReciprocal)
             {
                 if(this.prefData.numItems(iidx) > 0)
                 {
-                    realvalue = this.prefData.getPreference(iidx, uidx);
-                    value = realvalue.isPresent() ? realvalue.get().v2 : 0.0;
-                    if(!this.ignoreUnknown || realvalue.isPresent())
+                    value = this.oracle.rating(this.prefData, iidx, uidx);
+                    known = !Double.isNaN(value);
+                    if(!known) value = 0.0;
+                    if(!this.ignoreUnknown || known)
                     {
                         tuples.add(new Tuple3<>(iidx,uidx,value));
                         this.trainData.updateRating(iidx, uidx, value);
                     }
                 }
                 
-                if(this.availability.get(iidx).contains(uidx))
-                    this.availability.get(iidx).removeInt(this.availability.get(iidx).indexOf(uidx));
+                this.availability.remove(iidx, uidx);
             }
         }
         
@@ -255,6 +362,100 @@ public abstract class InteractiveRecommender<U,I>
         train.forEach(tuple -> this.updateMethod(tuple.v1, tuple.v2, tuple.v3));
     }
 
+    /**
+     * Writes the state of the recommender: the random number generator, the available items and the
+     * training data. Subclasses must call this method before writing their own state.
+     * @param out The output stream.
+     * @throws IOException if something fails while writing.
+     */
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeObject(this.rng);
+        this.availability.saveState(out);
+        this.trainData.saveState(out);
+    }
+
+    /**
+     * Restores the state of the recommender. Subclasses must call this method before
+     * restoring their own state.
+     * @param in The input stream.
+     * @throws IOException if something fails while reading.
+     * @throws ClassNotFoundException if a stored object cannot be deserialized.
+     */
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        this.rng = (Random) in.readObject();
+        this.availability.loadState(in);
+        this.trainData.loadState(in);
+    }
+
+    /**
+     * Sets the profiler which measures the time spent in the updates.
+     * @param profiler The profiler, null to stop measuring.
+     */
+    public void setProfiler(LoopProfiler profiler)
+    {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Obtains the current moment, if the updates are being measured.
+     * @return the current moment, as given by {@link System#nanoTime()}, 0 if the updates are not measured.
+     */
+    protected long tick()
+    {
+        return this.profiler == null ? 0L : System.nanoTime();
+    }
+
+    /**
+     * Adds the time elapsed since a moment to a phase, if the updates are being measured.
+     * @param phase The phase.
+     * @param start The moment the measure started.
+     * @return the current moment, 0 if the updates are not measured.
+     */
+    protected long record(int phase, long start)
+    {
+        return this.profiler == null ? 0L : this.profiler.add(phase, start);
+    }
+
+    /**
+     * Checks if the training data is limited to a window of recent ratings.
+     * @return true if a window has been set, false otherwise.
+     */
+    protected boolean hasWindow()
+    {
+        return this.window != null;
+    }
+
+    /**
+     * Checks if the recommender can forget ratings, so its training data can be limited to a window.
+     * @return true if the recommender implements {@link #forgetMethod(int, int, double)}, false otherwise.
+     */
+    public boolean canForget()
+    {
+        return false;
+    }
+
+    /**
+     * Checks if users and items can be added to the recommender after its creation.
+     * @return true if the recommender implements {@link #growMethod(int, int)}, false otherwise.
+     */
+    public boolean canGrow()
+    {
+        return false;
+    }
+
+    /**
+     * Releases the resources held by the recommender, such as the files in which it stores
+     * its state. The recommender cannot be used afterwards.
+     */
+    @Override
+    public void close()
+    {
+    }
+
     /**
      * Checks if the recommender uses all the received information, or only known data.
      * @return true if the recommender uses all the received information, false otherwise.
@@ -0,0 +1,264 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.recommendation;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Measures the time spent in each phase of the iterations of a recommendation loop.
+ * During an iteration, the time of each phase is accumulated. When the iteration ends,
+ * those times are added to a histogram per phase, from which the mean, median, 99th
+ * percentile and maximum times are obtained. Histograms use logarithmic buckets, so
+ * percentiles have a relative error of, at most, 4%.
+ *
+ * Profilers are not thread-safe: each loop must use its own.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class LoopProfiler
+{
+    /**
+     * Selection of the target user.
+     */
+    public final static int SELECT_USER = 0;
+    /**
+     * Selection of the recommended item.
+     */
+    public final static int NEXT = 1;
+    /**
+     * Update of the recommendation model.
+     */
+    public final static int UPDATE_MODEL = 2;
+    /**
+     * Update of the training data and the available items.
+     */
+    public final static int UPDATE_DATA = 3;
+    /**
+     * Update of the metrics.
+     */
+    public final static int METRICS = 4;
+    /**
+     * Names of the phases.
+     */
+    private final static String[] NAMES = {"selectUser", "next", "updateModel", "updateData", "metrics"};
+
+    /**
+     * Time spent in each phase during the current iteration.
+     */
+    private final long[] current;
+    /**
+     * Histograms of the time spent in each phase.
+     */
+    private final Histogram[] histograms;
+
+    /**
+     * Constructor.
+     */
+    public LoopProfiler()
+    {
+        this.current = new long[NAMES.length];
+        this.histograms = new Histogram[NAMES.length];
+        for(int i = 0; i < NAMES.length; ++i)
+        {
+            this.histograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Adds the time elapsed since a moment to a phase of the current iteration.
+     * @param phase The phase.
+     * @param start The moment the measure started, as given by {@link System#nanoTime()}.
+     * @return the current moment, as given by {@link System#nanoTime()}, so consecutive phases can be chained.
+     */
+    public long add(int phase, long start)
+    {
+        long now = System.nanoTime();
+        this.current[phase] += now - start;
+        return now;
+    }
+
+    /**
+     * Finishes the current iteration, and adds its times to the histograms.
+     */
+    public void endIteration()
+    {
+        for(int i = 0; i < current.length; ++i)
+        {
+            this.histograms[i].add(current[i]);
+            this.current[i] = 0L;
+        }
+    }
+
+    /**
+     * Discards the times of the current iteration (for instance, when it is a replay of a previous execution).
+     */
+    public void discardIteration()
+    {
+        for(int i = 0; i < current.length; ++i)
+        {
+            this.current[i] = 0L;
+        }
+    }
+
+    /**
+     * Clears the histograms.
+     */
+    public void reset()
+    {
+        for(Histogram histogram : histograms)
+        {
+            histogram.reset();
+        }
+        this.discardIteration();
+    }
+
+    /**
+     * Obtains the number of iterations measured since the last reset.
+     * @return the number of iterations.
+     */
+    public long numIterations()
+    {
+        return this.histograms[0].count;
+    }
+
+    /**
+     * Writes a summary of the times (in nanoseconds) since the last reset. It writes a tab-separated
+     * line per phase, containing the iteration, the phase, the number of iterations and the mean,
+     * median, 99th percentile and maximum times.
+     * @param out Where to write the summary.
+     * @param iteration The current iteration of the loop.
+     * @throws IOException if something fails while writing.
+     */
+    public void report(Appendable out, int iteration) throws IOException
+    {
+        for(int i = 0; i < NAMES.length; ++i)
+        {
+            Histogram histogram = histograms[i];
+            out.append(Integer.toString(iteration)).append("\t");
+            out.append(NAMES[i]).append("\t");
+            out.append(Long.toString(histogram.count)).append("\t");
+            out.append(Double.toString(histogram.mean())).append("\t");
+            out.append(Long.toString(histogram.percentile(0.5))).append("\t");
+            out.append(Long.toString(histogram.percentile(0.99))).append("\t");
+            out.append(Long.toString(histogram.max)).append("\n");
+        }
+    }
+
+    /**
+     * Histogram with logarithmic buckets: each power of two is divided into a fixed number of buckets.
+     */
+    private static class Histogram
+    {
+        /**
+         * Bits used for dividing each power of two.
+         */
+        private final static int SUB_BITS = 4;
+        /**
+         * Number of buckets for each power of two.
+         */
+        private final static int SUB = 1 << SUB_BITS;
+        /**
+         * Number of observations in each bucket.
+         */
+        private final long[] buckets = new long[SUB * (Long.SIZE - SUB_BITS + 1)];
+        /**
+         * Number of observations.
+         */
+        private long count;
+        /**
+         * Sum of the observations.
+         */
+        private long sum;
+        /**
+         * Maximum observation.
+         */
+        private long max;
+
+        /**
+         * Adds an observation.
+         * @param value The observation (a non-negative number).
+         */
+        public void add(long value)
+        {
+            long v = Math.max(0L, value);
+            this.buckets[bucket(v)]++;
+            this.count++;
+            this.sum += v;
+            this.max = Math.max(max, v);
+        }
+
+        /**
+         * Removes all the observations.
+         */
+        public void reset()
+        {
+            Arrays.fill(buckets, 0L);
+            this.count = 0L;
+            this.sum = 0L;
+            this.max = 0L;
+        }
+
+        /**
+         * Obtains the mean of the observations.
+         * @return the mean, NaN if there are no observations.
+         */
+        public double mean()
+        {
+            return count == 0 ? Double.NaN : sum / (count + 0.0);
+        }
+
+        /**
+         * Obtains an approximation of a percentile of the observations.
+         * @param p The percentile, between 0 and 1.
+         * @return the percentile, 0 if there are no observations.
+         */
+        public long percentile(double p)
+        {
+            if(count == 0) return 0L;
+            long target = Math.max(1L, (long) Math.ceil(p * count));
+            long acc = 0L;
+            for(int i = 0; i < buckets.length; ++i)
+            {
+                acc += buckets[i];
+                if(acc >= target) return Math.min(max, value(i));
+            }
+            return max;
+        }
+
+        /**
+         * Finds the bucket of a value.
+         * @param v The value.
+         * @return the bucket.
+         */
+        private static int bucket(long v)
+        {
+            if(v < SUB) return (int) v;
+            int exp = Long.SIZE - 1 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - SUB_BITS)) - SUB;
+            return SUB + (exp - SUB_BITS) * SUB + sub;
+        }
+
+        /**
+         * Finds a representative value of a bucket (the middle of its range).
+         * @param bucket The bucket.
+         * @return the value.
+         */
+        private static long value(int bucket)
+        {
+            if(bucket < SUB) return bucket;
+            int exp = (bucket - SUB) / SUB + SUB_BITS;
+            int sub = (bucket - SUB) % SUB;
+            long low = ((long) (SUB + sub)) << (exp - SUB_BITS);
+            long width = 1L << (exp - SUB_BITS);
+            return low + width / 2;
+        }
+    }
+}
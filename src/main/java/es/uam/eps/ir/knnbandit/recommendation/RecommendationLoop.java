@@ -9,11 +9,16 @@
  */
 package es.uam.eps.ir.knnbandit.recommendation;
 
+import es.uam.eps.ir.knnbandit.io.Checkpointable;
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
 import es.uam.eps.ir.knnbandit.metrics.CumulativeMetric;
 import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
 import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
 import org.jooq.lambda.tuple.Tuple2;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.*;
 
 /**
@@ -24,8 +29,13 @@ import java.util.*;
  * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
  * @author Pablo Castells (pablo.castells@uam.es)
  */
-public class RecommendationLoop<U,I>
+public class RecommendationLoop<U,I> implements Checkpointable
 {
+    /**
+     * Value returned by {@link #nextIterationIdx()} when the loop has finished.
+     */
+    public final static long END = -1L;
+
     /**
      * User index.
      */
@@ -42,6 +52,14 @@ public class RecommendationLoop<U,I>
      * The metrics we want to find.
      */
     private final Map<String, CumulativeMetric<U,I>> metrics;
+    /**
+     * The names of the metrics, in the order of their slots.
+     */
+    private final List<String> metricNames;
+    /**
+     * The metrics, indexed by their slots.
+     */
+    private final CumulativeMetric<U,I>[] metricSlots;
     /**
      * Random number generator.
      */
@@ -51,9 +69,9 @@ public class RecommendationLoop<U,I>
      */
     private final int rngSeed;
     /**
-     * The number of users with recommendations.
+     * The users which can still receive recommendations.
      */
-    private int numUsers;
+    private final ActiveUserSet activeUsers;
     /**
      * The current iteration number.
      */
@@ -62,13 +80,17 @@ public class RecommendationLoop<U,I>
      * Total number of iterations.
      */
     private final int nIter;
+    /**
+     * Measures the time spent in each phase of the iterations (null if they are not measured).
+     */
+    private LoopProfiler profiler;
 
     /**
      * Constructor. Uses 0 as the default random seed.
      * @param userIndex Index containing the users.
      * @param itemIndex Index containing the items.
      * @param recommender The interactive recommendation algorithm.
-     * @param metrics The map of metrics.
+     * @param metrics The map of metrics. Each metric is assigned a slot, following the iteration order of the map.
      * @param nIter Total number of iterations. 0 for iterating until no more recommendations can be done.
      */
     public RecommendationLoop(FastUserIndex<U> userIndex, FastItemIndex<I> itemIndex, InteractiveRecommender<U,I> recommender, Map<String, CumulativeMetric<U,I>> metrics, int nIter)
@@ -77,12 +99,15 @@ public class RecommendationLoop<U,I>
         this.itemIndex = itemIndex;
         this.recommender = recommender;
         this.metrics = metrics;
-        this.numUsers = userIndex.numUsers();
+        this.metricNames = Collections.unmodifiableList(new ArrayList<>(metrics.keySet()));
+        this.metricSlots = this.indexMetrics();
+        this.activeUsers = new ActiveUserSet(userIndex.numUsers());
         this.rngSeed = 0;
 
         this.nIter = nIter;
         rng = new Random(rngSeed);
         this.iteration = 0;
+        this.retireExhausted();
     }
 
     /**
@@ -90,7 +115,7 @@ public class RecommendationLoop<U,I>
      * @param userIndex Index containing the users.
      * @param itemIndex Index containing the items.
      * @param recommender The interactive recommendation algorithm.
-     * @param metrics The map of metrics.
+     * @param metrics The map of metrics. Each metric is assigned a slot, following the iteration order of the map.
      * @param nIter Total number of iterations. 0 for iterating until no more recommendations can be done.
      * @param rngSeed seed for a random number generator.
      */
@@ -100,11 +125,14 @@ public class RecommendationLoop<U,I>
         this.itemIndex = itemIndex;
         this.recommender = recommender;
         this.metrics = metrics;
-        this.numUsers = userIndex.numUsers();
-        this.rngSeed = 0;
+        this.metricNames = Collections.unmodifiableList(new ArrayList<>(metrics.keySet()));
+        this.metricSlots = this.indexMetrics();
+        this.activeUsers = new ActiveUserSet(userIndex.numUsers());
+        this.rngSeed = rngSeed;
         rng = new Random(rngSeed);
         this.nIter = nIter;
         this.iteration = 0;
+        this.retireExhausted();
     }
 
     /**
@@ -113,7 +141,7 @@ public class RecommendationLoop<U,I>
      */
     public boolean hasEnded()
     {
-        if(numUsers == 0) return true;
+        if(activeUsers.isEmpty()) return true;
         if(nIter > 0 && this.iteration >= nIter) return true;
         return false;
     }
@@ -124,12 +152,51 @@ public class RecommendationLoop<U,I>
      */
     public void update(Tuple2<U, I> tuple)
     {
-        int uidx = userIndex.user2uidx(tuple.v1);
-        int iidx = itemIndex.item2iidx(tuple.v2);
+        this.update(userIndex.user2uidx(tuple.v1), itemIndex.item2iidx(tuple.v2));
+    }
 
+    /**
+     * Recovers previous iterations from a file, without translating the user and the item.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     */
+    public void update(int uidx, int iidx)
+    {
         this.recommender.update(uidx, iidx);
-        this.metrics.forEach((name, metric) -> metric.update(uidx, iidx));
+        this.updateMetrics(uidx, iidx);
         ++this.iteration;
+        this.retireIfExhausted(uidx);
+        this.retireIfExhausted(iidx);
+
+        // Recovered iterations are not measured.
+        if(this.profiler != null) this.profiler.discardIteration();
+    }
+
+    /**
+     * Adds to the simulation the users and items which have been added to the indexes
+     * since the loop was created (or since the last call). New users are active, and
+     * retired users become active again if the new items can be recommended to them.
+     * When a run is resumed from a checkpoint, the same users and items must be added,
+     * and this method called, before loading the checkpoint.
+     * @throws UnsupportedOperationException if the recommender cannot add users or items.
+     */
+    public void grow()
+    {
+        int numUsers = this.userIndex.numUsers();
+        int numItems = this.itemIndex.numItems();
+
+        this.recommender.grow();
+        this.activeUsers.grow(numUsers);
+        for(CumulativeMetric<U,I> metric : this.metricSlots)
+        {
+            metric.grow(numUsers, numItems);
+        }
+
+        for(int uidx = 0; uidx < numUsers; ++uidx)
+        {
+            if(this.recommender.numAvailable(uidx) > 0) this.activeUsers.add(uidx);
+            else this.retireIfExhausted(uidx);
+        }
     }
 
     /**
@@ -141,41 +208,186 @@ public class RecommendationLoop<U,I>
         return this.iteration;
     }
 
+    /**
+     * Estimates the total number of iterations of the loop. If it runs until no more recommendations
+     * can be done, this is an upper bound, since recommendations might remove several available items.
+     * @return the expected number of iterations.
+     */
+    public long getExpectedIterations()
+    {
+        if(nIter > 0) return nIter;
+        long remaining = 0L;
+        for(int uidx = 0; uidx < this.userIndex.numUsers(); ++uidx)
+        {
+            if(this.activeUsers.contains(uidx)) remaining += this.recommender.numAvailable(uidx);
+        }
+        return this.iteration + remaining;
+    }
+
     /**
      * Executes the next iteration of the loop.
      * @return a tuple containing the user and the item selected in the loop. Null if the loop has finished.
      */
     public Tuple2<U, I> nextIteration()
     {
-        // We cannot continue.
-        if(this.numUsers == 0)
-            return null;
-
-        // Select user and item for this iteration.
-        boolean cont = false;
-        int uidx;
-        int iidx;
-        do
+        long pair = this.nextIterationIdx();
+        if(pair == END) return null;
+        return new Tuple2<>(userIndex.uidx2user(getUidx(pair)), itemIndex.iidx2item(getIidx(pair)));
+    }
+
+    /**
+     * Executes the next iteration of the loop, without translating the selected user and item,
+     * so no memory is allocated. They are packed in a single value, which can be unpacked with
+     * {@link #getUidx(long)} and {@link #getIidx(long)}.
+     * @return the identifiers of the user and the item selected in the loop, END if the loop has finished.
+     */
+    public long nextIterationIdx()
+    {
+        // Select user and item for this iteration. Users which cannot be recommended
+        // any other item are retired, so every draw is made among the active ones.
+        int uidx = -1;
+        int iidx = -1;
+        long start = this.tick();
+        while(!this.activeUsers.isEmpty())
         {
-            uidx = rng.nextInt(numUsers);
+            uidx = this.activeUsers.sample(rng);
+            start = this.record(LoopProfiler.SELECT_USER, start);
             iidx = recommender.next(uidx);
-            // If the user cannot be recommended another item.
-            if(iidx != -1)
-            {
-                cont = true;
-            }
+            start = this.record(LoopProfiler.NEXT, start);
+            if(iidx != -1) break;
+            this.activeUsers.remove(uidx);
         }
-        while(!cont && this.numUsers > 0);
 
-        if(this.numUsers == 0)
-            return null;
+        // We cannot continue.
+        if(this.activeUsers.isEmpty())
+        {
+            if(this.profiler != null) this.profiler.discardIteration();
+            return END;
+        }
 
-        int defUidx = uidx;
-        int defIidx = iidx;
-        recommender.update(defUidx, defIidx);
-        metrics.forEach((name, metric) -> metric.update(defUidx, defIidx));
+        recommender.update(uidx, iidx);
+        start = this.tick();
+        this.updateMetrics(uidx, iidx);
+        start = this.record(LoopProfiler.METRICS, start);
         ++this.iteration;
-        return new Tuple2<>(userIndex.uidx2user(uidx),itemIndex.iidx2item(iidx));
+        this.retireIfExhausted(uidx);
+        this.retireIfExhausted(iidx);
+        this.record(LoopProfiler.UPDATE_DATA, start);
+        if(this.profiler != null) this.profiler.endIteration();
+        return (((long) uidx) << 32) | (iidx & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Obtains the identifier of the user from the result of {@link #nextIterationIdx()}.
+     * @param pair The identifiers of the user and the item.
+     * @return the identifier of the user.
+     */
+    public static int getUidx(long pair)
+    {
+        return (int) (pair >>> 32);
+    }
+
+    /**
+     * Obtains the identifier of the item from the result of {@link #nextIterationIdx()}.
+     * @param pair The identifiers of the user and the item.
+     * @return the identifier of the item.
+     */
+    public static int getIidx(long pair)
+    {
+        return (int) pair;
+    }
+
+    /**
+     * Sets the profiler which measures the time spent in each phase of the iterations.
+     * It is also used by the recommender, to measure its updates.
+     * @param profiler The profiler, null to stop measuring.
+     */
+    public void setProfiler(LoopProfiler profiler)
+    {
+        this.profiler = profiler;
+        this.recommender.setProfiler(profiler);
+    }
+
+    /**
+     * Obtains the profiler which measures the time spent in each phase of the iterations.
+     * @return the profiler, null if the iterations are not measured.
+     */
+    public LoopProfiler getProfiler()
+    {
+        return this.profiler;
+    }
+
+    /**
+     * Obtains the current moment, if the iterations are being measured.
+     * @return the current moment, as given by {@link System#nanoTime()}, 0 if the iterations are not measured.
+     */
+    private long tick()
+    {
+        return this.profiler == null ? 0L : System.nanoTime();
+    }
+
+    /**
+     * Adds the time elapsed since a moment to a phase, if the iterations are being measured.
+     * @param phase The phase.
+     * @param start The moment the measure started.
+     * @return the current moment, 0 if the iterations are not measured.
+     */
+    private long record(int phase, long start)
+    {
+        return this.profiler == null ? 0L : this.profiler.add(phase, start);
+    }
+
+    /**
+     * Retires a user if no more items can be recommended to them.
+     * In contact recommendation, items are users too, so this is also called with
+     * the recommended item, since it may have been removed from their availability.
+     * @param uidx Identifier of the user.
+     */
+    private void retireIfExhausted(int uidx)
+    {
+        if(this.activeUsers.contains(uidx) && this.recommender.numAvailable(uidx) == 0)
+        {
+            this.activeUsers.remove(uidx);
+        }
+    }
+
+    /**
+     * Retires all users which cannot receive any recommendation.
+     */
+    private void retireExhausted()
+    {
+        for(int uidx = 0; uidx < this.userIndex.numUsers(); ++uidx)
+        {
+            this.retireIfExhausted(uidx);
+        }
+    }
+
+    /**
+     * Assigns a slot to each metric.
+     * @return the metrics, indexed by their slots.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private CumulativeMetric<U,I>[] indexMetrics()
+    {
+        CumulativeMetric<U,I>[] slots = new CumulativeMetric[this.metricNames.size()];
+        for(int i = 0; i < slots.length; ++i)
+        {
+            slots[i] = this.metrics.get(this.metricNames.get(i));
+        }
+        return slots;
+    }
+
+    /**
+     * Updates all the metrics with a new recommendation.
+     * @param uidx Identifier of the user.
+     * @param iidx Identifier of the item.
+     */
+    private void updateMetrics(int uidx, int iidx)
+    {
+        for(CumulativeMetric<U,I> metric : this.metricSlots)
+        {
+            metric.update(uidx, iidx);
+        }
     }
 
     /**
@@ -188,4 +400,89 @@ public class RecommendationLoop<U,I>
         this.metrics.forEach((name, metric) -> values.put(name, metric.compute()));
         return values;
     }
+
+    /**
+     * Obtains the names of the metrics, in the order of their slots.
+     * @return the names of the metrics.
+     */
+    public List<String> getMetricNames()
+    {
+        return this.metricNames;
+    }
+
+    /**
+     * Obtains the slot of a metric.
+     * @param name The name of the metric.
+     * @return the slot of the metric, -1 if it does not exist.
+     */
+    public int getMetricIndex(String name)
+    {
+        return this.metricNames.indexOf(name);
+    }
+
+    /**
+     * Obtains the values for the metrics in the current iteration, without allocating any memory.
+     * @param values An array in which to store the values, indexed by the slots of the metrics.
+     */
+    public void getMetricValues(double[] values)
+    {
+        for(int i = 0; i < this.metricSlots.length; ++i)
+        {
+            values[i] = this.metricSlots[i].compute();
+        }
+    }
+
+    /**
+     * Writes the state of the loop: the iteration number, the random number generator, the
+     * active users, the recommender and the metrics. The iteration number is written first,
+     * so it can be read without restoring the rest of the checkpoint.
+     * @param out The output stream.
+     * @throws IOException if something fails while writing.
+     */
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeInt(this.iteration);
+        out.writeObject(this.rng);
+        this.activeUsers.saveState(out);
+        this.recommender.saveState(out);
+
+        List<String> names = new ArrayList<>(this.metrics.keySet());
+        Collections.sort(names);
+        out.writeInt(names.size());
+        for(String name : names)
+        {
+            out.writeUTF(name);
+            this.metrics.get(name).saveState(out);
+        }
+    }
+
+    /**
+     * Restores the state of the loop. The loop must have been built with the same
+     * recommender and metrics as the one which wrote the checkpoint.
+     * @param in The input stream.
+     * @throws IOException if something fails while reading, or the checkpoint does not match the loop.
+     * @throws ClassNotFoundException if a stored object cannot be deserialized.
+     */
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        this.iteration = in.readInt();
+        this.rng = (Random) in.readObject();
+        this.activeUsers.loadState(in);
+        this.recommender.loadState(in);
+
+        int numMetrics = in.readInt();
+        Checkpoints.check(this.metrics.size(), numMetrics, "number of metrics");
+        for(int i = 0; i < numMetrics; ++i)
+        {
+            String name = in.readUTF();
+            CumulativeMetric<U,I> metric = this.metrics.get(name);
+            if(metric == null)
+            {
+                throw new IOException("Checkpoint mismatch: unknown metric " + name);
+            }
+            metric.loadState(in);
+        }
+    }
 }
@@ -14,7 +14,10 @@ import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserInde
 import es.uam.eps.ir.knnbandit.recommendation.InteractiveRecommender;
 import es.uam.eps.ir.knnbandit.recommendation.bandits.functions.ValueFunction;
 import es.uam.eps.ir.knnbandit.recommendation.bandits.item.ItemBandit;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 
 /**
  * Simple non-personalized item-based multi-armed bandit recommender.
@@ -43,7 +46,7 @@ public class ItemBanditRecommender<U,I> extends InteractiveRecommender<U,I>
      * @param itemBandit An item bandit.
      * @param valFunc A value function of the reward.
      */
-    public ItemBanditRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U, I> prefData, boolean ignoreUnknown, ItemBandit<U,I> itemBandit, ValueFunction valFunc)
+    public ItemBanditRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U, I> prefData, boolean ignoreUnknown, ItemBandit<U,I> itemBandit, ValueFunction valFunc)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown);
         this.itemBandit = itemBandit;
@@ -59,7 +62,7 @@ public class ItemBanditRecommender<U,I> extends InteractiveRecommender<U,I>
      * @param itemBandit An item bandit.
      * @param valFunc A value function of the reward.
      */
-    public ItemBanditRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean notReciprocal, ItemBandit<U,I> itemBandit, ValueFunction valFunc)
+    public ItemBanditRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean notReciprocal, ItemBandit<U,I> itemBandit, ValueFunction valFunc)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown, notReciprocal);
         this.itemBandit = itemBandit;
@@ -69,7 +72,7 @@ public class ItemBanditRecommender<U,I> extends InteractiveRecommender<U,I>
     @Override
     public int next(int uidx)
     {
-        int iidx = this.itemBandit.next(uidx, availability.get(uidx).toIntArray(), valFunc);
+        int iidx = this.itemBandit.next(uidx, availability.toIntArray(uidx), valFunc);
         return iidx;
     }
 
@@ -78,4 +81,30 @@ public class ItemBanditRecommender<U,I> extends InteractiveRecommender<U,I>
     {
         this.itemBandit.update(iidx, value);
     }
+
+    @Override
+    public boolean canGrow()
+    {
+        return true;
+    }
+
+    @Override
+    protected void growMethod(int numUsers, int numItems)
+    {
+        this.itemBandit.grow(numItems);
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        super.saveState(out);
+        this.itemBandit.saveState(out);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        super.loadState(in);
+        this.itemBandit.loadState(in);
+    }
 }
@@ -10,8 +10,12 @@
 package es.uam.eps.ir.knnbandit.recommendation.bandits.item;
 
 import es.uam.eps.ir.knnbandit.recommendation.bandits.functions.ValueFunction;
+import es.uam.eps.ir.knnbandit.utils.GrowableDoubleArray;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Random;
 
 /**
@@ -30,11 +34,11 @@ public class EpsilonTGreedyItemBandit<U,I> extends ItemBandit<U,I>
     /**
      * Values of each arm.
      */
-    double[] values;
+    GrowableDoubleArray values;
     /**
      * Number of times an arm has been selected.
      */
-    double[] numTimes;
+    GrowableDoubleArray numTimes;
     /**
      * The sum of the values.
      */
@@ -42,7 +46,7 @@ public class EpsilonTGreedyItemBandit<U,I> extends ItemBandit<U,I>
     /**
      * The number of items.
      */
-    private final int numItems;
+    private int numItems;
     /**
      * Number of iterations.
      */
@@ -50,7 +54,7 @@ public class EpsilonTGreedyItemBandit<U,I> extends ItemBandit<U,I>
     /**
      * Random number generator.
      */
-    private final Random rng = new Random();
+    private Random rng = new Random();
     /**
      * Epsilon greedy update function.
      */
@@ -68,8 +72,8 @@ public class EpsilonTGreedyItemBandit<U,I> extends ItemBandit<U,I>
         this.alpha = alpha;
         this.numItems = numItems;
         this.sumValues = 0.0;
-        this.values = new double[numItems];
-        this.numTimes = new double[numItems];
+        this.values = new GrowableDoubleArray(numItems);
+        this.numTimes = new GrowableDoubleArray(numItems);
         this.updateFunction = updateFunction;
         this.numIter = 1;
     }
@@ -98,7 +102,7 @@ public class EpsilonTGreedyItemBandit<U,I> extends ItemBandit<U,I>
                 
                 for(int i : available)
                 {
-                    double val = valF.apply(uidx, i, values[i], numTimes[i]);
+                    double val = valF.apply(uidx, i, values.get(i), numTimes.get(i));
                     if(val > max)
                     {
                         max = val;
@@ -151,7 +155,7 @@ public class EpsilonTGreedyItemBandit<U,I> extends ItemBandit<U,I>
                 
                 for(int i : available)
                 {
-                    double val = valF.apply(uidx, i, values[i], numTimes[i]);
+                    double val = valF.apply(uidx, i, values.get(i), numTimes.get(i));
                     if(val > max)
                     {
                         max = val;
@@ -185,13 +189,43 @@ public class EpsilonTGreedyItemBandit<U,I> extends ItemBandit<U,I>
     {
         double oldSum = this.sumValues;
         double increment = value;
-        double nTimes = this.numTimes[i]+1;
-        double oldVal = this.values[i];
+        double nTimes = this.numTimes.get(i)+1;
+        double oldVal = this.values.get(i);
      
-        numTimes[i]++;
+        numTimes.addTo(i, 1.0);
         numIter++;
         double newVal = this.updateFunction.apply(oldVal, value, oldSum, increment, nTimes);
-        this.values[i] = newVal;
+        this.values.set(i, newVal);
         this.sumValues += (newVal - oldVal);
     }
+
+    @Override
+    public void grow(int numItems)
+    {
+        this.numItems = Math.max(this.numItems, numItems);
+        this.values.grow(numItems);
+        this.numTimes.grow(numItems);
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        super.saveState(out);
+        out.writeObject(this.rng);
+        out.writeObject(this.values.toDoubleArray());
+        out.writeObject(this.numTimes.toDoubleArray());
+        out.writeDouble(this.sumValues);
+        out.writeInt(this.numIter);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        super.loadState(in);
+        this.rng = (Random) in.readObject();
+        this.values = GrowableDoubleArray.of((double[]) in.readObject(), 0.0);
+        this.numTimes = GrowableDoubleArray.of((double[]) in.readObject(), 0.0);
+        this.sumValues = in.readDouble();
+        this.numIter = in.readInt();
+    }
 }
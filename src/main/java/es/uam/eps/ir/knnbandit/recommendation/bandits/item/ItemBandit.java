@@ -10,8 +10,12 @@
 package es.uam.eps.ir.knnbandit.recommendation.bandits.item;
 
 import es.uam.eps.ir.knnbandit.UntieRandomNumber;
+import es.uam.eps.ir.knnbandit.io.Checkpointable;
 import es.uam.eps.ir.knnbandit.recommendation.bandits.functions.ValueFunction;
 import it.unimi.dsi.fastutil.ints.IntList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Random;
 
 /**
@@ -21,12 +25,12 @@ import java.util.Random;
  * @param <U> User type.
  * @param <I> Item type.
  */
-public abstract class ItemBandit<U,I>
+public abstract class ItemBandit<U,I> implements Checkpointable
 {       
     /**
      * Untie random.
      */
-    protected final Random untierng;
+    protected Random untierng;
     /**
      * Constructor.
      */
@@ -59,4 +63,36 @@ public abstract class ItemBandit<U,I>
      * @param value The reward.
      */
     public abstract void update(int iidx, double value);
+
+    /**
+     * Adds arms for the items which have arrived since the bandit was created. The new
+     * arms start with the same state as the initial ones.
+     * @param numItems The new number of items. If it is not greater than the current one, nothing is done.
+     */
+    public abstract void grow(int numItems);
+
+    /**
+     * Writes the state of the bandit. Subclasses must call this method before
+     * writing their own state.
+     * @param out The output stream.
+     * @throws IOException if something fails while writing.
+     */
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeObject(this.untierng);
+    }
+
+    /**
+     * Restores the state of the bandit. Subclasses must call this method before
+     * restoring their own state.
+     * @param in The input stream.
+     * @throws IOException if something fails while reading.
+     * @throws ClassNotFoundException if a stored object cannot be deserialized.
+     */
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        this.untierng = (Random) in.readObject();
+    }
 }
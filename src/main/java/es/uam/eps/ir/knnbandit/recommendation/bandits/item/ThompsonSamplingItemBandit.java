@@ -8,10 +8,15 @@
  * 
  */
 package es.uam.eps.ir.knnbandit.recommendation.bandits.item;
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
 import es.uam.eps.ir.knnbandit.recommendation.bandits.functions.ValueFunction;
 import es.uam.eps.ir.knnbandit.stats.BetaDistribution;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 
 /**
  * Item bandit using the Thompson sampling algorithm.
@@ -25,7 +30,19 @@ public class ThompsonSamplingItemBandit<U,I> extends ItemBandit<U,I>
     /**
      * A Beta distribution for each possible item.
      */
-    private final BetaDistribution[] betas;
+    private BetaDistribution[] betas;
+    /**
+     * The number of items.
+     */
+    private int numItems;
+    /**
+     * The initial value for the alpha parameter of the arms of new items.
+     */
+    private final double initialAlpha;
+    /**
+     * The initial value for the beta parameter of the arms of new items.
+     */
+    private final double initialBeta;
 
     /**
      * Constructor.
@@ -33,8 +50,7 @@ public class ThompsonSamplingItemBandit<U,I> extends ItemBandit<U,I>
      */
     public ThompsonSamplingItemBandit(int numItems)
     {
-        this.betas = new BetaDistribution[numItems];
-        for(int i = 0; i < numItems; ++i) betas[i] = new BetaDistribution(1.0,1.0);
+        this(numItems, 1.0, 1.0);
     }
     
     /**
@@ -46,6 +62,9 @@ public class ThompsonSamplingItemBandit<U,I> extends ItemBandit<U,I>
     public ThompsonSamplingItemBandit(int numItems, double initialAlpha, double initialBeta)
     {
         this.betas = new BetaDistribution[numItems];
+        this.numItems = numItems;
+        this.initialAlpha = initialAlpha;
+        this.initialBeta = initialBeta;
         for(int i = 0; i < numItems; ++i) betas[i] = new BetaDistribution(initialAlpha, initialBeta);
     }
     
@@ -54,10 +73,14 @@ public class ThompsonSamplingItemBandit<U,I> extends ItemBandit<U,I>
      * @param numItems Number of items.
      * @param initialAlphas The initial values for the alpha parameters of Beta distributions.
      * @param initialBetas The initial values for the beta parameters of Beta distributions.
+     * The arms of the items which arrive later start with alpha and beta equal to 1.
      */
     public ThompsonSamplingItemBandit(int numItems, double[] initialAlphas, double[] initialBetas)
     {
         this.betas = new BetaDistribution[numItems];
+        this.numItems = numItems;
+        this.initialAlpha = 1.0;
+        this.initialBeta = 1.0;
         for(int i = 0; i < numItems; ++i) betas[i] = new BetaDistribution(initialAlphas[i], initialBetas[i]);
     }
     
@@ -131,4 +154,39 @@ public class ThompsonSamplingItemBandit<U,I> extends ItemBandit<U,I>
         this.betas[i].updateAdd(value, (1.0 - value));
     }
 
+    @Override
+    public void grow(int numItems)
+    {
+        if(numItems <= this.numItems) return;
+        if(numItems > this.betas.length)
+        {
+            this.betas = Arrays.copyOf(this.betas, Math.max(numItems, 2 * this.betas.length));
+        }
+        for(int i = this.numItems; i < numItems; ++i) betas[i] = new BetaDistribution(initialAlpha, initialBeta);
+        this.numItems = numItems;
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        super.saveState(out);
+        out.writeInt(this.numItems);
+        for(int i = 0; i < this.numItems; ++i)
+        {
+            out.writeDouble(this.betas[i].getAlpha());
+            out.writeDouble(this.betas[i].getBeta());
+        }
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        super.loadState(in);
+        Checkpoints.check(this.numItems, in.readInt(), "number of items");
+        for(int i = 0; i < this.numItems; ++i)
+        {
+            double alpha = in.readDouble();
+            this.betas[i].update(alpha, in.readDouble());
+        }
+    }
 }
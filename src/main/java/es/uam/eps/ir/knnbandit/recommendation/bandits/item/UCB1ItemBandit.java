@@ -10,8 +10,12 @@
 package es.uam.eps.ir.knnbandit.recommendation.bandits.item;
 
 import es.uam.eps.ir.knnbandit.recommendation.bandits.functions.ValueFunction;
+import es.uam.eps.ir.knnbandit.utils.GrowableDoubleArray;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 
 /**
  * Item bandit using the UCB1 algorithm.
@@ -25,11 +29,11 @@ public class UCB1ItemBandit<U,I> extends ItemBandit<U,I>
     /**
      * The values for each user.
      */
-    double[] values;
+    GrowableDoubleArray values;
     /**
      * The number of times each item has been selected.
      */
-    double[] numTimes;
+    GrowableDoubleArray numTimes;
     /**
      * The number of iterations.
      */
@@ -46,8 +50,8 @@ public class UCB1ItemBandit<U,I> extends ItemBandit<U,I>
     public UCB1ItemBandit(int numItems)
     {
         this.numItems = numItems;
-        this.values = new double[numItems];
-        this.numTimes = new double[numItems];
+        this.values = new GrowableDoubleArray(numItems);
+        this.numTimes = new GrowableDoubleArray(numItems);
     }
     
     @Override
@@ -66,13 +70,13 @@ public class UCB1ItemBandit<U,I> extends ItemBandit<U,I>
             for(int i : available)
             {
                 double val;
-                if(this.numTimes[i] == 0)
+                if(this.numTimes.get(i) == 0)
                 {
                     val = Double.POSITIVE_INFINITY;
                 }
                 else
                 {
-                    val = valF.apply(uidx, i,values[i] + Math.sqrt(2*Math.log(numIter+1)/(numTimes[i])), numTimes[i]);
+                    val = valF.apply(uidx, i,values.get(i) + Math.sqrt(2*Math.log(numIter+1)/(numTimes.get(i))), numTimes.get(i));
                 }
                 
                 if(val > max)
@@ -112,13 +116,13 @@ public class UCB1ItemBandit<U,I> extends ItemBandit<U,I>
             for(int i : available)
             {
                 double val;
-                if(this.numTimes[i] == 0)
+                if(this.numTimes.get(i) == 0)
                 {
                     val = Double.POSITIVE_INFINITY;
                 }
                 else
                 {
-                    val = valF.apply(uidx, i,values[i] + Math.sqrt(2*Math.log(numIter+1)/(numTimes[i])), numTimes[i]);
+                    val = valF.apply(uidx, i,values.get(i) + Math.sqrt(2*Math.log(numIter+1)/(numTimes.get(i))), numTimes.get(i));
                 }
                 
                 if(val > max)
@@ -146,9 +150,34 @@ public class UCB1ItemBandit<U,I> extends ItemBandit<U,I>
     @Override
     public void update(int i, double value)
     {
-        numTimes[i]++;
+        numTimes.addTo(i, 1.0);
         numIter++;
-        values[i] = values[i] + 1.0/(numTimes[i] + 0.0)*(value - values[i]);
+        values.set(i, values.get(i) + 1.0/(numTimes.get(i) + 0.0)*(value - values.get(i)));
+    }
+
+    @Override
+    public void grow(int numItems)
+    {
+        this.numItems = Math.max(this.numItems, numItems);
+        this.values.grow(numItems);
+        this.numTimes.grow(numItems);
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        super.saveState(out);
+        out.writeObject(this.values.toDoubleArray());
+        out.writeObject(this.numTimes.toDoubleArray());
+        out.writeInt(this.numIter);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        super.loadState(in);
+        this.values = GrowableDoubleArray.of((double[]) in.readObject(), 0.0);
+        this.numTimes = GrowableDoubleArray.of((double[]) in.readObject(), 0.0);
+        this.numIter = in.readInt();
     }
-    
 }
@@ -10,8 +10,12 @@
 package es.uam.eps.ir.knnbandit.recommendation.bandits.item;
 
 import es.uam.eps.ir.knnbandit.recommendation.bandits.functions.ValueFunction;
+import es.uam.eps.ir.knnbandit.utils.GrowableDoubleArray;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 
 /**
  * Item bandit using the UCB1-tuned algorithm.
@@ -25,15 +29,15 @@ public class UCB1TunedItemBandit<U,I> extends ItemBandit<U,I>
     /**
      * The values for each arm.
      */
-    double[] values;
+    GrowableDoubleArray values;
     /**
      * The variances of each arm.
      */
-    double[] variances;
+    GrowableDoubleArray variances;
     /**
      * The number of times each item has been selected.
      */
-    double[] numTimes;
+    GrowableDoubleArray numTimes;
     /**
      * The number of iterations.
      */
@@ -50,9 +54,9 @@ public class UCB1TunedItemBandit<U,I> extends ItemBandit<U,I>
     public UCB1TunedItemBandit(int numItems)
     {
         this.numItems = numItems;
-        this.values = new double[numItems];
-        this.numTimes = new double[numItems];
-        this.variances = new double[numItems];
+        this.values = new GrowableDoubleArray(numItems);
+        this.numTimes = new GrowableDoubleArray(numItems);
+        this.variances = new GrowableDoubleArray(numItems);
     }
     
     @Override
@@ -71,14 +75,14 @@ public class UCB1TunedItemBandit<U,I> extends ItemBandit<U,I>
             for(int i : available)
             {
                 double val;
-                if(this.numTimes[i] == 0)
+                if(this.numTimes.get(i) == 0)
                 {
                     val = Double.POSITIVE_INFINITY;
                 }
                 else
                 {
-                    double ucb = this.variances[i] - values[i]*values[i] + Math.sqrt(2*Math.log(numIter+1)/(numTimes[i]));
-                    val = valF.apply(uidx, i,values[i] + Math.sqrt((Math.log(numIter+1)/numTimes[i]) * Math.min(0.25, ucb)), numTimes[i]);
+                    double ucb = this.variances.get(i) - values.get(i)*values.get(i) + Math.sqrt(2*Math.log(numIter+1)/(numTimes.get(i)));
+                    val = valF.apply(uidx, i,values.get(i) + Math.sqrt((Math.log(numIter+1)/numTimes.get(i)) * Math.min(0.25, ucb)), numTimes.get(i));
                 }
                 
                 if(val > max)
@@ -117,14 +121,14 @@ public class UCB1TunedItemBandit<U,I> extends ItemBandit<U,I>
             for(int i : available)
             {
                 double val;
-                if(this.numTimes[i] == 0)
+                if(this.numTimes.get(i) == 0)
                 {
                     val = Double.POSITIVE_INFINITY;
                 }
                 else
                 {
-                    double ucb = this.variances[i] - values[i]*values[i] + Math.sqrt(2*Math.log(numIter+1)/(numTimes[i]));
-                    val = valF.apply(uidx, i,values[i] + Math.sqrt((Math.log(numIter+1)/numTimes[i]) * Math.min(0.25, ucb)), numTimes[i]);
+                    double ucb = this.variances.get(i) - values.get(i)*values.get(i) + Math.sqrt(2*Math.log(numIter+1)/(numTimes.get(i)));
+                    val = valF.apply(uidx, i,values.get(i) + Math.sqrt((Math.log(numIter+1)/numTimes.get(i)) * Math.min(0.25, ucb)), numTimes.get(i));
                 }
                 
                 if(val > max)
@@ -150,13 +154,41 @@ public class UCB1TunedItemBandit<U,I> extends ItemBandit<U,I>
     @Override
     public void update(int i, double value)
     {
-        double oldM = values[i];
-        double oldS = variances[i];
-        numTimes[i]++;
+        double oldM = values.get(i);
+        double oldS = variances.get(i);
+        numTimes.addTo(i, 1.0);
         numIter++;
 
-        values[i] = oldM + (value - oldM)/(numTimes[i]);
-        variances[i] = oldS + (value - oldM)*(value - values[i]);
+        values.set(i, oldM + (value - oldM)/(numTimes.get(i)));
+        variances.set(i, oldS + (value - oldM)*(value - values.get(i)));
+    }
+
+    @Override
+    public void grow(int numItems)
+    {
+        this.numItems = Math.max(this.numItems, numItems);
+        this.values.grow(numItems);
+        this.numTimes.grow(numItems);
+        this.variances.grow(numItems);
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        super.saveState(out);
+        out.writeObject(this.values.toDoubleArray());
+        out.writeObject(this.variances.toDoubleArray());
+        out.writeObject(this.numTimes.toDoubleArray());
+        out.writeInt(this.numIter);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        super.loadState(in);
+        this.values = GrowableDoubleArray.of((double[]) in.readObject(), 0.0);
+        this.variances = GrowableDoubleArray.of((double[]) in.readObject(), 0.0);
+        this.numTimes = GrowableDoubleArray.of((double[]) in.readObject(), 0.0);
+        this.numIter = in.readInt();
     }
-    
 }
@@ -12,10 +12,14 @@ package es.uam.eps.ir.knnbandit.recommendation.basic;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
 import es.uam.eps.ir.knnbandit.recommendation.InteractiveRecommender;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
+import es.uam.eps.ir.knnbandit.utils.GrowableDoubleArray;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.ints.IntList;
-import java.util.stream.IntStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 
 /**
  * Abstract class for basic recommendation algorithms.
@@ -29,7 +33,7 @@ public abstract class AbstractBasicInteractiveRecommender<U,I> extends Interacti
     /**
      * Values of each item.
      */
-    protected double[] values;
+    protected GrowableDoubleArray values;
     
     /**
      * Constructor.
@@ -38,11 +42,10 @@ public abstract class AbstractBasicInteractiveRecommender<U,I> extends Interacti
      * @param prefData Preference data.
      * @param ignoreUnknown True if (user, item) pairs without training must be ignored.
      */
-    public AbstractBasicInteractiveRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U, I> prefData, boolean ignoreUnknown)
+    public AbstractBasicInteractiveRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U, I> prefData, boolean ignoreUnknown)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown);
-        this.values = new double[prefData.numItems()];
-        IntStream.range(0, prefData.numItems()).forEach(iidx -> values[iidx] = 0);
+        this.values = new GrowableDoubleArray(prefData.numItems());
     }
     
     /**
@@ -53,32 +56,32 @@ public abstract class AbstractBasicInteractiveRecommender<U,I> extends Interacti
      * @param ignoreUnknown True if (user, item) pairs without training must be ignored.
      * @param notReciprocal True if we do not recommend reciprocal social links, false otherwise.
      */
-    public AbstractBasicInteractiveRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean notReciprocal)
+    public AbstractBasicInteractiveRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean notReciprocal)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown, notReciprocal);
-        this.values = new double[prefData.numItems()];
-        IntStream.range(0, prefData.numItems()).forEach(iidx -> values[iidx] = 0);
+        this.values = new GrowableDoubleArray(prefData.numItems());
     }
     
     @Override
     public int next(int uidx)
     {
-        IntList list = this.availability.get(uidx);
-        if(list == null || list.isEmpty()) return -1;
+        if(this.availability.isEmpty(uidx)) return -1;
         else
         {
             double val = Double.NEGATIVE_INFINITY;
             IntList top = new IntArrayList();
             
-            for(int item : list)
+            IntIterator it = this.availability.iterator(uidx);
+            while(it.hasNext())
             {
-                if(values[item] > val)
+                int item = it.nextInt();
+                if(values.get(item) > val)
                 {
-                    val = values[item];
+                    val = values.get(item);
                     top = new IntArrayList();
                     top.add(item);
                 }
-                else if(values[item] == val)
+                else if(values.get(item) == val)
                 {
                     top.add(item);
                 }
@@ -98,4 +101,30 @@ public abstract class AbstractBasicInteractiveRecommender<U,I> extends Interacti
             return nextItem;
         }
     }
+
+    @Override
+    public boolean canGrow()
+    {
+        return true;
+    }
+
+    @Override
+    protected void growMethod(int numUsers, int numItems)
+    {
+        this.values.grow(numItems);
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        super.saveState(out);
+        out.writeObject(this.values.toDoubleArray());
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        super.loadState(in);
+        this.values = GrowableDoubleArray.of((double[]) in.readObject(), 0.0);
+    }
 }
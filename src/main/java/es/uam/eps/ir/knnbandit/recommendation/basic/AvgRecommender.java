@@ -9,11 +9,14 @@
  */
 package es.uam.eps.ir.knnbandit.recommendation.basic;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.List;
-import java.util.stream.IntStream;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
+import es.uam.eps.ir.knnbandit.utils.GrowableDoubleArray;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import org.jooq.lambda.tuple.Tuple3;
 
 /**
@@ -28,7 +31,7 @@ public class AvgRecommender<U,I> extends AbstractBasicInteractiveRecommender<U,I
     /**
      * Number of times an arm has been selected.
      */
-    private double[] numTimes;
+    private GrowableDoubleArray numTimes;
    
     /**
      * Constructor.
@@ -37,11 +40,10 @@ public class AvgRecommender<U,I> extends AbstractBasicInteractiveRecommender<U,I
      * @param prefData Preference data.
      * @param ignoreUnknown True if (user, item) pairs without training must be ignored.
      */
-    public AvgRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U,I> prefData, boolean ignoreUnknown)
+    public AvgRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U,I> prefData, boolean ignoreUnknown)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown);
-        this.numTimes = new double[prefData.numItems()];
-        IntStream.range(0, prefData.numItems()).forEach(iidx -> this.numTimes[iidx] =0);
+        this.numTimes = new GrowableDoubleArray(prefData.numItems());
     }
     
     /**
@@ -52,32 +54,74 @@ public class AvgRecommender<U,I> extends AbstractBasicInteractiveRecommender<U,I
      * @param ignoreUnknown True if (user, item) pairs without training must be ignored.
      * @param notReciprocal True if we do not recommend reciprocal social links, false otherwise
      */
-    public AvgRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U,I> prefData, boolean ignoreUnknown, boolean notReciprocal)
+    public AvgRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U,I> prefData, boolean ignoreUnknown, boolean notReciprocal)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown, notReciprocal);
-        this.numTimes = new double[prefData.numItems()];
-        IntStream.range(0, prefData.numItems()).forEach(iidx -> this.numTimes[iidx] =0);
+        this.numTimes = new GrowableDoubleArray(prefData.numItems());
     }
     
     @Override
     public void updateMethod(int uidx, int iidx, double value)
     {
-        double oldValue = values[iidx];
-        if(numTimes[iidx] <= 0.0)
-            this.values[iidx] = value;
+        double oldValue = values.get(iidx);
+        if(numTimes.get(iidx) <= 0.0)
+            this.values.set(iidx, value);
         else
-            this.values[iidx] = oldValue + (value-oldValue)/(numTimes[iidx]+1.0);
-        this.numTimes[iidx]++;
+            this.values.set(iidx, oldValue + (value-oldValue)/(numTimes.get(iidx)+1.0));
+        this.numTimes.addTo(iidx, 1.0);
+    }
+
+    @Override
+    public boolean canForget()
+    {
+        return true;
+    }
+
+    @Override
+    protected void forgetMethod(int uidx, int iidx, double value)
+    {
+        double times = numTimes.get(iidx);
+        if(times <= 1.0)
+        {
+            this.values.set(iidx, 0.0);
+            this.numTimes.set(iidx, 0.0);
+        }
+        else
+        {
+            this.values.set(iidx, (values.get(iidx)*times - value)/(times - 1.0));
+            this.numTimes.set(iidx, times - 1.0);
+        }
     }
     
+    @Override
+    protected void growMethod(int numUsers, int numItems)
+    {
+        super.growMethod(numUsers, numItems);
+        this.numTimes.grow(numItems);
+    }
+
     @Override
     public void updateMethod(List<Tuple3<Integer,Integer,Double>> train)
     {
         for(int i = 0; i < this.prefData.numItems();++i)
         {
-            this.values[i] = this.prefData.getIidxPreferences(i).mapToDouble(v -> v.v2).sum();
-            this.numTimes[i] = this.prefData.numUsers(i);
-            if(this.numTimes[i] > 0) this.values[i]/=(this.numTimes[i] + 0.0);
+            this.values.set(i, this.prefData.getIidxPreferences(i).mapToDouble(v -> v.v2).sum());
+            this.numTimes.set(i, this.prefData.numUsers(i));
+            if(this.numTimes.get(i) > 0) this.values.set(i, this.values.get(i)/(this.numTimes.get(i) + 0.0));
         }
     }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        super.saveState(out);
+        out.writeObject(this.numTimes.toDoubleArray());
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        super.loadState(in);
+        this.numTimes = GrowableDoubleArray.of((double[]) in.readObject(), 0.0);
+    }
 }
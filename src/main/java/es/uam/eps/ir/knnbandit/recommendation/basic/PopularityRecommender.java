@@ -12,7 +12,7 @@ package es.uam.eps.ir.knnbandit.recommendation.basic;
 import java.util.List;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import org.jooq.lambda.tuple.Tuple3;
 
 /**
@@ -37,7 +37,7 @@ public class PopularityRecommender<U,I> extends AbstractBasicInteractiveRecommen
      * @param ignoreUnknown True if we must ignore unknown items when updating.
      * @param threshold Relevance threshold
      */
-    public PopularityRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U,I> prefData, boolean ignoreUnknown, double threshold)
+    public PopularityRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U,I> prefData, boolean ignoreUnknown, double threshold)
     {
         super(uIndex, iIndex, prefData,ignoreUnknown);
         this.threshold = threshold;
@@ -52,7 +52,7 @@ public class PopularityRecommender<U,I> extends AbstractBasicInteractiveRecommen
      * @param threshold Relevance threshold
      * @param notReciprocal True if we do not recommend reciprocal social links, false otherwise
      */
-    public PopularityRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U,I> prefData, boolean ignoreUnknown, double threshold, boolean notReciprocal)
+    public PopularityRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U,I> prefData, boolean ignoreUnknown, double threshold, boolean notReciprocal)
     {
         super(uIndex, iIndex, prefData,ignoreUnknown, notReciprocal);
         this.threshold = threshold;
@@ -61,14 +61,26 @@ public class PopularityRecommender<U,I> extends AbstractBasicInteractiveRecommen
     @Override
     public void updateMethod(int uidx, int iidx, double value)
     {
-        this.values[iidx] += (value >= threshold ? 1.0 : 0.0);
+        this.values.addTo(iidx, value >= threshold ? 1.0 : 0.0);
+    }
+
+    @Override
+    public boolean canForget()
+    {
+        return true;
+    }
+
+    @Override
+    protected void forgetMethod(int uidx, int iidx, double value)
+    {
+        this.values.addTo(iidx, value >= threshold ? -1.0 : 0.0);
     }
     
     @Override
     public void updateMethod(List<Tuple3<Integer,Integer,Double>> train)
     {
         for(int iidx = 0; iidx < this.prefData.numItems(); ++iidx)
-        this.values[iidx] = this.trainData.getIidxPreferences(iidx).filter(vidx -> vidx.v2 > 0).count();
+        this.values.set(iidx, this.trainData.getIidxPreferences(iidx).filter(vidx -> vidx.v2 > 0).count());
     }
 
 }
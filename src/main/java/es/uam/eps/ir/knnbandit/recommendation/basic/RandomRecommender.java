@@ -13,8 +13,10 @@ import es.uam.eps.ir.knnbandit.UntieRandomNumber;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
 import es.uam.eps.ir.knnbandit.recommendation.InteractiveRecommender;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
-import it.unimi.dsi.fastutil.ints.IntList;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Random;
 
 
@@ -30,7 +32,7 @@ public class RandomRecommender<U,I> extends InteractiveRecommender<U,I>
     /**
      * Random number generator.
      */
-    private final Random rng = new Random(UntieRandomNumber.RNG);
+    private Random rng = new Random(UntieRandomNumber.RNG);
 
     /**
      * Constructor.
@@ -39,7 +41,7 @@ public class RandomRecommender<U,I> extends InteractiveRecommender<U,I>
      * @param prefData preference data.
      * @param ignoreUnknown true if we want to ignore missing ratings at updating, false if we want to treat them as failures.
      */
-    public RandomRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U,I> prefData, boolean ignoreUnknown)
+    public RandomRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U,I> prefData, boolean ignoreUnknown)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown);
     }
@@ -52,7 +54,7 @@ public class RandomRecommender<U,I> extends InteractiveRecommender<U,I>
      * @param ignoreUnknown true if we want to ignore missing ratings at updating, false if we want to treat them as failures.
      * @param notReciprocal true if we do not recommend reciprocal social links, false otherwise
      */
-    public RandomRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U,I> prefData, boolean ignoreUnknown, boolean notReciprocal)
+    public RandomRecommender(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U,I> prefData, boolean ignoreUnknown, boolean notReciprocal)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown, notReciprocal);
     }
@@ -60,12 +62,7 @@ public class RandomRecommender<U,I> extends InteractiveRecommender<U,I>
     @Override
     public int next(int uidx)
     {
-        IntList list = this.availability.get(uidx);
-        if(list == null || list.isEmpty()) return -1;
-        else
-        {
-            return list.get(rng.nextInt(list.size()));
-        }
+        return this.availability.sample(uidx, rng);
     }
 
     @Override
@@ -74,4 +71,41 @@ public class RandomRecommender<U,I> extends InteractiveRecommender<U,I>
         
     }
 
+    @Override
+    public boolean canForget()
+    {
+        return true;
+    }
+
+    @Override
+    protected void forgetMethod(int uidx, int iidx, double value)
+    {
+
+    }
+
+    @Override
+    public boolean canGrow()
+    {
+        return true;
+    }
+
+    @Override
+    protected void growMethod(int numUsers, int numItems)
+    {
+
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        super.saveState(out);
+        out.writeObject(this.rng);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        super.loadState(in);
+        this.rng = (Random) in.readObject();
+    }
 }
@@ -0,0 +1,389 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.recommendation.knn.similarities;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleHeapPriorityQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.ranksys.core.util.tuples.Tuple2id;
+
+/**
+ * Cache of the most similar users of each user, for a deterministic similarity. For each cached
+ * user, it keeps a set of candidate neighbors and a bound, such that the similarity of every
+ * other user is below the bound (or not positive). The candidates are repaired when a single
+ * similarity changes, and the user is only scanned again when fewer than k candidates reach the
+ * bound, that is, when a user out of the candidates might become one of the k most similar. The
+ * neighbors are exactly the users in the full list of similar users whose similarity is not
+ * smaller than the k-th highest one (ties included), in the same order.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+class NeighborCache
+{
+    /**
+     * Relative margin below the k-th highest similarity kept among the candidates, so rounding
+     * errors in rescaled similarities do not force new scans.
+     */
+    private final static double MARGIN = 1e-6;
+    /**
+     * Relative error bound of a rescaled similarity.
+     */
+    private final static double RESCALE_ERROR = 1e-12;
+    /**
+     * Number of candidates kept after a scan, per neighbor, so some of them can leave before a
+     * new scan is needed.
+     */
+    private final static int SPARE = 2;
+
+    /**
+     * The candidate neighbors of a user.
+     */
+    private static class Candidates
+    {
+        /**
+         * The number of neighbors.
+         */
+        private final int k;
+        /**
+         * The candidates, in increasing order.
+         */
+        private final IntArrayList users = new IntArrayList();
+        /**
+         * The similarities of the candidates.
+         */
+        private final DoubleArrayList sims = new DoubleArrayList();
+        /**
+         * Every other user has a similarity below the bound (or not positive).
+         */
+        private double bound;
+        /**
+         * The k-th highest similarity of the candidates (0 if there are fewer than k).
+         */
+        private double threshold;
+
+        /**
+         * Constructor.
+         * @param k The number of neighbors.
+         */
+        Candidates(int k)
+        {
+            this.k = k;
+        }
+    }
+
+    /**
+     * The similarity.
+     */
+    private final UpdateableSimilarity sim;
+    /**
+     * The candidates of each user (null if they are not cached).
+     */
+    private Candidates[] rows;
+    /**
+     * The users who have each user among their candidates.
+     */
+    private IntOpenHashSet[] holders;
+    /**
+     * The number of users.
+     */
+    private int numUsers;
+
+    /**
+     * Constructor.
+     * @param sim The similarity.
+     * @param numUsers The number of users.
+     */
+    NeighborCache(UpdateableSimilarity sim, int numUsers)
+    {
+        this.sim = sim;
+        this.rows = new Candidates[numUsers];
+        this.holders = new IntOpenHashSet[numUsers];
+        this.numUsers = numUsers;
+    }
+
+    /**
+     * Obtains the k most similar users to a user (ties included), scanning them if they are not cached.
+     * @param idx The identifier of the user.
+     * @param k The number of neighbors.
+     * @return the neighbors and their similarity, in increasing order of user.
+     */
+    Stream<Tuple2id> similarElems(int idx, int k)
+    {
+        Candidates row = this.rows[idx];
+        if(row == null || row.k != k)
+        {
+            this.invalidate(idx);
+            row = this.scan(idx, k);
+        }
+
+        int[] users = Arrays.copyOf(row.users.elements(), row.users.size());
+        double[] sims = Arrays.copyOf(row.sims.elements(), row.sims.size());
+        double threshold = row.threshold;
+        return IntStream.range(0, users.length).filter(i -> sims[i] >= threshold).mapToObj(i -> new Tuple2id(users[i], sims[i]));
+    }
+
+    /**
+     * Finds the candidates of a user from all the similar users.
+     * @param idx The identifier of the user.
+     * @param k The number of neighbors.
+     * @return the candidates.
+     */
+    private Candidates scan(int idx, int k)
+    {
+        Candidates row = new Candidates(k);
+        int kept = SPARE * k;
+        DoubleHeapPriorityQueue top = new DoubleHeapPriorityQueue(kept + 1);
+        this.sim.similarElems(idx).forEach(t ->
+        {
+            row.users.add(t.v1);
+            row.sims.add(t.v2);
+            top.enqueue(t.v2);
+            if(top.size() > kept) top.dequeueDouble();
+        });
+
+        // Only the users close to the (SPARE k)-th highest similarity are kept.
+        row.bound = 0.0;
+        if(row.users.size() > kept)
+        {
+            row.bound = top.firstDouble() * (1.0 - MARGIN);
+            this.prune(idx, row);
+        }
+        row.threshold = row.users.size() >= k ? highest(row, k) : 0.0;
+
+        for(int i = 0; i < row.users.size(); ++i)
+        {
+            this.holders(row.users.getInt(i)).add(idx);
+        }
+        this.rows[idx] = row;
+        return row;
+    }
+
+    /**
+     * Finds the r-th highest similarity of the candidates.
+     * @param row The candidates (at least r).
+     * @param r The position.
+     * @return the r-th highest similarity.
+     */
+    private static double highest(Candidates row, int r)
+    {
+        double[] sorted = Arrays.copyOf(row.sims.elements(), row.sims.size());
+        Arrays.sort(sorted);
+        return sorted[sorted.length - r];
+    }
+
+    /**
+     * Removes the candidates below the bound.
+     * @param idx The identifier of the user.
+     * @param row The candidates of the user.
+     */
+    private void prune(int idx, Candidates row)
+    {
+        int j = 0;
+        for(int i = 0; i < row.users.size(); ++i)
+        {
+            int vidx = row.users.getInt(i);
+            if(row.sims.getDouble(i) >= row.bound)
+            {
+                row.users.set(j, vidx);
+                row.sims.set(j, row.sims.getDouble(i));
+                ++j;
+            }
+            else if(this.holders[vidx] != null)
+            {
+                this.holders[vidx].remove(idx);
+            }
+        }
+        row.users.size(j);
+        row.sims.size(j);
+    }
+
+    /**
+     * Obtains the set of users who have a user among their candidates, creating it if needed.
+     * @param vidx The identifier of the user.
+     * @return the set of users.
+     */
+    private IntOpenHashSet holders(int vidx)
+    {
+        if(this.holders[vidx] == null)
+        {
+            this.holders[vidx] = new IntOpenHashSet();
+        }
+        return this.holders[vidx];
+    }
+
+    /**
+     * Removes the candidates of a user, so they are scanned again when needed.
+     * @param idx The identifier of the user.
+     */
+    void invalidate(int idx)
+    {
+        Candidates row = this.rows[idx];
+        if(row == null) return;
+        for(int i = 0; i < row.users.size(); ++i)
+        {
+            this.holders[row.users.getInt(i)].remove(idx);
+        }
+        this.rows[idx] = null;
+    }
+
+    /**
+     * Removes the candidates of every user.
+     */
+    void invalidateAll()
+    {
+        Arrays.fill(this.rows, 0, this.numUsers, null);
+        Arrays.fill(this.holders, 0, this.numUsers, null);
+    }
+
+    /**
+     * Repairs the candidates of a user after the similarity with another user has changed.
+     * @param idx The identifier of the user.
+     * @param vidx The identifier of the other user.
+     */
+    void update(int idx, int vidx)
+    {
+        Candidates row = this.rows[idx];
+        if(row == null || idx == vidx) return;
+
+        double s = this.sim.similarity(idx, vidx);
+        int pos = Arrays.binarySearch(row.users.elements(), 0, row.users.size(), vidx);
+        if(s > 0.0 && s >= row.bound)
+        {
+            if(pos >= 0)
+            {
+                if(row.sims.set(pos, s) == s) return;
+            }
+            else
+            {
+                row.users.add(-pos - 1, vidx);
+                row.sims.add(-pos - 1, s);
+                this.holders(vidx).add(idx);
+            }
+        }
+        else if(pos >= 0)
+        {
+            // Below the bound, it can leave the candidates.
+            row.users.removeInt(pos);
+            row.sims.removeDouble(pos);
+            this.holders[vidx].remove(idx);
+        }
+        else
+        {
+            // It remains below the bound.
+            return;
+        }
+        this.normalize(idx);
+    }
+
+    /**
+     * Repairs the candidates of every user who has a user among them, after the similarities
+     * of that user have decreased (or remained zero), such as when their norm grows.
+     * @param vidx The identifier of the user.
+     */
+    void updateHolders(int vidx)
+    {
+        if(this.holders[vidx] == null) return;
+        for(int idx : this.holders[vidx].toIntArray())
+        {
+            this.update(idx, vidx);
+        }
+    }
+
+    /**
+     * Repairs the candidates of every user, after the similarities with a user have changed in any way.
+     * @param vidx The identifier of the user.
+     */
+    void updateAll(int vidx)
+    {
+        for(int idx = 0; idx < this.numUsers; ++idx)
+        {
+            this.update(idx, vidx);
+        }
+    }
+
+    /**
+     * Repairs the candidates of a user after all their similarities have been multiplied by the same factor.
+     * @param idx The identifier of the user.
+     * @param factor The factor (finite and not negative).
+     */
+    void rescale(int idx, double factor)
+    {
+        Candidates row = this.rows[idx];
+        if(row == null) return;
+
+        // The rest of users remain below the rescaled bound, up to rounding errors.
+        row.bound *= factor * (1.0 + RESCALE_ERROR);
+        for(int i = row.users.size() - 1; i >= 0; --i)
+        {
+            int vidx = row.users.getInt(i);
+            double s = this.sim.similarity(idx, vidx);
+            if(s > 0.0 && s >= row.bound)
+            {
+                row.sims.set(i, s);
+            }
+            else
+            {
+                row.users.removeInt(i);
+                row.sims.removeDouble(i);
+                this.holders[vidx].remove(idx);
+            }
+        }
+        this.normalize(idx);
+    }
+
+    /**
+     * Finds the k-th highest similarity of the candidates of a user after they have changed. If
+     * fewer than k candidates reach the bound, a user out of them might be among the k most
+     * similar, so the candidates are removed. If the candidates have grown too much, the bound
+     * is raised, and those below it are removed.
+     * @param idx The identifier of the user.
+     */
+    private void normalize(int idx)
+    {
+        Candidates row = this.rows[idx];
+        if(row.users.size() < row.k)
+        {
+            row.threshold = 0.0;
+            if(row.bound > 0.0) this.invalidate(idx);
+            return;
+        }
+
+        row.threshold = highest(row, row.k);
+        if(row.threshold < row.bound)
+        {
+            this.invalidate(idx);
+        }
+        else if(row.users.size() > 2 * SPARE * row.k)
+        {
+            row.bound = Math.max(row.bound, highest(row, SPARE * row.k) * (1.0 - MARGIN));
+            this.prune(idx, row);
+        }
+    }
+
+    /**
+     * Makes room for new users, who are not similar to any other.
+     * @param numUsers The new number of users.
+     */
+    void grow(int numUsers)
+    {
+        if(numUsers <= this.numUsers) return;
+        if(numUsers > this.rows.length)
+        {
+            int capacity = Math.max(numUsers, 2 * this.rows.length);
+            this.rows = Arrays.copyOf(this.rows, capacity);
+            this.holders = Arrays.copyOf(this.holders, capacity);
+        }
+        this.numUsers = numUsers;
+    }
+}
@@ -0,0 +1,292 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.recommendation.knn.similarities;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.Stream;
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import es.uam.eps.ir.knnbandit.utils.GrowableDoubleArray;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import org.ranksys.core.util.tuples.Tuple2id;
+
+/**
+ * Vector cosine similarity which only stores the scalar products of the pairs of users
+ * who have rated a common item. Memory and the time for finding the neighbors of a user
+ * grow with the number of users who share items with them, instead of the number of users.
+ * It finds the same similarities, and neighbors in the same order, as {@link VectorCosineSimilarity}.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class SparseVectorCosineSimilarity implements UpdateableSimilarity
+{
+    /**
+     * The scalar products of each user with the users sharing an item with them.
+     */
+    private Int2DoubleOpenHashMap[] num;
+    /**
+     * The norms of each user.
+     */
+    private final GrowableDoubleArray norm;
+    /**
+     * The number of users.
+     */
+    private int numUsers;
+    /**
+     * User of the last rating.
+     */
+    private int lastUser;
+    /**
+     * Item of the last rating.
+     */
+    private int lastItem;
+    /**
+     * User of the last forgotten rating (it does not need to be stored, as a rating is forgotten at once).
+     */
+    private int lastDeletedUser = -1;
+    /**
+     * Item of the last forgotten rating.
+     */
+    private int lastDeletedItem = -1;
+    /**
+     * The cached neighbors of the users.
+     */
+    private final NeighborCache cache;
+
+    /**
+     * Constructor.
+     * @param numUsers The number of users.
+     */
+    public SparseVectorCosineSimilarity(int numUsers)
+    {
+        this.numUsers = numUsers;
+        this.num = new Int2DoubleOpenHashMap[numUsers];
+        for(int uidx = 0; uidx < numUsers; ++uidx)
+        {
+            this.num[uidx] = new Int2DoubleOpenHashMap();
+        }
+        this.norm = new GrowableDoubleArray(numUsers);
+        this.cache = new NeighborCache(this, numUsers);
+        this.lastUser = -1;
+        this.lastItem = -1;
+    }
+
+    @Override
+    public void update(int uidx, int vidx, int iidx, double uval, double vval)
+    {
+        if(!Double.isNaN(vval))
+        {
+            this.num[uidx].addTo(vidx, uval*vval);
+            this.num[vidx].addTo(uidx, uval*vval);
+        }
+
+        if(lastUser != uidx || lastItem != iidx)
+        {
+            double oldNorm = norm.get(uidx);
+            norm.addTo(uidx, uval*uval);
+            lastUser = uidx;
+            lastItem = iidx;
+            lastDeletedUser = -1;
+            this.updateNorm(uidx, oldNorm);
+        }
+
+        if(!Double.isNaN(vval))
+        {
+            this.cache.update(uidx, vidx);
+            this.cache.update(vidx, uidx);
+        }
+    }
+
+    @Override
+    public void updateDelete(int uidx, int vidx, int iidx, double uval, double vval)
+    {
+        if(!Double.isNaN(vval))
+        {
+            this.subtract(uidx, vidx, uval*vval);
+            this.subtract(vidx, uidx, uval*vval);
+        }
+
+        if(lastDeletedUser != uidx || lastDeletedItem != iidx)
+        {
+            double oldNorm = norm.get(uidx);
+            norm.addTo(uidx, -uval*uval);
+            lastDeletedUser = uidx;
+            lastDeletedItem = iidx;
+            lastUser = -1;
+            this.updateNorm(uidx, oldNorm);
+        }
+
+        if(!Double.isNaN(vval))
+        {
+            this.cache.update(uidx, vidx);
+            this.cache.update(vidx, uidx);
+        }
+    }
+
+    /**
+     * Repairs the cached neighbors after the norm of a user has changed.
+     * @param uidx The identifier of the user.
+     * @param oldNorm The previous norm of the user.
+     */
+    private void updateNorm(int uidx, double oldNorm)
+    {
+        double newNorm = this.norm.get(uidx);
+        if(newNorm == oldNorm) return;
+
+        // The similarities of the user are multiplied by the same factor.
+        if(oldNorm == 0.0) this.cache.invalidate(uidx);
+        else this.cache.rescale(uidx, Math.sqrt(oldNorm)/Math.sqrt(newNorm));
+
+        // The similarities of the rest of users with them decrease if the norm grows, so only
+        // the users having them as candidates are affected. Otherwise, any of them might be.
+        if(newNorm > oldNorm) this.cache.updateHolders(uidx);
+        else this.cache.updateAll(uidx);
+    }
+
+    /**
+     * Subtracts a value from a scalar product, and removes the pair if it reaches zero.
+     * @param uidx Identifier of the first user.
+     * @param vidx Identifier of the second user.
+     * @param value The value to subtract.
+     */
+    private void subtract(int uidx, int vidx, double value)
+    {
+        Int2DoubleOpenHashMap row = this.num[uidx];
+        if(row.addTo(vidx, -value) == value)
+        {
+            row.remove(vidx);
+        }
+    }
+
+    @Override
+    public IntToDoubleFunction similarity(int idx)
+    {
+        return (int idx2) ->
+        {
+            double sum = Math.sqrt(this.norm.get(idx))*Math.sqrt(this.norm.get(idx2));
+            if(sum == 0) return 0.0;
+            else return this.num[idx].get(idx2)/sum;
+        };
+    }
+
+    @Override
+    public Stream<Tuple2id> similarElems(int idx)
+    {
+        // Users without a common item have a null similarity, so only the stored pairs are visited.
+        // They are sorted, so neighbors are found in the same order as in the dense similarity.
+        int[] vidxs = this.num[idx].keySet().toIntArray();
+        Arrays.sort(vidxs);
+        return Arrays.stream(vidxs).filter(i -> i != idx).mapToObj(i -> new Tuple2id(i, similarity(idx, i))).filter(x -> x.v2 > 0.0);
+    }
+
+    @Override
+    public Stream<Tuple2id> similarElems(int idx, int k)
+    {
+        // If every user is a neighbor, caching them would store the whole similarity.
+        if(k >= this.numUsers - 1) return this.similarElems(idx);
+        return this.cache.similarElems(idx, k);
+    }
+
+    @Override
+    public void update(FastPreferenceData<?,?> prefData)
+    {
+        int n = prefData.numUsers();
+        for(int uidx = 0; uidx < n; ++uidx)
+        {
+            this.num[uidx].clear();
+        }
+        this.cache.invalidateAll();
+
+        // The pairs are found by walking the items of each user, and the users who rated them.
+        for(int uidx = 0; uidx < n; ++uidx)
+        {
+            Int2DoubleOpenHashMap uNum = this.num[uidx];
+            double uNorm = 0.0;
+            IntIterator iidxs = prefData.getUidxIidxs(uidx);
+            DoubleIterator uVs = prefData.getUidxVs(uidx);
+            while(iidxs.hasNext())
+            {
+                int iidx = iidxs.nextInt();
+                double uValue = uVs.nextDouble();
+                IntIterator vidxs = prefData.getIidxUidxs(iidx);
+                DoubleIterator vVs = prefData.getIidxVs(iidx);
+                while(vidxs.hasNext())
+                {
+                    uNum.addTo(vidxs.nextInt(), uValue*vVs.nextDouble());
+                }
+                uNorm += uValue*uValue;
+            }
+            this.norm.set(uidx, uNorm);
+        }
+    }
+
+    @Override
+    public void grow(int numUsers)
+    {
+        if(numUsers <= this.numUsers) return;
+        if(numUsers > this.num.length)
+        {
+            this.num = Arrays.copyOf(this.num, Math.max(numUsers, 2 * this.num.length));
+        }
+        for(int uidx = this.numUsers; uidx < numUsers; ++uidx)
+        {
+            this.num[uidx] = new Int2DoubleOpenHashMap();
+        }
+        this.norm.grow(numUsers);
+        this.cache.grow(numUsers);
+        this.numUsers = numUsers;
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeInt(this.numUsers);
+        for(int uidx = 0; uidx < this.numUsers; ++uidx)
+        {
+            out.writeDouble(this.norm.get(uidx));
+            out.writeInt(this.num[uidx].size());
+            for(Int2DoubleMap.Entry entry : this.num[uidx].int2DoubleEntrySet())
+            {
+                out.writeInt(entry.getIntKey());
+                out.writeDouble(entry.getDoubleValue());
+            }
+        }
+        out.writeInt(this.lastUser);
+        out.writeInt(this.lastItem);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        Checkpoints.check(this.numUsers, in.readInt(), "number of users");
+        for(int uidx = 0; uidx < this.numUsers; ++uidx)
+        {
+            this.norm.set(uidx, in.readDouble());
+            Int2DoubleOpenHashMap row = this.num[uidx];
+            row.clear();
+            int size = in.readInt();
+            for(int i = 0; i < size; ++i)
+            {
+                int vidx = in.readInt();
+                row.put(vidx, in.readDouble());
+            }
+        }
+        this.lastUser = in.readInt();
+        this.lastItem = in.readInt();
+        this.cache.invalidateAll();
+    }
+}
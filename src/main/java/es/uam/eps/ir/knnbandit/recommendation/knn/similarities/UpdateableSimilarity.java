@@ -9,15 +9,19 @@
  */
 package es.uam.eps.ir.knnbandit.recommendation.knn.similarities;
 
+import es.uam.eps.ir.knnbandit.io.Checkpointable;
 import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import es.uam.eps.ir.ranksys.nn.sim.Similarity;
+import java.io.Closeable;
+import java.util.stream.Stream;
+import org.ranksys.core.util.tuples.Tuple2id;
 
 /**
  * Updateable version of similarity.
  * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
  * @author Pablo Castells (pablo.castells@uam.es)
  */
-public interface UpdateableSimilarity extends Similarity
+public interface UpdateableSimilarity extends Similarity, Checkpointable, Closeable
 {
     /**
      * Updates the similarity between two users.
@@ -25,10 +29,56 @@ public interface UpdateableSimilarity extends Similarity
      * @param vidx Identifier of the second user.
      * @param iidx Identifier of the item.
      * @param uval Rating of the first user for the item.
-     * @param vval Rating of the second user for the item.
+     * @param vval Rating of the second user for the item (NaN if only the first user has rated the item).
      */
     public void update(int uidx, int vidx, int iidx, double uval, double vval);
 
+    /**
+     * Reverts the updates produced by a rating which is forgotten: it must be called for every
+     * other user who has rated the item (or once, with NaN, if no other user has rated it).
+     * @param uidx Identifier of the user whose rating is forgotten.
+     * @param vidx Identifier of the second user.
+     * @param iidx Identifier of the item.
+     * @param uval Rating of the first user for the item.
+     * @param vval Rating of the second user for the item (NaN if only the first user has rated the item).
+     */
+    public default void updateDelete(int uidx, int vidx, int iidx, double uval, double vval)
+    {
+        throw new UnsupportedOperationException("The similarity cannot forget ratings");
+    }
+
+    /**
+     * Releases the resources held by the similarity, such as the file in which it stores the
+     * similarities. The similarity cannot be used afterwards.
+     */
+    @Override
+    public default void close()
+    {
+    }
+
+    /**
+     * Makes room for the users which have arrived since the similarity was created. The new
+     * users have not rated any item yet.
+     * @param numUsers The new number of users. If it is not greater than the current one, nothing is done.
+     * @throws UnsupportedOperationException if the similarity cannot add users.
+     */
+    public default void grow(int numUsers)
+    {
+        throw new UnsupportedOperationException("The similarity cannot add users");
+    }
+
+    /**
+     * Obtains the elements which might be among the k most similar to a given one. By default,
+     * every similar element is returned.
+     * @param idx The identifier of the element.
+     * @param k The number of most similar elements which are needed.
+     * @return a stream containing (at least) the k most similar elements and their similarity value.
+     */
+    public default Stream<Tuple2id> similarElems(int idx, int k)
+    {
+        return this.similarElems(idx);
+    }
+
     /**
      * Updates the similarity.
      * @param prefData Preference data.
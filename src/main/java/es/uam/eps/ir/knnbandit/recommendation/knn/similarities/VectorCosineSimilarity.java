@@ -9,10 +9,19 @@
  */
 package es.uam.eps.ir.knnbandit.recommendation.knn.similarities;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.function.IntToDoubleFunction;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import es.uam.eps.ir.knnbandit.utils.GrowableDoubleArray;
+import es.uam.eps.ir.knnbandit.utils.PackedSymmetricDoubleMatrix;
+import es.uam.eps.ir.knnbandit.utils.SymmetricMatrix;
 import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 import org.ranksys.core.util.tuples.Tuple2id;
 
 /**
@@ -23,25 +32,51 @@ import org.ranksys.core.util.tuples.Tuple2id;
 public class VectorCosineSimilarity implements UpdateableSimilarity
 {
     /**
-     * The scalar product.
+     * The scalar product. As it is symmetric, only one of the cells of each pair of users is stored.
      */
-    private final double[][] num;
+    private final SymmetricMatrix num;
     /**
      * The norms of each user.
      */
-    private final double[] norm;
+    private final GrowableDoubleArray norm;
     /**
      * The number of users.
      */
-    private final int numUsers;
+    private int numUsers;
     private int lastUser;
     private int lastItem;
+    /**
+     * User of the last forgotten rating (it does not need to be stored, as a rating is forgotten at once).
+     */
+    private int lastDeletedUser = -1;
+    /**
+     * Item of the last forgotten rating.
+     */
+    private int lastDeletedItem = -1;
+    /**
+     * The cached neighbors of the users.
+     */
+    private final NeighborCache cache;
     
+    /**
+     * Constructor. The scalar products are stored in the heap.
+     * @param numUsers The number of users.
+     */
     public VectorCosineSimilarity(int numUsers)
     {
-        this.numUsers = numUsers;
-        this.num = new double[numUsers][numUsers];
-        this.norm = new double[numUsers];
+        this(PackedSymmetricDoubleMatrix.heap(numUsers));
+    }
+
+    /**
+     * Constructor.
+     * @param num The matrix in which to store the scalar products. It must be empty, and have a row for each user.
+     */
+    public VectorCosineSimilarity(SymmetricMatrix num)
+    {
+        this.numUsers = num.size();
+        this.num = num;
+        this.norm = new GrowableDoubleArray(numUsers);
+        this.cache = new NeighborCache(this, numUsers);
         this.lastUser = -1;
         this.lastItem = -1;
     }
@@ -49,28 +84,81 @@ public class VectorCosineSimilarity implements UpdateableSimilarity
     @Override
     public void update(int uidx, int vidx, int iidx, double uval, double vval)
     {
-        if(vval != Double.NaN)
+        if(!Double.isNaN(vval))
         {
-            this.num[uidx][vidx] += uval*vval;
-            this.num[vidx][uidx] += uval*vval;
+            this.num.addTo(uidx, vidx, uval*vval);
         }
         
         if(lastUser != uidx || lastItem != iidx)
         {
-            norm[uidx] += uval*uval;
+            double oldNorm = norm.get(uidx);
+            norm.addTo(uidx, uval*uval);
             lastUser = uidx;
             lastItem = iidx;
+            lastDeletedUser = -1;
+            this.updateNorm(uidx, oldNorm);
+        }
+
+        if(!Double.isNaN(vval))
+        {
+            this.cache.update(uidx, vidx);
+            this.cache.update(vidx, uidx);
         }
     }
 
+    @Override
+    public void updateDelete(int uidx, int vidx, int iidx, double uval, double vval)
+    {
+        if(!Double.isNaN(vval))
+        {
+            this.num.addTo(uidx, vidx, -uval*vval);
+        }
+
+        if(lastDeletedUser != uidx || lastDeletedItem != iidx)
+        {
+            double oldNorm = norm.get(uidx);
+            norm.addTo(uidx, -uval*uval);
+            lastDeletedUser = uidx;
+            lastDeletedItem = iidx;
+            lastUser = -1;
+            this.updateNorm(uidx, oldNorm);
+        }
+
+        if(!Double.isNaN(vval))
+        {
+            this.cache.update(uidx, vidx);
+            this.cache.update(vidx, uidx);
+        }
+    }
+
+    /**
+     * Repairs the cached neighbors after the norm of a user has changed.
+     * @param uidx The identifier of the user.
+     * @param oldNorm The previous norm of the user.
+     */
+    private void updateNorm(int uidx, double oldNorm)
+    {
+        double newNorm = this.norm.get(uidx);
+        if(newNorm == oldNorm) return;
+
+        // The similarities of the user are multiplied by the same factor.
+        if(oldNorm == 0.0) this.cache.invalidate(uidx);
+        else this.cache.rescale(uidx, Math.sqrt(oldNorm)/Math.sqrt(newNorm));
+
+        // The similarities of the rest of users with them decrease if the norm grows, so only
+        // the users having them as candidates are affected. Otherwise, any of them might be.
+        if(newNorm > oldNorm) this.cache.updateHolders(uidx);
+        else this.cache.updateAll(uidx);
+    }
+
     @Override
     public IntToDoubleFunction similarity(int idx)
     {
         return (int idx2) ->
         {
-            double sum = Math.sqrt(this.norm[idx])*Math.sqrt(this.norm[idx2]);
+            double sum = Math.sqrt(this.norm.get(idx))*Math.sqrt(this.norm.get(idx2));
             if(sum == 0) return 0.0;
-            else return this.num[idx][idx2]/sum;
+            else return this.num.get(idx, idx2)/sum;
         };
     }
 
@@ -79,28 +167,87 @@ public class VectorCosineSimilarity implements UpdateableSimilarity
     {
         return IntStream.range(0, this.numUsers).filter(i -> i != idx).mapToObj(i -> new Tuple2id(i, similarity(idx, i))).filter(x -> x.v2 > 0.0);
     }
+
+    @Override
+    public Stream<Tuple2id> similarElems(int idx, int k)
+    {
+        // If every user is a neighbor, caching them would store the whole similarity.
+        if(k >= this.numUsers - 1) return this.similarElems(idx);
+        return this.cache.similarElems(idx, k);
+    }
     
     @Override
     public void update(FastPreferenceData<?,?> prefData)
     {
-        prefData.getAllUidx().forEach(uidx -> 
-        {
-            prefData.getAllUidx().forEach(vidx -> 
-            {
-                this.num[uidx][vidx] = 0.0;
-            });
-        });
+        int n = prefData.numUsers();
+        this.num.clear();
+        this.cache.invalidateAll();
 
-        prefData.getAllUidx().forEach(uidx -> 
+        // Primitive iterators avoid building an IdxPref object for every visited rating.
+        for(int uidx = 0; uidx < n; ++uidx)
         {
-            this.norm[uidx] = prefData.getUidxPreferences(uidx).mapToDouble(iidx -> 
+            double uNorm = 0.0;
+            IntIterator iidxs = prefData.getUidxIidxs(uidx);
+            DoubleIterator uVs = prefData.getUidxVs(uidx);
+            while(iidxs.hasNext())
             {
-                prefData.getIidxPreferences(iidx.v1).forEach(vidx -> 
+                int iidx = iidxs.nextInt();
+                double uValue = uVs.nextDouble();
+                IntIterator vidxs = prefData.getIidxUidxs(iidx);
+                DoubleIterator vVs = prefData.getIidxVs(iidx);
+                while(vidxs.hasNext())
                 {
-                    this.num[uidx][vidx.v1] += iidx.v2*vidx.v2;
-                });
-                return iidx.v2*iidx.v2;
-            }).sum();
-        });
+                    // Each pair is found from both users, but only stored once.
+                    int vidx = vidxs.nextInt();
+                    double vValue = vVs.nextDouble();
+                    if(vidx >= uidx) this.num.addTo(uidx, vidx, uValue*vValue);
+                }
+                uNorm += uValue*uValue;
+            }
+            this.norm.set(uidx, uNorm);
+        }
+    }
+
+    @Override
+    public void grow(int numUsers)
+    {
+        if(numUsers <= this.numUsers) return;
+
+        // The scalar products of the new users are appended to the packed matrix.
+        this.num.grow(numUsers);
+        this.norm.grow(numUsers);
+        this.cache.grow(numUsers);
+        this.numUsers = numUsers;
+    }
+
+    @Override
+    public void close()
+    {
+        this.num.close();
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeInt(this.numUsers);
+        this.num.saveState(out);
+        out.writeObject(this.norm.toDoubleArray());
+        out.writeInt(this.lastUser);
+        out.writeInt(this.lastItem);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        Checkpoints.check(this.numUsers, in.readInt(), "number of users");
+        this.num.loadState(in);
+        double[] storedNorm = (double[]) in.readObject();
+        for(int uidx = 0; uidx < this.numUsers; ++uidx)
+        {
+            this.norm.set(uidx, storedNorm[uidx]);
+        }
+        this.lastUser = in.readInt();
+        this.lastItem = in.readInt();
+        this.cache.invalidateAll();
     }
 }
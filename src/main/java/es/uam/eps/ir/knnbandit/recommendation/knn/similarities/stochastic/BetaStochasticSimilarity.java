@@ -8,11 +8,26 @@
  * 
  */
 package es.uam.eps.ir.knnbandit.recommendation.knn.similarities.stochastic;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.IntToDoubleFunction;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import es.uam.eps.ir.knnbandit.stats.BetaDistribution;
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import es.uam.eps.ir.knnbandit.utils.CountGroups;
+import es.uam.eps.ir.knnbandit.utils.GrowableDoubleArray;
+import es.uam.eps.ir.knnbandit.utils.PackedSymmetricIntMatrix;
+import es.uam.eps.ir.knnbandit.utils.SymmetricMatrix;
 import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
 import org.ranksys.core.util.tuples.Tuple2id;
 
 /**
@@ -23,17 +38,18 @@ import org.ranksys.core.util.tuples.Tuple2id;
 public class BetaStochasticSimilarity implements StochasticUpdateableSimilarity
 {
     /**
-     * Current similarities (alpha values)
+     * Current similarities (alpha values). As they are symmetric integer counts, only one of
+     * the cells of each pair of users is stored.
      */
-    private final double[][] sims;
+    private final SymmetricMatrix sims;
     /**
      * Norms.
      */
-    private final double[] usercount;
+    private final GrowableDoubleArray usercount;
     /**
      * Number of users.
      */
-    private final int numUsers;
+    private int numUsers;
     /**
      * Initial alpha.
      */
@@ -42,6 +58,20 @@ public class BetaStochasticSimilarity implements StochasticUpdateableSimilarity
      * Initial beta
      */
     private final double beta;
+    /**
+     * The users, grouped by their norm, when the users without common hits are sampled by
+     * groups (null otherwise).
+     */
+    private final CountGroups groups;
+    /**
+     * Samples the similarities of the users without common hits (null if they are sampled one by one).
+     */
+    private final PriorOnlySampler sampler;
+    /**
+     * The users with common hits with each user (null if they are sampled one by one, or for
+     * the users without them), so they are found without visiting the whole row of the matrix.
+     */
+    private IntOpenHashSet[] common;
 
     /**
      * Last visited user.
@@ -51,6 +81,14 @@ public class BetaStochasticSimilarity implements StochasticUpdateableSimilarity
      * Last visited item.
      */
     private int lasti = -1;
+    /**
+     * User of the last forgotten rating (it does not need to be stored, as a rating is forgotten at once).
+     */
+    private int lastDeletedUser = -1;
+    /**
+     * Item of the last forgotten rating.
+     */
+    private int lastDeletedItem = -1;
 
     /**
      * Constructor.
@@ -60,19 +98,38 @@ public class BetaStochasticSimilarity implements StochasticUpdateableSimilarity
      */
     public BetaStochasticSimilarity(int numUsers, double alpha, double beta)
     {
-        this.numUsers = numUsers;
-        this.sims = new double[numUsers][numUsers];
-        this.usercount = new double[numUsers];
+        this(new PackedSymmetricIntMatrix(numUsers), alpha, beta);
+    }
+
+    /**
+     * Constructor.
+     * @param sims The matrix in which to store the similarities. It must be empty, and have a row for each user.
+     * @param alpha The alpha parameter (number of successes + 1).
+     * @param beta The beta parameter (number of failures + 1).
+     */
+    public BetaStochasticSimilarity(SymmetricMatrix sims, double alpha, double beta)
+    {
+        this(sims, alpha, beta, false);
+    }
+
+    /**
+     * Constructor.
+     * @param sims The matrix in which to store the similarities. It must be empty, and have a row for each user.
+     * @param alpha The alpha parameter (number of successes + 1).
+     * @param beta The beta parameter (number of failures + 1).
+     * @param grouped True if the users without common hits are sampled by groups of users with the
+     *                same posterior, when only the most similar users are needed.
+     */
+    public BetaStochasticSimilarity(SymmetricMatrix sims, double alpha, double beta, boolean grouped)
+    {
+        this.numUsers = sims.size();
+        this.sims = sims;
+        this.usercount = new GrowableDoubleArray(numUsers);
         this.alpha = alpha;
         this.beta = beta;
-        for(int i = 0; i < numUsers; ++i)
-        {
-            this.usercount[i] = 0.0;
-            for(int j = 0; j < numUsers; ++j)
-            {
-                this.sims[i][j] = 0.0;
-            }
-        }
+        this.groups = grouped ? new CountGroups(numUsers) : null;
+        this.sampler = grouped ? new PriorOnlySampler(this.groups, alpha, beta) : null;
+        this.common = grouped ? new IntOpenHashSet[numUsers] : null;
     }
 
     /**
@@ -89,8 +146,8 @@ public class BetaStochasticSimilarity implements StochasticUpdateableSimilarity
     {
         return (int idx2) -> 
         {
-            double auxalpha = this.sims[idx][idx2] + alpha;
-            double auxbeta = this.usercount[idx2] + beta;
+            double auxalpha = this.sims.get(idx, idx2) + alpha;
+            double auxbeta = this.usercount.get(idx2) + beta;
             return auxalpha/auxbeta;
         };
     }
@@ -107,25 +164,121 @@ public class BetaStochasticSimilarity implements StochasticUpdateableSimilarity
     {
         if(!Double.isNaN(vval) && uval*vval > 0)
         {
-            sims[uidx][vidx] += 1.0;
-            sims[vidx][uidx] += 1.0;
+            this.addHits(uidx, vidx, 1);
         }
         
         if(lastu != uidx || lasti != iidx)
         {
             lastu = uidx;
             lasti = iidx;
-            if(uval > 0) this.usercount[uidx] += 1;
+            lastDeletedUser = -1;
+            if(uval > 0) this.addCount(uidx, 1.0);
+        }
+    }
+
+    @Override
+    public void updateDelete(int uidx, int vidx, int iidx, double uval, double vval)
+    {
+        if(!Double.isNaN(vval) && uval*vval > 0)
+        {
+            this.addHits(uidx, vidx, -1);
+        }
+
+        if(lastDeletedUser != uidx || lastDeletedItem != iidx)
+        {
+            lastDeletedUser = uidx;
+            lastDeletedItem = iidx;
+            lastu = -1;
+            if(uval > 0) this.addCount(uidx, -1.0);
+        }
+    }
+
+    /**
+     * Changes the number of common hits of two users.
+     * @param uidx The identifier of the first user.
+     * @param vidx The identifier of the second user.
+     * @param increment The value to add to the number of common hits.
+     */
+    private void addHits(int uidx, int vidx, int increment)
+    {
+        double value = this.sims.addTo(uidx, vidx, increment);
+        if(this.common == null || uidx == vidx) return;
+
+        double previous = value - increment;
+        if(value > 0 && previous <= 0)
+        {
+            this.common(uidx).add(vidx);
+            this.common(vidx).add(uidx);
+        }
+        else if(value <= 0 && previous > 0)
+        {
+            this.common[uidx].remove(vidx);
+            this.common[vidx].remove(uidx);
+        }
+    }
+
+    /**
+     * Obtains the set of users with common hits with a user, creating it if needed.
+     * @param uidx The identifier of the user.
+     * @return the set of users.
+     */
+    private IntOpenHashSet common(int uidx)
+    {
+        if(this.common[uidx] == null)
+        {
+            this.common[uidx] = new IntOpenHashSet();
+        }
+        return this.common[uidx];
+    }
+
+    /**
+     * Finds the users with common hits with each user, from the matrix. The cells
+     * are visited column by column, in the same order as they are packed.
+     */
+    private void findCommon()
+    {
+        Arrays.fill(this.common, null);
+        for(int vidx = 1; vidx < numUsers; ++vidx)
+        {
+            for(int uidx = 0; uidx < vidx; ++uidx)
+            {
+                if(this.sims.get(uidx, vidx) > 0)
+                {
+                    this.common(uidx).add(vidx);
+                    this.common(vidx).add(uidx);
+                }
+            }
         }
     }
 
+    /**
+     * Changes the norm of a user.
+     * @param uidx The identifier of the user.
+     * @param increment The value to add to the norm.
+     */
+    private void addCount(int uidx, double increment)
+    {
+        this.setCount(uidx, this.usercount.get(uidx) + increment);
+    }
+
+    /**
+     * Sets the norm of a user.
+     * @param uidx The identifier of the user.
+     * @param count The norm.
+     */
+    private void setCount(int uidx, double count)
+    {
+        this.usercount.set(uidx, count);
+        if(this.groups != null) this.groups.set(uidx, (int) count);
+    }
+
     @Override
     public IntToDoubleFunction similarity(int idx)
     {
         return (int idx2) -> 
         {
-            double auxalpha = this.sims[idx][idx2];
-            double auxbeta = this.usercount[idx2] - auxalpha;
+            double auxalpha = this.sims.get(idx, idx2);
+            double auxbeta = this.usercount.get(idx2) - auxalpha;
             return this.betaSample(auxalpha + alpha, auxbeta + beta);
         };
     }
@@ -137,6 +290,27 @@ public class BetaStochasticSimilarity implements StochasticUpdateableSimilarity
         return IntStream.range(0, numUsers).filter(i -> i != idx).mapToObj(i -> new Tuple2id(i, sim.applyAsDouble(i))).filter(x -> x.v2 > 0.0);
     }
 
+    @Override
+    public Stream<Tuple2id> similarElems(int idx, int k)
+    {
+        if(this.sampler == null) return this.similarElems(idx);
+
+        // The users with common hits are sampled one by one, and the rest by groups, so the
+        // cost depends on the number of users with common hits and groups, instead of the
+        // number of users.
+        IntToDoubleFunction sim = this.similarity(idx);
+        IntSet common = this.common[idx] == null ? IntSets.EMPTY_SET : this.common[idx];
+        List<Tuple2id> sampled = new ArrayList<>();
+        IntIterator vidxs = common.iterator();
+        while(vidxs.hasNext())
+        {
+            int vidx = vidxs.nextInt();
+            sampled.add(new Tuple2id(vidx, sim.applyAsDouble(vidx)));
+        }
+        this.sampler.sample(idx, common, k, sampled);
+        return sampled.stream().filter(x -> x.v2 > 0.0);
+    }
+
     /**
      * Samples from a Beta distribution.
      * @param alpha The alpha value of the Beta.
@@ -152,25 +326,74 @@ public class BetaStochasticSimilarity implements StochasticUpdateableSimilarity
     @Override
     public void update(FastPreferenceData<?,?> prefData)
     {
-        prefData.getAllUidx().forEach(uidx ->
-        {
-            prefData.getAllUidx().forEach(vidx ->
-            {
-                this.sims[uidx][vidx] = 0.0;
-            });
-        });
+        int n = prefData.numUsers();
+        this.sims.clear();
+        if(this.common != null) Arrays.fill(this.common, null);
 
-        // First, find the norms.
-        prefData.getAllUidx().forEach(uidx ->
+        // First, find the norms. Primitive iterators avoid building an IdxPref object for every visited rating.
+        for(int uidx = 0; uidx < n; ++uidx)
         {
-            this.usercount[uidx] = prefData.getUidxPreferences(uidx).mapToDouble(iidx ->
+            double count = 0.0;
+            IntIterator iidxs = prefData.getUidxIidxs(uidx);
+            while(iidxs.hasNext())
             {
-                prefData.getIidxPreferences(iidx.v1).forEach(vidx ->
+                IntIterator vidxs = prefData.getIidxUidxs(iidxs.nextInt());
+                while(vidxs.hasNext())
                 {
-                    this.sims[uidx][vidx.v1] += 1.0;
-                });
-                return 1.0;
-            }).sum();
-        });
+                    // Each pair is found from both users, but only stored once.
+                    int vidx = vidxs.nextInt();
+                    if(vidx >= uidx) this.addHits(uidx, vidx, 1);
+                }
+                count += 1.0;
+            }
+            this.setCount(uidx, count);
+        }
+    }
+
+    @Override
+    public void grow(int numUsers)
+    {
+        if(numUsers <= this.numUsers) return;
+
+        // The similarities of the new users are appended to the packed matrix.
+        this.sims.grow(numUsers);
+        this.usercount.grow(numUsers);
+        if(this.groups != null) this.groups.grow(numUsers);
+        if(this.common != null && numUsers > this.common.length)
+        {
+            this.common = Arrays.copyOf(this.common, Math.max(numUsers, 2 * this.common.length));
+        }
+        this.numUsers = numUsers;
+    }
+
+    @Override
+    public void close()
+    {
+        this.sims.close();
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeInt(this.numUsers);
+        this.sims.saveState(out);
+        out.writeObject(this.usercount.toDoubleArray());
+        out.writeInt(this.lastu);
+        out.writeInt(this.lasti);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        Checkpoints.check(this.numUsers, in.readInt(), "number of users");
+        this.sims.loadState(in);
+        double[] storedUsercount = (double[]) in.readObject();
+        for(int uidx = 0; uidx < this.numUsers; ++uidx)
+        {
+            this.setCount(uidx, storedUsercount[uidx]);
+        }
+        if(this.common != null) this.findCommon();
+        this.lastu = in.readInt();
+        this.lasti = in.readInt();
     }
 }
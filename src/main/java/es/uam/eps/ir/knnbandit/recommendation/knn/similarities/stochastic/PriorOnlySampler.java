@@ -0,0 +1,149 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.recommendation.knn.similarities.stochastic;
+
+import es.uam.eps.ir.knnbandit.stats.BetaDistribution;
+import es.uam.eps.ir.knnbandit.utils.CountGroups;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import java.util.List;
+import java.util.Random;
+import org.ranksys.core.util.tuples.Tuple2id;
+
+/**
+ * Samples the Beta similarities of the users who have no common hit with a given one. Their
+ * posterior only depends on their number of hits, so the users are grouped by it, and only the
+ * k highest samples of each group are drawn, as order statistics, and given to k members of the
+ * group chosen at random. As the samples of a group are independent and identically distributed,
+ * the k most similar users follow the same distribution as if every user had been sampled.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+class PriorOnlySampler
+{
+    /**
+     * Groups with at most this number of candidates per neighbor are sampled user by user, as
+     * inverting the distribution function is more expensive than drawing a sample.
+     */
+    private final static int EXPLICIT_RATIO = 32;
+
+    /**
+     * The users, grouped by their number of hits.
+     */
+    private final CountGroups hits;
+    /**
+     * Initial alpha.
+     */
+    private final double alpha;
+    /**
+     * Initial beta.
+     */
+    private final double beta;
+    /**
+     * Random number generator.
+     */
+    private final Random rng = new Random();
+
+    /**
+     * Constructor.
+     * @param hits The users, grouped by their number of hits.
+     * @param alpha The alpha parameter (number of successes + 1).
+     * @param beta The beta parameter (number of failures + 1).
+     */
+    PriorOnlySampler(CountGroups hits, double alpha, double beta)
+    {
+        this.hits = hits;
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+
+    /**
+     * Samples the similarities of the users without common hits with a given one which might
+     * be among its k most similar users.
+     * @param idx The identifier of the user.
+     * @param common The users with common hits, which are not sampled.
+     * @param k The number of neighbors.
+     * @param sampled The list where the sampled similarities are added.
+     */
+    void sample(int idx, IntSet common, int k, List<Tuple2id> sampled)
+    {
+        // Count, for each group, the users which are not sampled.
+        Int2IntOpenHashMap excluded = new Int2IntOpenHashMap();
+        excluded.addTo(hits.get(idx), 1);
+        IntIterator iterator = common.iterator();
+        while(iterator.hasNext())
+        {
+            excluded.addTo(hits.get(iterator.nextInt()), 1);
+        }
+
+        for(Int2ObjectMap.Entry<IntList> entry : hits.groups().int2ObjectEntrySet())
+        {
+            IntList members = entry.getValue();
+            int candidates = members.size() - excluded.get(entry.getIntKey());
+            if(candidates <= 0) continue;
+
+            BetaDistribution dist = new BetaDistribution(alpha, entry.getIntKey() + beta);
+            if(candidates <= EXPLICIT_RATIO * k)
+            {
+                for(int i = 0; i < members.size(); ++i)
+                {
+                    int vidx = members.getInt(i);
+                    if(vidx != idx && !common.contains(vidx))
+                    {
+                        sampled.add(new Tuple2id(vidx, dist.sample()));
+                    }
+                }
+            }
+            else
+            {
+                this.sampleTop(idx, common, members, candidates, k, dist, sampled);
+            }
+        }
+    }
+
+    /**
+     * Samples the k highest similarities of a group, and gives them to random members.
+     * @param idx The identifier of the user.
+     * @param common The users with common hits, which are not sampled.
+     * @param members The members of the group.
+     * @param candidates The number of members to sample from.
+     * @param k The number of neighbors.
+     * @param dist The posterior distribution of the members of the group.
+     * @param sampled The list where the sampled similarities are added.
+     */
+    private void sampleTop(int idx, IntSet common, IntList members, int candidates, int k, BetaDistribution dist, List<Tuple2id> sampled)
+    {
+        // The members are drawn in random order, by a partial Fisher-Yates shuffle which only
+        // stores the moved positions.
+        Int2IntOpenHashMap moved = new Int2IntOpenHashMap();
+        int size = members.size();
+        // Probability of exceeding the last order statistic.
+        double survival = 0.0;
+        int found = 0;
+        for(int i = 0; found < k; ++i)
+        {
+            int j = i + rng.nextInt(size - i);
+            int pos = moved.containsKey(j) ? moved.get(j) : j;
+            moved.put(j, moved.containsKey(i) ? moved.get(i) : i);
+
+            int vidx = members.getInt(pos);
+            if(vidx == idx || common.contains(vidx)) continue;
+
+            // The maximum of n uniform samples is distributed as U^(1/n).
+            double u = 1.0 - rng.nextDouble();
+            survival += (1.0 - survival) * -Math.expm1(Math.log(u) / (candidates - found));
+            sampled.add(new Tuple2id(vidx, dist.inverseSurvival(survival)));
+            ++found;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.recommendation.knn.similarities.stochastic;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import es.uam.eps.ir.knnbandit.stats.BetaDistribution;
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import es.uam.eps.ir.knnbandit.utils.CountGroups;
+import es.uam.eps.ir.knnbandit.utils.GrowableDoubleArray;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.ranksys.core.util.tuples.Tuple2id;
+
+/**
+ * Stochastic similarity that uses a Beta distribution to estimate the similarity, which only
+ * stores the number of common hits of the pairs of users who have rated a common item.
+ * The rest of pairs only depend on the prior, so they do not need any memory. It finds the
+ * same similarities, and samples them in the same order, as {@link BetaStochasticSimilarity}.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class SparseBetaStochasticSimilarity implements StochasticUpdateableSimilarity
+{
+    /**
+     * Number of common hits of each user with the users sharing an item with them.
+     */
+    private Int2IntOpenHashMap[] sims;
+    /**
+     * Norms.
+     */
+    private final GrowableDoubleArray usercount;
+    /**
+     * Number of users.
+     */
+    private int numUsers;
+    /**
+     * Initial alpha.
+     */
+    private final double alpha;
+    /**
+     * Initial beta
+     */
+    private final double beta;
+    /**
+     * The users, grouped by their norm, when the users without common hits are sampled by
+     * groups (null otherwise).
+     */
+    private final CountGroups groups;
+    /**
+     * Samples the similarities of the users without common hits (null if they are sampled one by one).
+     */
+    private final PriorOnlySampler sampler;
+
+    /**
+     * Last visited user.
+     */
+    private int lastu = -1;
+    /**
+     * Last visited item.
+     */
+    private int lasti = -1;
+    /**
+     * User of the last forgotten rating (it does not need to be stored, as a rating is forgotten at once).
+     */
+    private int lastDeletedUser = -1;
+    /**
+     * Item of the last forgotten rating.
+     */
+    private int lastDeletedItem = -1;
+
+    /**
+     * Constructor.
+     * @param numUsers Number of users.
+     * @param alpha The alpha parameter (number of successes + 1).
+     * @param beta The beta parameter (number of failures + 1).
+     */
+    public SparseBetaStochasticSimilarity(int numUsers, double alpha, double beta)
+    {
+        this(numUsers, alpha, beta, false);
+    }
+
+    /**
+     * Constructor.
+     * @param numUsers Number of users.
+     * @param alpha The alpha parameter (number of successes + 1).
+     * @param beta The beta parameter (number of failures + 1).
+     * @param grouped True if the users without common hits are sampled by groups of users with the
+     *                same posterior, when only the most similar users are needed.
+     */
+    public SparseBetaStochasticSimilarity(int numUsers, double alpha, double beta, boolean grouped)
+    {
+        this.numUsers = numUsers;
+        this.sims = new Int2IntOpenHashMap[numUsers];
+        for(int uidx = 0; uidx < numUsers; ++uidx)
+        {
+            this.sims[uidx] = new Int2IntOpenHashMap();
+        }
+        this.usercount = new GrowableDoubleArray(numUsers);
+        this.alpha = alpha;
+        this.beta = beta;
+        this.groups = grouped ? new CountGroups(numUsers) : null;
+        this.sampler = grouped ? new PriorOnlySampler(this.groups, alpha, beta) : null;
+    }
+
+    /**
+     * Constructor. Sets alpha and beta to 1.
+     * @param numUsers Number of users.
+     */
+    public SparseBetaStochasticSimilarity(int numUsers)
+    {
+        this(numUsers, 1,1);
+    }
+
+    @Override
+    public IntToDoubleFunction exactSimilarity(int idx)
+    {
+        Int2IntOpenHashMap row = this.sims[idx];
+        return (int idx2) ->
+        {
+            double auxalpha = row.get(idx2) + alpha;
+            double auxbeta = this.usercount.get(idx2) + beta;
+            return auxalpha/auxbeta;
+        };
+    }
+
+    @Override
+    public Stream<Tuple2id> exactSimilarElems(int idx)
+    {
+        IntToDoubleFunction sim = this.exactSimilarity(idx);
+        return IntStream.range(0, numUsers).filter(i -> i != idx).mapToObj(i -> new Tuple2id(i, sim.applyAsDouble(i))).filter(x -> x.v2 > 0.0);
+    }
+
+    @Override
+    public void update(int uidx, int vidx, int iidx, double uval, double vval)
+    {
+        if(!Double.isNaN(vval) && uval*vval > 0)
+        {
+            sims[uidx].addTo(vidx, 1);
+            sims[vidx].addTo(uidx, 1);
+        }
+
+        if(lastu != uidx || lasti != iidx)
+        {
+            lastu = uidx;
+            lasti = iidx;
+            lastDeletedUser = -1;
+            if(uval > 0) this.addCount(uidx, 1.0);
+        }
+    }
+
+    @Override
+    public void updateDelete(int uidx, int vidx, int iidx, double uval, double vval)
+    {
+        if(!Double.isNaN(vval) && uval*vval > 0)
+        {
+            this.decrement(uidx, vidx);
+            this.decrement(vidx, uidx);
+        }
+
+        if(lastDeletedUser != uidx || lastDeletedItem != iidx)
+        {
+            lastDeletedUser = uidx;
+            lastDeletedItem = iidx;
+            lastu = -1;
+            if(uval > 0) this.addCount(uidx, -1.0);
+        }
+    }
+
+    /**
+     * Removes a common hit of two users, and removes the pair when they have none left.
+     * @param uidx Identifier of the first user.
+     * @param vidx Identifier of the second user.
+     */
+    private void decrement(int uidx, int vidx)
+    {
+        Int2IntOpenHashMap row = this.sims[uidx];
+        if(row.addTo(vidx, -1) == 1)
+        {
+            row.remove(vidx);
+        }
+    }
+
+    /**
+     * Changes the norm of a user.
+     * @param uidx The identifier of the user.
+     * @param increment The value to add to the norm.
+     */
+    private void addCount(int uidx, double increment)
+    {
+        this.setCount(uidx, this.usercount.get(uidx) + increment);
+    }
+
+    /**
+     * Sets the norm of a user.
+     * @param uidx The identifier of the user.
+     * @param count The norm.
+     */
+    private void setCount(int uidx, double count)
+    {
+        this.usercount.set(uidx, count);
+        if(this.groups != null) this.groups.set(uidx, (int) count);
+    }
+
+    @Override
+    public IntToDoubleFunction similarity(int idx)
+    {
+        Int2IntOpenHashMap row = this.sims[idx];
+        return (int idx2) ->
+        {
+            double auxalpha = row.get(idx2);
+            double auxbeta = this.usercount.get(idx2) - auxalpha;
+            return this.betaSample(auxalpha + alpha, auxbeta + beta);
+        };
+    }
+
+    @Override
+    public Stream<Tuple2id> similarElems(int idx)
+    {
+        // Users without common hits still have a positive sampled similarity, so all of them are visited.
+        IntToDoubleFunction sim = this.similarity(idx);
+        return IntStream.range(0, numUsers).filter(i -> i != idx).mapToObj(i -> new Tuple2id(i, sim.applyAsDouble(i))).filter(x -> x.v2 > 0.0);
+    }
+
+    @Override
+    public Stream<Tuple2id> similarElems(int idx, int k)
+    {
+        if(this.sampler == null) return this.similarElems(idx);
+
+        // The users with common hits are sampled one by one, and the rest by groups, so the
+        // cost depends on the number of stored pairs and groups, instead of the number of users.
+        IntToDoubleFunction sim = this.similarity(idx);
+        IntSet common = new IntOpenHashSet();
+        List<Tuple2id> sampled = new ArrayList<>();
+        IntIterator vidxs = this.sims[idx].keySet().iterator();
+        while(vidxs.hasNext())
+        {
+            int vidx = vidxs.nextInt();
+            if(vidx != idx)
+            {
+                common.add(vidx);
+                sampled.add(new Tuple2id(vidx, sim.applyAsDouble(vidx)));
+            }
+        }
+        this.sampler.sample(idx, common, k, sampled);
+        return sampled.stream().filter(x -> x.v2 > 0.0);
+    }
+
+    /**
+     * Samples from a Beta distribution.
+     * @param alpha The alpha value of the Beta.
+     * @param beta The beta value of the Beta.
+     * @return the sampled value.
+     */
+    public double betaSample(double alpha, double beta)
+    {
+        BetaDistribution b = new BetaDistribution(alpha, beta);
+        return b.sample();
+    }
+
+    @Override
+    public void update(FastPreferenceData<?,?> prefData)
+    {
+        int n = prefData.numUsers();
+        for(int uidx = 0; uidx < n; ++uidx)
+        {
+            this.sims[uidx].clear();
+        }
+
+        // The pairs are found by walking the items of each user, and the users who rated them.
+        for(int uidx = 0; uidx < n; ++uidx)
+        {
+            Int2IntOpenHashMap uSims = this.sims[uidx];
+            double count = 0.0;
+            IntIterator iidxs = prefData.getUidxIidxs(uidx);
+            while(iidxs.hasNext())
+            {
+                IntIterator vidxs = prefData.getIidxUidxs(iidxs.nextInt());
+                while(vidxs.hasNext())
+                {
+                    uSims.addTo(vidxs.nextInt(), 1);
+                }
+                count += 1.0;
+            }
+            this.setCount(uidx, count);
+        }
+    }
+
+    @Override
+    public void grow(int numUsers)
+    {
+        if(numUsers <= this.numUsers) return;
+        if(numUsers > this.sims.length)
+        {
+            this.sims = Arrays.copyOf(this.sims, Math.max(numUsers, 2 * this.sims.length));
+        }
+        for(int uidx = this.numUsers; uidx < numUsers; ++uidx)
+        {
+            this.sims[uidx] = new Int2IntOpenHashMap();
+        }
+        this.usercount.grow(numUsers);
+        if(this.groups != null) this.groups.grow(numUsers);
+        this.numUsers = numUsers;
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeInt(this.numUsers);
+        for(int uidx = 0; uidx < this.numUsers; ++uidx)
+        {
+            out.writeDouble(this.usercount.get(uidx));
+            out.writeInt(this.sims[uidx].size());
+            for(Int2IntMap.Entry entry : this.sims[uidx].int2IntEntrySet())
+            {
+                out.writeInt(entry.getIntKey());
+                out.writeInt(entry.getIntValue());
+            }
+        }
+        out.writeInt(this.lastu);
+        out.writeInt(this.lasti);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        Checkpoints.check(this.numUsers, in.readInt(), "number of users");
+        for(int uidx = 0; uidx < this.numUsers; ++uidx)
+        {
+            this.setCount(uidx, in.readDouble());
+            Int2IntOpenHashMap row = this.sims[uidx];
+            row.clear();
+            int size = in.readInt();
+            for(int i = 0; i < size; ++i)
+            {
+                int vidx = in.readInt();
+                row.put(vidx, in.readInt());
+            }
+        }
+        this.lastu = in.readInt();
+        this.lasti = in.readInt();
+    }
+}
@@ -13,17 +13,18 @@ import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemInde
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
 import es.uam.eps.ir.knnbandit.recommendation.InteractiveRecommender;
 import es.uam.eps.ir.knnbandit.recommendation.knn.similarities.UpdateableSimilarity;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
-import java.util.Collections;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Random;
 import org.jooq.lambda.tuple.Tuple3;
-import org.ranksys.core.util.tuples.Tuple2id;
 
 /**
  * Abstract version of an interactive user-based kNN algorithm
@@ -32,6 +33,38 @@ import org.ranksys.core.util.tuples.Tuple2id;
  */
 public abstract class AbstractInteractiveUserBasedKNN<U,I> extends InteractiveRecommender<U,I>
 {
+    /**
+     * A candidate neighbor.
+     */
+    private static class Neighbor
+    {
+        /**
+         * Identifier of the neighbor.
+         */
+        private final int vidx;
+        /**
+         * Similarity of the neighbor.
+         */
+        private final double sim;
+        /**
+         * Random key for breaking ties.
+         */
+        private final long key;
+
+        /**
+         * Constructor.
+         * @param vidx Identifier of the neighbor.
+         * @param sim Similarity of the neighbor.
+         * @param key Random key for breaking ties.
+         */
+        Neighbor(int vidx, double sim, long key)
+        {
+            this.vidx = vidx;
+            this.sim = sim;
+            this.key = key;
+        }
+    }
+
     /**
      * Updateable similarity.
      */
@@ -39,19 +72,26 @@ public abstract class AbstractInteractiveUserBasedKNN<U,I> extends InteractiveRe
     /**
      * Random number generator to untie neighbors.
      */
-    private final Random neighborUntie = new Random();
+    private Random neighborUntie = new Random();
     /**
      * Number of neighbors to use. 
      */
-    private final int k;
+    private int k;
     /**
-     * Neighbor comparator.
+     * True if every user is a candidate neighbor, so k follows the number of users.
      */
-    private final Comparator<Tuple2id> comp;
+    private final boolean allNeighbors;
     /**
-     * Shuffled list of users.
+     * Neighbor comparator: the least similar neighbors go first and, among equally similar
+     * ones, those with the lowest key.
      */
-    private final IntList userList;
+    private final static Comparator<Neighbor> COMP = (Neighbor x, Neighbor y) ->
+    {
+        int value = (int) Math.signum(x.sim - y.sim);
+        if(value == 0)
+            return Long.compare(x.key, y.key);
+        return value;
+    };
     
     private final boolean ignoreZeros;
     
@@ -65,20 +105,12 @@ public abstract class AbstractInteractiveUserBasedKNN<U,I> extends InteractiveRe
      * @param k Number of neighbors to use.
      * @param sim Updateable similarity
      */
-    public AbstractInteractiveUserBasedKNN(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean ignoreZeros, int k, UpdateableSimilarity sim)
+    public AbstractInteractiveUserBasedKNN(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean ignoreZeros, int k, UpdateableSimilarity sim)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown);
         this.sim = sim;
+        this.allNeighbors = (k <= 0);
         this.k = (k > 0) ? k : prefData.numUsers();
-        this.userList = new IntArrayList();
-        uIndex.getAllUidx().forEach(uidx -> userList.add(uidx));
-        this.comp = (Tuple2id x, Tuple2id y) -> 
-        {
-            int value = (int) Math.signum(x.v2 - y.v2);
-            if(value == 0)
-                return userList.indexOf(x.v1) - userList.indexOf(y.v1);
-            return value;
-        };
         this.ignoreZeros = ignoreZeros;
     }
     
@@ -93,48 +125,38 @@ public abstract class AbstractInteractiveUserBasedKNN<U,I> extends InteractiveRe
      * @param k Number of neighbors to use.
      * @param sim Updateable similarity
      */
-    public AbstractInteractiveUserBasedKNN(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean ignoreZeros, boolean notReciprocal, int k, UpdateableSimilarity sim)
+    public AbstractInteractiveUserBasedKNN(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean ignoreZeros, boolean notReciprocal, int k, UpdateableSimilarity sim)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown, notReciprocal);
         this.sim = sim;
+        this.allNeighbors = (k <= 0);
         this.k = (k > 0) ? k : prefData.numUsers();
-        this.userList = new IntArrayList();
-        uIndex.getAllUidx().forEach(uidx -> userList.add(uidx));
-        this.comp = (Tuple2id x, Tuple2id y) -> 
-        {
-            int value = (int) Math.signum(x.v2 - y.v2);
-            if(value == 0)
-                return userList.indexOf(x.v1) - userList.indexOf(y.v1);
-            return value;
-        };      
         this.ignoreZeros = ignoreZeros;
     }
     
     @Override
     public int next(int uidx)
     {
-        IntList list = this.availability.get(uidx);
-        if(list == null || list.isEmpty()) return -1;
+        if(this.availability.isEmpty(uidx)) return -1;
         
-        // Shuffle the order of users.
-        Collections.shuffle(userList, neighborUntie);
-        
-        // Obtain the top-k best neighbors for user uidx.
-        PriorityQueue<Tuple2id> neighborHeap = new PriorityQueue<>(k, comp);
-        this.sim.similarElems(uidx).forEach(vidx -> 
+        // Obtain the top-k best neighbors for user uidx. Ties are broken by a random key drawn
+        // for each candidate entering the heap, so equally similar candidates are compared in
+        // random order, as if all the users had been shuffled, but only the candidates are visited.
+        PriorityQueue<Neighbor> neighborHeap = new PriorityQueue<>(k, COMP);
+        this.sim.similarElems(uidx, k).forEach(vidx -> 
         {
             double s = vidx.v2;
-            if(neighborHeap.size() < k) neighborHeap.add(new Tuple2id(vidx.v1,vidx.v2));
-            else if(neighborHeap.peek().v2 <= s)
+            if(neighborHeap.size() < k) neighborHeap.add(new Neighbor(vidx.v1, s, neighborUntie.nextLong()));
+            else if(neighborHeap.peek().sim <= s)
             {
                 neighborHeap.poll();
-                neighborHeap.add(new Tuple2id(vidx.v1, s));
+                neighborHeap.add(new Neighbor(vidx.v1, s, neighborUntie.nextLong()));
             }
         });
         
         if(neighborHeap.isEmpty())
         {
-            return list.get(rng.nextInt(list.size()));
+            return this.availability.sample(uidx, rng);
         }
 
         Int2DoubleOpenHashMap itemScores = new Int2DoubleOpenHashMap();
@@ -143,14 +165,16 @@ public abstract class AbstractInteractiveUserBasedKNN<U,I> extends InteractiveRe
         // Then, generate scores for the different items.
         while(!neighborHeap.isEmpty())
         {
-            Tuple2id neigh = neighborHeap.poll();
+            Neighbor neigh = neighborHeap.poll();
+            int vidx = neigh.vidx;
+            double vSim = neigh.sim;
             
-            this.trainData.getUidxPreferences(neigh.v1).forEach(vs -> 
+            this.trainData.forEachUidxPref(vidx, (iidx, rating) -> 
             {
-                double p = neigh.v2*this.score(neigh.v1, vs.v2);
+                double p = vSim*this.score(vidx, rating);
                 if(!ignoreZeros || p > 0)
                 {
-                    itemScores.addTo(vs.v1, p);
+                    itemScores.addTo(iidx, p);
                 }
             });
         }
@@ -162,7 +186,7 @@ public abstract class AbstractInteractiveUserBasedKNN<U,I> extends InteractiveRe
         for(int iidx : itemScores.keySet())
         {
             double val = itemScores.get(iidx);
-            if(!list.contains(iidx)) continue;
+            if(!this.availability.isAvailable(uidx, iidx)) continue;
 
             if(top.isEmpty() || val > max)
             {
@@ -177,7 +201,7 @@ public abstract class AbstractInteractiveUserBasedKNN<U,I> extends InteractiveRe
         }
         
         int topSize = top.size();
-        if(top.isEmpty()) return list.get(rng.nextInt(list.size()));
+        if(top.isEmpty()) return this.availability.sample(uidx, rng);
         else if(topSize == 1) return top.get(0);
         return top.get(rng.nextInt(topSize));
     }
@@ -195,4 +219,42 @@ public abstract class AbstractInteractiveUserBasedKNN<U,I> extends InteractiveRe
     {
         this.sim.update(this.trainData);
     }
+
+    @Override
+    public boolean canGrow()
+    {
+        return true;
+    }
+
+    @Override
+    protected void growMethod(int numUsers, int numItems)
+    {
+        this.sim.grow(numUsers);
+        if(this.allNeighbors)
+        {
+            this.k = numUsers;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        this.sim.close();
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        super.saveState(out);
+        out.writeObject(this.neighborUntie);
+        this.sim.saveState(out);
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        super.loadState(in);
+        this.neighborUntie = (Random) in.readObject();
+        this.sim.loadState(in);
+    }
 }
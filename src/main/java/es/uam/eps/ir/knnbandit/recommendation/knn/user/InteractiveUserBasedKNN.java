@@ -12,7 +12,7 @@ package es.uam.eps.ir.knnbandit.recommendation.knn.user;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
 import es.uam.eps.ir.knnbandit.recommendation.knn.similarities.UpdateableSimilarity;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 
 /**
  * Interactive version of user-based kNN algorithm.
@@ -33,7 +33,7 @@ public class InteractiveUserBasedKNN<U,I> extends AbstractInteractiveUserBasedKN
      * @param k Number of neighbors to use.
      * @param sim Updateable similarity
      */
-    public InteractiveUserBasedKNN(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean ignoreZeros, int k, UpdateableSimilarity sim)
+    public InteractiveUserBasedKNN(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean ignoreZeros, int k, UpdateableSimilarity sim)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown, ignoreZeros, k, sim);
     }
@@ -47,7 +47,7 @@ public class InteractiveUserBasedKNN<U,I> extends AbstractInteractiveUserBasedKN
      * @param k Number of neighbors to use.
      * @param sim Updateable similarity
      */
-    public InteractiveUserBasedKNN(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean ignoreZeros, boolean notReciprocal, int k, UpdateableSimilarity sim)
+    public InteractiveUserBasedKNN(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean ignoreZeros, boolean notReciprocal, int k, UpdateableSimilarity sim)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown, ignoreZeros, notReciprocal, k, sim);
     }
@@ -55,9 +55,36 @@ public class InteractiveUserBasedKNN<U,I> extends AbstractInteractiveUserBasedKN
     @Override
     public void updateMethod(int uidx, int iidx, double value)
     {
-        this.trainData.getIidxPreferences(iidx).forEach(vidx -> 
+        if(this.hasWindow() && this.trainData.numUsers(iidx) == 0)
         {
-            this.sim.update(uidx, vidx.v1, iidx, value, vidx.v2);
+            // Nobody else has rated the item: only the statistics of the user change. They
+            // are only updated when the rating might be forgotten, so it can be reverted exactly.
+            this.sim.update(uidx, uidx, iidx, value, Double.NaN);
+            return;
+        }
+        this.trainData.forEachIidxPref(iidx, (vidx, vValue) -> 
+        {
+            this.sim.update(uidx, vidx, iidx, value, vValue);
+        });
+    }
+
+    @Override
+    public boolean canForget()
+    {
+        return true;
+    }
+
+    @Override
+    protected void forgetMethod(int uidx, int iidx, double value)
+    {
+        if(this.trainData.numUsers(iidx) == 0)
+        {
+            this.sim.updateDelete(uidx, uidx, iidx, value, Double.NaN);
+            return;
+        }
+        this.trainData.forEachIidxPref(iidx, (vidx, vValue) ->
+        {
+            this.sim.updateDelete(uidx, vidx, iidx, value, vValue);
         });
     }
 
@@ -10,14 +10,19 @@
 package es.uam.eps.ir.knnbandit.recommendation.mf;
 
 import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableItemIndex;
 import es.uam.eps.ir.knnbandit.data.preference.index.fast.FastUpdateableUserIndex;
 import es.uam.eps.ir.knnbandit.recommendation.InteractiveRecommender;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import es.uam.eps.ir.ranksys.mf.Factorization;
 import es.uam.eps.ir.ranksys.mf.Factorizer;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.ints.IntList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.logging.Level;
@@ -63,7 +68,7 @@ public class InteractiveMF<U,I> extends InteractiveRecommender<U,I>
      * @param k Number of neighbors to use.
      * @param factorizer Factorizer for obtaining the factorized matrices.
      */
-    public InteractiveMF(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U, I> prefData, boolean ignoreUnknown, int k, Factorizer<U,I> factorizer)
+    public InteractiveMF(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U, I> prefData, boolean ignoreUnknown, int k, Factorizer<U,I> factorizer)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown);
         this.factorizer = factorizer;
@@ -82,7 +87,7 @@ public class InteractiveMF<U,I> extends InteractiveRecommender<U,I>
      * @param k Number of neighbors to use.
      * @param factorizer Factorizer for obtaining the factorized matrices.
      */
-    public InteractiveMF(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean notReciprocal, int k, Factorizer<U,I> factorizer)
+    public InteractiveMF(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U, I> prefData, boolean ignoreUnknown, boolean notReciprocal, int k, Factorizer<U,I> factorizer)
     {
         super(uIndex, iIndex, prefData, ignoreUnknown, notReciprocal);
         this.factorizer = factorizer;
@@ -95,22 +100,28 @@ public class InteractiveMF<U,I> extends InteractiveRecommender<U,I>
     @Override
     public int next(int uidx)
     {
-        IntList list = this.availability.get(uidx);
-        if(list == null || list.isEmpty()) return -1;
+        if(this.availability.isEmpty(uidx)) return -1;
                 
+        // Users which have arrived after the last factorization do not have a vector yet.
+        if(uidx >= factorization.getUserMatrix().rows())
+        {
+            return this.availability.sample(uidx, rng);
+        }
         DoubleMatrix1D pu = factorization.getUserVector(prefData.uidx2user(uidx));
         if(pu == null)
         {
-            return list.get(rng.nextInt(list.size()));
+            return this.availability.sample(uidx, rng);
         }
         
         DoubleMatrix1D r = factorization.getItemMatrix().zMult(pu,null);
         double max = Double.NEGATIVE_INFINITY;
         IntList top = new IntArrayList();
         
-        for(int iidx : list)
+        IntIterator it = this.availability.iterator(uidx);
+        while(it.hasNext())
         {
-            double val = r.getQuick(iidx);
+            int iidx = it.nextInt();
+            double val = iidx < r.size() ? r.getQuick(iidx) : Double.NaN;
             if(Double.isNaN(val)) val = Double.NEGATIVE_INFINITY;
             if(top.isEmpty() || max < val)
             {
@@ -147,4 +158,49 @@ public class InteractiveMF<U,I> extends InteractiveRecommender<U,I>
             this.factorization = factorizer.factorize(k, trainData);
         }
     }
+
+    @Override
+    public boolean canForget()
+    {
+        return true;
+    }
+
+    @Override
+    protected void forgetMethod(int uidx, int iidx, double value)
+    {
+        // The next factorization is computed over the remaining training data.
+    }
+
+    @Override
+    public boolean canGrow()
+    {
+        return true;
+    }
+
+    @Override
+    protected void growMethod(int numUsers, int numItems)
+    {
+        // The new users and items enter the model in the next factorization.
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        super.saveState(out);
+        out.writeInt(this.currentCounter);
+        out.writeInt(this.factorization.getK());
+        out.writeObject(this.factorization.getUserMatrix());
+        out.writeObject(this.factorization.getItemMatrix());
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        super.loadState(in);
+        this.currentCounter = in.readInt();
+        int storedK = in.readInt();
+        DenseDoubleMatrix2D userMatrix = (DenseDoubleMatrix2D) in.readObject();
+        DenseDoubleMatrix2D itemMatrix = (DenseDoubleMatrix2D) in.readObject();
+        this.factorization = new Factorization<>(trainData, trainData, userMatrix, itemMatrix, storedK);
+    }
 }
@@ -0,0 +1,108 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.selector;
+
+/**
+ * Rough estimations of the cost of running the algorithms in a recommendation loop,
+ * obtained from their configuration and the size of the data. Estimations are only
+ * meant for comparing algorithms (for instance, to run the most expensive ones first),
+ * not to predict running times.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class AlgorithmCosts
+{
+    /**
+     * Relative cost of sampling from a Beta distribution, with respect to a basic operation.
+     */
+    private final static double SAMPLING_COST = 10.0;
+    /**
+     * Number of iterations between the updates of matrix factorization algorithms.
+     */
+    private final static double MF_UPDATE_PERIOD = 100.0;
+    /**
+     * Number of training iterations of the factorizers, when it cannot be obtained.
+     */
+    private final static int DEFAULT_MF_ITERATIONS = 20;
+    /**
+     * Number of neighbors (or latent factors), when it cannot be obtained.
+     */
+    private final static int DEFAULT_K = 10;
+
+    /**
+     * Estimates the cost of running an algorithm in a recommendation loop.
+     * @param algorithm The configuration of the algorithm, as read by the {@link AlgorithmSelector}.
+     * @param numUsers The number of users.
+     * @param numItems The number of items.
+     * @param numIter The number of iterations of the loop.
+     * @return the estimated cost, in arbitrary units.
+     */
+    public static double estimate(String algorithm, int numUsers, int numItems, long numIter)
+    {
+        return iterationCost(algorithm, numUsers, numItems) * Math.max(1L, numIter);
+    }
+
+    /**
+     * Estimates the cost of a single iteration of an algorithm.
+     * @param algorithm The configuration of the algorithm, as read by the {@link AlgorithmSelector}.
+     * @param numUsers The number of users.
+     * @param numItems The number of items.
+     * @return the estimated cost, in arbitrary units.
+     */
+    public static double iterationCost(String algorithm, int numUsers, int numItems)
+    {
+        String[] split = algorithm.split("-");
+        switch(split[0])
+        {
+            case AlgorithmIdentifiers.RANDOM: // Selects an item at random.
+                return 1.0;
+            case AlgorithmIdentifiers.AVG: // Item-oriented algorithms explore every item.
+            case AlgorithmIdentifiers.POP:
+            case AlgorithmIdentifiers.ITEMBANDIT:
+                return numItems;
+            case AlgorithmIdentifiers.USERBASEDKNN: // Explores the users, and the items of the neighbors.
+                return numUsers + parse(split, 1, DEFAULT_K) * (double) numItems;
+            case AlgorithmIdentifiers.SPARSEUSERBASEDKNN: // As before, but only explores the users sharing an item.
+            case AlgorithmIdentifiers.GROUPEDBANDITKNN: // As before, as only the best users of each group are sampled.
+            case AlgorithmIdentifiers.SPARSEGROUPEDBANDITKNN:
+                return parse(split, 1, DEFAULT_K) * (double) numItems;
+            case AlgorithmIdentifiers.BANDITKNN: // As before, but sampling the similarity of every user.
+            case AlgorithmIdentifiers.SPARSEBANDITKNN:
+                return SAMPLING_COST * numUsers + parse(split, 1, DEFAULT_K) * (double) numItems;
+            case AlgorithmIdentifiers.MF: // Scores every item, and periodically factorizes the matrix.
+                double k = parse(split, 1, DEFAULT_K);
+                int iterPos = (split.length > 2 && FactorizerIdentifiers.PLSA.equals(split[2])) ? 3 : 5;
+                double iter = parse(split, iterPos, DEFAULT_MF_ITERATIONS);
+                return k * numItems + (numUsers + numItems) * k * k * iter / MF_UPDATE_PERIOD;
+            default:
+                return numItems;
+        }
+    }
+
+    /**
+     * Reads an integer parameter from the configuration of an algorithm.
+     * @param split The configuration of the algorithm, split by its fields.
+     * @param pos The position of the parameter.
+     * @param defaultValue The value to use if the parameter does not exist, or it is not an integer.
+     * @return the value of the parameter.
+     */
+    private static int parse(String[] split, int pos, int defaultValue)
+    {
+        if(pos <= 0 || pos >= split.length) return defaultValue;
+        try
+        {
+            return Integer.parseInt(split[pos]);
+        }
+        catch (NumberFormatException ex)
+        {
+            return defaultValue;
+        }
+    }
+}
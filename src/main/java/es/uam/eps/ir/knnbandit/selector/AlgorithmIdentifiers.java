@@ -25,6 +25,12 @@ public class AlgorithmIdentifiers
     // User based.
     public static final String USERBASEDKNN = "ubknn";
     public static final String BANDITKNN = "knnbandit";
+    // User based, storing only the similarities of users with common items.
+    public static final String SPARSEUSERBASEDKNN = "sparseubknn";
+    public static final String SPARSEBANDITKNN = "sparseknnbandit";
+    // kNN bandit, sampling the users without common hits by groups with the same posterior.
+    public static final String GROUPEDBANDITKNN = "groupedknnbandit";
+    public static final String SPARSEGROUPEDBANDITKNN = "sparsegroupedknnbandit";
     // Matrix factorization.
     public static final String MF = "mf";
 }
@@ -18,20 +18,27 @@ import es.uam.eps.ir.knnbandit.recommendation.bandits.functions.ValueFunctions;
 import es.uam.eps.ir.knnbandit.recommendation.bandits.item.*;
 import es.uam.eps.ir.knnbandit.recommendation.basic.*;
 import es.uam.eps.ir.knnbandit.recommendation.knn.similarities.UpdateableSimilarity;
+import es.uam.eps.ir.knnbandit.recommendation.knn.similarities.SparseVectorCosineSimilarity;
 import es.uam.eps.ir.knnbandit.recommendation.knn.similarities.VectorCosineSimilarity;
 import es.uam.eps.ir.knnbandit.recommendation.knn.similarities.stochastic.BetaStochasticSimilarity;
+import es.uam.eps.ir.knnbandit.recommendation.knn.similarities.stochastic.SparseBetaStochasticSimilarity;
 import es.uam.eps.ir.knnbandit.recommendation.knn.user.InteractiveUserBasedKNN;
 import es.uam.eps.ir.knnbandit.recommendation.mf.InteractiveMF;
-import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
+import es.uam.eps.ir.knnbandit.utils.PackedSymmetricDoubleMatrix;
+import es.uam.eps.ir.knnbandit.utils.PackedSymmetricIntMatrix;
+import es.uam.eps.ir.knnbandit.utils.SymmetricMatrix;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import es.uam.eps.ir.ranksys.mf.Factorizer;
 import es.uam.eps.ir.ranksys.mf.als.HKVFactorizer;
 import es.uam.eps.ir.ranksys.mf.als.PZTFactorizer;
 import es.uam.eps.ir.ranksys.mf.plsa.PLSAFactorizer;
 import org.ranksys.formats.parsing.Parsers;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -49,6 +56,19 @@ import java.util.function.DoubleUnaryOperator;
  */
 public class AlgorithmSelector<U,I>
 {
+    /**
+     * Stores the similarities of the user-based kNN algorithms in the heap.
+     */
+    public final static String HEAP = "heap";
+    /**
+     * Stores the similarities of the user-based kNN algorithms in native memory, out of the heap.
+     */
+    public final static String DIRECT = "direct";
+    /**
+     * Stores the similarities of the user-based kNN algorithms in a memory-mapped file.
+     */
+    public final static String FILE = "file";
+
     /**
      * A map of recommenders to apply.
      */
@@ -72,7 +92,7 @@ public class AlgorithmSelector<U,I>
     /**
      * Preference data.
      */
-    private SimpleFastPreferenceData<U,I> prefData;
+    private FastPreferenceData<U,I> prefData;
     /**
      * True if contact recommendation algorithms must be configured, false otherwise.
      */
@@ -85,6 +105,14 @@ public class AlgorithmSelector<U,I>
      * Relevance threshold.
      */
     private double threshold;
+    /**
+     * Where the similarities of the user-based kNN algorithms are stored.
+     */
+    private String similarityStorage;
+    /**
+     * The file in which the similarities are stored, when they are stored in a file.
+     */
+    private String similarityFile;
     /**
      * Constructor.
      */
@@ -92,6 +120,7 @@ public class AlgorithmSelector<U,I>
     {
         recs = new HashMap<>();
         notReciprocal = false;
+        similarityStorage = HEAP;
     }
     
     /**
@@ -106,6 +135,54 @@ public class AlgorithmSelector<U,I>
         this.contactRec = false;
         this.notReciprocal = false;
         this.configured = false;
+        this.similarityStorage = HEAP;
+        this.similarityFile = null;
+    }
+
+    /**
+     * Selects where the dense similarities of the user-based kNN algorithms are stored.
+     * @param storage HEAP (default), DIRECT or FILE.
+     */
+    public void setSimilarityStorage(String storage)
+    {
+        this.similarityStorage = storage;
+    }
+
+    /**
+     * Selects the file in which the next user-based kNN algorithm stores its similarities,
+     * when they are stored in files. Each algorithm needs its own file.
+     * @param file The file.
+     */
+    public void setSimilarityFile(String file)
+    {
+        this.similarityFile = file;
+    }
+
+    /**
+     * Builds the matrix in which a user-based kNN algorithm stores its similarities.
+     * @param counts True if the similarities are integer counts.
+     * @return the matrix.
+     */
+    private SymmetricMatrix similarityMatrix(boolean counts)
+    {
+        int numUsers = prefData.numUsers();
+        switch(this.similarityStorage)
+        {
+            case DIRECT:
+                return PackedSymmetricDoubleMatrix.direct(numUsers);
+            case FILE:
+                try
+                {
+                    return PackedSymmetricDoubleMatrix.mapped(new File(this.similarityFile), numUsers);
+                }
+                catch(IOException ex)
+                {
+                    throw new UncheckedIOException(ex);
+                }
+            case HEAP:
+            default:
+                return counts ? new PackedSymmetricIntMatrix(numUsers) : PackedSymmetricDoubleMatrix.heap(numUsers);
+        }
     }
     
     /**
@@ -115,7 +192,7 @@ public class AlgorithmSelector<U,I>
      * @param prefData Preference data.
      * @param threshold Relevance threshold
      */
-    public void configure(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U,I> prefData, double threshold)
+    public void configure(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U,I> prefData, double threshold)
     {
         this.uIndex = uIndex;
         this.iIndex = iIndex;
@@ -134,7 +211,7 @@ public class AlgorithmSelector<U,I>
      * @param threshold Relevance threshold
      * @param notReciprocal True if we have to avoid recommending reciprocal items.
      */
-    public void configure(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, SimpleFastPreferenceData<U,I> prefData, double threshold, boolean notReciprocal)
+    public void configure(FastUpdateableUserIndex<U> uIndex, FastUpdateableItemIndex<I> iIndex, FastPreferenceData<U,I> prefData, double threshold, boolean notReciprocal)
     {
         this.uIndex = uIndex;
         this.iIndex = iIndex;
@@ -205,11 +282,13 @@ public class AlgorithmSelector<U,I>
                             : new ItemBanditRecommender(uIndex, iIndex, prefData, ignoreUnknown, notReciprocal, itemBandit, valFunc);
 
                 case AlgorithmIdentifiers.USERBASEDKNN: // User-based kNN.
+                case AlgorithmIdentifiers.SPARSEUSERBASEDKNN:
                     cursor++;
                     int k = Parsers.ip.parse(fullAlgorithm.get(cursor));
                     cursor++;
 
-                    UpdateableSimilarity sim = new VectorCosineSimilarity(prefData.numUsers());
+                    UpdateableSimilarity sim = fullAlgorithm.get(0).equals(AlgorithmIdentifiers.USERBASEDKNN) ? new VectorCosineSimilarity(this.similarityMatrix(false))
+                            : new SparseVectorCosineSimilarity(prefData.numUsers());
                     boolean ignoreZeroes;
                     if (fullAlgorithm.size() == cursor)
                     {
@@ -233,6 +312,9 @@ public class AlgorithmSelector<U,I>
                             : new InteractiveUserBasedKNN(uIndex, iIndex, prefData, ignoreUnknown, ignoreZeroes, notReciprocal, k, sim);
 
                 case AlgorithmIdentifiers.BANDITKNN:
+                case AlgorithmIdentifiers.SPARSEBANDITKNN:
+                case AlgorithmIdentifiers.GROUPEDBANDITKNN:
+                case AlgorithmIdentifiers.SPARSEGROUPEDBANDITKNN:
                     cursor++;
                     k = Parsers.ip.parse(fullAlgorithm.get(cursor));
                     cursor++;
@@ -240,7 +322,9 @@ public class AlgorithmSelector<U,I>
                     cursor++;
                     double beta = Parsers.dp.parse(fullAlgorithm.get(cursor));
 
-                    sim = new BetaStochasticSimilarity(prefData.numUsers(), alpha, beta);
+                    boolean grouped = fullAlgorithm.get(0).equals(AlgorithmIdentifiers.GROUPEDBANDITKNN) || fullAlgorithm.get(0).equals(AlgorithmIdentifiers.SPARSEGROUPEDBANDITKNN);
+                    sim = (fullAlgorithm.get(0).equals(AlgorithmIdentifiers.BANDITKNN) || fullAlgorithm.get(0).equals(AlgorithmIdentifiers.GROUPEDBANDITKNN)) ? new BetaStochasticSimilarity(this.similarityMatrix(true), alpha, beta, grouped)
+                            : new SparseBetaStochasticSimilarity(prefData.numUsers(), alpha, beta, grouped);
 
                     if (fullAlgorithm.size() == cursor)
                     {
@@ -9,6 +9,7 @@
  */
 package es.uam.eps.ir.knnbandit.stats;
 
+import cern.jet.stat.Gamma;
 import java.util.Random;
 
 /**
@@ -18,6 +19,11 @@ import java.util.Random;
  */
 public class BetaDistribution implements UnivariateStatisticalDistribution
 {
+    /**
+     * Number of bisection steps for inverting the distribution function.
+     */
+    private final static int INVERSION_STEPS = 50;
+
     /**
      * First parameter. In case that this distribution is used as a posterior
      * of a Bernoulli distribution, this value equals to the number of hits - 1.
@@ -173,4 +179,24 @@ public class BetaDistribution implements UnivariateStatisticalDistribution
         gamma = new GammaDistribution(beta, 1.0);
         return a / (a + gamma.sample());
     }
+
+    /**
+     * Finds the value which is exceeded with a given probability (the inverse of the survival
+     * function). It is found by bisection, with an absolute error below 1e-15.
+     * @param p The probability of exceeding the value.
+     * @return the value.
+     */
+    public double inverseSurvival(double p)
+    {
+        double lo = 0.0;
+        double hi = 1.0;
+        for(int i = 0; i < INVERSION_STEPS; ++i)
+        {
+            double mid = (lo + hi) / 2.0;
+            // P(X > x) equals the regularized incomplete beta function I_{1-x}(beta, alpha).
+            if(Gamma.incompleteBeta(beta, alpha, 1.0 - mid) > p) lo = mid;
+            else hi = mid;
+        }
+        return (lo + hi) / 2.0;
+    }
 }
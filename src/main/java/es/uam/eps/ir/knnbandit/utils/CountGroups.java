@@ -0,0 +1,164 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.utils;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import java.util.Arrays;
+
+/**
+ * Partition of a set of elements by an integer count, which allows moving an element to
+ * another group in constant time. The elements are identified by consecutive indexes, and
+ * the new ones are placed in the group of count zero.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class CountGroups
+{
+    /**
+     * The members of each non-empty group, indexed by their count.
+     */
+    private final Int2ObjectOpenHashMap<IntList> groups;
+    /**
+     * The count of each element.
+     */
+    private int[] counts;
+    /**
+     * The position of each element in the list of members of its group.
+     */
+    private int[] positions;
+    /**
+     * The number of elements.
+     */
+    private int size;
+
+    /**
+     * Constructor.
+     * @param size The initial number of elements, all of them with count zero.
+     */
+    public CountGroups(int size)
+    {
+        this.groups = new Int2ObjectOpenHashMap<>();
+        this.counts = new int[size];
+        this.positions = new int[size];
+        this.size = 0;
+        this.grow(size);
+    }
+
+    /**
+     * Adds elements, with count zero.
+     * @param newSize The new number of elements. If it is not greater than the current one, nothing is done.
+     */
+    public void grow(int newSize)
+    {
+        if(newSize <= size) return;
+        if(newSize > counts.length)
+        {
+            int capacity = Math.max(newSize, 2 * counts.length);
+            counts = Arrays.copyOf(counts, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+
+        IntList zero = this.group(0);
+        for(int idx = size; idx < newSize; ++idx)
+        {
+            counts[idx] = 0;
+            positions[idx] = zero.size();
+            zero.add(idx);
+        }
+        size = newSize;
+    }
+
+    /**
+     * Obtains the members of a group, creating it if it is empty.
+     * @param count The count of the group.
+     * @return the members of the group.
+     */
+    private IntList group(int count)
+    {
+        IntList group = this.groups.get(count);
+        if(group == null)
+        {
+            group = new IntArrayList();
+            this.groups.put(count, group);
+        }
+        return group;
+    }
+
+    /**
+     * Obtains the number of elements.
+     * @return the number of elements.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Obtains the count of an element.
+     * @param idx The element.
+     * @return the count.
+     */
+    public int get(int idx)
+    {
+        return counts[idx];
+    }
+
+    /**
+     * Changes the count of an element, moving it to its new group.
+     * @param idx The element.
+     * @param count The new count.
+     */
+    public void set(int idx, int count)
+    {
+        if(counts[idx] == count) return;
+
+        // The last member of the old group takes the place of the element.
+        IntList old = this.groups.get(counts[idx]);
+        int last = old.removeInt(old.size() - 1);
+        if(last != idx)
+        {
+            old.set(positions[idx], last);
+            positions[last] = positions[idx];
+        }
+        if(old.isEmpty())
+        {
+            this.groups.remove(counts[idx]);
+        }
+
+        IntList group = this.group(count);
+        counts[idx] = count;
+        positions[idx] = group.size();
+        group.add(idx);
+    }
+
+    /**
+     * Changes the count of an element by some value.
+     * @param idx The element.
+     * @param increment The value to add to the count.
+     */
+    public void addTo(int idx, int increment)
+    {
+        this.set(idx, counts[idx] + increment);
+    }
+
+    /**
+     * Obtains the non-empty groups. The order of the members of each group is arbitrary, and
+     * it changes when the counts do.
+     * @return the members of each group, indexed by their count.
+     */
+    public Int2ObjectMap<IntList> groups()
+    {
+        return Int2ObjectMaps.unmodifiable(this.groups);
+    }
+}
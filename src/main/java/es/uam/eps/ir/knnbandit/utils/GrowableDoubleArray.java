@@ -0,0 +1,168 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Array of doubles which can grow without copying its elements: they are stored in chunks of
+ * a fixed size, and only the array of chunks is copied (doubling its capacity) when it is full.
+ * The new elements are initialized to a default value, so the array can follow a collection
+ * whose users or items keep arriving.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class GrowableDoubleArray implements Serializable
+{
+    /**
+     * Serial version identifier.
+     */
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Logarithm of the number of elements in each chunk.
+     */
+    private final static int CHUNK_BITS = 12;
+    /**
+     * Number of elements in each chunk.
+     */
+    private final static int CHUNK_SIZE = 1 << CHUNK_BITS;
+    /**
+     * Mask for finding the position of an element in its chunk.
+     */
+    private final static int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * The chunks.
+     */
+    private double[][] chunks;
+    /**
+     * Number of elements.
+     */
+    private int size;
+    /**
+     * Value of the new elements.
+     */
+    private final double defaultValue;
+
+    /**
+     * Constructor.
+     * @param size The initial number of elements.
+     * @param defaultValue The value of the new elements.
+     */
+    public GrowableDoubleArray(int size, double defaultValue)
+    {
+        this.chunks = new double[1][];
+        this.size = 0;
+        this.defaultValue = defaultValue;
+        this.grow(size);
+    }
+
+    /**
+     * Constructor. The new elements are set to zero.
+     * @param size The initial number of elements.
+     */
+    public GrowableDoubleArray(int size)
+    {
+        this(size, 0.0);
+    }
+
+    /**
+     * Builds an array containing the elements of a primitive array.
+     * @param values The elements.
+     * @param defaultValue The value of the new elements.
+     * @return the array.
+     */
+    public static GrowableDoubleArray of(double[] values, double defaultValue)
+    {
+        GrowableDoubleArray array = new GrowableDoubleArray(values.length, defaultValue);
+        for(int i = 0; i < values.length; i += CHUNK_SIZE)
+        {
+            System.arraycopy(values, i, array.chunks[i >>> CHUNK_BITS], 0, Math.min(CHUNK_SIZE, values.length - i));
+        }
+        return array;
+    }
+
+    /**
+     * Obtains the number of elements.
+     * @return the number of elements.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Makes the array grow. If it already contains the given number of elements, nothing is done.
+     * @param newSize The number of elements.
+     */
+    public void grow(int newSize)
+    {
+        if(newSize <= size) return;
+
+        int numChunks = (newSize + CHUNK_MASK) >>> CHUNK_BITS;
+        if(numChunks > chunks.length)
+        {
+            chunks = Arrays.copyOf(chunks, Math.max(numChunks, 2 * chunks.length));
+        }
+        for(int c = (size + CHUNK_MASK) >>> CHUNK_BITS; c < numChunks; ++c)
+        {
+            chunks[c] = new double[CHUNK_SIZE];
+            if(defaultValue != 0.0) Arrays.fill(chunks[c], defaultValue);
+        }
+        size = newSize;
+    }
+
+    /**
+     * Obtains an element.
+     * @param idx The position of the element.
+     * @return the value of the element.
+     */
+    public double get(int idx)
+    {
+        return chunks[idx >>> CHUNK_BITS][idx & CHUNK_MASK];
+    }
+
+    /**
+     * Changes an element.
+     * @param idx The position of the element.
+     * @param value The new value of the element.
+     */
+    public void set(int idx, double value)
+    {
+        chunks[idx >>> CHUNK_BITS][idx & CHUNK_MASK] = value;
+    }
+
+    /**
+     * Adds a quantity to an element.
+     * @param idx The position of the element.
+     * @param increment The quantity.
+     * @return the new value of the element.
+     */
+    public double addTo(int idx, double increment)
+    {
+        return chunks[idx >>> CHUNK_BITS][idx & CHUNK_MASK] += increment;
+    }
+
+    /**
+     * Copies the elements to a primitive array.
+     * @return the primitive array.
+     */
+    public double[] toDoubleArray()
+    {
+        double[] values = new double[size];
+        for(int i = 0; i < size; i += CHUNK_SIZE)
+        {
+            System.arraycopy(chunks[i >>> CHUNK_BITS], 0, values, i, Math.min(CHUNK_SIZE, size - i));
+        }
+        return values;
+    }
+}
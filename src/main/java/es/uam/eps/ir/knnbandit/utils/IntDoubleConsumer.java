@@ -0,0 +1,27 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.utils;
+
+/**
+ * Operation receiving an integer and a double value, with no result. Primitive
+ * specialization of a BiConsumer, which avoids boxing the arguments.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+@FunctionalInterface
+public interface IntDoubleConsumer
+{
+    /**
+     * Performs the operation.
+     * @param idx The integer value (usually, the identifier of a user or an item).
+     * @param value The double value (usually, a rating).
+     */
+    public void accept(int idx, double value);
+}
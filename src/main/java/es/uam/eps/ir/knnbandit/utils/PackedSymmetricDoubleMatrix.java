@@ -0,0 +1,380 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.utils;
+
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Symmetric square matrix of doubles, which only stores its upper triangle (including the
+ * diagonal), packed as in {@link PackedSymmetricIntMatrix}. The cells are stored in large
+ * byte buffers, which can be kept in the heap, in native memory (out of the reach of the
+ * garbage collector) or in a memory-mapped file, so the matrix can exceed the physical
+ * memory through the page cache of the operating system.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class PackedSymmetricDoubleMatrix implements SymmetricMatrix
+{
+    /**
+     * Logarithm of the number of cells in each segment.
+     */
+    private final static int SEGMENT_BITS = 24;
+    /**
+     * Number of cells in each segment.
+     */
+    private final static int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    /**
+     * Mask for finding the position of a cell in its segment.
+     */
+    private final static int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    /**
+     * Size of the blocks in which the segments are copied.
+     */
+    private final static int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Where the cells are stored.
+     */
+    private enum Storage
+    {
+        HEAP, DIRECT, MAPPED
+    }
+
+    /**
+     * Where the cells are stored.
+     */
+    private final Storage storage;
+    /**
+     * The file channel of a mapped matrix (null for the rest).
+     */
+    private final FileChannel channel;
+    /**
+     * The segments. All of them hold SEGMENT_SIZE cells, except the last one, which
+     * grows with capacity doubling (null once the matrix is closed).
+     */
+    private ByteBuffer[] segments;
+    /**
+     * Number of rows (and columns).
+     */
+    private int size;
+
+    /**
+     * Constructor.
+     * @param storage Where the cells are stored.
+     * @param channel The file channel of a mapped matrix (null for the rest).
+     * @param size The number of rows (and columns).
+     * @throws IOException if the file cannot be mapped.
+     */
+    private PackedSymmetricDoubleMatrix(Storage storage, FileChannel channel, int size) throws IOException
+    {
+        this.storage = storage;
+        this.channel = channel;
+        this.segments = new ByteBuffer[1];
+        this.size = 0;
+        this.growSegments(size);
+    }
+
+    /**
+     * Builds a matrix stored in the heap. All the cells are set to zero.
+     * @param size The number of rows (and columns).
+     * @return the matrix.
+     */
+    public static PackedSymmetricDoubleMatrix heap(int size)
+    {
+        try
+        {
+            return new PackedSymmetricDoubleMatrix(Storage.HEAP, null, size);
+        }
+        catch(IOException ex)
+        {
+            // Only mapped matrices access files.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Builds a matrix stored in native memory, out of the heap. All the cells are set to zero.
+     * @param size The number of rows (and columns).
+     * @return the matrix.
+     */
+    public static PackedSymmetricDoubleMatrix direct(int size)
+    {
+        try
+        {
+            return new PackedSymmetricDoubleMatrix(Storage.DIRECT, null, size);
+        }
+        catch(IOException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Builds a matrix stored in a memory-mapped file. Any previous content of the file is
+     * discarded, and all the cells are set to zero. The file is kept when the program ends.
+     * @param file The file.
+     * @param size The number of rows (and columns).
+     * @return the matrix.
+     * @throws IOException if the file cannot be created or mapped.
+     */
+    public static PackedSymmetricDoubleMatrix mapped(File file, int size) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(0L);
+            // The channel is kept open for growing, until the matrix is closed.
+            return new PackedSymmetricDoubleMatrix(Storage.MAPPED, raf.getChannel(), size);
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Obtains the number of cells stored for a number of rows.
+     * @param size The number of rows.
+     * @return the number of cells.
+     */
+    private static long numCells(int size)
+    {
+        return (long) size * (size + 1) / 2;
+    }
+
+    /**
+     * Obtains the number of segments needed for a number of rows.
+     * @param size The number of rows.
+     * @return the number of segments.
+     */
+    private static int numSegments(int size)
+    {
+        return (int) ((numCells(size) + SEGMENT_MASK) >>> SEGMENT_BITS);
+    }
+
+    /**
+     * Finds the position of a cell in the packed array.
+     * @param u The row of the cell.
+     * @param v The column of the cell.
+     * @return the position of the cell.
+     */
+    private static long position(int u, int v)
+    {
+        return u <= v ? numCells(v) + u : numCells(u) + v;
+    }
+
+    /**
+     * Obtains the number of cells of a segment in use for a number of rows.
+     * @param segment The index of the segment.
+     * @param size The number of rows.
+     * @return the number of cells.
+     */
+    private static int segmentCells(int segment, int size)
+    {
+        return (int) Math.min(SEGMENT_SIZE, numCells(size) - (((long) segment) << SEGMENT_BITS));
+    }
+
+    /**
+     * Allocates a segment, keeping the cells of its previous version.
+     * @param segment The index of the segment.
+     * @param cells The number of cells of the segment.
+     * @return the segment.
+     * @throws IOException if the file cannot be mapped.
+     */
+    private ByteBuffer allocate(int segment, int cells) throws IOException
+    {
+        int bytes = cells * Double.BYTES;
+        ByteBuffer buffer;
+        switch(storage)
+        {
+            case DIRECT:
+                buffer = ByteBuffer.allocateDirect(bytes);
+                break;
+            case MAPPED:
+                // Mapping beyond the end of the file extends it, and the previous cells are already in the file.
+                return channel.map(FileChannel.MapMode.READ_WRITE, (((long) segment) << SEGMENT_BITS) * Double.BYTES, bytes).order(ByteOrder.nativeOrder());
+            case HEAP:
+            default:
+                buffer = ByteBuffer.allocate(bytes);
+        }
+        if(segments[segment] != null)
+        {
+            ByteBuffer previous = segments[segment].duplicate();
+            previous.clear();
+            buffer.put(previous);
+            buffer.clear();
+        }
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Allocates the segments for a number of rows.
+     * @param newSize The number of rows.
+     * @throws IOException if the file cannot be mapped.
+     */
+    private void growSegments(int newSize) throws IOException
+    {
+        if(newSize <= size) return;
+
+        int numSegments = numSegments(newSize);
+        if(numSegments > segments.length)
+        {
+            segments = Arrays.copyOf(segments, Math.max(numSegments, 2 * segments.length));
+        }
+        for(int s = Math.max(0, numSegments(size) - 1); s < numSegments; ++s)
+        {
+            int cells = segmentCells(s, newSize);
+            int current = segments[s] == null ? 0 : segments[s].capacity() / Double.BYTES;
+            if(cells > current)
+            {
+                // Only the last segment can be partially full: it doubles its capacity.
+                int capacity = (s == numSegments - 1) ? Math.min(SEGMENT_SIZE, Math.max(cells, 2 * current)) : SEGMENT_SIZE;
+                segments[s] = this.allocate(s, capacity);
+            }
+        }
+        size = newSize;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public void grow(int newSize)
+    {
+        try
+        {
+            this.growSegments(newSize);
+        }
+        catch(IOException ex)
+        {
+            throw new IllegalStateException("The similarity file cannot grow", ex);
+        }
+    }
+
+    @Override
+    public double get(int u, int v)
+    {
+        long pos = position(u, v);
+        return segments[(int) (pos >>> SEGMENT_BITS)].getDouble(((int) pos & SEGMENT_MASK) << 3);
+    }
+
+    @Override
+    public double addTo(int u, int v, double increment)
+    {
+        long pos = position(u, v);
+        ByteBuffer segment = segments[(int) (pos >>> SEGMENT_BITS)];
+        int offset = ((int) pos & SEGMENT_MASK) << 3;
+        double value = segment.getDouble(offset) + increment;
+        segment.putDouble(offset, value);
+        return value;
+    }
+
+    /**
+     * Obtains a view of the cells in use of a segment, which can be read or written sequentially.
+     * @param segment The index of the segment.
+     * @return the view.
+     */
+    private ByteBuffer view(int segment)
+    {
+        ByteBuffer view = segments[segment].duplicate();
+        view.clear();
+        view.limit(segmentCells(segment, size) * Double.BYTES);
+        return view;
+    }
+
+    @Override
+    public void clear()
+    {
+        byte[] zeros = new byte[BLOCK_SIZE];
+        int numSegments = numSegments(size);
+        for(int s = 0; s < numSegments; ++s)
+        {
+            ByteBuffer segment = this.view(s);
+            while(segment.hasRemaining())
+            {
+                segment.put(zeros, 0, Math.min(BLOCK_SIZE, segment.remaining()));
+            }
+        }
+    }
+
+    /**
+     * Closes the file of a mapped matrix, and drops the references to the segments. Buffers
+     * cannot be explicitly unmapped or freed, so the mappings and the native memory of a direct
+     * matrix are released when the garbage collector reclaims them.
+     */
+    @Override
+    public void close()
+    {
+        this.segments = null;
+        this.size = 0;
+        if(channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch(IOException ex)
+            {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        // The cells are copied in blocks, so the matrix is never fully copied into the heap.
+        out.writeInt(size);
+        byte[] block = new byte[BLOCK_SIZE];
+        int numSegments = numSegments(size);
+        for(int s = 0; s < numSegments; ++s)
+        {
+            ByteBuffer segment = this.view(s);
+            while(segment.hasRemaining())
+            {
+                int length = Math.min(BLOCK_SIZE, segment.remaining());
+                segment.get(block, 0, length);
+                out.write(block, 0, length);
+            }
+        }
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException
+    {
+        Checkpoints.check(size, in.readInt(), "number of users");
+        byte[] block = new byte[BLOCK_SIZE];
+        int numSegments = numSegments(size);
+        for(int s = 0; s < numSegments; ++s)
+        {
+            ByteBuffer segment = this.view(s);
+            while(segment.hasRemaining())
+            {
+                int length = Math.min(BLOCK_SIZE, segment.remaining());
+                in.readFully(block, 0, length);
+                segment.put(block, 0, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.utils;
+
+import es.uam.eps.ir.knnbandit.io.Checkpoints;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+/**
+ * Symmetric square matrix of integers, which only stores its upper triangle (including the
+ * diagonal) in a single packed array. Cell (u,v), with u &le; v, is stored at position
+ * v(v+1)/2 + u, so the cells of a new row are appended at the end of the array, and the matrix
+ * can grow without moving its elements. As the number of cells might not fit in an int,
+ * they are stored in chunks of a fixed size.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public class PackedSymmetricIntMatrix implements SymmetricMatrix
+{
+    /**
+     * Logarithm of the number of cells in each chunk.
+     */
+    private final static int CHUNK_BITS = 16;
+    /**
+     * Number of cells in each chunk.
+     */
+    private final static int CHUNK_SIZE = 1 << CHUNK_BITS;
+    /**
+     * Mask for finding the position of a cell in its chunk.
+     */
+    private final static int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * The chunks.
+     */
+    private int[][] chunks;
+    /**
+     * Number of rows (and columns).
+     */
+    private int size;
+
+    /**
+     * Constructor. All the cells are set to zero.
+     * @param size The number of rows (and columns).
+     */
+    public PackedSymmetricIntMatrix(int size)
+    {
+        this.chunks = new int[1][];
+        this.size = 0;
+        this.grow(size);
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Obtains the number of cells stored for a number of rows.
+     * @param size The number of rows.
+     * @return the number of cells.
+     */
+    private static long numCells(int size)
+    {
+        return (long) size * (size + 1) / 2;
+    }
+
+    /**
+     * Finds the position of a cell in the packed array.
+     * @param u The row of the cell.
+     * @param v The column of the cell.
+     * @return the position of the cell.
+     */
+    private static long position(int u, int v)
+    {
+        return u <= v ? numCells(v) + u : numCells(u) + v;
+    }
+
+    @Override
+    public void grow(int newSize)
+    {
+        if(newSize <= size) return;
+
+        int numChunks = (int) ((numCells(newSize) + CHUNK_MASK) >>> CHUNK_BITS);
+        if(numChunks > chunks.length)
+        {
+            chunks = Arrays.copyOf(chunks, Math.max(numChunks, 2 * chunks.length));
+        }
+        for(int c = (int) ((numCells(size) + CHUNK_MASK) >>> CHUNK_BITS); c < numChunks; ++c)
+        {
+            chunks[c] = new int[CHUNK_SIZE];
+        }
+        size = newSize;
+    }
+
+    @Override
+    public double get(int u, int v)
+    {
+        long pos = position(u, v);
+        return chunks[(int) (pos >>> CHUNK_BITS)][(int) pos & CHUNK_MASK];
+    }
+
+    /**
+     * {@inheritDoc} The increment is truncated to an integer.
+     */
+    @Override
+    public double addTo(int u, int v, double increment)
+    {
+        long pos = position(u, v);
+        return chunks[(int) (pos >>> CHUNK_BITS)][(int) pos & CHUNK_MASK] += (int) increment;
+    }
+
+    @Override
+    public void clear()
+    {
+        int numChunks = (int) ((numCells(size) + CHUNK_MASK) >>> CHUNK_BITS);
+        for(int c = 0; c < numChunks; ++c)
+        {
+            Arrays.fill(chunks[c], 0);
+        }
+    }
+
+    @Override
+    public void saveState(ObjectOutputStream out) throws IOException
+    {
+        out.writeInt(size);
+        int numChunks = (int) ((numCells(size) + CHUNK_MASK) >>> CHUNK_BITS);
+        for(int c = 0; c < numChunks; ++c)
+        {
+            out.writeObject(chunks[c]);
+        }
+    }
+
+    @Override
+    public void loadState(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        Checkpoints.check(size, in.readInt(), "number of users");
+        int numChunks = (int) ((numCells(size) + CHUNK_MASK) >>> CHUNK_BITS);
+        for(int c = 0; c < numChunks; ++c)
+        {
+            int[] stored = (int[]) in.readObject();
+            System.arraycopy(stored, 0, chunks[c], 0, CHUNK_SIZE);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/* 
+ * Copyright (C) 2019 Information Retrieval Group at Universidad Autónoma
+ * de Madrid, http://ir.ii.uam.es.
+ * 
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, you can obtain one at http://mozilla.org/MPL/2.0.
+ * 
+ */
+package es.uam.eps.ir.knnbandit.utils;
+
+import es.uam.eps.ir.knnbandit.io.Checkpointable;
+import java.io.Closeable;
+
+/**
+ * Symmetric square matrix, in which the values of cells (u,v) and (v,u) are always the same,
+ * so only one of them needs to be stored. It is used for storing the similarities between users.
+ * @author Javier Sanz-Cruzado (javier.sanz-cruzado@uam.es)
+ * @author Pablo Castells (pablo.castells@uam.es)
+ */
+public interface SymmetricMatrix extends Checkpointable, Closeable
+{
+    /**
+     * Obtains the number of rows (and columns) of the matrix.
+     * @return the number of rows.
+     */
+    public int size();
+
+    /**
+     * Makes the matrix grow. The new cells are set to zero. If it already has the given
+     * number of rows, nothing is done.
+     * @param newSize The number of rows (and columns).
+     */
+    public void grow(int newSize);
+
+    /**
+     * Obtains the value of a cell.
+     * @param u The row of the cell.
+     * @param v The column of the cell.
+     * @return the value of the cell (the same as the value of cell (v,u)).
+     */
+    public double get(int u, int v);
+
+    /**
+     * Adds a quantity to a cell, and to its symmetric cell.
+     * @param u The row of the cell.
+     * @param v The column of the cell.
+     * @param increment The quantity.
+     * @return the new value of the cell.
+     */
+    public double addTo(int u, int v, double increment);
+
+    /**
+     * Sets all the cells to zero.
+     */
+    public void clear();
+
+    /**
+     * Releases the resources held by the matrix, such as the file in which it is stored. The
+     * matrix cannot be used afterwards. Matrices stored in the heap do not need to do anything.
+     */
+    @Override
+    public default void close()
+    {
+    }
+}